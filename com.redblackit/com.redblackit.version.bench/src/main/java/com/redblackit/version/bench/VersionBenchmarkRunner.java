@@ -0,0 +1,76 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version.bench;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Run the version benchmarks with allocation profiling (GC profiler), writing
+ * JSON results for comparison across commits, e.g.
+ * <pre>
+ * mvn -P bench -pl com.redblackit.version.bench -am package
+ * java -Dbench.result=jmh-$(git rev-parse --short HEAD).json -jar com.redblackit.version.bench/target/benchmarks.jar
+ * </pre>
+ * Other JMH options (e.g. -p shape=3:10 to run one shape) may be given as
+ * arguments.
+ *
+ * @author djnorth
+ */
+public final class VersionBenchmarkRunner {
+
+    /**
+     * System property naming the result file
+     */
+    public static final String RESULT_PROPERTY = "bench.result";
+
+    /**
+     * Default result file
+     */
+    public static final String DEFAULT_RESULT = "jmh-result.json";
+
+    /**
+     * Main method only
+     */
+    private VersionBenchmarkRunner() {
+    }
+
+    /**
+     * Run benchmarks
+     *
+     * @param args JMH command line options
+     * @throws Exception
+     */
+    public static void main(String[] args) throws Exception {
+        CommandLineOptions commandLineOptions = new CommandLineOptions(args);
+        OptionsBuilder builder = new OptionsBuilder();
+        builder.parent(commandLineOptions);
+        if (commandLineOptions.getIncludes().isEmpty()) {
+            builder.include(VersionInfoBenchmark.class.getName());
+        }
+
+        Options options = builder.addProfiler(GCProfiler.class)
+                .resultFormat(ResultFormatType.JSON)
+                .result(System.getProperty(RESULT_PROPERTY, DEFAULT_RESULT))
+                .build();
+        new Runner(options).run();
+    }
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version.bench;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.redblackit.version.CompositeVersionInfo;
+import com.redblackit.version.CompositeVersionInfoMap;
+import com.redblackit.version.CompositeVersionInfoMapBuilder;
+import com.redblackit.version.VersionInfoObjectMapper;
+import com.redblackit.version.VersionKeyPath;
+
+/**
+ * Benchmarks for CompositeVersionInfoMap reads, writes, hashing, equality,
+ * toString and JSON round-trips, over trees from 16 to 1M version strings,
+ * for building the same trees with CompositeVersionInfoMapBuilder against
+ * setVersionForKeyPath, and for sorting component key lists with
+ * ComponentKeyListComparator against the toString comparison it replaced.
+ * <p/>
+ * Forks, iterations and heap are fixed here, and the trees and keys are
+ * deterministic, so results from different commits may be compared. See
+ * VersionBenchmarkRunner for running them.
+ *
+ * @author djnorth
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1, timeUnit = TimeUnit.SECONDS)
+@Measurement(iterations = 10, time = 1, timeUnit = TimeUnit.SECONDS)
+@Fork(value = 2, jvmArgsAppend = {"-Xms4g", "-Xmx4g", "-XX:+UseParallelGC"})
+@State(Scope.Benchmark)
+public class VersionInfoBenchmark {
+
+    /**
+     * Number of keys to cycle through, a power of 2
+     */
+    private static final int KEY_COUNT = 1024;
+
+    /**
+     * Tree shape as depth:fanOut, giving fanOut^depth version strings
+     */
+    @Param({"1:16", "3:10", "5:10", "6:10"})
+    public String shape;
+
+    /**
+     * Tree under test
+     */
+    private CompositeVersionInfoMap tree;
+
+    /**
+     * Equal tree, built separately
+     */
+    private CompositeVersionInfoMap copy;
+
+    /**
+     * Keys of existing version strings
+     */
+    private String[][] keys;
+
+    /**
+     * Flattened versions of tree, sorted by key
+     */
+    private Map<String, String> versionMap;
+
+    /**
+     * Flattened versions of tree, shuffled
+     */
+    private List<Map.Entry<String, String>> shuffledEntries;
+
+    /**
+     * Keys as lists, for sorting
+     */
+    private List<List<String>> keyLists;
+
+    /**
+     * Next key index
+     */
+    private int keyIndex;
+
+    /**
+     * Mapper for JSON
+     */
+    private final ObjectMapper objectMapper = new VersionInfoObjectMapper();
+
+    /**
+     * Build trees and keys
+     */
+    @Setup(Level.Trial)
+    public void setUp() {
+        final int[] depthAndFanOut = VersionTrees.parseShape(shape);
+        tree = VersionTrees.createTree(depthAndFanOut[0], depthAndFanOut[1]);
+        copy = VersionTrees.createTree(depthAndFanOut[0], depthAndFanOut[1]);
+        keys = VersionTrees.chooseKeys(depthAndFanOut[0], depthAndFanOut[1], KEY_COUNT);
+        versionMap = tree.getVersionMap();
+        shuffledEntries = new ArrayList<Map.Entry<String, String>>(versionMap.entrySet());
+        Collections.shuffle(shuffledEntries, new Random(VersionTrees.SEED));
+        keyLists = new ArrayList<List<String>>(KEY_COUNT);
+        for (String[] keysForList : keys) {
+            keyLists.add(VersionKeyPath.of(keysForList));
+        }
+    }
+
+    @Benchmark
+    public Map<String, String> getVersionMap() {
+        return tree.getVersionMap();
+    }
+
+    @Benchmark
+    public Map<List<String>, String> getVersionComponentMap() {
+        return tree.getVersionComponentMap();
+    }
+
+    @Benchmark
+    public String getVersionForKeys() {
+        return tree.getVersionForKeys(nextKeys());
+    }
+
+    /**
+     * Set an existing version string, alternating values so that each set is
+     * a change
+     */
+    @Benchmark
+    public void setVersionForKeys() {
+        tree.setVersionForKeys((keyIndex & KEY_COUNT) == 0 ? "2.0" : "2.1", nextKeys());
+    }
+
+    /**
+     * hashCode of unchanged tree
+     */
+    @Benchmark
+    public int hashCodeUnchanged() {
+        return tree.hashCode();
+    }
+
+    /**
+     * hashCode after a change, so including any recalculation
+     */
+    @Benchmark
+    public int hashCodeAfterSet() {
+        setVersionForKeys();
+        return tree.hashCode();
+    }
+
+    @Benchmark
+    public boolean equalsCopy() {
+        return tree.equals(copy);
+    }
+
+    @Benchmark
+    public String toStringLevel() {
+        return tree.toString(1);
+    }
+
+    /**
+     * Write tree as JSON, and read it back
+     *
+     * @return tree read
+     * @throws IOException
+     */
+    @Benchmark
+    public CompositeVersionInfo jacksonRoundTrip() throws IOException {
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        objectMapper.writeValue(content, tree);
+        return objectMapper.readValue(content.toByteArray(), CompositeVersionInfoMap.class);
+    }
+
+    /**
+     * Build an equal tree from the sorted flattened versions
+     *
+     * @return tree built
+     */
+    @Benchmark
+    public CompositeVersionInfoMap buildSorted() {
+        return new CompositeVersionInfoMapBuilder().putAll(versionMap).build();
+    }
+
+    /**
+     * Build an equal tree from the flattened versions in random order
+     *
+     * @return tree built
+     */
+    @Benchmark
+    public CompositeVersionInfoMap buildShuffled() {
+        CompositeVersionInfoMapBuilder builder = new CompositeVersionInfoMapBuilder();
+        for (Map.Entry<String, String> entry : shuffledEntries) {
+            builder.put(entry.getKey(), entry.getValue());
+        }
+        return builder.build();
+    }
+
+    /**
+     * Build an equal tree from the sorted flattened versions, setting each
+     * with setVersionForKeyPath, for comparison with the builder
+     *
+     * @return tree built
+     */
+    @Benchmark
+    public CompositeVersionInfoMap buildBySetVersionForKeyPath() {
+        CompositeVersionInfoMap built = new CompositeVersionInfoMap();
+        for (Map.Entry<String, String> entry : versionMap.entrySet()) {
+            built.setVersionForKeyPath(entry.getValue(), VersionKeyPath.parse(entry.getKey()));
+        }
+        return built;
+    }
+
+    /**
+     * Sort a copy of the key lists with ComponentKeyListComparator
+     *
+     * @return sorted lists
+     */
+    @Benchmark
+    public List<List<String>> sortKeyLists() {
+        return sortKeyLists(new CompositeVersionInfoMap.ComponentKeyListComparator());
+    }
+
+    /**
+     * Sort a copy of the key lists comparing their toString values, as
+     * ComponentKeyListComparator once did, for comparison
+     *
+     * @return sorted lists
+     */
+    @Benchmark
+    public List<List<String>> sortKeyListsByToString() {
+        return sortKeyLists(new Comparator<List<String>>() {
+            @Override
+            public int compare(List<String> keys0, List<String> keys1) {
+                return keys0.toString().compareTo(keys1.toString());
+            }
+        });
+    }
+
+    /**
+     * @param comparator
+     * @return sorted copy of key lists
+     */
+    private List<List<String>> sortKeyLists(Comparator<List<String>> comparator) {
+        List<List<String>> sorted = new ArrayList<List<String>>(keyLists);
+        Collections.sort(sorted, comparator);
+        return sorted;
+    }
+
+    /**
+     * @return next keys, cycling through them
+     */
+    private String[] nextKeys() {
+        return keys[keyIndex++ & (KEY_COUNT - 1)];
+    }
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version.bench;
+
+import java.util.*;
+
+import com.redblackit.version.CompositeVersionInfo;
+import com.redblackit.version.CompositeVersionInfoMap;
+
+/**
+ * Deterministic version trees for benchmarks, so that results are comparable
+ * across runs and commits.
+ * <p/>
+ * A tree of depth d and fan-out f has d - 1 levels of f components
+ * (component0, component1...) above leaf components each holding f version
+ * strings (version0, version1...), so f<sup>d</sup> version strings in all.
+ *
+ * @author djnorth
+ */
+final class VersionTrees {
+
+    /**
+     * Seed for choosing keys
+     */
+    static final long SEED = 20120301L;
+
+    /**
+     * Static methods only
+     */
+    private VersionTrees() {
+    }
+
+    /**
+     * Create tree
+     *
+     * @param depth  at least 1
+     * @param fanOut at least 1
+     * @return tree
+     */
+    static CompositeVersionInfoMap createTree(int depth, int fanOut) {
+        if (depth < 1 || fanOut < 1) {
+            throw new IllegalArgumentException("depth=" + depth + ":fanOut=" + fanOut);
+        }
+
+        CompositeVersionInfoMap tree = new CompositeVersionInfoMap();
+        fill(tree, depth, fanOut);
+        return tree;
+    }
+
+    /**
+     * Choose keys of existing version strings, the same for the same
+     * arguments
+     *
+     * @param depth
+     * @param fanOut
+     * @param count
+     * @return keys
+     */
+    static String[][] chooseKeys(int depth, int fanOut, int count) {
+        Random random = new Random(SEED);
+        String[][] keys = new String[count][depth];
+        for (int i = 0; i < count; ++i) {
+            for (int level = 0; level < depth - 1; ++level) {
+                keys[i][level] = "component" + random.nextInt(fanOut);
+            }
+            keys[i][depth - 1] = "version" + random.nextInt(fanOut);
+        }
+
+        return keys;
+    }
+
+    /**
+     * Parse shape as depth:fanOut
+     *
+     * @param shape
+     * @return depth and fanOut
+     */
+    static int[] parseShape(String shape) {
+        final String[] parts = shape.split(":");
+        if (parts.length != 2) {
+            throw new IllegalArgumentException("shape must be depth:fanOut, not " + shape);
+        }
+
+        return new int[] {Integer.parseInt(parts[0]), Integer.parseInt(parts[1])};
+    }
+
+    /**
+     * Fill node with components or, at depth 1, version strings
+     *
+     * @param node
+     * @param depth
+     * @param fanOut
+     */
+    private static void fill(CompositeVersionInfoMap node, int depth, int fanOut) {
+        if (depth == 1) {
+            Map<String, String> versionStringMap = new TreeMap<String, String>();
+            for (int i = 0; i < fanOut; ++i) {
+                versionStringMap.put("version" + i, "1." + i);
+            }
+            node.setVersionStringMap(versionStringMap);
+            return;
+        }
+
+        Map<String, CompositeVersionInfo> versionInfoMap = new TreeMap<String, CompositeVersionInfo>();
+        for (int i = 0; i < fanOut; ++i) {
+            CompositeVersionInfoMap component = new CompositeVersionInfoMap();
+            fill(component, depth - 1, fanOut);
+            versionInfoMap.put("component" + i, component);
+        }
+        node.setVersionInfoMap(versionInfoMap);
+    }
+}
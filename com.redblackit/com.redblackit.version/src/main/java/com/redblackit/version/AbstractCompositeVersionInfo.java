@@ -0,0 +1,173 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Base class for CompositeVersionInfo implementations outside this package.
+ * <p/>
+ * Methods added to CompositeVersionInfo since it was first published are
+ * implemented here in terms of the original ones, so an implementation
+ * extending this class need only provide those. The implementations here are
+ * correct but not fast: subclasses may override them with something better.
+ * <p/>
+ * Listeners are only notified of changes if the subclass calls
+ * fireVersionInfoChanged after each one.
+ *
+ * @author djnorth
+ */
+public abstract class AbstractCompositeVersionInfo extends VersionInfoBase implements CompositeVersionInfo {
+
+    /**
+     * Listeners to be notified of changes
+     */
+    private final List<VersionInfoChangeListener> changeListeners = new CopyOnWriteArrayList<VersionInfoChangeListener>();
+
+    /**
+     * Get composite version info for pre-split key path, or null if not
+     * defined, using getVersionInfoForKeys.
+     *
+     * @param keyPath
+     * @return compositeVersionInfo object for those keys, or null if none found
+     * @see CompositeVersionInfo#getVersionInfoForKeyPath(VersionKeyPath)
+     */
+    public CompositeVersionInfo getVersionInfoForKeyPath(VersionKeyPath keyPath) {
+        return (keyPath == null ? null : getVersionInfoForKeys(keyPath.toArray()));
+    }
+
+    /**
+     * Set composite version info for pre-split key path, using
+     * setVersionInfoForKeys.
+     *
+     * @param versionInfo
+     * @param keyPath
+     * @see CompositeVersionInfo#setVersionInfoForKeyPath(CompositeVersionInfo, VersionKeyPath)
+     */
+    public void setVersionInfoForKeyPath(CompositeVersionInfo versionInfo, VersionKeyPath keyPath) {
+        if (keyPath == null || versionInfo == null) {
+            throw new NullPointerException("null keyPath (=" + keyPath + ") or null versionInfo (="
+                                           + versionInfo + ")");
+        }
+
+        setVersionInfoForKeys(versionInfo, keyPath.toArray());
+    }
+
+    /**
+     * Get version string for pre-split key path, or null if not defined,
+     * using getVersionForKeys.
+     *
+     * @param keyPath
+     * @return version string for those keys, or null if none found
+     * @see CompositeVersionInfo#getVersionForKeyPath(VersionKeyPath)
+     */
+    public String getVersionForKeyPath(VersionKeyPath keyPath) {
+        return (keyPath == null ? null : getVersionForKeys(keyPath.toArray()));
+    }
+
+    /**
+     * Set version string for pre-split key path, using setVersionForKeys.
+     *
+     * @param version
+     * @param keyPath
+     * @see CompositeVersionInfo#setVersionForKeyPath(String, VersionKeyPath)
+     */
+    public void setVersionForKeyPath(String version, VersionKeyPath keyPath) {
+        if (keyPath == null || version == null) {
+            throw new NullPointerException("null keyPath (=" + keyPath + ") or null version (=" + version + ")");
+        }
+
+        setVersionForKeys(version, keyPath.toArray());
+    }
+
+    /**
+     * Return an immutable copy of the current structure, taken from
+     * getVersionStringMap and getVersionInfoMap.
+     * <p/>
+     * A subclass with a key concatenation separator other than the default
+     * should override this, as the copy will use the default.
+     *
+     * @return immutable snapshot
+     * @see CompositeVersionInfo#snapshot()
+     */
+    public CompositeVersionInfo snapshot() {
+        return ImmutableCompositeVersionInfo.copyOf(this);
+    }
+
+    /**
+     * Compute structural hash from getVersionStringMap and getVersionInfoMap,
+     * using the default key concatenation separator, as for snapshot. This is
+     * recomputed on each call, with maps that are not sorted being copied to
+     * give a consistent order.
+     *
+     * @return structural hash
+     * @see CompositeVersionInfo#getStructuralHash()
+     */
+    public long getStructuralHash() {
+        Map<String, String> versionStringMap = getVersionStringMap();
+        if (versionStringMap != null && !(versionStringMap instanceof SortedMap)) {
+            versionStringMap = new TreeMap<String, String>(versionStringMap);
+        }
+
+        Map<String, CompositeVersionInfo> versionInfoMap = getVersionInfoMap();
+        if (versionInfoMap != null && !(versionInfoMap instanceof SortedMap)) {
+            versionInfoMap = new TreeMap<String, CompositeVersionInfo>(versionInfoMap);
+        }
+
+        return StructuralHash.of(DEFAULT_KEY_CONCATENATION_SEPARATOR, versionStringMap, versionInfoMap);
+    }
+
+    /**
+     * Add listener, notified when the subclass calls fireVersionInfoChanged
+     *
+     * @param listener
+     * @see CompositeVersionInfo#addChangeListener(VersionInfoChangeListener)
+     */
+    public void addChangeListener(VersionInfoChangeListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("null listener");
+        }
+
+        changeListeners.add(listener);
+    }
+
+    /**
+     * Remove listener
+     *
+     * @param listener
+     * @see CompositeVersionInfo#removeChangeListener(VersionInfoChangeListener)
+     */
+    public void removeChangeListener(VersionInfoChangeListener listener) {
+        changeListeners.remove(listener);
+    }
+
+    /**
+     * Invalidate the cached version string, and notify listeners of a change.
+     * Subclasses should call this after each change to the structure.
+     */
+    protected void fireVersionInfoChanged() {
+        invalidateVersionString();
+        for (VersionInfoChangeListener listener : changeListeners) {
+            listener.versionInfoChanged(this);
+        }
+    }
+
+}
@@ -0,0 +1,655 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.Manifest;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Source of version info for the classpath, building a CompositeVersionInfoMap
+ * with a component for each jar or directory having a manifest with version
+ * attributes, or any <code>*-version.properties</code> files. Each such file
+ * is a component of its jar or directory, keyed by its name less the suffix.
+ * <p/>
+ * Jars are scanned in parallel, and if an index file is set, the results are
+ * saved there by jar path, size and modification time, so later scans only
+ * open the jars which have changed. Directories are always scanned.
+ * <p/>
+ * This is suitable for use in Spring configuration, with scan as the
+ * factory-method for the CompositeVersionInfo bean.
+ *
+ * @author djnorth
+ */
+public class ClasspathVersionScanner {
+
+    /**
+     * Default manifest main attributes to include
+     */
+    public static final List<String> DEFAULT_MANIFEST_ATTRIBUTE_NAMES = Collections.unmodifiableList(Arrays.asList(
+            "Implementation-Title", "Implementation-Version", "Implementation-Vendor", "Specification-Title",
+            "Specification-Version", "Specification-Vendor", "Bundle-SymbolicName", "Bundle-Version"));
+
+    /**
+     * Suffix of version properties files
+     */
+    public static final String VERSION_PROPERTIES_SUFFIX = "-version.properties";
+
+    /**
+     * Index file format version, changed whenever the format is
+     */
+    private static final int INDEX_FORMAT = 1;
+
+    /**
+     * Logger
+     */
+    private final Logger logger = Logger.getLogger("VersionInfo");
+
+    /**
+     * Jars and directories to scan, or null for the class loader's
+     */
+    private List<File> classpath;
+
+    /**
+     * Class loader whose URLs, and those of its parents, are scanned if no
+     * classpath is set
+     */
+    private ClassLoader classLoader = ClasspathVersionScanner.class.getClassLoader();
+
+    /**
+     * Index file, or null for none
+     */
+    private File indexFile;
+
+    /**
+     * Number of scanning threads
+     */
+    private int threadCount = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Manifest main attributes to include
+     */
+    private List<String> manifestAttributeNames = DEFAULT_MANIFEST_ATTRIBUTE_NAMES;
+
+    /**
+     * Key concatenation separator for result
+     */
+    private char keyConcatenationSeparator = CompositeVersionInfo.DEFAULT_KEY_CONCATENATION_SEPARATOR;
+
+    /**
+     * Number of jars opened in last scan, rather than found in the index
+     */
+    private volatile int openedJarCount;
+
+    /**
+     * Scan classpath, using and updating the index file if set.
+     *
+     * @return new versionInfo
+     * @throws IOException if the index file cannot be written
+     */
+    public CompositeVersionInfoMap scan() throws IOException {
+        final List<File> files = getClasspathFiles();
+        final Map<String, JarVersions> index = readIndex();
+        final Map<String, JarVersions> newIndex = new LinkedHashMap<String, JarVersions>();
+        final AtomicInteger opened = new AtomicInteger();
+
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(threadCount,
+                                                                                          files.size())),
+                                                                      new ScannerThreadFactory());
+        try {
+            final Map<File, Future<JarVersions>> futures = new LinkedHashMap<File, Future<JarVersions>>();
+            for (final File file : files) {
+                final JarVersions indexed = (file.isFile() ? index.get(file.getAbsolutePath()) : null);
+                if (indexed != null && indexed.size == file.length() && indexed.lastModified == file.lastModified()) {
+                    newIndex.put(file.getAbsolutePath(), indexed);
+                    continue;
+                }
+
+                futures.put(file, executor.submit(new Callable<JarVersions>() {
+                    @Override
+                    public JarVersions call() throws IOException {
+                        if (file.isDirectory()) {
+                            return scanDirectory(file);
+                        }
+
+                        opened.incrementAndGet();
+                        return scanJar(file);
+                    }
+                }));
+            }
+
+            for (Map.Entry<File, Future<JarVersions>> entry : futures.entrySet()) {
+                final File file = entry.getKey();
+                try {
+                    newIndex.put(file.getAbsolutePath(), entry.getValue().get());
+                } catch (ExecutionException ee) {
+                    logger.warn("ignoring " + file + " which could not be scanned", ee.getCause());
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("interrupted scanning " + file);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+
+        openedJarCount = opened.get();
+        if (opened.get() > 0 || !index.keySet().equals(jarPaths(newIndex))) {
+            writeIndex(newIndex);
+        }
+
+        return createVersionInfo(newIndex);
+    }
+
+    /**
+     * @return jars and directories to scan, or null for the class loader's
+     */
+    public List<File> getClasspath() {
+        return classpath;
+    }
+
+    /**
+     * @param classpath jars and directories to scan, or null for the class
+     *                  loader's
+     */
+    public void setClasspath(List<File> classpath) {
+        this.classpath = classpath;
+    }
+
+    /**
+     * @return class loader to scan if no classpath is set
+     */
+    public ClassLoader getClassLoader() {
+        return classLoader;
+    }
+
+    /**
+     * @param classLoader class loader to scan if no classpath is set
+     */
+    public void setClassLoader(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    /**
+     * @return index file, or null for none
+     */
+    public File getIndexFile() {
+        return indexFile;
+    }
+
+    /**
+     * @param indexFile index file, or null for none
+     */
+    public void setIndexFile(File indexFile) {
+        this.indexFile = indexFile;
+    }
+
+    /**
+     * @return number of scanning threads
+     */
+    public int getThreadCount() {
+        return threadCount;
+    }
+
+    /**
+     * @param threadCount number of scanning threads
+     */
+    public void setThreadCount(int threadCount) {
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * @return manifest main attributes to include
+     */
+    public List<String> getManifestAttributeNames() {
+        return manifestAttributeNames;
+    }
+
+    /**
+     * @param manifestAttributeNames manifest main attributes to include
+     */
+    public void setManifestAttributeNames(List<String> manifestAttributeNames) {
+        this.manifestAttributeNames = manifestAttributeNames;
+    }
+
+    /**
+     * @return key concatenation separator for result
+     */
+    public char getKeyConcatenationSeparator() {
+        return keyConcatenationSeparator;
+    }
+
+    /**
+     * @param keyConcatenationSeparator for result
+     */
+    public void setKeyConcatenationSeparator(char keyConcatenationSeparator) {
+        this.keyConcatenationSeparator = keyConcatenationSeparator;
+    }
+
+    /**
+     * @return number of jars opened in last scan, rather than found in the
+     *         index
+     */
+    int getOpenedJarCount() {
+        return openedJarCount;
+    }
+
+    /**
+     * Get files to scan, from classpath if set, otherwise from the URLs of the
+     * class loader and its parents, or the java.class.path property if none
+     * of those have URLs.
+     *
+     * @return existing files, without duplicates, in order
+     */
+    private List<File> getClasspathFiles() {
+        Set<File> files = new LinkedHashSet<File>();
+        if (classpath != null) {
+            files.addAll(classpath);
+        } else {
+            for (ClassLoader loader = classLoader; loader != null; loader = loader.getParent()) {
+                if (loader instanceof URLClassLoader) {
+                    for (URL url : ((URLClassLoader) loader).getURLs()) {
+                        if ("file".equals(url.getProtocol())) {
+                            try {
+                                files.add(new File(url.toURI()));
+                            } catch (URISyntaxException use) {
+                                files.add(new File(url.getPath()));
+                            } catch (IllegalArgumentException iae) {
+                                logger.debug("ignoring classpath URL " + url, iae);
+                            }
+                        }
+                    }
+                }
+            }
+
+            if (files.isEmpty()) {
+                for (String path : System.getProperty("java.class.path", "").split(File.pathSeparator)) {
+                    if (path.length() > 0) {
+                        files.add(new File(path));
+                    }
+                }
+            }
+        }
+
+        List<File> existingFiles = new ArrayList<File>(files.size());
+        for (File file : files) {
+            if (file.exists()) {
+                existingFiles.add(file);
+            }
+        }
+
+        return existingFiles;
+    }
+
+    /**
+     * Read manifest attributes and version properties from jar
+     *
+     * @param file
+     * @return versions
+     * @throws IOException
+     */
+    private JarVersions scanJar(File file) throws IOException {
+        final long size = file.length();
+        final long lastModified = file.lastModified();
+        JarFile jarFile = new JarFile(file, false);
+        try {
+            JarVersions versions = new JarVersions(size, lastModified, readManifestAttributes(jarFile
+                    .getManifest()));
+            Enumeration<JarEntry> entries = jarFile.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (!entry.isDirectory() && entry.getName().endsWith(VERSION_PROPERTIES_SUFFIX)) {
+                    InputStream inputStream = jarFile.getInputStream(entry);
+                    try {
+                        versions.addProperties(entry.getName(), inputStream);
+                    } finally {
+                        inputStream.close();
+                    }
+                }
+            }
+
+            return versions;
+        } finally {
+            jarFile.close();
+        }
+    }
+
+    /**
+     * Read manifest attributes and version properties from directory tree
+     *
+     * @param directory
+     * @return versions
+     * @throws IOException
+     */
+    private JarVersions scanDirectory(File directory) throws IOException {
+        Manifest manifest = null;
+        File manifestFile = new File(directory, JarFile.MANIFEST_NAME);
+        if (manifestFile.isFile()) {
+            InputStream inputStream = new FileInputStream(manifestFile);
+            try {
+                manifest = new Manifest(inputStream);
+            } finally {
+                inputStream.close();
+            }
+        }
+
+        JarVersions versions = new JarVersions(-1L, -1L, readManifestAttributes(manifest));
+        addDirectoryProperties(versions, directory);
+        return versions;
+    }
+
+    /**
+     * Add version properties files in directory, and its subdirectories
+     *
+     * @param versions
+     * @param directory
+     * @throws IOException
+     */
+    private void addDirectoryProperties(JarVersions versions, File directory) throws IOException {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+
+        for (File file : files) {
+            if (file.isDirectory()) {
+                addDirectoryProperties(versions, file);
+            } else if (file.getName().endsWith(VERSION_PROPERTIES_SUFFIX)) {
+                InputStream inputStream = new FileInputStream(file);
+                try {
+                    versions.addProperties(file.getName(), inputStream);
+                } finally {
+                    inputStream.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * @param manifest or null
+     * @return selected main attributes
+     */
+    private Map<String, String> readManifestAttributes(Manifest manifest) {
+        Map<String, String> attributes = new TreeMap<String, String>();
+        if (manifest != null) {
+            Attributes mainAttributes = manifest.getMainAttributes();
+            for (String name : manifestAttributeNames) {
+                String value = mainAttributes.getValue(name);
+                if (value != null) {
+                    attributes.put(name, value);
+                }
+            }
+        }
+
+        return attributes;
+    }
+
+    /**
+     * Create versionInfo from versions by path, with a component for each jar
+     * or directory with any versions, keyed by its name or, if an earlier one
+     * has the same name, its path.
+     *
+     * @param versionsByPath
+     * @return versionInfo
+     */
+    private CompositeVersionInfoMap createVersionInfo(Map<String, JarVersions> versionsByPath) {
+        CompositeVersionInfoMap versionInfo = new CompositeVersionInfoMap(keyConcatenationSeparator);
+        Set<String> usedKeys = new HashSet<String>();
+        for (Map.Entry<String, JarVersions> entry : versionsByPath.entrySet()) {
+            final JarVersions versions = entry.getValue();
+            if (versions.isEmpty()) {
+                continue;
+            }
+
+            String key = new File(entry.getKey()).getName();
+            if (!usedKeys.add(key)) {
+                key = entry.getKey();
+                usedKeys.add(key);
+            }
+
+            CompositeVersionInfoMap component = new CompositeVersionInfoMap(keyConcatenationSeparator);
+            if (!versions.attributes.isEmpty()) {
+                component.setVersionStringMap(versions.attributes);
+            }
+            for (Map.Entry<String, Map<String, String>> propertiesEntry : versions.properties.entrySet()) {
+                CompositeVersionInfoMap propertiesComponent = new CompositeVersionInfoMap(keyConcatenationSeparator);
+                propertiesComponent.setVersionStringMap(propertiesEntry.getValue());
+                component.setVersionInfoForKeys(propertiesComponent, propertiesEntry.getKey());
+            }
+            versionInfo.setVersionInfoForKeys(component, key);
+        }
+
+        return versionInfo;
+    }
+
+    /**
+     * @param versionsByPath
+     * @return paths of jars, excluding directories
+     */
+    private static Set<String> jarPaths(Map<String, JarVersions> versionsByPath) {
+        Set<String> paths = new HashSet<String>();
+        for (Map.Entry<String, JarVersions> entry : versionsByPath.entrySet()) {
+            if (entry.getValue().size >= 0) {
+                paths.add(entry.getKey());
+            }
+        }
+
+        return paths;
+    }
+
+    /**
+     * Read index, if there is one. A missing or unreadable index is treated
+     * as empty.
+     *
+     * @return versions by jar path
+     */
+    private Map<String, JarVersions> readIndex() {
+        Map<String, JarVersions> index = new HashMap<String, JarVersions>();
+        if (indexFile == null || !indexFile.isFile()) {
+            return index;
+        }
+
+        try {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            try {
+                if (input.readInt() != INDEX_FORMAT) {
+                    logger.info("ignoring index " + indexFile + " in old format");
+                    return index;
+                }
+
+                final int jarCount = input.readInt();
+                for (int i = 0; i < jarCount; ++i) {
+                    final String path = input.readUTF();
+                    index.put(path, JarVersions.read(input));
+                }
+            } finally {
+                input.close();
+            }
+        } catch (IOException ioe) {
+            logger.warn("ignoring unreadable index " + indexFile, ioe);
+            index.clear();
+        }
+
+        return index;
+    }
+
+    /**
+     * Write index of jars (not directories) to a temporary file, then rename
+     * it, so a failed write leaves the old index.
+     *
+     * @param versionsByPath
+     * @throws IOException
+     */
+    private void writeIndex(Map<String, JarVersions> versionsByPath) throws IOException {
+        if (indexFile == null) {
+            return;
+        }
+
+        final Set<String> paths = jarPaths(versionsByPath);
+        final File tempFile = new File(indexFile.getPath() + ".tmp");
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            output.writeInt(INDEX_FORMAT);
+            output.writeInt(paths.size());
+            for (Map.Entry<String, JarVersions> entry : versionsByPath.entrySet()) {
+                if (paths.contains(entry.getKey())) {
+                    output.writeUTF(entry.getKey());
+                    entry.getValue().write(output);
+                }
+            }
+        } finally {
+            output.close();
+        }
+
+        if (!tempFile.renameTo(indexFile) && !(indexFile.delete() && tempFile.renameTo(indexFile))) {
+            throw new IOException("could not rename " + tempFile + " to " + indexFile);
+        }
+    }
+
+    /**
+     * Versions found in one jar or directory, with the jar size and
+     * modification time, or -1 for a directory
+     */
+    private static final class JarVersions {
+
+        private final long size;
+        private final long lastModified;
+        private final Map<String, String> attributes;
+        private final Map<String, Map<String, String>> properties = new TreeMap<String, Map<String, String>>();
+
+        /**
+         * Constructor
+         *
+         * @param size
+         * @param lastModified
+         * @param attributes
+         */
+        JarVersions(long size, long lastModified, Map<String, String> attributes) {
+            this.size = size;
+            this.lastModified = lastModified;
+            this.attributes = attributes;
+        }
+
+        /**
+         * Add version properties file, keyed by name less path and suffix
+         *
+         * @param name
+         * @param inputStream
+         * @throws IOException
+         */
+        void addProperties(String name, InputStream inputStream) throws IOException {
+            Properties versionProperties = new Properties();
+            versionProperties.load(inputStream);
+            Map<String, String> versionMap = new TreeMap<String, String>();
+            for (String key : versionProperties.stringPropertyNames()) {
+                versionMap.put(key, versionProperties.getProperty(key));
+            }
+
+            final String fileName = name.substring(name.lastIndexOf('/') + 1);
+            properties.put(fileName.substring(0, fileName.length() - VERSION_PROPERTIES_SUFFIX.length()), versionMap);
+        }
+
+        /**
+         * @return true if no versions were found
+         */
+        boolean isEmpty() {
+            return attributes.isEmpty() && properties.isEmpty();
+        }
+
+        /**
+         * Write to index
+         *
+         * @param output
+         * @throws IOException
+         */
+        void write(DataOutput output) throws IOException {
+            output.writeLong(size);
+            output.writeLong(lastModified);
+            writeMap(output, attributes);
+            output.writeInt(properties.size());
+            for (Map.Entry<String, Map<String, String>> entry : properties.entrySet()) {
+                output.writeUTF(entry.getKey());
+                writeMap(output, entry.getValue());
+            }
+        }
+
+        /**
+         * Read from index
+         *
+         * @param input
+         * @return versions
+         * @throws IOException
+         */
+        static JarVersions read(DataInput input) throws IOException {
+            final long size = input.readLong();
+            final long lastModified = input.readLong();
+            JarVersions versions = new JarVersions(size, lastModified, readMap(input));
+            final int propertiesCount = input.readInt();
+            for (int i = 0; i < propertiesCount; ++i) {
+                final String name = input.readUTF();
+                versions.properties.put(name, readMap(input));
+            }
+
+            return versions;
+        }
+
+        private static void writeMap(DataOutput output, Map<String, String> map) throws IOException {
+            output.writeInt(map.size());
+            for (Map.Entry<String, String> entry : map.entrySet()) {
+                output.writeUTF(entry.getKey());
+                output.writeUTF(entry.getValue());
+            }
+        }
+
+        private static Map<String, String> readMap(DataInput input) throws IOException {
+            Map<String, String> map = new TreeMap<String, String>();
+            final int count = input.readInt();
+            for (int i = 0; i < count; ++i) {
+                final String key = input.readUTF();
+                map.put(key, input.readUTF());
+            }
+
+            return map;
+        }
+    }
+
+    /**
+     * Factory for daemon scanning threads, so an abandoned scan can't keep the
+     * JVM alive
+     */
+    private static final class ScannerThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger threadNumber = new AtomicInteger();
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, "version-scanner-" + threadNumber.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -23,8 +23,14 @@ import java.util.Map;
  * Sub-interface supporting a hierarchical and recursive composite version
  * structure, with keys for component CompositeVersionInfo objects as well as
  * the inherited simple strings.
+ * <p/>
+ * Methods have been added since this interface was first published, which
+ * breaks source compatibility for implementations outside this project. Such
+ * implementations should extend AbstractCompositeVersionInfo, which implements
+ * the added methods in terms of the original ones.
  * 
  * @author djnorth
+ * @see AbstractCompositeVersionInfo
  */
 public interface CompositeVersionInfo extends VersionInfo {
 
@@ -86,6 +92,46 @@ public interface CompositeVersionInfo extends VersionInfo {
 	 */
 	void setVersionForKeys(String version, String... keys);
 
+	/**
+	 * Get composite version info for pre-split key path, or null if not
+	 * defined. Equivalent to getVersionInfoForKeys with the same keys.
+	 * 
+	 * @param keyPath
+	 * @return compositeVersionInfo object for those keys, or null if none found
+	 * @see AbstractCompositeVersionInfo#getVersionInfoForKeyPath(VersionKeyPath)
+	 */
+	CompositeVersionInfo getVersionInfoForKeyPath(VersionKeyPath keyPath);
+
+	/**
+	 * Set composite version info for pre-split key path. Equivalent to
+	 * setVersionInfoForKeys with the same keys.
+	 * 
+	 * @param versionInfo
+	 * @param keyPath
+	 * @see AbstractCompositeVersionInfo#setVersionInfoForKeyPath(CompositeVersionInfo, VersionKeyPath)
+	 */
+	void setVersionInfoForKeyPath(CompositeVersionInfo versionInfo, VersionKeyPath keyPath);
+
+	/**
+	 * Get version string for pre-split key path, or null if not defined.
+	 * Equivalent to getVersionForKeys with the same keys.
+	 * 
+	 * @param keyPath
+	 * @return version string for those keys, or null if none found
+	 * @see AbstractCompositeVersionInfo#getVersionForKeyPath(VersionKeyPath)
+	 */
+	String getVersionForKeyPath(VersionKeyPath keyPath);
+
+	/**
+	 * Set version string for pre-split key path. Equivalent to
+	 * setVersionForKeys with the same keys.
+	 * 
+	 * @param version
+	 * @param keyPath
+	 * @see AbstractCompositeVersionInfo#setVersionForKeyPath(String, VersionKeyPath)
+	 */
+	void setVersionForKeyPath(String version, VersionKeyPath keyPath);
+
 	/**
 	 * Get full version info structure
 	 * 
@@ -114,4 +160,52 @@ public interface CompositeVersionInfo extends VersionInfo {
      */
     int getMaximumComponentVersionDepth();
 
+    /**
+     * Get an immutable snapshot of the current structure, with the flattened
+     * maps and version string computed at most once and shared by all readers.
+     * Later changes to this object are not reflected in the snapshot.
+     *
+     * An implementation which is already immutable may return itself.
+     *
+     * @return immutable snapshot
+     * @see AbstractCompositeVersionInfo#snapshot()
+     */
+    CompositeVersionInfo snapshot();
+
+    /**
+     * Get a 64-bit hash of the structure: the separator, version strings and,
+     * recursively, components. This depends only on the content, not the
+     * implementation, so structures which would be equal if of the same class
+     * have the same hash, and different hashes mean the structures differ.
+     *
+     * Implementations should cache the hash for each component, recomputing
+     * only those affected by a change, so that it is cheap enough for
+     * comparing and de-duplicating large structures, and finding identical
+     * components.
+     *
+     * @return structural hash
+     * @see AbstractCompositeVersionInfo#getStructuralHash()
+     */
+    long getStructuralHash();
+
+    /**
+     * Add listener to be notified after any change to this structure,
+     * including changes made directly to component version info objects it
+     * contains.
+     *
+     * An implementation which is immutable need not retain the listener.
+     *
+     * @param listener
+     * @see AbstractCompositeVersionInfo#addChangeListener(VersionInfoChangeListener)
+     */
+    void addChangeListener(VersionInfoChangeListener listener);
+
+    /**
+     * Remove listener previously added
+     *
+     * @param listener
+     * @see AbstractCompositeVersionInfo#removeChangeListener(VersionInfoChangeListener)
+     */
+    void removeChangeListener(VersionInfoChangeListener listener);
+
 }
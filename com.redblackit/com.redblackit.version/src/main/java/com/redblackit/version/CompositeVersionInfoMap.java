@@ -17,6 +17,7 @@
 package com.redblackit.version;
 
 import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import org.codehaus.jackson.annotate.JsonIgnore;
 import org.codehaus.jackson.map.annotate.JsonDeserialize;
@@ -32,7 +33,8 @@ public class CompositeVersionInfoMap extends VersionInfoBase implements
     /**
      * Comparator for our use
      */
-    private final ComponentKeyListComparator comparator = new ComponentKeyListComparator();
+    static final ComponentKeyListComparator COMPONENT_KEY_LIST_COMPARATOR = new ComponentKeyListComparator();
+
     /**
      * Key concatenation separator
      */
@@ -48,6 +50,37 @@ public class CompositeVersionInfoMap extends VersionInfoBase implements
      */
     private Map<String, String> versionStringMap;
 
+    /**
+     * Cached hashCode, valid if hashesValid
+     */
+    private int hashCode;
+
+    /**
+     * Cached structural hash, valid if hashesValid
+     */
+    private long structuralHash;
+
+    /**
+     * Set when hashes are computed, and cleared on any change to this object
+     * or its components
+     */
+    private boolean hashesValid;
+
+    /**
+     * Listeners for changes to this object or its components
+     */
+    private final List<VersionInfoChangeListener> changeListeners = new CopyOnWriteArrayList<VersionInfoChangeListener>();
+
+    /**
+     * Listener added to each component, passing its changes on to our listeners
+     */
+    private final VersionInfoChangeListener componentChangeListener = new VersionInfoChangeListener() {
+        @Override
+        public void versionInfoChanged(CompositeVersionInfo versionInfo) {
+            fireVersionInfoChanged();
+        }
+    };
+
     /**
      * Default constructor, using default key concatenation separator
      */
@@ -65,6 +98,27 @@ public class CompositeVersionInfoMap extends VersionInfoBase implements
         this.keyConcatenationSeparator = keyConcatenationSeparator;
     }
 
+    /**
+     * Constructor taking ownership of complete sorted maps, either of which
+     * may be null, for use by CompositeVersionInfoMapBuilder. The caller must
+     * not subsequently change or retain them.
+     *
+     * @param keyConcatenationSeparator
+     * @param versionStringMap
+     * @param versionInfoMap
+     */
+    CompositeVersionInfoMap(char keyConcatenationSeparator, TreeMap<String, String> versionStringMap,
+                            TreeMap<String, CompositeVersionInfo> versionInfoMap) {
+        this(keyConcatenationSeparator);
+        this.versionStringMap = versionStringMap;
+        this.versionInfoMap = versionInfoMap;
+        if (versionInfoMap != null) {
+            for (CompositeVersionInfo versionInfo : versionInfoMap.values()) {
+                versionInfo.addChangeListener(componentChangeListener);
+            }
+        }
+    }
+
     /**
      * This returns a flattened map of version information, composing the keys
      * at this level with a specified separation character, using getVersionMap
@@ -118,17 +172,19 @@ public class CompositeVersionInfoMap extends VersionInfoBase implements
      */
     @Override
     public CompositeVersionInfo getVersionInfoForKeys(String... keys) {
-        CompositeVersionInfo lastVersionInfo = null;
-        if (versionInfoMap != null && keys != null && keys.length > 0) {
-            CompositeVersionInfo versionInfo = getVersionInfoForKey(keys[0]);
-            if (keys.length == 1 || versionInfo == null) {
-                lastVersionInfo = versionInfo;
-            } else {
-                lastVersionInfo = versionInfo.getVersionInfoForKeys(Arrays
-                                                                            .copyOfRange(keys, 1, keys.length));
-            }
-        }
-        return lastVersionInfo;
+        return (keys == null ? null : doGetVersionInfoForKeys(keys, keys.length));
+    }
+
+    /**
+     * Get composite version info for pre-split key path, or null if not defined.
+     *
+     * @param keyPath
+     * @return compositeVersionInfo object for those keys, or null if none found
+     * @see CompositeVersionInfo#getVersionInfoForKeyPath(VersionKeyPath)
+     */
+    @Override
+    public CompositeVersionInfo getVersionInfoForKeyPath(VersionKeyPath keyPath) {
+        return (keyPath == null ? null : doGetVersionInfoForKeys(keyPath.keys(), keyPath.size()));
     }
 
     /**
@@ -147,37 +203,30 @@ public class CompositeVersionInfoMap extends VersionInfoBase implements
     public void setVersionInfoForKeys(CompositeVersionInfo versionInfo,
                                       String... keys) {
 
-        if (keys == null || keys.length == 0 || keys[0] == null
-            || versionInfo == null) {
+        if (keys == null || keys.length == 0 || versionInfo == null) {
             throw new NullPointerException("null or 0-length keys (="
                                            + Arrays.toString(keys) + ") or null versionInfo (="
                                            + versionInfo + ")");
         }
 
-        if (versionInfo == this) {
-            throw new IllegalArgumentException("recursive call for key=" + keys
-                                               + ":with versionInfo == this:" + this);
-        }
-
-        if (this.versionInfoMap == null) {
-            this.versionInfoMap = new TreeMap<String, CompositeVersionInfo>();
-        }
-
-        if (keys.length == 1) {
-            this.versionInfoMap.put(keys[0], versionInfo);
-        } else {
-            CompositeVersionInfo nextCompositeVersionInfo = this.versionInfoMap
-                    .get(keys[0]);
-            if (nextCompositeVersionInfo == null) {
-                nextCompositeVersionInfo = new CompositeVersionInfoMap(
-                        keyConcatenationSeparator);
-                this.versionInfoMap.put(keys[0], nextCompositeVersionInfo);
-            }
+        doSetVersionInfoForKeys(versionInfo, keys);
+    }
 
-            nextCompositeVersionInfo.setVersionInfoForKeys(versionInfo,
-                                                           Arrays.copyOfRange(keys, 1, keys.length));
+    /**
+     * Set composite version info for pre-split key path.
+     *
+     * @param versionInfo
+     * @param keyPath
+     * @see CompositeVersionInfo#setVersionInfoForKeyPath(CompositeVersionInfo, VersionKeyPath)
+     */
+    @Override
+    public void setVersionInfoForKeyPath(CompositeVersionInfo versionInfo, VersionKeyPath keyPath) {
+        if (keyPath == null || versionInfo == null) {
+            throw new NullPointerException("null keyPath (=" + keyPath + ") or null versionInfo (="
+                                           + versionInfo + ")");
         }
 
+        doSetVersionInfoForKeys(versionInfo, keyPath.keys());
     }
 
     /**
@@ -193,26 +242,19 @@ public class CompositeVersionInfoMap extends VersionInfoBase implements
      */
     @Override
     public String getVersionForKeys(String... keys) {
-        String version = null;
-        if (keys != null && keys.length > 0) {
-            if (keys.length == 1) {
-                version = getVersionForKey(keys[0]);
-            } else {
-                CompositeVersionInfo containingVersionInfo = getVersionInfoForKeys(Arrays
-                                                                                           .copyOf(keys, keys.length - 1));
-                if (containingVersionInfo != null) {
-                    version = containingVersionInfo
-                            .getVersionForKeys(keys[keys.length - 1]);
-                }
-            }
+        return (keys == null ? null : doGetVersionForKeys(keys, keys.length));
+    }
 
-            if (version == null && getLogger().isDebugEnabled()) {
-                getLogger().debug(
-                        "getVersionForKeys:keys=" + Arrays.toString(keys)
-                        + ":no entry found");
-            }
-        }
-        return version;
+    /**
+     * Get version string for pre-split key path, or null if not defined.
+     *
+     * @param keyPath
+     * @return version string for those keys, or null if none found
+     * @see CompositeVersionInfo#getVersionForKeyPath(VersionKeyPath)
+     */
+    @Override
+    public String getVersionForKeyPath(VersionKeyPath keyPath) {
+        return (keyPath == null ? null : doGetVersionForKeys(keyPath.keys(), keyPath.size()));
     }
 
     /**
@@ -230,38 +272,29 @@ public class CompositeVersionInfoMap extends VersionInfoBase implements
      */
     @Override
     public void setVersionForKeys(String version, String... keys) {
-        if (keys == null || keys.length == 0 || keys[0] == null
-            || version == null) {
+        if (keys == null || keys.length == 0 || version == null) {
             throw new NullPointerException("null or 0-length keys (="
                                            + Arrays.toString(keys) + ") or null version (=" + version
                                            + ")");
         }
 
-        if (keys.length == 1) {
-            if (this.versionStringMap == null) {
-                this.versionStringMap = new TreeMap<String, String>();
-            }
-
-            this.versionStringMap.put(keys[0], version);
-
-        } else {
-            if (this.versionInfoMap == null) {
-                this.versionInfoMap = new TreeMap<String, CompositeVersionInfo>();
-            }
-
-            CompositeVersionInfo nextCompositeVersionInfo = this.versionInfoMap
-                    .get(keys[0]);
-
-            if (nextCompositeVersionInfo == null) {
-                nextCompositeVersionInfo = new CompositeVersionInfoMap(
-                        keyConcatenationSeparator);
-                this.versionInfoMap.put(keys[0], nextCompositeVersionInfo);
-            }
+        doSetVersionForKeys(version, keys);
+    }
 
-            nextCompositeVersionInfo.setVersionForKeys(version,
-                                                       Arrays.copyOfRange(keys, 1, keys.length));
+    /**
+     * Set version string for pre-split key path.
+     *
+     * @param version
+     * @param keyPath
+     * @see CompositeVersionInfo#setVersionForKeyPath(String, VersionKeyPath)
+     */
+    @Override
+    public void setVersionForKeyPath(String version, VersionKeyPath keyPath) {
+        if (keyPath == null || version == null) {
+            throw new NullPointerException("null keyPath (=" + keyPath + ") or null version (=" + version + ")");
         }
 
+        doSetVersionForKeys(version, keyPath.keys());
     }
 
     /**
@@ -279,7 +312,7 @@ public class CompositeVersionInfoMap extends VersionInfoBase implements
     /**
      * Set complete version info map, clearing current map, and copying new
      * entries into a new map. This means that the source map need not be a
-     * TreeMap.
+     * TreeMap. Keys are interned in the shared VersionStringPool, if any.
      * <p/>
      * This method is suitable for use in Spring configuration.
      *
@@ -288,6 +321,14 @@ public class CompositeVersionInfoMap extends VersionInfoBase implements
     @JsonDeserialize(contentAs = CompositeVersionInfoMap.class)
     public void setVersionInfoMap(
             Map<String, CompositeVersionInfo> versionInfoMap) {
+        if (this.versionInfoMap != null) {
+            for (CompositeVersionInfo versionInfo : this.versionInfoMap.values()) {
+                if (versionInfo != null) {
+                    versionInfo.removeChangeListener(componentChangeListener);
+                }
+            }
+        }
+
         if (versionInfoMap == null) {
             this.versionInfoMap = null;
         } else {
@@ -297,14 +338,24 @@ public class CompositeVersionInfoMap extends VersionInfoBase implements
                 this.versionInfoMap.clear();
             }
 
-            this.versionInfoMap.putAll(versionInfoMap);
+            for (Map.Entry<String, CompositeVersionInfo> entry : versionInfoMap.entrySet()) {
+                this.versionInfoMap.put(VersionStringPool.internShared(entry.getKey()), entry.getValue());
+            }
+            for (CompositeVersionInfo versionInfo : this.versionInfoMap.values()) {
+                if (versionInfo != null) {
+                    versionInfo.addChangeListener(componentChangeListener);
+                }
+            }
         }
+
+        fireVersionInfoChanged();
     }
 
     /**
      * Set top-level version string map, clearing current map, and copying new
      * entries into a new map. This means that the source map need not be a
-     * TreeMap.
+     * TreeMap. Keys and values are interned in the shared VersionStringPool,
+     * if any.
      * <p/>
      * This method is suitable for use in Spring configuration.
      *
@@ -320,8 +371,17 @@ public class CompositeVersionInfoMap extends VersionInfoBase implements
                 this.versionStringMap.clear();
             }
 
-            this.versionStringMap.putAll(versionStringMap);
+            final VersionStringPool pool = VersionStringPool.getSharedPool();
+            if (pool == null) {
+                this.versionStringMap.putAll(versionStringMap);
+            } else {
+                for (Map.Entry<String, String> entry : versionStringMap.entrySet()) {
+                    this.versionStringMap.put(pool.intern(entry.getKey()), pool.intern(entry.getValue()));
+                }
+            }
         }
+
+        fireVersionInfoChanged();
     }
 
     /**
@@ -336,6 +396,26 @@ public class CompositeVersionInfoMap extends VersionInfoBase implements
                 versionStringMap));
     }
 
+    /**
+     * Return the structured map without copying, for use by classes in this
+     * package which will neither change nor retain it.
+     *
+     * @return versionInfoMap, which may be null
+     */
+    Map<String, CompositeVersionInfo> versionInfoMap() {
+        return versionInfoMap;
+    }
+
+    /**
+     * Return the top-level version string map without copying, for use by
+     * classes in this package which will neither change nor retain it.
+     *
+     * @return versionStringMap, which may be null
+     */
+    Map<String, String> versionStringMap() {
+        return versionStringMap;
+    }
+
     /**
      * Get top level version map with each single key a list of the component keys
      *
@@ -345,24 +425,9 @@ public class CompositeVersionInfoMap extends VersionInfoBase implements
     @Override
     @JsonIgnore
     public Map<List<String>, String> getVersionComponentMap() {
-        Map<List<String>, String> versionComponentMap0 = new TreeMap<List<String>, String>(comparator);
-        if (versionStringMap != null) {
-            for (String key : versionStringMap.keySet()) {
-                versionComponentMap0.put(Collections.singletonList(key), versionStringMap.get(key));
-            }
-        }
-
-        if (versionInfoMap != null) {
-            for (String key : versionInfoMap.keySet()) {
-                Map<List<String>, String> versionComponentMap1 = versionInfoMap.get(key).getVersionComponentMap();
-                for (List<String> componentKey1 : versionComponentMap1.keySet()) {
-                    List<String> componentKey0 = new ArrayList<String>(componentKey1);
-                    componentKey0.add(0, key);
-                    versionComponentMap0.put(componentKey0, versionComponentMap1.get(componentKey1));
-                }
-            }
-        }
-
+        Map<List<String>, String> versionComponentMap0 = new TreeMap<List<String>, String>(
+                COMPONENT_KEY_LIST_COMPARATOR);
+        addVersionComponents(versionComponentMap0, new String[0]);
         return versionComponentMap0;
     }
 
@@ -391,6 +456,19 @@ public class CompositeVersionInfoMap extends VersionInfoBase implements
         return maxDepth;
     }
 
+    /**
+     * Return an immutable snapshot of the current structure, suitable for
+     * sharing between any number of readers. This object remains available
+     * for further changes, which will not affect the snapshot.
+     *
+     * @return immutable snapshot
+     * @see CompositeVersionInfo#snapshot()
+     */
+    @Override
+    public ImmutableCompositeVersionInfo snapshot() {
+        return ImmutableCompositeVersionInfo.copyOf(this);
+    }
+
     /**
      * We can change the concatenation character
      *
@@ -398,6 +476,34 @@ public class CompositeVersionInfoMap extends VersionInfoBase implements
      */
     public void setKeyConcatenationSeparator(char keyConcatenationSeparator) {
         this.keyConcatenationSeparator = keyConcatenationSeparator;
+        fireVersionInfoChanged();
+    }
+
+    /**
+     * Add listener, which is notified of changes made through this object,
+     * and of changes to components, provided they also support listeners.
+     *
+     * @param listener
+     * @see CompositeVersionInfo#addChangeListener(VersionInfoChangeListener)
+     */
+    @Override
+    public void addChangeListener(VersionInfoChangeListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("null listener");
+        }
+
+        changeListeners.add(listener);
+    }
+
+    /**
+     * Remove listener
+     *
+     * @param listener
+     * @see CompositeVersionInfo#removeChangeListener(VersionInfoChangeListener)
+     */
+    @Override
+    public void removeChangeListener(VersionInfoChangeListener listener) {
+        changeListeners.remove(listener);
     }
 
     /**
@@ -452,22 +558,31 @@ public class CompositeVersionInfoMap extends VersionInfoBase implements
         return builder.toString();
     }
 
-    /*
-      * (non-Javadoc)
-      *
-      * @see java.lang.Object#hashCode()
-      */
+    /**
+     * Return hashCode, computed when first needed after a change. Only this
+     * object and those containing it are affected by a change, so unchanged
+     * components return their cached values.
+     *
+     * @see java.lang.Object#hashCode()
+     */
     @Override
     public int hashCode() {
-        final int prime = 31;
-        int result = 1;
-        result = prime * result + keyConcatenationSeparator;
-        result = prime * result
-                 + ((versionInfoMap == null) ? 0 : versionInfoMap.hashCode());
-        result = prime
-                 * result
-                 + ((versionStringMap == null) ? 0 : versionStringMap.hashCode());
-        return result;
+        computeHashes();
+        return hashCode;
+    }
+
+    /**
+     * Return structural hash, computed when first needed after a change, as
+     * for hashCode.
+     *
+     * @return structural hash
+     * @see CompositeVersionInfo#getStructuralHash()
+     */
+    @Override
+    @JsonIgnore
+    public long getStructuralHash() {
+        computeHashes();
+        return structuralHash;
     }
 
     /*
@@ -487,6 +602,9 @@ public class CompositeVersionInfoMap extends VersionInfoBase implements
             return false;
         }
         CompositeVersionInfoMap other = (CompositeVersionInfoMap) obj;
+        if (getStructuralHash() != other.getStructuralHash()) {
+            return false;
+        }
         if (keyConcatenationSeparator != other.keyConcatenationSeparator) {
             return false;
         }
@@ -531,12 +649,268 @@ public class CompositeVersionInfoMap extends VersionInfoBase implements
     }
 
     /**
-     * Comparator for key lists
+     * Navigate down the first length keys, one level per key, without copying
+     * keys as long as each component is a CompositeVersionInfoMap. Any other
+     * implementation is passed the remaining keys.
+     *
+     * @param keys
+     * @param length number of keys to use
+     * @return versionInfo, or null if none found
+     */
+    private CompositeVersionInfo doGetVersionInfoForKeys(String[] keys, int length) {
+        if (length == 0) {
+            return null;
+        }
+
+        CompositeVersionInfo versionInfo = this;
+        for (int i = 0; i < length && versionInfo != null; ++i) {
+            if (versionInfo instanceof CompositeVersionInfoMap) {
+                versionInfo = ((CompositeVersionInfoMap) versionInfo).getVersionInfoForKey(keys[i]);
+            } else {
+                return versionInfo.getVersionInfoForKeys(Arrays.copyOfRange(keys, i, length));
+            }
+        }
+
+        return versionInfo;
+    }
+
+    /**
+     * Get version string for the first length keys, navigating as for
+     * doGetVersionInfoForKeys.
+     *
+     * @param keys
+     * @param length number of keys to use
+     * @return version, or null if none found
+     */
+    private String doGetVersionForKeys(String[] keys, int length) {
+        String version = null;
+        if (length > 0) {
+            final String lastKey = keys[length - 1];
+            CompositeVersionInfo containingVersionInfo = (length == 1 ? this
+                                                                      : doGetVersionInfoForKeys(keys, length - 1));
+            if (containingVersionInfo instanceof CompositeVersionInfoMap) {
+                version = ((CompositeVersionInfoMap) containingVersionInfo).getVersionForKey(lastKey);
+            } else if (containingVersionInfo != null) {
+                version = containingVersionInfo.getVersionForKeys(lastKey);
+            }
+
+            if (version == null && getLogger().isDebugEnabled()) {
+                getLogger().debug(
+                        "getVersionForKeys:keys=" + Arrays.toString(Arrays.copyOf(keys, length))
+                        + ":no entry found");
+            }
+        }
+        return version;
+    }
+
+    /**
+     * Set version info for keys, navigating iteratively and creating
+     * intermediate objects as required. Any other implementation found on the
+     * way is passed the remaining keys.
+     *
+     * @param versionInfo
+     * @param keys
+     */
+    private void doSetVersionInfoForKeys(CompositeVersionInfo versionInfo, String[] keys) {
+        checkKeys(keys);
+
+        final int lastKeyIndex = keys.length - 1;
+        CompositeVersionInfoMap container = this;
+        for (int i = 0; ; ++i) {
+            if (versionInfo == container) {
+                throw new IllegalArgumentException("recursive call for keys=" + Arrays.toString(keys)
+                                                   + ":with versionInfo == this:" + this);
+            }
+
+            if (i == lastKeyIndex) {
+                break;
+            }
+
+            CompositeVersionInfo nextVersionInfo = container.getOrCreateVersionInfoForKey(keys[i]);
+            if (!(nextVersionInfo instanceof CompositeVersionInfoMap)) {
+                nextVersionInfo.setVersionInfoForKeys(versionInfo, Arrays.copyOfRange(keys, i + 1, keys.length));
+                return;
+            }
+
+            container = (CompositeVersionInfoMap) nextVersionInfo;
+        }
+
+        container.putVersionInfo(keys[lastKeyIndex], versionInfo);
+    }
+
+    /**
+     * Set version string for keys, navigating iteratively and creating
+     * intermediate objects as required. Any other implementation found on the
+     * way is passed the remaining keys.
+     *
+     * @param version
+     * @param keys
+     */
+    private void doSetVersionForKeys(String version, String[] keys) {
+        checkKeys(keys);
+
+        final int lastKeyIndex = keys.length - 1;
+        CompositeVersionInfoMap container = this;
+        for (int i = 0; i < lastKeyIndex; ++i) {
+            CompositeVersionInfo nextVersionInfo = container.getOrCreateVersionInfoForKey(keys[i]);
+            if (!(nextVersionInfo instanceof CompositeVersionInfoMap)) {
+                nextVersionInfo.setVersionForKeys(version, Arrays.copyOfRange(keys, i + 1, keys.length));
+                return;
+            }
+
+            container = (CompositeVersionInfoMap) nextVersionInfo;
+        }
+
+        container.putVersion(keys[lastKeyIndex], version);
+    }
+
+    /**
+     * Add our version strings to the component map, with keys prefixed by the
+     * supplied keys, then do the same for our components. Each key is a
+     * VersionKeyPath, so there is one array per version string, and one per
+     * component for the prefix.
+     *
+     * @param versionComponentMap to add to
+     * @param prefixKeys          keys leading to this object
+     */
+    private void addVersionComponents(Map<List<String>, String> versionComponentMap, String[] prefixKeys) {
+        final int prefixLength = prefixKeys.length;
+        if (versionStringMap != null) {
+            for (Map.Entry<String, String> entry : versionStringMap.entrySet()) {
+                String[] keys = Arrays.copyOf(prefixKeys, prefixLength + 1);
+                keys[prefixLength] = entry.getKey();
+                versionComponentMap.put(VersionKeyPath.adopt(keys), entry.getValue());
+            }
+        }
+
+        if (versionInfoMap != null) {
+            for (Map.Entry<String, CompositeVersionInfo> entry : versionInfoMap.entrySet()) {
+                CompositeVersionInfo versionInfo = entry.getValue();
+                String[] keys = Arrays.copyOf(prefixKeys, prefixLength + 1);
+                keys[prefixLength] = entry.getKey();
+                if (versionInfo instanceof CompositeVersionInfoMap) {
+                    ((CompositeVersionInfoMap) versionInfo).addVersionComponents(versionComponentMap, keys);
+                } else {
+                    VersionKeyPath.addPrefixed(versionComponentMap, keys, versionInfo.getVersionComponentMap());
+                }
+            }
+        }
+    }
+
+    /**
+     * Ensure there are no null keys
+     *
+     * @param keys
      */
-    public class ComponentKeyListComparator implements Comparator<List<String>> {
+    private static void checkKeys(String[] keys) {
+        for (String key : keys) {
+            if (key == null) {
+                throw new NullPointerException("null key in keys (=" + Arrays.toString(keys) + ")");
+            }
+        }
+    }
+
+    /**
+     * Get the component version info for key, creating a new one with our
+     * separator if there is none.
+     *
+     * @param key
+     * @return versionInfo
+     */
+    private CompositeVersionInfo getOrCreateVersionInfoForKey(String key) {
+        CompositeVersionInfo versionInfo = getVersionInfoForKey(key);
+        if (versionInfo == null) {
+            versionInfo = new CompositeVersionInfoMap(keyConcatenationSeparator);
+            putVersionInfo(key, versionInfo);
+        }
+        return versionInfo;
+    }
+
+    /**
+     * Put version info at this level
+     *
+     * @param key
+     * @param versionInfo
+     */
+    private void putVersionInfo(String key, CompositeVersionInfo versionInfo) {
+        if (this.versionInfoMap == null) {
+            this.versionInfoMap = new TreeMap<String, CompositeVersionInfo>();
+        }
+
+        CompositeVersionInfo oldVersionInfo = this.versionInfoMap.put(VersionStringPool.internShared(key),
+                                                                      versionInfo);
+        if (oldVersionInfo != versionInfo) {
+            if (oldVersionInfo != null) {
+                oldVersionInfo.removeChangeListener(componentChangeListener);
+            }
+            if (versionInfo != null) {
+                versionInfo.addChangeListener(componentChangeListener);
+            }
+        }
+
+        fireVersionInfoChanged();
+    }
+
+    /**
+     * Put version string at this level
+     *
+     * @param key
+     * @param version
+     */
+    private void putVersion(String key, String version) {
+        if (this.versionStringMap == null) {
+            this.versionStringMap = new TreeMap<String, String>();
+        }
+
+        this.versionStringMap.put(VersionStringPool.internShared(key), VersionStringPool.internShared(version));
+        fireVersionInfoChanged();
+    }
+
+    /**
+     * Compute hashCode and structural hash, unless still valid
+     */
+    private void computeHashes() {
+        if (!hashesValid) {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + keyConcatenationSeparator;
+            result = prime * result
+                     + ((versionInfoMap == null) ? 0 : versionInfoMap.hashCode());
+            result = prime
+                     * result
+                     + ((versionStringMap == null) ? 0 : versionStringMap.hashCode());
+            hashCode = result;
+            structuralHash = StructuralHash.of(keyConcatenationSeparator, versionStringMap, versionInfoMap);
+            hashesValid = true;
+        }
+    }
+
+    /**
+     * Invalidate cached hashes, and notify our listeners of a change, which
+     * includes those of any object containing this one
+     */
+    private void fireVersionInfoChanged() {
+        hashesValid = false;
+        invalidateVersionString();
+        for (VersionInfoChangeListener listener : changeListeners) {
+            listener.versionInfoChanged(this);
+        }
+    }
+
+    /**
+     * Comparator for key lists.
+     * <p/>
+     * This orders lists exactly as comparing their toString values would
+     * (i.e. "[" + keys separated by ", " + "]"), which was the original
+     * implementation, so existing orderings are unchanged. It walks the keys
+     * of both lists character by character instead of building the strings,
+     * so allocates nothing. Lists are accessed by index, so RandomAccess lists
+     * such as VersionKeyPath are to be preferred.
+     */
+    public static class ComponentKeyListComparator implements Comparator<List<String>> {
 
         /**
-         * Compare using string value of lists
+         * Compare as for the string value of lists
          *
          * @param keys0
          * @param keys1
@@ -545,7 +919,100 @@ public class CompositeVersionInfoMap extends VersionInfoBase implements
          */
         @Override
         public int compare(List<String> keys0, List<String> keys1) {
-            return keys0.toString().compareTo(keys1.toString());
+            if (keys0 == keys1) {
+                return 0;
+            }
+
+            // Each list is treated as a sequence of sections after the initial '[',
+            // section i being key i followed by ", " or, for the last key, "]".
+            // An empty list has the single section "]".
+            final int size0 = keys0.size();
+            final int size1 = keys1.size();
+            final int sections0 = (size0 == 0 ? 1 : size0);
+            final int sections1 = (size1 == 0 ? 1 : size1);
+
+            int section0 = 0;
+            int section1 = 0;
+            int offset0 = 0;
+            int offset1 = 0;
+            String key0 = sectionKey(keys0, 0);
+            String key1 = sectionKey(keys1, 0);
+            boolean last0 = (size0 <= 1);
+            boolean last1 = (size1 <= 1);
+
+            while (section0 < sections0 && section1 < sections1) {
+                final char c0 = sectionChar(key0, offset0, last0);
+                final char c1 = sectionChar(key1, offset1, last1);
+                if (c0 != c1) {
+                    return c0 - c1;
+                }
+
+                if (++offset0 == sectionLength(key0, last0)) {
+                    offset0 = 0;
+                    if (++section0 < sections0) {
+                        key0 = sectionKey(keys0, section0);
+                        last0 = (section0 == size0 - 1);
+                    }
+                }
+
+                if (++offset1 == sectionLength(key1, last1)) {
+                    offset1 = 0;
+                    if (++section1 < sections1) {
+                        key1 = sectionKey(keys1, section1);
+                        last1 = (section1 == size1 - 1);
+                    }
+                }
+            }
+
+            return (section0 < sections0 ? 1 : 0) - (section1 < sections1 ? 1 : 0);
+        }
+
+        /**
+         * Get key for section, as it would appear in toString
+         *
+         * @param keys
+         * @param section
+         * @return key
+         */
+        private static String sectionKey(List<String> keys, int section) {
+            if (keys.isEmpty()) {
+                return "";
+            }
+
+            final String key = keys.get(section);
+            return (key == null ? "null" : key);
+        }
+
+        /**
+         * Get length of section, including trailing separator or "]"
+         *
+         * @param key
+         * @param last
+         * @return length
+         */
+        private static int sectionLength(String key, boolean last) {
+            return key.length() + (last ? 1 : 2);
+        }
+
+        /**
+         * Get character in section
+         *
+         * @param key
+         * @param offset
+         * @param last
+         * @return character
+         */
+        private static char sectionChar(String key, int offset, boolean last) {
+            final int keyLength = key.length();
+            if (offset < keyLength) {
+                return key.charAt(offset);
+            }
+
+            if (last) {
+                return ']';
+            }
+
+            return (offset == keyLength ? ',' : ' ');
         }
     }
 }
@@ -0,0 +1,300 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Builder for a CompositeVersionInfoMap from flattened version entries, such
+ * as the <code>a.b.c=value</code> lines produced by a build. Each key is split
+ * on the key concatenation separator, which is the inverse of
+ * {@link CompositeVersionInfoMap#getVersionMap()} provided no single key
+ * contains the separator.
+ * <p/>
+ * The builder keeps the path of the previous entry, so a run of entries with
+ * a common prefix (e.g. sorted input) shares the walk down to it, and nothing
+ * is copied or notified until {@link #build()} assembles the structure from
+ * the bottom up. Input in any order gives the same result, just less quickly.
+ * <p/>
+ * Keys and versions are interned in the string pool, which is the shared
+ * VersionStringPool, if any, when the builder is created.
+ * <p/>
+ * Builders are not thread-safe.
+ *
+ * @author djnorth
+ */
+public class CompositeVersionInfoMapBuilder {
+
+    /**
+     * Key concatenation separator, for splitting keys and for built objects
+     */
+    private final char keyConcatenationSeparator;
+
+    /**
+     * Nodes on path of previous entry, from the root
+     */
+    private final List<Node> pathNodes = new ArrayList<Node>();
+
+    /**
+     * Keys on path of previous entry, one fewer than nodes
+     */
+    private final List<String> pathKeys = new ArrayList<String>();
+
+    /**
+     * Pool for keys and versions, or null
+     */
+    private VersionStringPool stringPool = VersionStringPool.getSharedPool();
+
+    /**
+     * Default constructor, using default key concatenation separator
+     */
+    public CompositeVersionInfoMapBuilder() {
+        this(CompositeVersionInfo.DEFAULT_KEY_CONCATENATION_SEPARATOR);
+    }
+
+    /**
+     * Constructor taking key concatenation separator
+     *
+     * @param keyConcatenationSeparator
+     */
+    public CompositeVersionInfoMapBuilder(char keyConcatenationSeparator) {
+        this.keyConcatenationSeparator = keyConcatenationSeparator;
+        pathNodes.add(new Node());
+    }
+
+    /**
+     * Add version for concatenated key, replacing any previous version for
+     * the same key.
+     * <p/>
+     * A null key or version will cause a NullPointerException, as for
+     * {@link CompositeVersionInfoMap#setVersionForKeys(String, String...)}
+     *
+     * @param concatenatedKey
+     * @param version
+     * @return this builder
+     */
+    public CompositeVersionInfoMapBuilder put(String concatenatedKey, String version) {
+        if (concatenatedKey == null || version == null) {
+            throw new NullPointerException("null concatenatedKey (=" + concatenatedKey + ") or null version (="
+                                           + version + ")");
+        }
+
+        int depth = 0;
+        int start = 0;
+        int end;
+        while ((end = concatenatedKey.indexOf(keyConcatenationSeparator, start)) >= 0) {
+            if (depth < pathKeys.size()) {
+                final String pathKey = pathKeys.get(depth);
+                if (pathKey.length() == end - start && concatenatedKey.regionMatches(start, pathKey, 0, end - start)) {
+                    ++depth;
+                    start = end + 1;
+                    continue;
+                }
+                truncatePath(depth);
+            }
+
+            final String key = intern(concatenatedKey.substring(start, end));
+            pathNodes.add(pathNodes.get(depth).getOrCreateComponent(key));
+            pathKeys.add(key);
+            ++depth;
+            start = end + 1;
+        }
+
+        truncatePath(depth);
+        pathNodes.get(depth).putVersion(intern(concatenatedKey.substring(start)), intern(version));
+        return this;
+    }
+
+    /**
+     * Add all entries in map, as for {@link #put(String, String)}
+     *
+     * @param versionMap of version by concatenated key
+     * @return this builder
+     */
+    public CompositeVersionInfoMapBuilder putAll(Map<String, String> versionMap) {
+        for (Map.Entry<String, String> entry : versionMap.entrySet()) {
+            put(entry.getKey(), entry.getValue());
+        }
+
+        return this;
+    }
+
+    /**
+     * Add entries from <code>key=value</code> lines read from reader, which is
+     * left open. Key and value are trimmed, and blank lines and those
+     * starting with # or ! are ignored. Lines are read one at a time, so the
+     * input need not fit in memory.
+     *
+     * @param reader
+     * @return this builder
+     * @throws IOException
+     * @throws IllegalArgumentException for a line with no =
+     */
+    public CompositeVersionInfoMapBuilder read(Reader reader) throws IOException {
+        BufferedReader lineReader = (reader instanceof BufferedReader ? (BufferedReader) reader
+                                                                      : new BufferedReader(reader, 65536));
+        int lineNumber = 0;
+        String line;
+        while ((line = lineReader.readLine()) != null) {
+            ++lineNumber;
+            line = line.trim();
+            if (line.length() == 0 || line.charAt(0) == '#' || line.charAt(0) == '!') {
+                continue;
+            }
+
+            final int equalsIndex = line.indexOf('=');
+            if (equalsIndex < 0) {
+                throw new IllegalArgumentException("no = in line " + lineNumber + ":" + line);
+            }
+
+            put(line.substring(0, equalsIndex).trim(), line.substring(equalsIndex + 1).trim());
+        }
+
+        return this;
+    }
+
+    /**
+     * Add entries from UTF-8 input stream, which is left open, as for
+     * {@link #read(Reader)}
+     *
+     * @param inputStream
+     * @return this builder
+     * @throws IOException
+     */
+    public CompositeVersionInfoMapBuilder read(InputStream inputStream) throws IOException {
+        return read(new InputStreamReader(inputStream, "UTF-8"));
+    }
+
+    /**
+     * Add entries from UTF-8 file, as for {@link #read(Reader)}
+     *
+     * @param file
+     * @return this builder
+     * @throws IOException
+     */
+    public CompositeVersionInfoMapBuilder read(File file) throws IOException {
+        InputStream inputStream = new FileInputStream(file);
+        try {
+            return read(inputStream);
+        } finally {
+            inputStream.close();
+        }
+    }
+
+    /**
+     * Set pool for keys and versions (default the shared pool, if any)
+     *
+     * @param stringPool or null for none
+     * @return this builder
+     */
+    public CompositeVersionInfoMapBuilder setStringPool(VersionStringPool stringPool) {
+        this.stringPool = stringPool;
+        return this;
+    }
+
+    /**
+     * Build CompositeVersionInfoMap from entries added so far, and reset this
+     * builder so it may be used again.
+     *
+     * @return new versionInfo
+     */
+    public CompositeVersionInfoMap build() {
+        final Node root = pathNodes.get(0);
+        pathNodes.clear();
+        pathKeys.clear();
+        pathNodes.add(new Node());
+        return root.build(keyConcatenationSeparator);
+    }
+
+    /**
+     * @param string
+     * @return pooled string, or string if no pool
+     */
+    private String intern(String string) {
+        return (stringPool == null ? string : stringPool.intern(string));
+    }
+
+    /**
+     * Drop path below depth
+     *
+     * @param depth
+     */
+    private void truncatePath(int depth) {
+        for (int i = pathKeys.size(); i > depth; --i) {
+            pathKeys.remove(i - 1);
+            pathNodes.remove(i);
+        }
+    }
+
+    /**
+     * Component under construction
+     */
+    private static final class Node {
+
+        private TreeMap<String, String> versions;
+        private TreeMap<String, Node> components;
+
+        /**
+         * @param key
+         * @return component for key, created if needed
+         */
+        Node getOrCreateComponent(String key) {
+            if (components == null) {
+                components = new TreeMap<String, Node>();
+            }
+
+            Node component = components.get(key);
+            if (component == null) {
+                component = new Node();
+                components.put(key, component);
+            }
+
+            return component;
+        }
+
+        /**
+         * @param key
+         * @param version
+         */
+        void putVersion(String key, String version) {
+            if (versions == null) {
+                versions = new TreeMap<String, String>();
+            }
+
+            versions.put(key, version);
+        }
+
+        /**
+         * Build components, then this
+         *
+         * @param keyConcatenationSeparator
+         * @return versionInfo
+         */
+        CompositeVersionInfoMap build(char keyConcatenationSeparator) {
+            TreeMap<String, CompositeVersionInfo> versionInfoMap = null;
+            if (components != null) {
+                versionInfoMap = new TreeMap<String, CompositeVersionInfo>();
+                for (Map.Entry<String, Node> entry : components.entrySet()) {
+                    versionInfoMap.put(entry.getKey(), entry.getValue().build(keyConcatenationSeparator));
+                }
+            }
+
+            return new CompositeVersionInfoMap(keyConcatenationSeparator, versions, versionInfoMap);
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.codehaus.jackson.JsonGenerator;
+import org.codehaus.jackson.JsonProcessingException;
+import org.codehaus.jackson.map.JsonSerializer;
+import org.codehaus.jackson.map.SerializerProvider;
+
+/**
+ * Jackson serializer writing a CompositeVersionInfo structure straight to the
+ * generator.
+ * <p/>
+ * The JSON is the same as that produced by default bean serialization, i.e.
+ * an object with keyConcatenationSeparator, versionInfoMap and
+ * versionStringMap properties, with null maps written as null. However, the
+ * maps of CompositeVersionInfoMap are walked directly, rather than via the
+ * getters, which copy them at every level, and ImmutableCompositeVersionInfo
+ * maps are shared anyway. A ConcurrentCompositeVersionInfoMap is written from
+ * a single snapshot, so is consistent even while being updated. Any other
+ * implementation, at any level, is passed to the provider for default
+ * serialization, so this should only be registered for those three classes
+ * (as by VersionInfoObjectMapper).
+ *
+ * @author djnorth
+ * @see VersionInfoObjectMapper
+ */
+public class CompositeVersionInfoSerializer extends JsonSerializer<CompositeVersionInfo> {
+
+    /**
+     * Write versionInfo and its components
+     *
+     * @param versionInfo
+     * @param jgen
+     * @param provider
+     * @throws IOException
+     * @throws JsonProcessingException
+     * @see JsonSerializer#serialize(Object, JsonGenerator, SerializerProvider)
+     */
+    @Override
+    public void serialize(CompositeVersionInfo versionInfo, JsonGenerator jgen, SerializerProvider provider)
+            throws IOException, JsonProcessingException {
+        final char keyConcatenationSeparator;
+        final Map<String, CompositeVersionInfo> versionInfoMap;
+        final Map<String, String> versionStringMap;
+        if (versionInfo instanceof CompositeVersionInfoMap) {
+            CompositeVersionInfoMap versionInfoImpl = (CompositeVersionInfoMap) versionInfo;
+            keyConcatenationSeparator = versionInfoImpl.getKeyConcatenationSeparator();
+            versionInfoMap = versionInfoImpl.versionInfoMap();
+            versionStringMap = versionInfoImpl.versionStringMap();
+        } else if (versionInfo instanceof ImmutableCompositeVersionInfo) {
+            ImmutableCompositeVersionInfo versionInfoImpl = (ImmutableCompositeVersionInfo) versionInfo;
+            keyConcatenationSeparator = versionInfoImpl.getKeyConcatenationSeparator();
+            versionInfoMap = versionInfoImpl.getVersionInfoMap();
+            versionStringMap = versionInfoImpl.getVersionStringMap();
+        } else if (versionInfo instanceof ConcurrentCompositeVersionInfoMap) {
+            serialize(((ConcurrentCompositeVersionInfoMap) versionInfo).snapshot(), jgen, provider);
+            return;
+        } else {
+            provider.defaultSerializeValue(versionInfo, jgen);
+            return;
+        }
+
+        jgen.writeStartObject();
+
+        jgen.writeFieldName("keyConcatenationSeparator");
+        jgen.writeString(String.valueOf(keyConcatenationSeparator));
+
+        jgen.writeFieldName("versionInfoMap");
+        if (versionInfoMap == null) {
+            jgen.writeNull();
+        } else {
+            jgen.writeStartObject();
+            for (Map.Entry<String, CompositeVersionInfo> entry : versionInfoMap.entrySet()) {
+                jgen.writeFieldName(entry.getKey());
+                CompositeVersionInfo componentVersionInfo = entry.getValue();
+                if (componentVersionInfo == null) {
+                    jgen.writeNull();
+                } else {
+                    serialize(componentVersionInfo, jgen, provider);
+                }
+            }
+            jgen.writeEndObject();
+        }
+
+        jgen.writeFieldName("versionStringMap");
+        if (versionStringMap == null) {
+            jgen.writeNull();
+        } else {
+            jgen.writeStartObject();
+            for (Map.Entry<String, String> entry : versionStringMap.entrySet()) {
+                jgen.writeFieldName(entry.getKey());
+                if (entry.getValue() == null) {
+                    jgen.writeNull();
+                } else {
+                    jgen.writeString(entry.getValue());
+                }
+            }
+            jgen.writeEndObject();
+        }
+
+        jgen.writeEndObject();
+    }
+}
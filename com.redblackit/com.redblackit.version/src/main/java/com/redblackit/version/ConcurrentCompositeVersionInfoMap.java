@@ -0,0 +1,529 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import java.util.*;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.codehaus.jackson.annotate.JsonIgnore;
+import org.codehaus.jackson.map.annotate.JsonDeserialize;
+
+/**
+ * Thread-safe implementation of composite version info, which may be read by
+ * any number of threads while others update it.
+ * <p/>
+ * The current structure is held as an ImmutableCompositeVersionInfo, which is
+ * replaced by an atomic compare-and-set on each update (copy-on-write), only
+ * the components on the path to the change being copied. Hence:
+ * <ul>
+ * <li>reads never lock or wait, and each sees the complete structure as it was
+ * after some update, so iterating over any returned map is safe and consistent
+ * </li>
+ * <li>each update, including {@link #setVersionsForKeyPaths(Map)} for several
+ * keys at once, is seen by readers entirely or not at all</li>
+ * <li>components returned by {@link #getVersionInfoForKeys(String...)} and
+ * the maps are immutable snapshots, so all changes must be made via this
+ * object</li>
+ * <li>version info objects supplied to setters are copied, so later changes to
+ * them are not reflected here</li>
+ * </ul>
+ * Updates are expected to be much less frequent than reads; concurrent
+ * updates are retried until they succeed.
+ *
+ * @author djnorth
+ */
+public class ConcurrentCompositeVersionInfoMap extends VersionInfoBase implements
+        CompositeVersionInfo {
+
+    /**
+     * Current structure
+     */
+    private final AtomicReference<ImmutableCompositeVersionInfo> root;
+
+    /**
+     * Listeners for changes
+     */
+    private final List<VersionInfoChangeListener> changeListeners = new CopyOnWriteArrayList<VersionInfoChangeListener>();
+
+    /**
+     * Default constructor, using default key concatenation separator
+     */
+    public ConcurrentCompositeVersionInfoMap() {
+        this(DEFAULT_KEY_CONCATENATION_SEPARATOR);
+    }
+
+    /**
+     * Constructor taking the separator character
+     *
+     * @param keyConcatenationSeparator
+     */
+    public ConcurrentCompositeVersionInfoMap(char keyConcatenationSeparator) {
+        super();
+        this.root = new AtomicReference<ImmutableCompositeVersionInfo>(new ImmutableCompositeVersionInfo(
+                keyConcatenationSeparator, null, null));
+    }
+
+    /**
+     * Constructor taking initial content, which is copied
+     *
+     * @param versionInfo
+     */
+    public ConcurrentCompositeVersionInfoMap(CompositeVersionInfo versionInfo) {
+        super();
+        this.root = new AtomicReference<ImmutableCompositeVersionInfo>(ImmutableCompositeVersionInfo
+                                                                               .copyOf(versionInfo));
+    }
+
+    /**
+     * Get the flattened version map from the current structure
+     *
+     * @return unmodifiable map
+     * @see VersionInfo#getVersionMap()
+     */
+    @Override
+    @JsonIgnore
+    public Map<String, String> getVersionMap() {
+        return root.get().getVersionMap();
+    }
+
+    /**
+     * Get immutable snapshot of component for keys
+     *
+     * @param keys
+     * @return compositeVersionInfo object for those keys, or null if none found
+     * @see CompositeVersionInfo#getVersionInfoForKeys(String...)
+     */
+    @Override
+    public CompositeVersionInfo getVersionInfoForKeys(String... keys) {
+        return root.get().getVersionInfoForKeys(keys);
+    }
+
+    /**
+     * Get immutable snapshot of component for key path
+     *
+     * @param keyPath
+     * @return compositeVersionInfo object for those keys, or null if none found
+     * @see CompositeVersionInfo#getVersionInfoForKeyPath(VersionKeyPath)
+     */
+    @Override
+    public CompositeVersionInfo getVersionInfoForKeyPath(VersionKeyPath keyPath) {
+        return root.get().getVersionInfoForKeyPath(keyPath);
+    }
+
+    /**
+     * Set copy of version info for keys, atomically
+     *
+     * @param versionInfo
+     * @param keys
+     * @see CompositeVersionInfo#setVersionInfoForKeys(CompositeVersionInfo, String...)
+     */
+    @Override
+    public void setVersionInfoForKeys(CompositeVersionInfo versionInfo, String... keys) {
+        checkKeys(keys);
+        doSetVersionInfoForKeys(versionInfo, keys.clone());
+    }
+
+    /**
+     * Set copy of version info for key path, atomically
+     *
+     * @param versionInfo
+     * @param keyPath
+     * @see CompositeVersionInfo#setVersionInfoForKeyPath(CompositeVersionInfo, VersionKeyPath)
+     */
+    @Override
+    public void setVersionInfoForKeyPath(CompositeVersionInfo versionInfo, VersionKeyPath keyPath) {
+        if (keyPath == null) {
+            throw new NullPointerException("null keyPath");
+        }
+
+        doSetVersionInfoForKeys(versionInfo, keyPath.keys());
+    }
+
+    /**
+     * Get version string for keys from the current structure
+     *
+     * @param keys
+     * @return version string for those keys, or null if none found
+     * @see CompositeVersionInfo#getVersionForKeys(String...)
+     */
+    @Override
+    public String getVersionForKeys(String... keys) {
+        return root.get().getVersionForKeys(keys);
+    }
+
+    /**
+     * Get version string for key path from the current structure
+     *
+     * @param keyPath
+     * @return version string for those keys, or null if none found
+     * @see CompositeVersionInfo#getVersionForKeyPath(VersionKeyPath)
+     */
+    @Override
+    public String getVersionForKeyPath(VersionKeyPath keyPath) {
+        return root.get().getVersionForKeyPath(keyPath);
+    }
+
+    /**
+     * Set version string for keys, atomically.
+     * <p/>
+     * A null or 0-length array, or a null key value, or null version string
+     * object will cause a NullPointerException
+     *
+     * @param version
+     * @param keys
+     * @see CompositeVersionInfo#setVersionForKeys(String, String...)
+     */
+    @Override
+    public void setVersionForKeys(final String version, String... keys) {
+        checkKeys(keys);
+        if (version == null) {
+            throw new NullPointerException("null version for keys (=" + Arrays.toString(keys) + ")");
+        }
+
+        final String[] keys0 = keys.clone();
+        update(new Update() {
+            @Override
+            public ImmutableCompositeVersionInfo apply(ImmutableCompositeVersionInfo current) {
+                return current.withVersion(version, keys0, 0);
+            }
+        });
+    }
+
+    /**
+     * Set version string for key path, atomically. A null key path or version
+     * will cause a NullPointerException
+     *
+     * @param version
+     * @param keyPath
+     * @see CompositeVersionInfo#setVersionForKeyPath(String, VersionKeyPath)
+     */
+    @Override
+    public void setVersionForKeyPath(final String version, final VersionKeyPath keyPath) {
+        if (keyPath == null || version == null) {
+            throw new NullPointerException("null keyPath (=" + keyPath + ") or null version (=" + version + ")");
+        }
+
+        update(new Update() {
+            @Override
+            public ImmutableCompositeVersionInfo apply(ImmutableCompositeVersionInfo current) {
+                return current.withVersion(version, keyPath.keys(), 0);
+            }
+        });
+    }
+
+    /**
+     * Set version strings for several key paths as a single atomic update, so
+     * readers see either all or none of them. A null key path or version
+     * will cause a NullPointerException, with none of them being set.
+     *
+     * @param versions map of key path to version string
+     */
+    public void setVersionsForKeyPaths(Map<VersionKeyPath, String> versions) {
+        final Map<VersionKeyPath, String> versions0 = new LinkedHashMap<VersionKeyPath, String>(versions);
+        for (Map.Entry<VersionKeyPath, String> entry : versions0.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null) {
+                throw new NullPointerException("null keyPath or version in versions=" + versions);
+            }
+        }
+
+        update(new Update() {
+            @Override
+            public ImmutableCompositeVersionInfo apply(ImmutableCompositeVersionInfo current) {
+                ImmutableCompositeVersionInfo updated = current;
+                for (Map.Entry<VersionKeyPath, String> entry : versions0.entrySet()) {
+                    updated = updated.withVersion(entry.getValue(), entry.getKey().keys(), 0);
+                }
+                return updated;
+            }
+        });
+    }
+
+    /**
+     * Get map of immutable components from the current structure
+     *
+     * @return versionInfoMap, or null
+     * @see CompositeVersionInfo#getVersionInfoMap()
+     */
+    @Override
+    public Map<String, CompositeVersionInfo> getVersionInfoMap() {
+        return root.get().getVersionInfoMap();
+    }
+
+    /**
+     * Replace the complete version info map, atomically. The components are
+     * copied.
+     * <p/>
+     * This method is suitable for use in Spring configuration.
+     *
+     * @param versionInfoMap to use
+     */
+    @JsonDeserialize(contentAs = CompositeVersionInfoMap.class)
+    public void setVersionInfoMap(Map<String, CompositeVersionInfo> versionInfoMap) {
+        final Map<String, CompositeVersionInfo> versionInfoMap0 = (versionInfoMap == null
+                                                                   ? null
+                                                                   : new TreeMap<String, CompositeVersionInfo>(
+                versionInfoMap));
+        update(new Update() {
+            @Override
+            public ImmutableCompositeVersionInfo apply(ImmutableCompositeVersionInfo current) {
+                return new ImmutableCompositeVersionInfo(current.getKeyConcatenationSeparator(),
+                                                         current.getVersionStringMap(), versionInfoMap0);
+            }
+        });
+    }
+
+    /**
+     * Get top level version string map from the current structure
+     *
+     * @return versionStringMap, or null
+     * @see CompositeVersionInfo#getVersionStringMap()
+     */
+    @Override
+    public Map<String, String> getVersionStringMap() {
+        return root.get().getVersionStringMap();
+    }
+
+    /**
+     * Replace the top-level version string map, atomically. The map is copied.
+     * <p/>
+     * This method is suitable for use in Spring configuration.
+     *
+     * @param versionStringMap to use
+     */
+    public void setVersionStringMap(Map<String, String> versionStringMap) {
+        final Map<String, String> versionStringMap0 = (versionStringMap == null ? null : new TreeMap<String, String>(
+                versionStringMap));
+        update(new Update() {
+            @Override
+            public ImmutableCompositeVersionInfo apply(ImmutableCompositeVersionInfo current) {
+                return new ImmutableCompositeVersionInfo(current.getKeyConcatenationSeparator(),
+                                                         versionStringMap0, current.getVersionInfoMap());
+            }
+        });
+    }
+
+    /**
+     * Get component map from the current structure
+     *
+     * @return version component map
+     * @see CompositeVersionInfo#getVersionComponentMap()
+     */
+    @Override
+    @JsonIgnore
+    public Map<List<String>, String> getVersionComponentMap() {
+        return root.get().getVersionComponentMap();
+    }
+
+    /**
+     * Get maximum depth of the current structure
+     *
+     * @return depth
+     * @see CompositeVersionInfo#getMaximumComponentVersionDepth()
+     */
+    @Override
+    @JsonIgnore
+    public int getMaximumComponentVersionDepth() {
+        return root.get().getMaximumComponentVersionDepth();
+    }
+
+    /**
+     * Get structural hash of the current structure
+     *
+     * @return structural hash
+     * @see CompositeVersionInfo#getStructuralHash()
+     */
+    @Override
+    @JsonIgnore
+    public long getStructuralHash() {
+        return root.get().getStructuralHash();
+    }
+
+    /**
+     * Return the current structure, which is already immutable
+     *
+     * @return immutable snapshot
+     * @see CompositeVersionInfo#snapshot()
+     */
+    @Override
+    public ImmutableCompositeVersionInfo snapshot() {
+        return root.get();
+    }
+
+    /**
+     * @return the keyConcatenationSeparator
+     */
+    public char getKeyConcatenationSeparator() {
+        return root.get().getKeyConcatenationSeparator();
+    }
+
+    /**
+     * Change the top-level concatenation character, atomically
+     *
+     * @param keyConcatenationSeparator the keyConcatenationSeparator to set
+     */
+    public void setKeyConcatenationSeparator(final char keyConcatenationSeparator) {
+        update(new Update() {
+            @Override
+            public ImmutableCompositeVersionInfo apply(ImmutableCompositeVersionInfo current) {
+                return new ImmutableCompositeVersionInfo(keyConcatenationSeparator, current.getVersionStringMap(),
+                                                         current.getVersionInfoMap());
+            }
+        });
+    }
+
+    /**
+     * Add listener, notified after each update
+     *
+     * @param listener
+     * @see CompositeVersionInfo#addChangeListener(VersionInfoChangeListener)
+     */
+    @Override
+    public void addChangeListener(VersionInfoChangeListener listener) {
+        if (listener == null) {
+            throw new NullPointerException("null listener");
+        }
+
+        changeListeners.add(listener);
+    }
+
+    /**
+     * Remove listener
+     *
+     * @param listener
+     * @see CompositeVersionInfo#removeChangeListener(VersionInfoChangeListener)
+     */
+    @Override
+    public void removeChangeListener(VersionInfoChangeListener listener) {
+        changeListeners.remove(listener);
+    }
+
+    /**
+     * toString giving current structure
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ConcurrentCompositeVersionInfoMap {" + root.get() + "}";
+    }
+
+    /**
+     * hashCode of current structure
+     *
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return root.get().hashCode();
+    }
+
+    /**
+     * equals if the other object is of the same class, and the current
+     * structures are equal
+     *
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        ConcurrentCompositeVersionInfoMap other = (ConcurrentCompositeVersionInfoMap) obj;
+        return root.get().equals(other.root.get());
+    }
+
+    /**
+     * Set copy of version info for keys, which the caller has checked, and
+     * which are not changed
+     *
+     * @param versionInfo
+     * @param keys
+     */
+    private void doSetVersionInfoForKeys(CompositeVersionInfo versionInfo, final String[] keys) {
+        if (versionInfo == null) {
+            throw new NullPointerException("null versionInfo for keys=" + Arrays.toString(keys));
+        }
+        if (versionInfo == this) {
+            throw new IllegalArgumentException("recursive call for keys=" + Arrays.toString(keys)
+                                               + ":with versionInfo == this:" + this);
+        }
+
+        final ImmutableCompositeVersionInfo versionInfo0 = ImmutableCompositeVersionInfo.copyOf(versionInfo);
+        update(new Update() {
+            @Override
+            public ImmutableCompositeVersionInfo apply(ImmutableCompositeVersionInfo current) {
+                return current.withVersionInfo(versionInfo0, keys, 0);
+            }
+        });
+    }
+
+    /**
+     * Apply update to the current structure, retrying if another thread
+     * changes it first, then notify listeners
+     *
+     * @param update
+     */
+    private void update(Update update) {
+        ImmutableCompositeVersionInfo current;
+        ImmutableCompositeVersionInfo updated;
+        do {
+            current = root.get();
+            updated = update.apply(current);
+        } while (!root.compareAndSet(current, updated));
+
+        invalidateVersionString();
+        for (VersionInfoChangeListener listener : changeListeners) {
+            listener.versionInfoChanged(this);
+        }
+    }
+
+    /**
+     * Ensure there are no null keys
+     *
+     * @param keys
+     */
+    private void checkKeys(String[] keys) {
+        if (keys == null || keys.length == 0) {
+            throw new NullPointerException("null or 0-length keys (=" + Arrays.toString(keys) + ")");
+        }
+
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i] == null) {
+                throw new NullPointerException("null key at " + i + " in keys (=" + Arrays.toString(keys) + ")");
+            }
+        }
+    }
+
+    /**
+     * Function giving an updated structure from the current one
+     */
+    private interface Update {
+
+        /**
+         * @param current structure
+         * @return updated structure
+         */
+        ImmutableCompositeVersionInfo apply(ImmutableCompositeVersionInfo current);
+    }
+}
@@ -0,0 +1,597 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import java.util.*;
+
+import org.codehaus.jackson.annotate.JsonIgnore;
+
+/**
+ * Immutable snapshot of a composite version info structure.
+ * <p/>
+ * All component version info objects are themselves immutable snapshots, and
+ * the maps returned are unmodifiable and shared between callers. The flattened
+ * version map, component map and version string are each computed at most
+ * once, on first use, and then returned to every subsequent reader. The
+ * maximum component depth, hashCode and structural hash are computed on
+ * construction.
+ * <p/>
+ * Use {@link CompositeVersionInfoMap} to build the structure, then
+ * {@link CompositeVersionInfo#snapshot()} or {@link #copyOf(CompositeVersionInfo)}
+ * to obtain one of these for repeated reading.
+ *
+ * @author djnorth
+ */
+public final class ImmutableCompositeVersionInfo extends VersionInfoBase implements
+        CompositeVersionInfo {
+
+    /**
+     * Key concatenation separator
+     */
+    private final char keyConcatenationSeparator;
+
+    /**
+     * Unmodifiable map of immutable component version info, or null
+     */
+    private final Map<String, CompositeVersionInfo> versionInfoMap;
+
+    /**
+     * Unmodifiable top level version strings, or null
+     */
+    private final Map<String, String> versionStringMap;
+
+    /**
+     * Maximum component depth
+     */
+    private final int maximumComponentVersionDepth;
+
+    /**
+     * Hash code
+     */
+    private final int hashCode;
+
+    /**
+     * Structural hash
+     */
+    private final long structuralHash;
+
+    /**
+     * Flattened version map, computed on first use
+     */
+    private volatile SortedMap<String, String> versionMap;
+
+    /**
+     * Component version map, computed on first use
+     */
+    private volatile Map<List<String>, String> versionComponentMap;
+
+    /**
+     * Create an immutable copy of the supplied version info, or return it
+     * as-is if it's already immutable.
+     * <p/>
+     * A ConcurrentCompositeVersionInfoMap's current snapshot is returned. The
+     * separator is otherwise taken from the supplied object if it is a
+     * CompositeVersionInfoMap, and is otherwise the default.
+     *
+     * @param versionInfo to copy
+     * @return immutable snapshot
+     */
+    public static ImmutableCompositeVersionInfo copyOf(CompositeVersionInfo versionInfo) {
+        if (versionInfo == null) {
+            throw new NullPointerException("versionInfo");
+        }
+
+        if (versionInfo instanceof ImmutableCompositeVersionInfo) {
+            return (ImmutableCompositeVersionInfo) versionInfo;
+        }
+
+        if (versionInfo instanceof ConcurrentCompositeVersionInfoMap) {
+            return ((ConcurrentCompositeVersionInfoMap) versionInfo).snapshot();
+        }
+
+        return new ImmutableCompositeVersionInfo(VersionInfoMaps.keyConcatenationSeparatorOf(versionInfo),
+                                                 versionInfo.getVersionStringMap(),
+                                                 versionInfo.getVersionInfoMap());
+    }
+
+    /**
+     * Constructor taking separator and maps, which are copied, with any
+     * component version info objects being converted to immutable snapshots.
+     *
+     * @param keyConcatenationSeparator
+     * @param versionStringMap          may be null
+     * @param versionInfoMap            may be null
+     */
+    public ImmutableCompositeVersionInfo(char keyConcatenationSeparator,
+                                         Map<String, String> versionStringMap,
+                                         Map<String, ? extends CompositeVersionInfo> versionInfoMap) {
+        super();
+        this.keyConcatenationSeparator = keyConcatenationSeparator;
+
+        if (versionStringMap == null) {
+            this.versionStringMap = null;
+        } else {
+            this.versionStringMap = Collections.unmodifiableMap(new TreeMap<String, String>(versionStringMap));
+        }
+
+        int maxDepth = (versionStringMap == null ? -1 : 0);
+        if (versionInfoMap == null) {
+            this.versionInfoMap = null;
+        } else {
+            Map<String, CompositeVersionInfo> immutableVersionInfoMap = new TreeMap<String, CompositeVersionInfo>();
+            for (Map.Entry<String, ? extends CompositeVersionInfo> entry : versionInfoMap.entrySet()) {
+                ImmutableCompositeVersionInfo component = copyOf(entry.getValue());
+                immutableVersionInfoMap.put(entry.getKey(), component);
+                if (component.getMaximumComponentVersionDepth() + 1 > maxDepth) {
+                    maxDepth = component.getMaximumComponentVersionDepth() + 1;
+                }
+            }
+            this.versionInfoMap = Collections.unmodifiableMap(immutableVersionInfoMap);
+        }
+
+        this.maximumComponentVersionDepth = maxDepth;
+
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + keyConcatenationSeparator;
+        result = prime * result
+                 + ((this.versionInfoMap == null) ? 0 : this.versionInfoMap.hashCode());
+        result = prime * result
+                 + ((this.versionStringMap == null) ? 0 : this.versionStringMap.hashCode());
+        this.hashCode = result;
+        this.structuralHash = StructuralHash.of(keyConcatenationSeparator, this.versionStringMap, this.versionInfoMap);
+    }
+
+    /**
+     * Return the shared, unmodifiable flattened version map, composed as for
+     * {@link CompositeVersionInfoMap#getVersionMap()}.
+     *
+     * @return map as above.
+     * @see com.redblackit.version.VersionInfo#getVersionMap()
+     */
+    @Override
+    @JsonIgnore
+    public Map<String, String> getVersionMap() {
+        return getSortedVersionMap();
+    }
+
+    /**
+     * Return the shared, unmodifiable flattened version map, as for
+     * getVersionMap, as a SortedMap, so that clients may use range views
+     * (e.g. tailMap) rather than iterating over the whole map.
+     *
+     * @return sorted map
+     */
+    @JsonIgnore
+    public SortedMap<String, String> getSortedVersionMap() {
+        SortedMap<String, String> map = versionMap;
+        if (map == null) {
+            SortedMap<String, String> versionMap0 = new TreeMap<String, String>();
+            if (versionStringMap != null) {
+                versionMap0.putAll(versionStringMap);
+            }
+            if (versionInfoMap != null) {
+                for (Map.Entry<String, CompositeVersionInfo> entry : versionInfoMap.entrySet()) {
+                    final String prefix = entry.getKey() + keyConcatenationSeparator;
+                    for (Map.Entry<String, String> versionEntry : entry.getValue().getVersionMap().entrySet()) {
+                        versionMap0.put(prefix + versionEntry.getKey(), versionEntry.getValue());
+                    }
+                }
+            }
+
+            map = Collections.unmodifiableSortedMap(versionMap0);
+            versionMap = map;
+        }
+
+        return map;
+    }
+
+    /**
+     * Return the shared, unmodifiable component version map, with
+     * VersionKeyPath keys.
+     *
+     * @return version component map
+     * @see CompositeVersionInfo#getVersionComponentMap()
+     */
+    @Override
+    @JsonIgnore
+    public Map<List<String>, String> getVersionComponentMap() {
+        Map<List<String>, String> map = versionComponentMap;
+        if (map == null) {
+            Map<List<String>, String> versionComponentMap0 = new TreeMap<List<String>, String>(
+                    CompositeVersionInfoMap.COMPONENT_KEY_LIST_COMPARATOR);
+            if (versionStringMap != null) {
+                for (Map.Entry<String, String> entry : versionStringMap.entrySet()) {
+                    versionComponentMap0.put(VersionKeyPath.adopt(new String[]{entry.getKey()}), entry.getValue());
+                }
+            }
+
+            if (versionInfoMap != null) {
+                for (Map.Entry<String, CompositeVersionInfo> entry : versionInfoMap.entrySet()) {
+                    VersionKeyPath.addPrefixed(versionComponentMap0, new String[]{entry.getKey()},
+                                               entry.getValue().getVersionComponentMap());
+                }
+            }
+
+            map = Collections.unmodifiableMap(versionComponentMap0);
+            versionComponentMap = map;
+        }
+
+        return map;
+    }
+
+    /**
+     * We never change, so there is no need to keep the listener
+     *
+     * @param listener
+     * @see CompositeVersionInfo#addChangeListener(VersionInfoChangeListener)
+     */
+    @Override
+    public void addChangeListener(VersionInfoChangeListener listener) {
+        // nothing to do
+    }
+
+    /**
+     * Nothing to remove
+     *
+     * @param listener
+     * @see CompositeVersionInfo#removeChangeListener(VersionInfoChangeListener)
+     */
+    @Override
+    public void removeChangeListener(VersionInfoChangeListener listener) {
+        // nothing to do
+    }
+
+    /**
+     * Get the maximum depth, computed on construction.
+     *
+     * @return depth value
+     * @see CompositeVersionInfo#getMaximumComponentVersionDepth()
+     */
+    @Override
+    @JsonIgnore
+    public int getMaximumComponentVersionDepth() {
+        return maximumComponentVersionDepth;
+    }
+
+    /**
+     * Navigate down our immutable component objects.
+     *
+     * @param keys
+     * @return compositeVersionInfo object for those keys, or null if none found
+     * @see CompositeVersionInfo#getVersionInfoForKeys(String...)
+     */
+    @Override
+    public CompositeVersionInfo getVersionInfoForKeys(String... keys) {
+        return (keys == null || keys.length == 0 ? null : getContainer(keys, keys.length));
+    }
+
+    /**
+     * Navigate down our immutable component objects.
+     *
+     * @param keyPath
+     * @return compositeVersionInfo object for those keys, or null if none found
+     * @see CompositeVersionInfo#getVersionInfoForKeyPath(VersionKeyPath)
+     */
+    @Override
+    public CompositeVersionInfo getVersionInfoForKeyPath(VersionKeyPath keyPath) {
+        return (keyPath == null ? null : getContainer(keyPath.keys(), keyPath.size()));
+    }
+
+    /**
+     * Get version string for specified keys, or null if not defined.
+     *
+     * @param keys
+     * @return version string for those keys, or null if none found
+     * @see CompositeVersionInfo#getVersionForKeys(String...)
+     */
+    @Override
+    public String getVersionForKeys(String... keys) {
+        return (keys == null || keys.length == 0 ? null : getVersion(keys, keys.length));
+    }
+
+    /**
+     * Get version string for pre-split key path, or null if not defined.
+     *
+     * @param keyPath
+     * @return version string for those keys, or null if none found
+     * @see CompositeVersionInfo#getVersionForKeyPath(VersionKeyPath)
+     */
+    @Override
+    public String getVersionForKeyPath(VersionKeyPath keyPath) {
+        return (keyPath == null ? null : getVersion(keyPath.keys(), keyPath.size()));
+    }
+
+    /**
+     * Not supported: we are immutable
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void setVersionInfoForKeys(CompositeVersionInfo versionInfo, String... keys) {
+        throw new UnsupportedOperationException("immutable:setVersionInfoForKeys:keys="
+                                                + Arrays.toString(keys));
+    }
+
+    /**
+     * Not supported: we are immutable
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void setVersionForKeys(String version, String... keys) {
+        throw new UnsupportedOperationException("immutable:setVersionForKeys:keys="
+                                                + Arrays.toString(keys));
+    }
+
+    /**
+     * Not supported: we are immutable
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void setVersionInfoForKeyPath(CompositeVersionInfo versionInfo, VersionKeyPath keyPath) {
+        throw new UnsupportedOperationException("immutable:setVersionInfoForKeyPath:keyPath=" + keyPath);
+    }
+
+    /**
+     * Not supported: we are immutable
+     *
+     * @throws UnsupportedOperationException always
+     */
+    @Override
+    public void setVersionForKeyPath(String version, VersionKeyPath keyPath) {
+        throw new UnsupportedOperationException("immutable:setVersionForKeyPath:keyPath=" + keyPath);
+    }
+
+    /**
+     * Return the shared, unmodifiable map of immutable components
+     *
+     * @return versionInfoMap, or null
+     * @see CompositeVersionInfo#getVersionInfoMap()
+     */
+    @Override
+    public Map<String, CompositeVersionInfo> getVersionInfoMap() {
+        return versionInfoMap;
+    }
+
+    /**
+     * Return the shared, unmodifiable top-level version string map
+     *
+     * @return versionStringMap, or null
+     * @see CompositeVersionInfo#getVersionStringMap()
+     */
+    @Override
+    public Map<String, String> getVersionStringMap() {
+        return versionStringMap;
+    }
+
+    /**
+     * We are our own snapshot
+     *
+     * @return this
+     * @see CompositeVersionInfo#snapshot()
+     */
+    @Override
+    public ImmutableCompositeVersionInfo snapshot() {
+        return this;
+    }
+
+    /**
+     * @return the keyConcatenationSeparator
+     */
+    public char getKeyConcatenationSeparator() {
+        return keyConcatenationSeparator;
+    }
+
+    /**
+     * Normal toString
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append("ImmutableCompositeVersionInfo {keyConcatenationSeparator=");
+        builder.append(keyConcatenationSeparator);
+        builder.append(", versionInfoMap=");
+        builder.append(versionInfoMap);
+        builder.append(", versionStringMap=");
+        builder.append(versionStringMap);
+        builder.append('}');
+        return builder.toString();
+    }
+
+    /**
+     * Return structural hash computed on construction
+     *
+     * @return structural hash
+     * @see CompositeVersionInfo#getStructuralHash()
+     */
+    @Override
+    @JsonIgnore
+    public long getStructuralHash() {
+        return structuralHash;
+    }
+
+    /**
+     * Return hashCode computed on construction
+     *
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    /*
+      * (non-Javadoc)
+      *
+      * @see java.lang.Object#equals(java.lang.Object)
+      */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        ImmutableCompositeVersionInfo other = (ImmutableCompositeVersionInfo) obj;
+        if (hashCode != other.hashCode || structuralHash != other.structuralHash) {
+            return false;
+        }
+        if (keyConcatenationSeparator != other.keyConcatenationSeparator) {
+            return false;
+        }
+        if (versionInfoMap == null) {
+            if (other.versionInfoMap != null) {
+                return false;
+            }
+        } else if (!versionInfoMap.equals(other.versionInfoMap)) {
+            return false;
+        }
+        if (versionStringMap == null) {
+            if (other.versionStringMap != null) {
+                return false;
+            }
+        } else if (!versionStringMap.equals(other.versionStringMap)) {
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Navigate down the first length keys
+     *
+     * @param keys
+     * @param length
+     * @return component, or null if none found
+     */
+    private ImmutableCompositeVersionInfo getContainer(String[] keys, int length) {
+        ImmutableCompositeVersionInfo versionInfo = this;
+        for (int i = 0; i < length && versionInfo != null; ++i) {
+            versionInfo = (ImmutableCompositeVersionInfo) versionInfo.getVersionInfoForKey(keys[i]);
+        }
+        return versionInfo;
+    }
+
+    /**
+     * Get version for the first length keys, which must be at least 1
+     *
+     * @param keys
+     * @param length
+     * @return version, or null if none found
+     */
+    private String getVersion(String[] keys, int length) {
+        ImmutableCompositeVersionInfo versionInfo = (length == 1 ? this : getContainer(keys, length - 1));
+        return (versionInfo == null ? null : versionInfo.getVersionForKey(keys[length - 1]));
+    }
+
+    /**
+     * Return a copy with the version set for keys from index onwards, creating
+     * components with our separator as required. Components which are not on
+     * the path are shared with this object.
+     *
+     * @param version
+     * @param keys
+     * @param index of first key to use
+     * @return updated copy
+     */
+    ImmutableCompositeVersionInfo withVersion(String version, String[] keys, int index) {
+        if (index == keys.length - 1) {
+            Map<String, String> versionStringMap0 = (versionStringMap == null ? new TreeMap<String, String>()
+                                                                               : new TreeMap<String, String>(
+                    versionStringMap));
+            versionStringMap0.put(keys[index], version);
+            return new ImmutableCompositeVersionInfo(keyConcatenationSeparator, versionStringMap0, versionInfoMap);
+        }
+
+        return withComponent(keys[index], getOrCreateComponent(keys[index]).withVersion(version, keys, index + 1));
+    }
+
+    /**
+     * Return a copy with the version info set for keys from index onwards,
+     * creating components with our separator as required. Components which
+     * are not on the path are shared with this object.
+     *
+     * @param versionInfo
+     * @param keys
+     * @param index of first key to use
+     * @return updated copy
+     */
+    ImmutableCompositeVersionInfo withVersionInfo(ImmutableCompositeVersionInfo versionInfo, String[] keys,
+                                                  int index) {
+        if (index == keys.length - 1) {
+            return withComponent(keys[index], versionInfo);
+        }
+
+        return withComponent(keys[index],
+                             getOrCreateComponent(keys[index]).withVersionInfo(versionInfo, keys, index + 1));
+    }
+
+    /**
+     * Return a copy with the component for key replaced
+     *
+     * @param key
+     * @param component
+     * @return updated copy
+     */
+    private ImmutableCompositeVersionInfo withComponent(String key, ImmutableCompositeVersionInfo component) {
+        Map<String, CompositeVersionInfo> versionInfoMap0 = (versionInfoMap == null
+                                                             ? new TreeMap<String, CompositeVersionInfo>()
+                                                             : new TreeMap<String, CompositeVersionInfo>(
+                versionInfoMap));
+        versionInfoMap0.put(key, component);
+        return new ImmutableCompositeVersionInfo(keyConcatenationSeparator, versionStringMap, versionInfoMap0);
+    }
+
+    /**
+     * Return the component for key, or a new empty one with our separator
+     *
+     * @param key
+     * @return component
+     */
+    private ImmutableCompositeVersionInfo getOrCreateComponent(String key) {
+        ImmutableCompositeVersionInfo component = (ImmutableCompositeVersionInfo) getVersionInfoForKey(key);
+        return (component == null ? new ImmutableCompositeVersionInfo(keyConcatenationSeparator, null, null)
+                                  : component);
+    }
+
+    /**
+     * Return the component for a specific key, or null if there is none
+     *
+     * @param key
+     * @return versionInfo
+     */
+    CompositeVersionInfo getVersionInfoForKey(String key) {
+        return (versionInfoMap == null || key == null ? null : versionInfoMap.get(key));
+    }
+
+    /**
+     * Get version string for supplied key, or null if not defined
+     *
+     * @param key
+     * @return version string
+     */
+    String getVersionForKey(String key) {
+        return (versionStringMap == null || key == null ? null : versionStringMap.get(key));
+    }
+}
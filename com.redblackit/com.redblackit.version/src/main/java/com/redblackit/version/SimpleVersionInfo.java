@@ -112,6 +112,18 @@ public class SimpleVersionInfo extends VersionInfoBase {
 		return versionMap;
 	}
 
+	/**
+	 * The version string is not cached, since the properties object is
+	 * exposed, and may be changed.
+	 * 
+	 * @return false
+	 * @see VersionInfoBase#isVersionStringCacheable()
+	 */
+	@Override
+	protected boolean isVersionStringCacheable() {
+		return false;
+	}
+
 	/**
 	 * toString using the map.toString
 	 * 
@@ -127,14 +139,27 @@ public class SimpleVersionInfo extends VersionInfoBase {
 	}
 
 	/**
-	 * hashCode from properties
+	 * hashCode from properties, the same as getVersionMap().hashCode(), but
+	 * computed directly from the properties rather than building the map.
+	 * This is not cached, since the properties object is exposed, and may be
+	 * changed.
 	 * 
 	 * @return hashCode
 	 * @see java.lang.Object#hashCode()
 	 */
 	@Override
 	public int hashCode() {
-		return getVersionMap().hashCode();
+		if (versionProperties == null) {
+			return 0;
+		}
+
+		int result = 0;
+		for (Object pname : versionProperties.keySet()) {
+			final String key = pname.toString();
+			final String value = versionProperties.getProperty(key);
+			result += key.hashCode() ^ (value == null ? 0 : value.hashCode());
+		}
+		return result;
 	}
 
 	/**
@@ -154,6 +179,9 @@ public class SimpleVersionInfo extends VersionInfoBase {
 			return false;
 		}
 		SimpleVersionInfo other = (SimpleVersionInfo) obj;
+		if (hashCode() != other.hashCode()) {
+			return false;
+		}
 		if (getVersionMap() == null) {
 			return (other.getVersionMap() == null);
 		}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import java.util.*;
+
+/**
+ * Immutable map of strings, held as parallel arrays sorted by key, with
+ * lookup by binary search. Iteration is in key order, so toString is the same
+ * as for a TreeMap, and the hashCode is computed once.
+ *
+ * @author djnorth
+ */
+final class SortedArrayMap extends AbstractMap<String, String> {
+
+    /**
+     * Empty map
+     */
+    static final SortedArrayMap EMPTY = new SortedArrayMap(new String[0], new String[0]);
+
+    /**
+     * Sorted keys
+     */
+    private final String[] keys;
+
+    /**
+     * Values, in key order
+     */
+    private final String[] values;
+
+    /**
+     * Cached hashCode, as for AbstractMap
+     */
+    private final int hashCode;
+
+    /**
+     * Entry set view, created on first use
+     */
+    private transient Set<Map.Entry<String, String>> entrySet;
+
+    /**
+     * Create a map with the same entries as the supplied map, whose keys and
+     * values are converted to strings (as for Properties). Null keys and
+     * values are rejected, as Properties cannot hold them.
+     *
+     * @param map
+     * @return new map
+     */
+    static SortedArrayMap copyOf(Map<?, ?> map) {
+        if (map.isEmpty()) {
+            return EMPTY;
+        }
+
+        TreeMap<String, String> sortedMap = new TreeMap<String, String>();
+        for (Map.Entry<?, ?> entry : map.entrySet()) {
+            if (entry.getKey() == null || entry.getValue() == null) {
+                throw new NullPointerException("null key (=" + entry.getKey() + ") or null value (="
+                                               + entry.getValue() + ") in map:" + map);
+            }
+            sortedMap.put(entry.getKey().toString(), entry.getValue().toString());
+        }
+
+        String[] keys = new String[sortedMap.size()];
+        String[] values = new String[keys.length];
+        int i = 0;
+        for (Map.Entry<String, String> entry : sortedMap.entrySet()) {
+            keys[i] = entry.getKey();
+            values[i] = entry.getValue();
+            ++i;
+        }
+
+        return new SortedArrayMap(keys, values);
+    }
+
+    /**
+     * Constructor taking ownership of sorted arrays
+     *
+     * @param keys
+     * @param values
+     */
+    private SortedArrayMap(String[] keys, String[] values) {
+        this.keys = keys;
+        this.values = values;
+        int result = 0;
+        for (int i = 0; i < keys.length; ++i) {
+            result += keys[i].hashCode() ^ values[i].hashCode();
+        }
+        this.hashCode = result;
+    }
+
+    /**
+     * @see java.util.AbstractMap#size()
+     */
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * Binary search for key
+     *
+     * @see java.util.AbstractMap#containsKey(java.lang.Object)
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+    /**
+     * Binary search for key
+     *
+     * @see java.util.AbstractMap#get(java.lang.Object)
+     */
+    @Override
+    public String get(Object key) {
+        final int index = indexOf(key);
+        return (index < 0 ? null : values[index]);
+    }
+
+    /**
+     * Unmodifiable entry set, in key order
+     *
+     * @see java.util.AbstractMap#entrySet()
+     */
+    @Override
+    public Set<Map.Entry<String, String>> entrySet() {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Map.Entry<String, String>>() {
+                @Override
+                public Iterator<Map.Entry<String, String>> iterator() {
+                    return new Iterator<Map.Entry<String, String>>() {
+                        private int index = 0;
+
+                        @Override
+                        public boolean hasNext() {
+                            return index < keys.length;
+                        }
+
+                        @Override
+                        public Map.Entry<String, String> next() {
+                            if (index >= keys.length) {
+                                throw new NoSuchElementException();
+                            }
+                            Map.Entry<String, String> entry = new AbstractMap.SimpleImmutableEntry<String, String>(
+                                    keys[index], values[index]);
+                            ++index;
+                            return entry;
+                        }
+
+                        @Override
+                        public void remove() {
+                            throw new UnsupportedOperationException("SortedArrayMap is immutable");
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+                    return keys.length;
+                }
+            };
+        }
+
+        return entrySet;
+    }
+
+    /**
+     * Cached hashCode
+     *
+     * @see java.util.AbstractMap#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    /**
+     * Compare arrays directly for another SortedArrayMap, otherwise as for
+     * any map
+     *
+     * @see java.util.AbstractMap#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof SortedArrayMap) {
+            SortedArrayMap other = (SortedArrayMap) obj;
+            return hashCode == other.hashCode && Arrays.equals(keys, other.keys)
+                   && Arrays.equals(values, other.values);
+        }
+        return super.equals(obj);
+    }
+
+    /**
+     * @param key
+     * @return index of key, or negative if absent
+     */
+    private int indexOf(Object key) {
+        return (key instanceof String ? Arrays.binarySearch(keys, key) : -1);
+    }
+}
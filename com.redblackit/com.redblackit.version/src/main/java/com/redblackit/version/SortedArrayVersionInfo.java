@@ -0,0 +1,166 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import java.util.Map;
+import java.util.Properties;
+
+import org.codehaus.jackson.annotate.JsonIgnore;
+
+/**
+ * Version info taking simple properties or map objects, like SimpleVersionInfo,
+ * but copying them into an immutable map sorted by key.
+ * <p/>
+ * Each setter replaces the whole map, so readers need no locking, and
+ * getVersionMap, hashCode and equals use the map as it is rather than
+ * building a new one on each call.
+ *
+ * @author djnorth
+ */
+public class SortedArrayVersionInfo extends VersionInfoBase {
+
+    /**
+     * Version map, or null
+     */
+    private volatile SortedArrayMap versionMap;
+
+    /**
+     * Default
+     */
+    public SortedArrayVersionInfo() {
+        this((Map<String, String>) null);
+    }
+
+    /**
+     * Constructor taking properties
+     *
+     * @param versionProperties
+     */
+    public SortedArrayVersionInfo(Properties versionProperties) {
+        setVersionProperties(versionProperties);
+    }
+
+    /**
+     * Constructor taking map
+     *
+     * @param versionMap
+     */
+    public SortedArrayVersionInfo(Map<String, String> versionMap) {
+        setVersionMap(versionMap);
+    }
+
+    /**
+     * Set version properties, copying them
+     *
+     * @param versionProperties the versionProperties to set
+     */
+    public void setVersionProperties(Properties versionProperties) {
+        this.versionMap = (versionProperties == null ? null : SortedArrayMap.copyOf(versionProperties));
+        invalidateVersionString();
+    }
+
+    /**
+     * This is not in the VersionInfo interface, but allows the use of
+     * properties for convenience. Since we don't hold properties, this is a
+     * new copy, and changing it does not change this object.
+     *
+     * @return the versionProperties
+     */
+    @JsonIgnore
+    public Properties getVersionProperties() {
+        final SortedArrayMap currentVersionMap = versionMap;
+        if (currentVersionMap == null) {
+            return null;
+        }
+
+        Properties versionProperties = new Properties();
+        versionProperties.putAll(currentVersionMap);
+        return versionProperties;
+    }
+
+    /**
+     * Set version map, copying it
+     *
+     * @param versionMap which may not contain null keys or values
+     * @throws NullPointerException for a null key or value
+     */
+    public void setVersionMap(Map<String, String> versionMap) {
+        this.versionMap = (versionMap == null ? null : SortedArrayMap.copyOf(versionMap));
+        invalidateVersionString();
+    }
+
+    /**
+     * Get version map, which is unmodifiable and sorted by key
+     *
+     * @return map, or null
+     * @see com.redblackit.version.VersionInfo#getVersionMap()
+     */
+    @Override
+    public Map<String, String> getVersionMap() {
+        return versionMap;
+    }
+
+    /**
+     * toString using the map.toString
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder(getClass().getSimpleName());
+        builder.append(" [versionMap=");
+        builder.append(versionMap);
+        builder.append("]");
+        return builder.toString();
+    }
+
+    /**
+     * hashCode of the version map, which is cached by the map
+     *
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        final SortedArrayMap currentVersionMap = versionMap;
+        return (currentVersionMap == null ? 0 : currentVersionMap.hashCode());
+    }
+
+    /**
+     * equals from version map
+     *
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        final SortedArrayMap currentVersionMap = versionMap;
+        final SortedArrayMap otherVersionMap = ((SortedArrayVersionInfo) obj).versionMap;
+        if (currentVersionMap == null) {
+            return (otherVersionMap == null);
+        }
+        return currentVersionMap.equals(otherVersionMap);
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import java.util.Map;
+
+/**
+ * Computation of the structural hash for CompositeVersionInfo
+ * implementations (Merkle-style: each component contributes its own
+ * structural hash, so only components on the path to a change need
+ * recomputing).
+ *
+ * @author djnorth
+ * @see CompositeVersionInfo#getStructuralHash()
+ */
+final class StructuralHash {
+
+    /**
+     * Initial value (64-bit FNV offset basis)
+     */
+    private static final long INITIAL = 0xcbf29ce484222325L;
+
+    /**
+     * Multiplier for mixing
+     */
+    private static final long MULTIPLIER = 0x9e3779b97f4a7c15L;
+
+    /**
+     * Value used for null map or string, distinct from the hash of any empty map
+     */
+    private static final long NULL_VALUE = 0x6a09e667f3bcc909L;
+
+    /**
+     * Static methods only
+     */
+    private StructuralHash() {
+    }
+
+    /**
+     * Compute structural hash from separator and maps, which must have a
+     * consistent iteration order (e.g. be TreeMaps). The components'
+     * structural hashes are used, not recomputed.
+     *
+     * @param keyConcatenationSeparator
+     * @param versionStringMap          may be null
+     * @param versionInfoMap            may be null
+     * @return hash
+     */
+    static long of(char keyConcatenationSeparator, Map<String, String> versionStringMap,
+                   Map<String, ? extends CompositeVersionInfo> versionInfoMap) {
+        long hash = mix(INITIAL, keyConcatenationSeparator);
+
+        if (versionStringMap == null) {
+            hash = mix(hash, NULL_VALUE);
+        } else {
+            hash = mix(hash, versionStringMap.size());
+            for (Map.Entry<String, String> entry : versionStringMap.entrySet()) {
+                hash = mix(hash, of(entry.getKey()));
+                hash = mix(hash, of(entry.getValue()));
+            }
+        }
+
+        if (versionInfoMap == null) {
+            hash = mix(hash, NULL_VALUE);
+        } else {
+            hash = mix(hash, versionInfoMap.size());
+            for (Map.Entry<String, ? extends CompositeVersionInfo> entry : versionInfoMap.entrySet()) {
+                hash = mix(hash, of(entry.getKey()));
+                hash = mix(hash, (entry.getValue() == null ? NULL_VALUE : entry.getValue().getStructuralHash()));
+            }
+        }
+
+        return hash;
+    }
+
+    /**
+     * 64-bit FNV-1a hash of a string's characters
+     *
+     * @param value may be null
+     * @return hash
+     */
+    static long of(String value) {
+        if (value == null) {
+            return NULL_VALUE;
+        }
+
+        long hash = INITIAL;
+        for (int i = 0; i < value.length(); ++i) {
+            hash ^= value.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return mix(hash, value.length());
+    }
+
+    /**
+     * Combine value into hash
+     *
+     * @param hash
+     * @param value
+     * @return combined hash
+     */
+    private static long mix(long hash, long value) {
+        long mixed = (hash ^ value) * MULTIPLIER;
+        return mixed ^ (mixed >>> 32);
+    }
+}
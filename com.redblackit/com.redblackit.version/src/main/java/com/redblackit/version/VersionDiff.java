@@ -0,0 +1,314 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import java.util.*;
+
+/**
+ * Differences between two CompositeVersionInfo structures: the version
+ * strings added, removed or changed, keyed by their component keys as for
+ * {@link CompositeVersionInfo#getVersionComponentMap()}.
+ * <p/>
+ * Components which are the same object, or have the same structural hash, are
+ * treated as identical and not compared further, so the cost depends on the
+ * size of the differences rather than of the structures.
+ *
+ * @author djnorth
+ */
+public final class VersionDiff {
+
+    /**
+     * Type of change
+     */
+    public enum ChangeType {
+        ADDED, REMOVED, CHANGED
+    }
+
+    /**
+     * Change to a single version string
+     */
+    public static final class Change {
+
+        private final VersionKeyPath keys;
+        private final ChangeType type;
+        private final String oldVersion;
+        private final String newVersion;
+
+        /**
+         * Constructor taking all fields
+         *
+         * @param keys
+         * @param type
+         * @param oldVersion null if added
+         * @param newVersion null if removed
+         */
+        Change(VersionKeyPath keys, ChangeType type, String oldVersion, String newVersion) {
+            this.keys = keys;
+            this.type = type;
+            this.oldVersion = oldVersion;
+            this.newVersion = newVersion;
+        }
+
+        /**
+         * @return component keys of version string
+         */
+        public List<String> getKeys() {
+            return keys;
+        }
+
+        /**
+         * @return type of change
+         */
+        public ChangeType getType() {
+            return type;
+        }
+
+        /**
+         * @return version before change, or null if added
+         */
+        public String getOldVersion() {
+            return oldVersion;
+        }
+
+        /**
+         * @return version after change, or null if removed
+         */
+        public String getNewVersion() {
+            return newVersion;
+        }
+
+        /**
+         * equals if all fields are equal
+         *
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null || getClass() != obj.getClass()) {
+                return false;
+            }
+            Change other = (Change) obj;
+            return keys.equals(other.keys) && type == other.type
+                   && (oldVersion == null ? other.oldVersion == null : oldVersion.equals(other.oldVersion))
+                   && (newVersion == null ? other.newVersion == null : newVersion.equals(other.newVersion));
+        }
+
+        /**
+         * hashCode from keys and type
+         *
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+            return 31 * keys.hashCode() + type.hashCode();
+        }
+
+        /**
+         * toString giving all fields
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return "Change [keys=" + keys + ", type=" + type + ", oldVersion=" + oldVersion + ", newVersion="
+                   + newVersion + "]";
+        }
+    }
+
+    /**
+     * Changes by component keys
+     */
+    private final Map<List<String>, Change> changes;
+
+    /**
+     * Compute differences from one structure to another
+     *
+     * @param from original structure
+     * @param to   new structure
+     * @return differences
+     */
+    public static VersionDiff between(CompositeVersionInfo from, CompositeVersionInfo to) {
+        if (from == null || to == null) {
+            throw new NullPointerException("from=" + from + ":to=" + to);
+        }
+
+        Map<List<String>, Change> changes = new TreeMap<List<String>, Change>(
+                CompositeVersionInfoMap.COMPONENT_KEY_LIST_COMPARATOR);
+        compare(changes, new String[0], VersionInfoMaps.readable(from), VersionInfoMaps.readable(to));
+        return new VersionDiff(Collections.unmodifiableMap(changes));
+    }
+
+    /**
+     * Private constructor taking changes
+     *
+     * @param changes
+     */
+    private VersionDiff(Map<List<String>, Change> changes) {
+        this.changes = changes;
+    }
+
+    /**
+     * @return unmodifiable map of changes by component keys, in the same order
+     *         as {@link CompositeVersionInfo#getVersionComponentMap()}
+     */
+    public Map<List<String>, Change> getChanges() {
+        return changes;
+    }
+
+    /**
+     * @return true if there are no differences
+     */
+    public boolean isEmpty() {
+        return changes.isEmpty();
+    }
+
+    /**
+     * toString giving changes
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "VersionDiff [changes=" + changes.values() + "]";
+    }
+
+    /**
+     * Compare version strings then components of the two structures, which
+     * are at the supplied keys
+     *
+     * @param changes    to add to
+     * @param prefixKeys
+     * @param from
+     * @param to
+     */
+    private static void compare(Map<List<String>, Change> changes, String[] prefixKeys, CompositeVersionInfo from,
+                                CompositeVersionInfo to) {
+        if (from == to || from.getStructuralHash() == to.getStructuralHash()) {
+            return;
+        }
+
+        compareVersions(changes, prefixKeys, VersionInfoMaps.versionStringMapOf(from),
+                        VersionInfoMaps.versionStringMapOf(to));
+
+        Map<String, CompositeVersionInfo> fromComponents = VersionInfoMaps.versionInfoMapOf(from);
+        Map<String, CompositeVersionInfo> toComponents = VersionInfoMaps.versionInfoMapOf(to);
+        if (fromComponents != null) {
+            for (Map.Entry<String, CompositeVersionInfo> entry : fromComponents.entrySet()) {
+                String[] keys = appendKey(prefixKeys, entry.getKey());
+                CompositeVersionInfo toComponent = (toComponents == null ? null : toComponents.get(entry.getKey()));
+                if (toComponent == null) {
+                    addAll(changes, keys, entry.getValue(), ChangeType.REMOVED);
+                } else {
+                    compare(changes, keys, entry.getValue(), toComponent);
+                }
+            }
+        }
+
+        if (toComponents != null) {
+            for (Map.Entry<String, CompositeVersionInfo> entry : toComponents.entrySet()) {
+                if (fromComponents == null || !fromComponents.containsKey(entry.getKey())) {
+                    addAll(changes, appendKey(prefixKeys, entry.getKey()), entry.getValue(), ChangeType.ADDED);
+                }
+            }
+        }
+    }
+
+    /**
+     * Compare version strings at one level
+     *
+     * @param changes
+     * @param prefixKeys
+     * @param fromVersions may be null
+     * @param toVersions   may be null
+     */
+    private static void compareVersions(Map<List<String>, Change> changes, String[] prefixKeys,
+                                        Map<String, String> fromVersions, Map<String, String> toVersions) {
+        if (fromVersions != null) {
+            for (Map.Entry<String, String> entry : fromVersions.entrySet()) {
+                final String oldVersion = entry.getValue();
+                if (toVersions == null || !toVersions.containsKey(entry.getKey())) {
+                    put(changes, appendKey(prefixKeys, entry.getKey()), ChangeType.REMOVED, oldVersion, null);
+                } else {
+                    final String newVersion = toVersions.get(entry.getKey());
+                    if (oldVersion == null ? newVersion != null : !oldVersion.equals(newVersion)) {
+                        put(changes, appendKey(prefixKeys, entry.getKey()), ChangeType.CHANGED, oldVersion,
+                            newVersion);
+                    }
+                }
+            }
+        }
+
+        if (toVersions != null) {
+            for (Map.Entry<String, String> entry : toVersions.entrySet()) {
+                if (fromVersions == null || !fromVersions.containsKey(entry.getKey())) {
+                    put(changes, appendKey(prefixKeys, entry.getKey()), ChangeType.ADDED, null, entry.getValue());
+                }
+            }
+        }
+    }
+
+    /**
+     * Add every version string in a component which was added or removed
+     *
+     * @param changes
+     * @param prefixKeys keys of component
+     * @param component
+     * @param type       ADDED or REMOVED
+     */
+    private static void addAll(Map<List<String>, Change> changes, String[] prefixKeys,
+                               CompositeVersionInfo component, ChangeType type) {
+        Map<List<String>, String> componentVersions = new HashMap<List<String>, String>();
+        VersionKeyPath.addPrefixed(componentVersions, prefixKeys, component.getVersionComponentMap());
+        for (Map.Entry<List<String>, String> entry : componentVersions.entrySet()) {
+            VersionKeyPath keys = (VersionKeyPath) entry.getKey();
+            if (type == ChangeType.ADDED) {
+                changes.put(keys, new Change(keys, type, null, entry.getValue()));
+            } else {
+                changes.put(keys, new Change(keys, type, entry.getValue(), null));
+            }
+        }
+    }
+
+    /**
+     * Add a single change
+     *
+     * @param changes
+     * @param keys
+     * @param type
+     * @param oldVersion
+     * @param newVersion
+     */
+    private static void put(Map<List<String>, Change> changes, String[] keys, ChangeType type, String oldVersion,
+                            String newVersion) {
+        VersionKeyPath keyPath = VersionKeyPath.adopt(keys);
+        changes.put(keyPath, new Change(keyPath, type, oldVersion, newVersion));
+    }
+
+    /**
+     * @param prefixKeys
+     * @param key
+     * @return new array with key appended
+     */
+    private static String[] appendKey(String[] prefixKeys, String key) {
+        String[] keys = Arrays.copyOf(prefixKeys, prefixKeys.length + 1);
+        keys[prefixKeys.length] = key;
+        return keys;
+    }
+}
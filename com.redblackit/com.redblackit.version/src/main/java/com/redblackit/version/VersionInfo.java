@@ -16,6 +16,7 @@
 
 package com.redblackit.version;
 
+import java.io.IOException;
 import java.util.Map;
 
 
@@ -40,4 +41,13 @@ public interface VersionInfo
      */
     String getVersionString();
 
+    /**
+     * Write version string, as given by getVersionString, without
+     * necessarily building it
+     *
+     * @param appendable e.g. a servlet response writer
+     * @throws IOException from appendable
+     */
+    void writeVersionString(Appendable appendable) throws IOException;
+
 }
@@ -1,5 +1,10 @@
 package com.redblackit.version;
 
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
 import org.apache.log4j.Logger;
 import org.codehaus.jackson.annotate.JsonIgnore;
 
@@ -7,6 +12,11 @@ import org.codehaus.jackson.annotate.JsonIgnore;
  * Abstract base class for VersionInfo implementations, giving consistent
  * getVersionString implementation.
  * 
+ * The version string is cached until the subclass calls invalidateVersionString,
+ * which it must do after any change affecting getVersionMap. A subclass whose
+ * version map may be changed without its knowledge should override
+ * isVersionStringCacheable to return false.
+ * 
  * @author djnorth
  */
 public abstract class VersionInfoBase implements VersionInfo {
@@ -17,18 +27,78 @@ public abstract class VersionInfoBase implements VersionInfo {
 	private final Logger logger = Logger.getLogger("VersionInfo");
 
 	/**
-	 * Get version string
+	 * Count of changes, so a version string computed while a change was
+	 * being made is not used after it
+	 */
+	private final AtomicInteger changeCount = new AtomicInteger();
+
+	/**
+	 * Cached version string, or null
+	 */
+	private volatile CachedVersionString cachedVersionString;
+
+	/**
+	 * Get version string, cached until the next change
 	 * 
 	 * @return formatted version string
 	 * @see VersionInfo
 	 */
 	@JsonIgnore
 	public String getVersionString() {
-		StringBuffer vb = new StringBuffer(getClass().getName());
+		final int currentChangeCount = changeCount.get();
+		CachedVersionString cached = cachedVersionString;
+		if (cached != null && cached.changeCount == currentChangeCount) {
+			return cached.versionString;
+		}
 
-		vb.append("\n versionMap=").append(getVersionMap());
+		StringBuilder vb = new StringBuilder(256);
+		try {
+			appendVersionString(vb);
+		} catch (IOException ioe) {
+			throw new IllegalStateException("IOException from StringBuilder", ioe);
+		}
 
-		return vb.toString();
+		final String versionString = vb.toString();
+		if (isVersionStringCacheable()) {
+			cachedVersionString = new CachedVersionString(currentChangeCount, versionString);
+		}
+
+		return versionString;
+	}
+
+	/**
+	 * Write version string, as given by getVersionString, using the cached
+	 * string if there is one, and otherwise without building it.
+	 * 
+	 * @param appendable
+	 * @throws IOException from appendable
+	 * @see VersionInfo
+	 */
+	public void writeVersionString(Appendable appendable) throws IOException {
+		CachedVersionString cached = cachedVersionString;
+		if (cached != null && cached.changeCount == changeCount.get()) {
+			appendable.append(cached.versionString);
+		} else {
+			appendVersionString(appendable);
+		}
+	}
+
+	/**
+	 * Note a change to this object, invalidating the cached version string
+	 */
+	protected void invalidateVersionString() {
+		changeCount.incrementAndGet();
+		cachedVersionString = null;
+	}
+
+	/**
+	 * Override to return false, if the version map can change without
+	 * invalidateVersionString being called
+	 * 
+	 * @return true if the version string may be cached
+	 */
+	protected boolean isVersionStringCacheable() {
+		return true;
 	}
 
 	/**
@@ -38,4 +108,46 @@ public abstract class VersionInfoBase implements VersionInfo {
 		return logger;
 	}
 
+	/**
+	 * Append class name and version map, formatting the map as its toString
+	 * would
+	 * 
+	 * @param appendable
+	 * @throws IOException
+	 */
+	private void appendVersionString(Appendable appendable) throws IOException {
+		appendable.append(getClass().getName()).append("\n versionMap=");
+
+		final Map<String, String> versionMap = getVersionMap();
+		if (versionMap == null) {
+			appendable.append("null");
+			return;
+		}
+
+		appendable.append('{');
+		Iterator<Map.Entry<String, String>> entries = versionMap.entrySet().iterator();
+		while (entries.hasNext()) {
+			Map.Entry<String, String> entry = entries.next();
+			appendable.append(entry.getKey()).append('=').append(entry.getValue());
+			if (entries.hasNext()) {
+				appendable.append(", ");
+			}
+		}
+		appendable.append('}');
+	}
+
+	/**
+	 * Version string with the change count when it was computed
+	 */
+	private static final class CachedVersionString {
+
+		private final int changeCount;
+		private final String versionString;
+
+		CachedVersionString(int changeCount, String versionString) {
+			this.changeCount = changeCount;
+			this.versionString = versionString;
+		}
+	}
+
 }
\ No newline at end of file
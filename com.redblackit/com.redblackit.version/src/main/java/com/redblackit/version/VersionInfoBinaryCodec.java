@@ -0,0 +1,387 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Compact binary encoding of a CompositeVersionInfo structure, in which each
+ * distinct key or version string appears once.
+ * <p/>
+ * The format is:
+ * <ul>
+ * <li>magic bytes <code>RBV</code> and the format version (1)</li>
+ * <li>the string dictionary: a count, then each string as a length and
+ * UTF-8 bytes</li>
+ * <li>the root node, where each node is its separator character, then its
+ * version strings as a count followed by key and value pairs, then its
+ * components as a count followed by key and node pairs (depth-first)</li>
+ * </ul>
+ * All counts, lengths, characters and dictionary indices are unsigned
+ * varints (7 bits per byte, least significant first). Map counts are one
+ * more than the number of entries, so that 0 means a null map. Values are
+ * one more than the dictionary index, so that 0 means a null version. Null
+ * components are omitted.
+ *
+ * @author djnorth
+ */
+public final class VersionInfoBinaryCodec {
+
+    /**
+     * Media type for this encoding
+     */
+    public static final String MEDIA_TYPE = "application/x-redblackit-version";
+
+    /**
+     * Magic bytes and format version
+     */
+    private static final byte[] HEADER = {'R', 'B', 'V', 1};
+
+    /**
+     * Deepest structure we will decode, to guard against malicious input
+     */
+    private static final int MAX_DEPTH = 256;
+
+    /**
+     * Static methods only
+     */
+    private VersionInfoBinaryCodec() {
+    }
+
+    /**
+     * Encode versionInfo
+     *
+     * @param versionInfo
+     * @return encoded bytes
+     */
+    public static byte[] encode(CompositeVersionInfo versionInfo) {
+        if (versionInfo == null) {
+            throw new NullPointerException("versionInfo");
+        }
+
+        Map<String, Integer> dictionary = new HashMap<String, Integer>();
+        List<String> strings = new ArrayList<String>();
+        ByteOutput nodes = new ByteOutput(1024);
+        writeNode(nodes, VersionInfoMaps.readable(versionInfo), dictionary, strings);
+
+        ByteOutput output = new ByteOutput(nodes.size() + 16 * strings.size() + 16);
+        output.write(HEADER, 0, HEADER.length);
+        output.writeVarint(strings.size());
+        for (String string : strings) {
+            final byte[] bytes = toUtf8(string);
+            output.writeVarint(bytes.length);
+            output.write(bytes, 0, bytes.length);
+        }
+        output.write(nodes.buffer(), 0, nodes.size());
+        return output.toByteArray();
+    }
+
+    /**
+     * Encode versionInfo to stream, which is left open
+     *
+     * @param versionInfo
+     * @param outputStream
+     * @throws IOException
+     */
+    public static void encode(CompositeVersionInfo versionInfo, OutputStream outputStream) throws IOException {
+        outputStream.write(encode(versionInfo));
+    }
+
+    /**
+     * Decode versionInfo. Dictionary strings are interned in the shared
+     * VersionStringPool, if any, so they are shared with other structures.
+     *
+     * @param bytes
+     * @return new versionInfo
+     * @throws IOException if bytes are not a valid encoding
+     */
+    public static CompositeVersionInfoMap decode(byte[] bytes) throws IOException {
+        ByteInput input = new ByteInput(bytes);
+        for (byte headerByte : HEADER) {
+            if (input.read() != (headerByte & 0xff)) {
+                throw new IOException("not " + MEDIA_TYPE + " format version " + HEADER[HEADER.length - 1]);
+            }
+        }
+
+        final int stringCount = input.readVarint();
+        if (stringCount > input.remaining()) {
+            throw new IOException("string count " + stringCount + " exceeds remaining bytes " + input.remaining());
+        }
+        final VersionStringPool pool = VersionStringPool.getSharedPool();
+        String[] strings = new String[stringCount];
+        for (int i = 0; i < stringCount; ++i) {
+            final String string = input.readUtf8(input.readVarint());
+            strings[i] = (pool == null ? string : pool.intern(string));
+        }
+
+        CompositeVersionInfoMap versionInfo = readNode(input, strings, 0);
+        if (input.remaining() != 0) {
+            throw new IOException(input.remaining() + " unexpected bytes after root node");
+        }
+
+        return versionInfo;
+    }
+
+    /**
+     * Decode versionInfo from whole of stream, which is left open
+     *
+     * @param inputStream
+     * @return new versionInfo
+     * @throws IOException if the stream cannot be read, or is not a valid
+     *                     encoding
+     */
+    public static CompositeVersionInfoMap decode(InputStream inputStream) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = inputStream.read(buffer)) >= 0) {
+            bytes.write(buffer, 0, count);
+        }
+
+        return decode(bytes.toByteArray());
+    }
+
+    /**
+     * Write node, adding strings to dictionary as they are first used
+     *
+     * @param output
+     * @param versionInfo
+     * @param dictionary  of index by string
+     * @param strings     in index order
+     */
+    private static void writeNode(ByteOutput output, CompositeVersionInfo versionInfo,
+                                  Map<String, Integer> dictionary, List<String> strings) {
+        output.writeVarint(VersionInfoMaps.keyConcatenationSeparatorOf(versionInfo));
+
+        final Map<String, String> versionStringMap = VersionInfoMaps.versionStringMapOf(versionInfo);
+        if (versionStringMap == null) {
+            output.writeVarint(0);
+        } else {
+            output.writeVarint(versionStringMap.size() + 1);
+            for (Map.Entry<String, String> entry : versionStringMap.entrySet()) {
+                output.writeVarint(indexOf(entry.getKey(), dictionary, strings));
+                output.writeVarint(entry.getValue() == null ? 0 : indexOf(entry.getValue(), dictionary, strings) + 1);
+            }
+        }
+
+        final Map<String, CompositeVersionInfo> versionInfoMap = VersionInfoMaps.versionInfoMapOf(versionInfo);
+        if (versionInfoMap == null) {
+            output.writeVarint(0);
+        } else {
+            int componentCount = 0;
+            for (CompositeVersionInfo component : versionInfoMap.values()) {
+                if (component != null) {
+                    ++componentCount;
+                }
+            }
+
+            output.writeVarint(componentCount + 1);
+            for (Map.Entry<String, CompositeVersionInfo> entry : versionInfoMap.entrySet()) {
+                if (entry.getValue() != null) {
+                    output.writeVarint(indexOf(entry.getKey(), dictionary, strings));
+                    writeNode(output, VersionInfoMaps.readable(entry.getValue()), dictionary, strings);
+                }
+            }
+        }
+    }
+
+    /**
+     * Read node and its components
+     *
+     * @param input
+     * @param strings dictionary
+     * @param depth   of this node
+     * @return versionInfo
+     * @throws IOException
+     */
+    private static CompositeVersionInfoMap readNode(ByteInput input, String[] strings, int depth)
+            throws IOException {
+        if (depth > MAX_DEPTH) {
+            throw new IOException("structure deeper than " + MAX_DEPTH);
+        }
+
+        final int separator = input.readVarint();
+        if (separator > Character.MAX_VALUE) {
+            throw new IOException("invalid separator " + separator);
+        }
+
+        TreeMap<String, String> versionStringMap = null;
+        final int versionCount = input.readVarint();
+        if (versionCount > 0) {
+            versionStringMap = new TreeMap<String, String>();
+            for (int i = 1; i < versionCount; ++i) {
+                final String key = dictionaryString(strings, input.readVarint());
+                final int valueIndex = input.readVarint();
+                versionStringMap.put(key, (valueIndex == 0 ? null : dictionaryString(strings, valueIndex - 1)));
+            }
+        }
+
+        TreeMap<String, CompositeVersionInfo> versionInfoMap = null;
+        final int componentCount = input.readVarint();
+        if (componentCount > 0) {
+            versionInfoMap = new TreeMap<String, CompositeVersionInfo>();
+            for (int i = 1; i < componentCount; ++i) {
+                final String key = dictionaryString(strings, input.readVarint());
+                versionInfoMap.put(key, readNode(input, strings, depth + 1));
+            }
+        }
+
+        return new CompositeVersionInfoMap((char) separator, versionStringMap, versionInfoMap);
+    }
+
+    /**
+     * @param string
+     * @param dictionary
+     * @param strings
+     * @return index of string, added if new
+     */
+    private static int indexOf(String string, Map<String, Integer> dictionary, List<String> strings) {
+        Integer index = dictionary.get(string);
+        if (index == null) {
+            index = strings.size();
+            dictionary.put(string, index);
+            strings.add(string);
+        }
+
+        return index;
+    }
+
+    /**
+     * @param strings
+     * @param index
+     * @return string at index
+     * @throws IOException if index is out of range
+     */
+    private static String dictionaryString(String[] strings, int index) throws IOException {
+        if (index >= strings.length) {
+            throw new IOException("string index " + index + " out of range for dictionary of " + strings.length);
+        }
+
+        return strings[index];
+    }
+
+    /**
+     * @param string
+     * @return UTF-8 bytes
+     */
+    private static byte[] toUtf8(String string) {
+        try {
+            return string.getBytes("UTF-8");
+        } catch (UnsupportedEncodingException uee) {
+            throw new IllegalStateException("UTF-8 not supported", uee);
+        }
+    }
+
+    /**
+     * Growable output buffer, without the synchronization of
+     * ByteArrayOutputStream
+     */
+    private static final class ByteOutput {
+
+        private byte[] buffer;
+        private int size;
+
+        ByteOutput(int capacity) {
+            buffer = new byte[capacity];
+        }
+
+        void writeVarint(int value) {
+            ensureCapacity(5);
+            while ((value & ~0x7f) != 0) {
+                buffer[size++] = (byte) ((value & 0x7f) | 0x80);
+                value >>>= 7;
+            }
+            buffer[size++] = (byte) value;
+        }
+
+        void write(byte[] bytes, int offset, int length) {
+            ensureCapacity(length);
+            System.arraycopy(bytes, offset, buffer, size, length);
+            size += length;
+        }
+
+        byte[] buffer() {
+            return buffer;
+        }
+
+        int size() {
+            return size;
+        }
+
+        byte[] toByteArray() {
+            return (size == buffer.length ? buffer : Arrays.copyOf(buffer, size));
+        }
+
+        private void ensureCapacity(int extra) {
+            if (size + extra > buffer.length) {
+                buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, size + extra));
+            }
+        }
+    }
+
+    /**
+     * Input from byte array, checking for truncation
+     */
+    private static final class ByteInput {
+
+        private final byte[] bytes;
+        private int position;
+
+        ByteInput(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        int remaining() {
+            return bytes.length - position;
+        }
+
+        int read() throws IOException {
+            if (position >= bytes.length) {
+                throw new EOFException("truncated at byte " + position);
+            }
+
+            return bytes[position++] & 0xff;
+        }
+
+        int readVarint() throws IOException {
+            int value = 0;
+            for (int shift = 0; shift < 32; shift += 7) {
+                final int b = read();
+                value |= (b & 0x7f) << shift;
+                if ((b & 0x80) == 0) {
+                    if (value < 0) {
+                        break;
+                    }
+                    return value;
+                }
+            }
+
+            throw new IOException("invalid varint ending at byte " + position);
+        }
+
+        String readUtf8(int length) throws IOException {
+            if (length > remaining()) {
+                throw new EOFException("string of " + length + " bytes truncated at byte " + position);
+            }
+
+            final String string = new String(bytes, position, length, "UTF-8");
+            position += length;
+            return string;
+        }
+    }
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+/**
+ * Listener for changes to a CompositeVersionInfo structure, allowing
+ * derived data (e.g. serialized forms) to be cached until the next change.
+ *
+ * @author djnorth
+ * @see CompositeVersionInfo#addChangeListener(VersionInfoChangeListener)
+ */
+public interface VersionInfoChangeListener {
+
+    /**
+     * Called after versionInfo, or any component version info within it, has
+     * changed. This is called on the thread making the change, so should
+     * return promptly.
+     *
+     * @param versionInfo to which the listener was added
+     */
+    void versionInfoChanged(CompositeVersionInfo versionInfo);
+}
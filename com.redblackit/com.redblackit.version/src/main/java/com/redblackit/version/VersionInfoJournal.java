@@ -0,0 +1,835 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import java.io.*;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.*;
+import java.util.zip.CRC32;
+
+import org.apache.log4j.Logger;
+
+/**
+ * Journal of changes made to a CompositeVersionInfo at runtime (e.g. by
+ * setVersionForKeys or setVersionInfoForKeys), so that they survive a
+ * restart.
+ * <p/>
+ * Our listener only counts changes and wakes a commit thread, so the thread
+ * making a change pays nothing more. Once per commit interval, the commit
+ * thread takes a snapshot of the version info, and records the version
+ * strings set or removed since the previous snapshot (from VersionDiff) in
+ * compact binary records appended to a memory-mapped journal file, then
+ * forces them to disk (group commit). A burst of changes thus costs one
+ * snapshot, diff and force, rather than one each, and a version string
+ * changed several times in an interval is recorded once. {@link #flush()}
+ * waits until all changes so far are on disk.
+ * <p/>
+ * If a commit fails (e.g. the disk is full), the journal is left as before
+ * it, and the same changes are tried again at the next interval, together
+ * with any made since. flush throws an IOException if an attempt fails
+ * while it waits.
+ * <p/>
+ * The version info is changed on other threads while the commit thread takes
+ * snapshots, so should be a ConcurrentCompositeVersionInfoMap, whose
+ * snapshots are consistent and cost nothing.
+ * <p/>
+ * When the journal passes the compaction threshold, or is full, the version
+ * strings set at runtime are written to a snapshot file, in
+ * VersionInfoBinaryCodec format, and the journal is emptied. The snapshot and
+ * journal each hold a generation number, so a journal older than the snapshot
+ * is ignored.
+ * <p/>
+ * On {@link #open()}, the snapshot is loaded, the journal replayed over it,
+ * and the resulting version strings set on the version info, overriding its
+ * configured values. Only runtime changes are kept, so configured values not
+ * changed at runtime (e.g. from a new release) are not overridden. Version
+ * strings removed at runtime are not restored, but configured ones are not
+ * removed, since CompositeVersionInfo has no removal.
+ * <p/>
+ * For Spring configuration, use open and close as init and destroy methods.
+ *
+ * @author djnorth
+ */
+public class VersionInfoJournal implements Closeable {
+
+    /**
+     * Default journal capacity in bytes
+     */
+    public static final int DEFAULT_CAPACITY = 4 * 1024 * 1024;
+
+    /**
+     * Default interval between commits
+     */
+    public static final long DEFAULT_COMMIT_INTERVAL_MILLISECONDS = 10;
+
+    /**
+     * Snapshot file name
+     */
+    public static final String SNAPSHOT_FILE_NAME = "version.snapshot";
+
+    /**
+     * Journal file name
+     */
+    public static final String JOURNAL_FILE_NAME = "version.journal";
+
+    /**
+     * Magic bytes for snapshot
+     */
+    private static final byte[] SNAPSHOT_MAGIC = {'R', 'B', 'V', 'S'};
+
+    /**
+     * Magic bytes for journal
+     */
+    private static final byte[] JOURNAL_MAGIC = {'R', 'B', 'V', 'J'};
+
+    /**
+     * Journal header size: magic and generation
+     */
+    private static final int HEADER_SIZE = 12;
+
+    /**
+     * Record header size: length and CRC
+     */
+    private static final int RECORD_HEADER_SIZE = 8;
+
+    /**
+     * Record types
+     */
+    private static final byte SET = 1;
+    private static final byte REMOVE = 2;
+
+    /**
+     * Logger
+     */
+    private final Logger logger = Logger.getLogger("VersionInfo");
+
+    /**
+     * Version info being journalled
+     */
+    private CompositeVersionInfo versionInfo;
+
+    /**
+     * Directory for snapshot and journal
+     */
+    private File directory;
+
+    /**
+     * Journal capacity
+     */
+    private int capacity = DEFAULT_CAPACITY;
+
+    /**
+     * Journal size beyond which we compact
+     */
+    private int compactThreshold = DEFAULT_CAPACITY / 2;
+
+    /**
+     * Interval between commits
+     */
+    private long commitIntervalMilliseconds = DEFAULT_COMMIT_INTERVAL_MILLISECONDS;
+
+    /**
+     * Version strings set at runtime, by component keys
+     */
+    private final Map<List<String>, String> overrides = new LinkedHashMap<List<String>, String>();
+
+    /**
+     * Snapshot of version info when last journalled, used only by the commit
+     * thread once open
+     */
+    private CompositeVersionInfo lastSnapshot;
+
+    /**
+     * Generation of snapshot and journal
+     */
+    private long generation;
+
+    /**
+     * Journal file, channel and mapping
+     */
+    private RandomAccessFile journalFile;
+    private FileChannel journalChannel;
+    private MappedByteBuffer journal;
+
+    /**
+     * Number of changes notified, and journalled, since open
+     */
+    private long changeCount;
+    private long journalledChangeCount;
+
+    /**
+     * Number of records appended and committed, since open
+     */
+    private long appendedCount;
+    private long committedCount;
+
+    /**
+     * Number of commits (forces) and compactions, since open
+     */
+    private long commitCount;
+    private long compactionCount;
+
+    /**
+     * Exception from the last attempt to journal changes, or null if it
+     * succeeded, and number of failed attempts, since open
+     */
+    private IOException commitFailure;
+    private long commitFailureCount;
+
+    /**
+     * Commit thread, or null if not open
+     */
+    private Thread commitThread;
+
+    /**
+     * Listener journalling changes
+     */
+    private final VersionInfoChangeListener listener = new VersionInfoChangeListener() {
+        @Override
+        public void versionInfoChanged(CompositeVersionInfo versionInfo) {
+            changed();
+        }
+    };
+
+    /**
+     * Restore runtime changes from snapshot and journal to version info, and
+     * start journalling changes
+     *
+     * @throws IOException
+     */
+    public synchronized void open() throws IOException {
+        if (versionInfo == null || directory == null) {
+            throw new IllegalStateException("versionInfo (=" + versionInfo + ") and directory (=" + directory
+                                            + ") must be set");
+        }
+
+        if (commitThread != null) {
+            throw new IllegalStateException("already open:" + this);
+        }
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("cannot create directory " + directory);
+        }
+
+        readSnapshot();
+        mapJournal();
+        replayJournal();
+
+        for (Map.Entry<List<String>, String> entry : overrides.entrySet()) {
+            versionInfo.setVersionForKeys(entry.getValue(), entry.getKey().toArray(new String[entry.getKey().size()]));
+        }
+
+        lastSnapshot = versionInfo.snapshot();
+        compact();
+        appendedCount = 0;
+        committedCount = 0;
+        changeCount = 0;
+        journalledChangeCount = 0;
+        commitFailure = null;
+        commitFailureCount = 0;
+
+        versionInfo.addChangeListener(listener);
+        commitThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                commitLoop();
+            }
+        }, "VersionInfoJournal-commit");
+        commitThread.setDaemon(true);
+        commitThread.start();
+
+        logger.info("opened:" + this);
+    }
+
+    /**
+     * Stop journalling, after journalling and committing changes so far
+     *
+     * @throws IOException
+     */
+    @Override
+    public void close() throws IOException {
+        final Thread thread;
+        synchronized (this) {
+            if (commitThread == null) {
+                return;
+            }
+
+            versionInfo.removeChangeListener(listener);
+            thread = commitThread;
+            commitThread = null;
+            notifyAll();
+        }
+
+        try {
+            thread.join();
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+        }
+
+        try {
+            journalChanges();
+        } finally {
+            synchronized (this) {
+                journal.force();
+                committedCount = appendedCount;
+                journalChannel.close();
+                journalFile.close();
+                journal = null;
+                logger.info("closed:" + this);
+            }
+        }
+    }
+
+    /**
+     * Wait until all changes notified so far are journalled and committed
+     *
+     * @throws InterruptedIOException if interrupted
+     * @throws IOException if an attempt to commit the changes failed while
+     *                     waiting, though it will be tried again
+     */
+    public synchronized void flush() throws IOException {
+        final long target = changeCount;
+        final long startFailureCount = commitFailureCount;
+        while (journalledChangeCount < target && commitThread != null) {
+            if (commitFailureCount != startFailureCount) {
+                throw new IOException("failed to journal changes to " + directory, commitFailure);
+            }
+
+            try {
+                wait();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("flush interrupted");
+            }
+        }
+    }
+
+    /**
+     * @return version info being journalled
+     */
+    public CompositeVersionInfo getVersionInfo() {
+        return versionInfo;
+    }
+
+    /**
+     * @param versionInfo version info to journal
+     */
+    public void setVersionInfo(CompositeVersionInfo versionInfo) {
+        this.versionInfo = versionInfo;
+    }
+
+    /**
+     * @return directory for snapshot and journal
+     */
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @param directory for snapshot and journal, created if need be
+     */
+    public void setDirectory(File directory) {
+        this.directory = directory;
+    }
+
+    /**
+     * @return journal capacity in bytes
+     */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * Set journal capacity, also setting the compaction threshold to half of
+     * it
+     *
+     * @param capacity in bytes
+     */
+    public void setCapacity(int capacity) {
+        if (capacity <= HEADER_SIZE + RECORD_HEADER_SIZE) {
+            throw new IllegalArgumentException("capacity=" + capacity);
+        }
+
+        this.capacity = capacity;
+        this.compactThreshold = capacity / 2;
+    }
+
+    /**
+     * @return journal size in bytes beyond which we compact
+     */
+    public int getCompactThreshold() {
+        return compactThreshold;
+    }
+
+    /**
+     * @param compactThreshold journal size in bytes beyond which we compact
+     */
+    public void setCompactThreshold(int compactThreshold) {
+        if (compactThreshold <= HEADER_SIZE || compactThreshold > capacity) {
+            throw new IllegalArgumentException("compactThreshold=" + compactThreshold + ":capacity=" + capacity);
+        }
+
+        this.compactThreshold = compactThreshold;
+    }
+
+    /**
+     * @return interval between commits
+     */
+    public long getCommitIntervalMilliseconds() {
+        return commitIntervalMilliseconds;
+    }
+
+    /**
+     * @param commitIntervalMilliseconds interval between commits
+     */
+    public void setCommitIntervalMilliseconds(long commitIntervalMilliseconds) {
+        if (commitIntervalMilliseconds < 0) {
+            throw new IllegalArgumentException("commitIntervalMilliseconds=" + commitIntervalMilliseconds);
+        }
+
+        this.commitIntervalMilliseconds = commitIntervalMilliseconds;
+    }
+
+    /**
+     * @return generation of snapshot and journal
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * @return journal size in bytes, including header
+     */
+    public synchronized int getJournalSize() {
+        return (journal == null ? 0 : journal.position());
+    }
+
+    /**
+     * @return number of records appended since open
+     */
+    public synchronized long getAppendedCount() {
+        return appendedCount;
+    }
+
+    /**
+     * @return number of commits since open
+     */
+    public synchronized long getCommitCount() {
+        return commitCount;
+    }
+
+    /**
+     * @return number of compactions since open, including that on open
+     */
+    public synchronized long getCompactionCount() {
+        return compactionCount;
+    }
+
+    /**
+     * @return copy of version strings set at runtime, by component keys
+     */
+    public synchronized Map<List<String>, String> getOverrides() {
+        return new LinkedHashMap<List<String>, String>(overrides);
+    }
+
+    /**
+     * toString
+     */
+    @Override
+    public synchronized String toString() {
+        StringBuilder tos = new StringBuilder(super.toString());
+        tos.append(":directory=").append(directory);
+        tos.append(":generation=").append(generation);
+        tos.append(":journalSize=").append(getJournalSize());
+        tos.append(":overrides=").append(overrides.size());
+        tos.append(":appendedCount=").append(appendedCount);
+        tos.append(":commitCount=").append(commitCount);
+        tos.append(":compactionCount=").append(compactionCount);
+        return tos.toString();
+    }
+
+    /**
+     * Count change, and wake the commit thread
+     */
+    private synchronized void changed() {
+        if (commitThread != null) {
+            ++changeCount;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Wait for changes, then journal them once per commit interval, until
+     * closed
+     */
+    private void commitLoop() {
+        while (true) {
+            synchronized (this) {
+                while (commitThread != null && journalledChangeCount == changeCount) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ie) {
+                        Thread.currentThread().interrupt();
+                        return;
+                    }
+                }
+
+                if (commitThread == null) {
+                    return;
+                }
+            }
+
+            try {
+                Thread.sleep(commitIntervalMilliseconds);
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+
+            final boolean failedBefore;
+            synchronized (this) {
+                failedBefore = (commitFailure != null);
+            }
+
+            try {
+                journalChanges();
+            } catch (IOException ioe) {
+                if (failedBefore) {
+                    logger.debug("still failing to journal changes to " + directory, ioe);
+                } else {
+                    logger.error("failed to journal changes to " + directory + ", will retry", ioe);
+                }
+            }
+        }
+    }
+
+    /**
+     * Snapshot the version info, append records for the changes since the
+     * last snapshot, compacting first if the journal is full, and commit
+     * them, compacting after if the journal is past the threshold.
+     * <p/>
+     * Only once the records are committed does the snapshot become the last
+     * snapshot, and the changes count as journalled. If appending or
+     * committing fails, the journal and overrides are restored to how they
+     * were, and the failure is kept for flush, so the changes are tried again
+     * next time. If a version info which is not concurrent is changed while
+     * we take the snapshot, nothing is journalled, and we try again next time.
+     *
+     * @throws IOException
+     */
+    private void journalChanges() throws IOException {
+        final long target;
+        synchronized (this) {
+            if (journal == null) {
+                return;
+            }
+
+            target = changeCount;
+        }
+
+        final CompositeVersionInfo snapshot;
+        try {
+            snapshot = versionInfo.snapshot();
+        } catch (ConcurrentModificationException cme) {
+            logger.debug("version info changed during snapshot, will retry:" + this, cme);
+            return;
+        }
+
+        final VersionDiff diff = VersionDiff.between(lastSnapshot, snapshot);
+        synchronized (this) {
+            final int start = journal.position();
+            final long startGeneration = generation;
+            final long startAppendedCount = appendedCount;
+            final Map<List<String>, String> startOverrides = new LinkedHashMap<List<String>, String>(overrides);
+            try {
+                for (VersionDiff.Change change : diff.getChanges().values()) {
+                    appendRecord(change);
+                }
+
+                if (!diff.isEmpty()) {
+                    journal.force();
+                    committedCount = appendedCount;
+                    ++commitCount;
+                }
+            } catch (IOException ioe) {
+                rollBack(startGeneration == generation ? start : HEADER_SIZE, startAppendedCount, startOverrides);
+                commitFailure = ioe;
+                ++commitFailureCount;
+                notifyAll();
+                throw ioe;
+            }
+
+            lastSnapshot = snapshot;
+            journalledChangeCount = Math.max(journalledChangeCount, target);
+            commitFailure = null;
+            notifyAll();
+
+            if (journal.position() > compactThreshold) {
+                compact();
+            }
+        }
+    }
+
+    /**
+     * Discard records appended since position start, and restore appended
+     * count and overrides, after a failure to append or commit them. If we
+     * compacted since, start is the start of the compacted journal, and the
+     * overrides restored are those before compaction, which the next attempt
+     * will bring up to date.
+     *
+     * @param start
+     * @param startAppendedCount
+     * @param startOverrides
+     */
+    private void rollBack(int start, long startAppendedCount, Map<List<String>, String> startOverrides) {
+        final int end = journal.position();
+        for (int i = start; i < end; ++i) {
+            journal.put(i, (byte) 0);
+        }
+        journal.position(start);
+
+        appendedCount = startAppendedCount;
+        committedCount = Math.min(committedCount, appendedCount);
+        overrides.clear();
+        overrides.putAll(startOverrides);
+    }
+
+    /**
+     * Append record for change, compacting first if the journal is full, and
+     * apply it to overrides
+     *
+     * @param change
+     * @throws IOException
+     */
+    private void appendRecord(VersionDiff.Change change) throws IOException {
+        final byte[] record = encodeRecord(change);
+        if (record.length > journal.remaining() - RECORD_HEADER_SIZE) {
+            compact();
+            if (record.length > journal.remaining() - RECORD_HEADER_SIZE) {
+                throw new IOException("record of " + record.length + " bytes exceeds capacity " + capacity);
+            }
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        journal.putInt(record.length);
+        journal.putInt((int) crc.getValue());
+        journal.put(record);
+        applyChange(change.getKeys(), change.getNewVersion());
+        ++appendedCount;
+    }
+
+    /**
+     * Write overrides to a new snapshot, then empty the journal and move it
+     * to the new generation. If we stop between the two, the journal is
+     * ignored as older than the snapshot, which already has its changes.
+     *
+     * @throws IOException
+     */
+    private void compact() throws IOException {
+        final long nextGeneration = generation + 1;
+        CompositeVersionInfoMap snapshot = new CompositeVersionInfoMap();
+        for (Map.Entry<List<String>, String> entry : overrides.entrySet()) {
+            snapshot.setVersionForKeys(entry.getValue(), entry.getKey().toArray(new String[entry.getKey().size()]));
+        }
+
+        final File snapshotFile = new File(directory, SNAPSHOT_FILE_NAME);
+        final File newSnapshotFile = new File(directory, SNAPSHOT_FILE_NAME + ".new");
+        FileOutputStream outputStream = new FileOutputStream(newSnapshotFile);
+        try {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream));
+            output.write(SNAPSHOT_MAGIC);
+            output.writeLong(nextGeneration);
+            VersionInfoBinaryCodec.encode(snapshot, output);
+            output.flush();
+            outputStream.getFD().sync();
+        } finally {
+            outputStream.close();
+        }
+
+        if (snapshotFile.exists() && !snapshotFile.delete()) {
+            throw new IOException("cannot delete " + snapshotFile);
+        }
+        if (!newSnapshotFile.renameTo(snapshotFile)) {
+            throw new IOException("cannot rename " + newSnapshotFile + " to " + snapshotFile);
+        }
+
+        final int end = journal.position();
+        for (int i = HEADER_SIZE; i < end; ++i) {
+            journal.put(i, (byte) 0);
+        }
+        journal.put(0, JOURNAL_MAGIC[0]).put(1, JOURNAL_MAGIC[1]).put(2, JOURNAL_MAGIC[2]).put(3, JOURNAL_MAGIC[3]);
+        journal.putLong(JOURNAL_MAGIC.length, nextGeneration);
+        journal.position(HEADER_SIZE);
+        journal.force();
+
+        generation = nextGeneration;
+        committedCount = appendedCount;
+        ++compactionCount;
+    }
+
+    /**
+     * Load overrides and generation from snapshot, if any. A new snapshot
+     * left by an interrupted compaction is used if the snapshot is missing.
+     *
+     * @throws IOException
+     */
+    private void readSnapshot() throws IOException {
+        overrides.clear();
+        generation = 0;
+        File snapshotFile = new File(directory, SNAPSHOT_FILE_NAME);
+        if (!snapshotFile.exists()) {
+            snapshotFile = new File(directory, SNAPSHOT_FILE_NAME + ".new");
+            if (!snapshotFile.exists()) {
+                return;
+            }
+        }
+
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(snapshotFile)));
+        try {
+            byte[] magic = new byte[SNAPSHOT_MAGIC.length];
+            input.readFully(magic);
+            if (!Arrays.equals(magic, SNAPSHOT_MAGIC)) {
+                throw new IOException("not a version snapshot:" + snapshotFile);
+            }
+
+            generation = input.readLong();
+            overrides.putAll(VersionInfoBinaryCodec.decode(input).getVersionComponentMap());
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * Map journal file, creating it if need be
+     *
+     * @throws IOException
+     */
+    private void mapJournal() throws IOException {
+        journalFile = new RandomAccessFile(new File(directory, JOURNAL_FILE_NAME), "rw");
+        if (journalFile.length() < capacity) {
+            journalFile.setLength(capacity);
+        }
+
+        journalChannel = journalFile.getChannel();
+        journal = journalChannel.map(FileChannel.MapMode.READ_WRITE, 0, journalFile.length());
+    }
+
+    /**
+     * Replay journal records over overrides, if the journal is of the
+     * snapshot's generation, stopping at the first incomplete or corrupt
+     * record. The journal is left positioned after the last good record.
+     *
+     * @throws IOException
+     */
+    private void replayJournal() throws IOException {
+        journal.position(0);
+        byte[] magic = new byte[JOURNAL_MAGIC.length];
+        journal.get(magic);
+        if (!Arrays.equals(magic, JOURNAL_MAGIC) || journal.getLong() != generation) {
+            journal.position(HEADER_SIZE);
+            return;
+        }
+
+        int records = 0;
+        while (journal.remaining() >= RECORD_HEADER_SIZE) {
+            final int start = journal.position();
+            final int length = journal.getInt();
+            final int recordCrc = journal.getInt();
+            if (length <= 0 || length > journal.remaining()) {
+                journal.position(start);
+                break;
+            }
+
+            final byte[] record = new byte[length];
+            journal.get(record);
+            CRC32 crc = new CRC32();
+            crc.update(record);
+            if ((int) crc.getValue() != recordCrc) {
+                logger.warn("ignoring corrupt journal record at " + start + " in " + directory);
+                journal.position(start);
+                break;
+            }
+
+            decodeRecord(record);
+            ++records;
+        }
+
+        logger.info("replayed " + records + " records from " + directory);
+    }
+
+    /**
+     * Encode change as record: type, key count, keys, and new version if set
+     *
+     * @param change
+     * @return record bytes
+     * @throws IOException
+     */
+    private byte[] encodeRecord(VersionDiff.Change change) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        DataOutputStream output = new DataOutputStream(bytes);
+        output.writeByte(change.getNewVersion() == null ? REMOVE : SET);
+        output.writeShort(change.getKeys().size());
+        for (String key : change.getKeys()) {
+            output.writeUTF(key);
+        }
+        if (change.getNewVersion() != null) {
+            output.writeUTF(change.getNewVersion());
+        }
+        output.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Decode record and apply it to overrides
+     *
+     * @param record
+     * @throws IOException
+     */
+    private void decodeRecord(byte[] record) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(record));
+        final byte type = input.readByte();
+        final int keyCount = input.readUnsignedShort();
+        List<String> keys = new ArrayList<String>(keyCount);
+        for (int i = 0; i < keyCount; ++i) {
+            keys.add(VersionStringPool.internShared(input.readUTF()));
+        }
+
+        if (type == SET) {
+            applyChange(keys, VersionStringPool.internShared(input.readUTF()));
+        } else if (type == REMOVE) {
+            applyChange(keys, null);
+        } else {
+            throw new IOException("unknown record type " + type + " in " + directory);
+        }
+    }
+
+    /**
+     * Apply change to overrides
+     *
+     * @param keys
+     * @param newVersion or null if removed
+     */
+    private void applyChange(List<String> keys, String newVersion) {
+        if (newVersion == null) {
+            overrides.remove(keys);
+        } else {
+            overrides.put(new ArrayList<String>(keys), newVersion);
+        }
+    }
+}
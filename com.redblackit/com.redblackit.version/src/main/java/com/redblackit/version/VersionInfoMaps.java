@@ -0,0 +1,90 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import java.util.Map;
+
+/**
+ * Read access to the maps and separator of any CompositeVersionInfo, without
+ * copying where the implementation is one of ours, for classes in this
+ * package which walk whole structures.
+ *
+ * @author djnorth
+ */
+final class VersionInfoMaps {
+
+    /**
+     * Static methods only
+     */
+    private VersionInfoMaps() {
+    }
+
+    /**
+     * Use a single snapshot of a concurrent structure, so it can't change
+     * while being read
+     *
+     * @param versionInfo
+     * @return versionInfo to read
+     */
+    static CompositeVersionInfo readable(CompositeVersionInfo versionInfo) {
+        return (versionInfo instanceof ConcurrentCompositeVersionInfoMap ? versionInfo.snapshot() : versionInfo);
+    }
+
+    /**
+     * Get version string map, without copying if we can. The caller must
+     * neither change nor retain it.
+     *
+     * @param versionInfo
+     * @return map, or null
+     */
+    static Map<String, String> versionStringMapOf(CompositeVersionInfo versionInfo) {
+        return (versionInfo instanceof CompositeVersionInfoMap
+                ? ((CompositeVersionInfoMap) versionInfo).versionStringMap()
+                : versionInfo.getVersionStringMap());
+    }
+
+    /**
+     * Get version info map, without copying if we can. The caller must
+     * neither change nor retain it.
+     *
+     * @param versionInfo
+     * @return map, or null
+     */
+    static Map<String, CompositeVersionInfo> versionInfoMapOf(CompositeVersionInfo versionInfo) {
+        return (versionInfo instanceof CompositeVersionInfoMap
+                ? ((CompositeVersionInfoMap) versionInfo).versionInfoMap()
+                : versionInfo.getVersionInfoMap());
+    }
+
+    /**
+     * Get key concatenation separator, which is not in the interface
+     *
+     * @param versionInfo
+     * @return separator, or the default for other implementations
+     */
+    static char keyConcatenationSeparatorOf(CompositeVersionInfo versionInfo) {
+        if (versionInfo instanceof CompositeVersionInfoMap) {
+            return ((CompositeVersionInfoMap) versionInfo).getKeyConcatenationSeparator();
+        } else if (versionInfo instanceof ImmutableCompositeVersionInfo) {
+            return ((ImmutableCompositeVersionInfo) versionInfo).getKeyConcatenationSeparator();
+        } else if (versionInfo instanceof ConcurrentCompositeVersionInfoMap) {
+            return ((ConcurrentCompositeVersionInfoMap) versionInfo).snapshot().getKeyConcatenationSeparator();
+        }
+
+        return CompositeVersionInfo.DEFAULT_KEY_CONCATENATION_SEPARATOR;
+    }
+}
@@ -0,0 +1,44 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.ser.CustomSerializerFactory;
+
+/**
+ * ObjectMapper using CompositeVersionInfoSerializer for CompositeVersionInfoMap,
+ * ConcurrentCompositeVersionInfoMap and ImmutableCompositeVersionInfo.
+ * <p/>
+ * This is suitable for use in Spring configuration, e.g. as the objectMapper
+ * property of a MappingJacksonHttpMessageConverter.
+ *
+ * @author djnorth
+ */
+public class VersionInfoObjectMapper extends ObjectMapper {
+
+    /**
+     * Default constructor
+     */
+    public VersionInfoObjectMapper() {
+        CustomSerializerFactory serializerFactory = new CustomSerializerFactory();
+        CompositeVersionInfoSerializer serializer = new CompositeVersionInfoSerializer();
+        serializerFactory.addGenericMapping(CompositeVersionInfoMap.class, serializer);
+        serializerFactory.addGenericMapping(ConcurrentCompositeVersionInfoMap.class, serializer);
+        serializerFactory.addSpecificMapping(ImmutableCompositeVersionInfo.class, serializer);
+        setSerializerFactory(serializerFactory);
+    }
+}
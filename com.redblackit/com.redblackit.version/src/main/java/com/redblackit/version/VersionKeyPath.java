@@ -0,0 +1,257 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * Immutable, pre-split sequence of keys identifying a position in a
+ * CompositeVersionInfo structure.
+ * <p/>
+ * Callers which repeatedly look up the same position can create one of these
+ * once (e.g. by parsing a concatenated key) and then use it for any number of
+ * lookups or updates, without splitting or copying keys each time.
+ * <p/>
+ * It is also an unmodifiable, RandomAccess List of the keys, equal to and with
+ * the same hashCode as any other List with the same keys, and is used as the
+ * key type in version component maps.
+ *
+ * @author djnorth
+ */
+public final class VersionKeyPath extends AbstractList<String> implements RandomAccess {
+
+    /**
+     * Keys
+     */
+    private final String[] keys;
+
+    /**
+     * Hash code
+     */
+    private final int hashCode;
+
+    /**
+     * Create key path from supplied keys, which are copied.
+     * <p/>
+     * A null or 0-length array, or a null key value, will cause a NullPointerException
+     *
+     * @param keys
+     * @return keyPath
+     */
+    public static VersionKeyPath of(String... keys) {
+        if (keys == null || keys.length == 0) {
+            throw new NullPointerException("null or 0-length keys (=" + Arrays.toString(keys) + ")");
+        }
+
+        return new VersionKeyPath(keys.clone());
+    }
+
+    /**
+     * Create key path from supplied list of keys
+     *
+     * @param keys
+     * @return keyPath
+     */
+    public static VersionKeyPath of(List<String> keys) {
+        if (keys == null || keys.isEmpty()) {
+            throw new NullPointerException("null or empty keys (=" + keys + ")");
+        }
+
+        return new VersionKeyPath(keys.toArray(new String[keys.size()]));
+    }
+
+    /**
+     * Create key path by splitting a concatenated key on the separator
+     * character, as used by {@link CompositeVersionInfoMap#getVersionMap()}.
+     * Empty keys (e.g. from adjacent separators) are retained.
+     *
+     * @param concatenatedKey
+     * @param separator
+     * @return keyPath
+     */
+    public static VersionKeyPath parse(String concatenatedKey, char separator) {
+        if (concatenatedKey == null) {
+            throw new NullPointerException("null concatenatedKey");
+        }
+
+        List<String> keyList = new ArrayList<String>();
+        int start = 0;
+        int end;
+        while ((end = concatenatedKey.indexOf(separator, start)) >= 0) {
+            keyList.add(concatenatedKey.substring(start, end));
+            start = end + 1;
+        }
+        keyList.add(concatenatedKey.substring(start));
+
+        return new VersionKeyPath(keyList.toArray(new String[keyList.size()]));
+    }
+
+    /**
+     * Create key path by splitting a concatenated key on the default separator
+     *
+     * @param concatenatedKey
+     * @return keyPath
+     * @see CompositeVersionInfo#DEFAULT_KEY_CONCATENATION_SEPARATOR
+     */
+    public static VersionKeyPath parse(String concatenatedKey) {
+        return parse(concatenatedKey, CompositeVersionInfo.DEFAULT_KEY_CONCATENATION_SEPARATOR);
+    }
+
+    /**
+     * Create key path taking ownership of the supplied array, which the caller
+     * must not subsequently change.
+     *
+     * @param keys
+     * @return keyPath
+     */
+    static VersionKeyPath adopt(String[] keys) {
+        return new VersionKeyPath(keys);
+    }
+
+    /**
+     * Add each entry of a component map to the target map, with its keys
+     * prefixed by the supplied keys.
+     *
+     * @param versionComponentMap target
+     * @param prefixKeys
+     * @param prefixedComponentMap entries to add
+     */
+    static void addPrefixed(Map<List<String>, String> versionComponentMap, String[] prefixKeys,
+                            Map<List<String>, String> prefixedComponentMap) {
+        final int prefixLength = prefixKeys.length;
+        for (Map.Entry<List<String>, String> entry : prefixedComponentMap.entrySet()) {
+            List<String> componentKeys = entry.getKey();
+            String[] keys = Arrays.copyOf(prefixKeys, prefixLength + componentKeys.size());
+            for (int i = 0; i < componentKeys.size(); ++i) {
+                keys[prefixLength + i] = componentKeys.get(i);
+            }
+            versionComponentMap.put(new VersionKeyPath(keys), entry.getValue());
+        }
+    }
+
+    /**
+     * Private constructor taking ownership of the keys array
+     *
+     * @param keys
+     */
+    private VersionKeyPath(String[] keys) {
+        for (int i = 0; i < keys.length; ++i) {
+            if (keys[i] == null) {
+                throw new NullPointerException("null key at " + i + " in keys (=" + Arrays.toString(keys) + ")");
+            }
+        }
+
+        this.keys = keys;
+        this.hashCode = Arrays.hashCode(keys);
+    }
+
+    /**
+     * @return number of keys
+     */
+    @Override
+    public int size() {
+        return keys.length;
+    }
+
+    /**
+     * @param index
+     * @return key at index
+     */
+    @Override
+    public String get(int index) {
+        return keys[index];
+    }
+
+    /**
+     * @return copy of keys
+     */
+    @Override
+    public String[] toArray() {
+        return keys.clone();
+    }
+
+    /**
+     * Concatenate keys with the supplied separator, the inverse of
+     * {@link #parse(String, char)}.
+     *
+     * @param separator
+     * @return concatenated key
+     */
+    public String toConcatenatedKey(char separator) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < keys.length; ++i) {
+            if (i > 0) {
+                builder.append(separator);
+            }
+            builder.append(keys[i]);
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Return keys without copying, for use by implementations which will
+     * neither change nor retain the array.
+     *
+     * @return keys
+     */
+    String[] keys() {
+        return keys;
+    }
+
+    /**
+     * Return hashCode computed on construction, as for List
+     *
+     * @see java.util.List#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    /**
+     * equals if same keys in same order, comparing arrays directly for
+     * another VersionKeyPath, and as for any List otherwise
+     *
+     * @see java.util.List#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj instanceof VersionKeyPath) {
+            VersionKeyPath other = (VersionKeyPath) obj;
+            return (hashCode == other.hashCode && Arrays.equals(keys, other.keys));
+        }
+        return super.equals(obj);
+    }
+
+    /**
+     * toString giving keys as a list
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return Arrays.toString(keys);
+    }
+}
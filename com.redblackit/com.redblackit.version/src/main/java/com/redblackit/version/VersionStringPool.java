@@ -0,0 +1,270 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import java.lang.ref.WeakReference;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of version keys and values, so that equal strings held in version
+ * structures share one instance. Aggregated structures repeat the same keys
+ * (e.g. implementation, description, component names) and many values, so
+ * this can save a good deal of heap.
+ * <p/>
+ * Pooling is optional. When a pool is made the shared pool (e.g. from Spring
+ * configuration, by setting the shared property) it is used by
+ * CompositeVersionInfoMap setters (and so by JSON deserialization),
+ * CompositeVersionInfoMapBuilder and VersionInfoBinaryCodec. Otherwise
+ * strings are held as supplied.
+ * <p/>
+ * Strings are held weakly, so a string no longer used by any version
+ * structure leaves the pool, together with the saving from it. The pool is
+ * also bounded by maxSize, beyond which new strings are not pooled. The pool
+ * is thread-safe, and is a standard MBean reporting the estimated heap saved
+ * by the strings it currently holds.
+ *
+ * @author djnorth
+ */
+public final class VersionStringPool implements VersionStringPoolMBean {
+
+    /**
+     * Default maximum number of distinct strings
+     */
+    public static final int DEFAULT_MAX_SIZE = 100000;
+
+    /**
+     * Shared pool, or null
+     */
+    private static volatile VersionStringPool sharedPool;
+
+    /**
+     * Pooled strings, each the key of its own entry, and held only by the
+     * version structures using it. Synchronized on itself.
+     */
+    private final Map<String, PooledString> strings = new WeakHashMap<String, PooledString>();
+
+    /**
+     * Maximum number of strings
+     */
+    private volatile int maxSize = DEFAULT_MAX_SIZE;
+
+    /**
+     * Number of strings interned
+     */
+    private final AtomicLong internCount = new AtomicLong();
+
+    /**
+     * Number of strings replaced by a pooled instance
+     */
+    private final AtomicLong replacedCount = new AtomicLong();
+
+    /**
+     * @return shared pool, or null if none
+     */
+    public static VersionStringPool getSharedPool() {
+        return sharedPool;
+    }
+
+    /**
+     * Intern string in the shared pool, if there is one
+     *
+     * @param string
+     * @return pooled instance, or string if no shared pool
+     */
+    public static String internShared(String string) {
+        final VersionStringPool pool = sharedPool;
+        return (pool == null ? string : pool.intern(string));
+    }
+
+    /**
+     * Make this the shared pool, or stop it being the shared pool
+     *
+     * @param shared
+     */
+    public void setShared(boolean shared) {
+        synchronized (VersionStringPool.class) {
+            if (shared) {
+                sharedPool = this;
+            } else if (sharedPool == this) {
+                sharedPool = null;
+            }
+        }
+    }
+
+    /**
+     * @return true if this is the shared pool
+     * @see VersionStringPoolMBean#isShared()
+     */
+    @Override
+    public boolean isShared() {
+        return sharedPool == this;
+    }
+
+    /**
+     * Return the pooled instance equal to string, adding string if there is
+     * none, unless the pool is full
+     *
+     * @param string may be null
+     * @return pooled instance, string, or null
+     */
+    public String intern(String string) {
+        if (string == null) {
+            return null;
+        }
+
+        internCount.incrementAndGet();
+        synchronized (strings) {
+            final PooledString pooled = strings.get(string);
+            final String pooledString = (pooled == null ? null : pooled.get());
+            if (pooledString == null) {
+                if (strings.size() < maxSize) {
+                    strings.put(string, new PooledString(string));
+                }
+
+                return string;
+            }
+
+            if (pooledString != string) {
+                ++pooled.replacedCount;
+                replacedCount.incrementAndGet();
+            }
+
+            return pooledString;
+        }
+    }
+
+    /**
+     * @see VersionStringPoolMBean#getSize()
+     */
+    @Override
+    public int getSize() {
+        synchronized (strings) {
+            return strings.size();
+        }
+    }
+
+    /**
+     * @see VersionStringPoolMBean#getMaxSize()
+     */
+    @Override
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @see VersionStringPoolMBean#setMaxSize(int)
+     */
+    @Override
+    public void setMaxSize(int maxSize) {
+        if (maxSize < 0) {
+            throw new IllegalArgumentException("maxSize=" + maxSize);
+        }
+
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @see VersionStringPoolMBean#getInternCount()
+     */
+    @Override
+    public long getInternCount() {
+        return internCount.get();
+    }
+
+    /**
+     * @see VersionStringPoolMBean#getReplacedCount()
+     */
+    @Override
+    public long getReplacedCount() {
+        return replacedCount.get();
+    }
+
+    /**
+     * Sum, over the strings still pooled, of the size of each times the
+     * number of times it has replaced an equal string
+     *
+     * @see VersionStringPoolMBean#getEstimatedBytesSaved()
+     */
+    @Override
+    public long getEstimatedBytesSaved() {
+        long saved = 0;
+        synchronized (strings) {
+            for (PooledString pooled : strings.values()) {
+                saved += pooled.replacedCount * pooled.size;
+            }
+        }
+
+        return saved;
+    }
+
+    /**
+     * @see VersionStringPoolMBean#clear()
+     */
+    @Override
+    public void clear() {
+        synchronized (strings) {
+            strings.clear();
+        }
+        internCount.set(0);
+        replacedCount.set(0);
+    }
+
+    /**
+     * Estimate heap used by a string and its character array, assuming a
+     * 64-bit JVM with compressed references: 24 bytes for the String, and 16
+     * bytes plus 2 per character for the array, each rounded up to a multiple
+     * of 8.
+     *
+     * @param string
+     * @return estimated bytes
+     */
+    public static long estimatedSize(String string) {
+        return 24 + ((16 + 2L * string.length() + 7) & ~7L);
+    }
+
+    /**
+     * toString
+     */
+    @Override
+    public String toString() {
+        StringBuilder tos = new StringBuilder(super.toString());
+        tos.append(":size=").append(getSize());
+        tos.append(":maxSize=").append(maxSize);
+        tos.append(":internCount=").append(internCount);
+        tos.append(":replacedCount=").append(replacedCount);
+        tos.append(":estimatedBytesSaved=").append(getEstimatedBytesSaved());
+        tos.append(":shared=").append(isShared());
+        return tos.toString();
+    }
+
+    /**
+     * Pool entry, referring weakly to the pooled string (its key), with its
+     * estimated size and the number of equal strings it has replaced
+     */
+    private static final class PooledString extends WeakReference<String> {
+
+        private final long size;
+        private long replacedCount;
+
+        PooledString(String string) {
+            super(string);
+            this.size = estimatedSize(string);
+        }
+    }
+}
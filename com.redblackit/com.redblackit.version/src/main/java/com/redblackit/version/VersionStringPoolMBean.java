@@ -0,0 +1,70 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+/**
+ * JMX management interface for VersionStringPool
+ *
+ * @author djnorth
+ */
+public interface VersionStringPoolMBean {
+
+    /**
+     * @return number of distinct strings pooled
+     */
+    int getSize();
+
+    /**
+     * @return maximum number of distinct strings pooled
+     */
+    int getMaxSize();
+
+    /**
+     * @param maxSize maximum number of distinct strings pooled
+     */
+    void setMaxSize(int maxSize);
+
+    /**
+     * @return number of strings interned
+     */
+    long getInternCount();
+
+    /**
+     * @return number of strings replaced by a pooled instance
+     */
+    long getReplacedCount();
+
+    /**
+     * Estimated heap saved by the strings currently pooled, in bytes: for
+     * each, its size times the number of equal strings it has replaced. A
+     * string no longer used by any version structure leaves the pool, so its
+     * saving is no longer counted.
+     *
+     * @return estimated bytes saved
+     */
+    long getEstimatedBytesSaved();
+
+    /**
+     * @return true if this is the shared pool
+     */
+    boolean isShared();
+
+    /**
+     * Empty the pool and reset the counts
+     */
+    void clear();
+}
@@ -0,0 +1,244 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Tests for AbstractCompositeVersionInfo, using a subclass implementing only
+ * the methods originally in CompositeVersionInfo, as one outside this project
+ * would.
+ *
+ * @author djnorth
+ */
+@RunWith(Parameterized.class)
+public class AbstractCompositeVersionInfoTest {
+
+    /**
+     * Create test data: key paths and versions to set
+     *
+     * @return test data as list
+     */
+    @Parameters
+    public static List<Object[]> testData() {
+        Object[][] data = {
+                {new String[][]{{"a"}}, new String[]{"1.0"}},
+                {new String[][]{{"a"}, {"b", "c"}, {"b", "d", "e"}}, new String[]{"1.0", "2.0", "3.0"}},
+                {new String[][]{{"x", "y", "z"}, {"x", "y", "w"}, {"v"}}, new String[]{"0.1", "0.2", "0.3"}}
+        };
+
+        return Arrays.asList(data);
+    }
+
+    /**
+     * Key paths
+     */
+    private final String[][] keyPaths;
+
+    /**
+     * Versions
+     */
+    private final String[] versions;
+
+    /**
+     * Map holding the structure
+     */
+    private CompositeVersionInfoMap versionInfoMap;
+
+    /**
+     * Object under test, delegating to versionInfoMap
+     */
+    private OriginalMethodsVersionInfo versionInfo;
+
+    /**
+     * Constructor taking test parameters
+     *
+     * @param keyPaths
+     * @param versions
+     */
+    public AbstractCompositeVersionInfoTest(String[][] keyPaths, String[] versions) {
+        this.keyPaths = keyPaths;
+        this.versions = versions;
+    }
+
+    /**
+     * Build structure
+     */
+    @Before
+    public void setUp() {
+        versionInfoMap = new CompositeVersionInfoMap();
+        for (int i = 0; i < keyPaths.length; ++i) {
+            versionInfoMap.setVersionForKeys(versions[i], keyPaths[i]);
+        }
+        versionInfo = new OriginalMethodsVersionInfo(versionInfoMap);
+    }
+
+    /**
+     * Test snapshot has the same content, and is unaffected by later changes
+     */
+    @Test
+    public void testSnapshot() {
+        CompositeVersionInfo snapshot = versionInfo.snapshot();
+        Assert.assertEquals(msg("snapshot component map"), versionInfoMap.getVersionComponentMap(),
+                            snapshot.getVersionComponentMap());
+
+        versionInfo.setVersionForKeys("changed", keyPaths[0]);
+        Assert.assertEquals(msg("snapshot after change"), versions[0], snapshot.getVersionForKeys(keyPaths[0]));
+    }
+
+    /**
+     * Test key path methods are equivalent to those taking keys
+     */
+    @Test
+    public void testKeyPath() {
+        for (int i = 0; i < keyPaths.length; ++i) {
+            VersionKeyPath keyPath = VersionKeyPath.of(keyPaths[i]);
+            Assert.assertEquals(msg("getVersionForKeyPath " + keyPath), versions[i],
+                                versionInfo.getVersionForKeyPath(keyPath));
+
+            versionInfo.setVersionForKeyPath("changed" + i, keyPath);
+            Assert.assertEquals(msg("getVersionForKeys after setVersionForKeyPath " + keyPath), "changed" + i,
+                                versionInfo.getVersionForKeys(keyPaths[i]));
+        }
+
+        VersionKeyPath componentKeyPath = VersionKeyPath.of("component", "path");
+        CompositeVersionInfoMap component = new CompositeVersionInfoMap();
+        component.setVersionForKeys("4.0", "leaf");
+        versionInfo.setVersionInfoForKeyPath(component, componentKeyPath);
+        Assert.assertSame(msg("getVersionInfoForKeyPath"), component,
+                          versionInfo.getVersionInfoForKeyPath(componentKeyPath));
+        Assert.assertNull(msg("getVersionInfoForKeyPath(null)"), versionInfo.getVersionInfoForKeyPath(null));
+        Assert.assertNull(msg("getVersionForKeyPath(null)"), versionInfo.getVersionForKeyPath(null));
+    }
+
+    /**
+     * Test null key path rejected
+     */
+    @Test(expected = NullPointerException.class)
+    public void testSetVersionForKeyPathNull() {
+        versionInfo.setVersionForKeyPath("1.0", null);
+    }
+
+    /**
+     * Test structural hash matches that of the same structure in other
+     * implementations, and changes with it
+     */
+    @Test
+    public void testStructuralHash() {
+        final long hash = versionInfo.getStructuralHash();
+        Assert.assertEquals(msg("hash v map"), versionInfoMap.getStructuralHash(), hash);
+        Assert.assertEquals(msg("hash v snapshot"), versionInfo.snapshot().getStructuralHash(), hash);
+
+        versionInfo.setVersionForKeys("changed", keyPaths[0]);
+        Assert.assertTrue(msg("hash after change"), hash != versionInfo.getStructuralHash());
+    }
+
+    /**
+     * Test listener is notified of changes until removed, including those
+     * made through key path methods
+     */
+    @Test
+    public void testChangeListener() {
+        final List<CompositeVersionInfo> notified = new ArrayList<CompositeVersionInfo>();
+        VersionInfoChangeListener listener = new VersionInfoChangeListener() {
+            public void versionInfoChanged(CompositeVersionInfo changed) {
+                notified.add(changed);
+            }
+        };
+
+        versionInfo.addChangeListener(listener);
+        versionInfo.setVersionForKeys("changed", keyPaths[0]);
+        versionInfo.setVersionForKeyPath("changed", VersionKeyPath.of(keyPaths[0]));
+        Assert.assertEquals(msg("notifications"), 2, notified.size());
+        Assert.assertSame(msg("notified object"), versionInfo, notified.get(0));
+        Assert.assertTrue(msg("version string after change"), versionInfo.getVersionString().contains("changed"));
+
+        versionInfo.removeChangeListener(listener);
+        versionInfo.setVersionForKeys("removed", keyPaths[0]);
+        Assert.assertEquals(msg("notifications after remove"), 2, notified.size());
+    }
+
+    /**
+     * @param text
+     * @return message with test parameters
+     */
+    private String msg(String text) {
+        return text + ":keyPaths=" + Arrays.deepToString(keyPaths) + ":versions=" + Arrays.toString(versions);
+    }
+
+    /**
+     * Implementation of the methods originally in CompositeVersionInfo,
+     * delegating to a CompositeVersionInfoMap
+     */
+    private static class OriginalMethodsVersionInfo extends AbstractCompositeVersionInfo {
+
+        private final CompositeVersionInfoMap delegate;
+
+        OriginalMethodsVersionInfo(CompositeVersionInfoMap delegate) {
+            this.delegate = delegate;
+        }
+
+        public Map<String, String> getVersionMap() {
+            return delegate.getVersionMap();
+        }
+
+        public CompositeVersionInfo getVersionInfoForKeys(String... keys) {
+            return delegate.getVersionInfoForKeys(keys);
+        }
+
+        public void setVersionInfoForKeys(CompositeVersionInfo versionInfo, String... keys) {
+            delegate.setVersionInfoForKeys(versionInfo, keys);
+            fireVersionInfoChanged();
+        }
+
+        public String getVersionForKeys(String... keys) {
+            return delegate.getVersionForKeys(keys);
+        }
+
+        public void setVersionForKeys(String version, String... keys) {
+            delegate.setVersionForKeys(version, keys);
+            fireVersionInfoChanged();
+        }
+
+        public Map<String, CompositeVersionInfo> getVersionInfoMap() {
+            return delegate.getVersionInfoMap();
+        }
+
+        public Map<String, String> getVersionStringMap() {
+            return delegate.getVersionStringMap();
+        }
+
+        public Map<List<String>, String> getVersionComponentMap() {
+            return delegate.getVersionComponentMap();
+        }
+
+        public int getMaximumComponentVersionDepth() {
+            return delegate.getMaximumComponentVersionDepth();
+        }
+    }
+}
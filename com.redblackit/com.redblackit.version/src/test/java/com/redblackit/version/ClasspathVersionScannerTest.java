@@ -0,0 +1,272 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import java.io.*;
+import java.util.*;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+import junit.framework.Assert;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Tests for ClasspathVersionScanner, using jars and a directory created for
+ * the test, and checking the index avoids re-opening unchanged jars.
+ *
+ * @author djnorth
+ */
+@RunWith(Parameterized.class)
+public class ClasspathVersionScannerTest {
+
+    /**
+     * Create test data: jar count, thread count
+     *
+     * @return test data as list
+     */
+    @Parameters
+    public static List<Object[]> testData() {
+        Object[][] data = {
+                {1, 1},
+                {5, 2},
+                {40, 8}
+        };
+
+        return Arrays.asList(data);
+    }
+
+    /**
+     * Logger
+     */
+    private Logger logger = Logger.getLogger("VersionInfo");
+
+    /**
+     * Number of jars with versions
+     */
+    private final int jarCount;
+
+    /**
+     * Number of scanning threads
+     */
+    private final int threadCount;
+
+    /**
+     * Directory for test files
+     */
+    private File testDirectory;
+
+    /**
+     * Classpath: jars with versions, a jar without, a bad jar, and a classes
+     * directory
+     */
+    private final List<File> classpath = new ArrayList<File>();
+
+    /**
+     * Scanner under test
+     */
+    private final ClasspathVersionScanner scanner = new ClasspathVersionScanner();
+
+    /**
+     * Constructor taking test parameters
+     *
+     * @param jarCount
+     * @param threadCount
+     */
+    public ClasspathVersionScannerTest(int jarCount, int threadCount) {
+        this.jarCount = jarCount;
+        this.threadCount = threadCount;
+    }
+
+    /**
+     * Create classpath files and scanner
+     *
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        testDirectory = File.createTempFile("ClasspathVersionScannerTest", "");
+        Assert.assertTrue(msg("delete " + testDirectory), testDirectory.delete());
+        Assert.assertTrue(msg("mkdir " + testDirectory), testDirectory.mkdir());
+
+        for (int i = 0; i < jarCount; ++i) {
+            classpath.add(createJar(i, "1." + i));
+        }
+
+        File emptyJar = new File(testDirectory, "empty.jar");
+        new JarOutputStream(new FileOutputStream(emptyJar)).close();
+        classpath.add(emptyJar);
+
+        File badJar = new File(testDirectory, "bad.jar");
+        Writer writer = new FileWriter(badJar);
+        writer.write("not a jar");
+        writer.close();
+        classpath.add(badJar);
+
+        File classesDirectory = new File(testDirectory, "classes");
+        File propertiesDirectory = new File(classesDirectory, "com/example");
+        Assert.assertTrue(msg("mkdirs " + propertiesDirectory), propertiesDirectory.mkdirs());
+        writer = new FileWriter(new File(propertiesDirectory, "app" + ClasspathVersionScanner.VERSION_PROPERTIES_SUFFIX));
+        writer.write("build=app-build\n");
+        writer.close();
+        classpath.add(classesDirectory);
+
+        scanner.setClasspath(classpath);
+        scanner.setThreadCount(threadCount);
+        scanner.setIndexFile(new File(testDirectory, "version.index"));
+    }
+
+    /**
+     * Delete test files
+     */
+    @After
+    public void tearDown() {
+        delete(testDirectory);
+    }
+
+    /**
+     * Test scan finds manifest attributes and version properties, ignoring
+     * other attributes, jars without versions, and bad jars
+     */
+    @Test
+    public void testScan() throws Exception {
+        CompositeVersionInfo versionInfo = scanner.scan();
+        logger.debug(msg("versionInfo=" + versionInfo));
+
+        Assert.assertEquals(msg("opened jars"), jarCount + 2, scanner.getOpenedJarCount());
+        Assert.assertEquals(msg("components"), jarCount + 1, versionInfo.getVersionInfoMap().size());
+        for (int i = 0; i < jarCount; ++i) {
+            final String key = "lib" + i + ".jar";
+            Assert.assertEquals(msg("Implementation-Title for " + key), "lib" + i,
+                                versionInfo.getVersionForKeys(key, "Implementation-Title"));
+            Assert.assertEquals(msg("Implementation-Version for " + key), "1." + i,
+                                versionInfo.getVersionForKeys(key, "Implementation-Version"));
+            Assert.assertNull(msg("Class-Path for " + key), versionInfo.getVersionForKeys(key, "Class-Path"));
+            Assert.assertEquals(msg("build for " + key), (i % 2 == 0 ? "build" + i : null),
+                                versionInfo.getVersionForKeys(key, "lib" + i, "build"));
+        }
+        Assert.assertNull(msg("empty.jar"), versionInfo.getVersionInfoForKeys("empty.jar"));
+        Assert.assertNull(msg("bad.jar"), versionInfo.getVersionInfoForKeys("bad.jar"));
+        Assert.assertEquals(msg("classes"), "app-build", versionInfo.getVersionForKeys("classes", "app", "build"));
+    }
+
+    /**
+     * Test a second scan uses the index for unchanged jars, giving the same
+     * result, and a changed jar is opened again
+     */
+    @Test
+    public void testScanWithIndex() throws Exception {
+        long start = System.nanoTime();
+        CompositeVersionInfo coldVersionInfo = scanner.scan();
+        final long coldNanos = System.nanoTime() - start;
+        Assert.assertTrue(msg("index written"), scanner.getIndexFile().isFile());
+
+        start = System.nanoTime();
+        CompositeVersionInfo warmVersionInfo = scanner.scan();
+        final long warmNanos = System.nanoTime() - start;
+        Assert.assertEquals(msg("opened jars when warm"), 1, scanner.getOpenedJarCount());
+        Assert.assertEquals(msg("warm versionInfo"), coldVersionInfo, warmVersionInfo);
+        logger.info(msg("cold scan (ns)=" + coldNanos + ":warm scan (ns)=" + warmNanos));
+
+        File changedJar = createJar(0, "2.0-changed");
+        Assert.assertTrue(msg("setLastModified"), changedJar.setLastModified(changedJar.lastModified() - 10000L));
+        CompositeVersionInfo changedVersionInfo = scanner.scan();
+        Assert.assertEquals(msg("opened jars after change"), 2, scanner.getOpenedJarCount());
+        Assert.assertEquals(msg("changed version"), "2.0-changed",
+                            changedVersionInfo.getVersionForKeys("lib0.jar", "Implementation-Version"));
+    }
+
+    /**
+     * Test an unreadable index is ignored, and replaced
+     */
+    @Test
+    public void testScanWithBadIndex() throws Exception {
+        Writer writer = new FileWriter(scanner.getIndexFile());
+        writer.write("not an index");
+        writer.close();
+
+        CompositeVersionInfo versionInfo = scanner.scan();
+        Assert.assertEquals(msg("opened jars"), jarCount + 2, scanner.getOpenedJarCount());
+        Assert.assertEquals(msg("rescanned versionInfo"), versionInfo, scanner.scan());
+        Assert.assertEquals(msg("opened jars with new index"), 1, scanner.getOpenedJarCount());
+    }
+
+    /**
+     * Create jar with manifest, and version properties if index is even
+     *
+     * @param index
+     * @param version
+     * @return jar file
+     * @throws IOException
+     */
+    private File createJar(int index, String version) throws IOException {
+        Manifest manifest = new Manifest();
+        Attributes attributes = manifest.getMainAttributes();
+        attributes.put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        attributes.put(Attributes.Name.IMPLEMENTATION_TITLE, "lib" + index);
+        attributes.put(Attributes.Name.IMPLEMENTATION_VERSION, version);
+        attributes.put(Attributes.Name.CLASS_PATH, "other.jar");
+
+        File jar = new File(testDirectory, "lib" + index + ".jar");
+        JarOutputStream output = new JarOutputStream(new FileOutputStream(jar), manifest);
+        try {
+            if (index % 2 == 0) {
+                output.putNextEntry(new JarEntry("com/example/lib" + index
+                                                 + ClasspathVersionScanner.VERSION_PROPERTIES_SUFFIX));
+                output.write(("build=build" + index + "\n").getBytes("ISO-8859-1"));
+                output.closeEntry();
+            }
+        } finally {
+            output.close();
+        }
+
+        return jar;
+    }
+
+    /**
+     * Delete file or directory tree
+     *
+     * @param file
+     */
+    private static void delete(File file) {
+        File[] files = file.listFiles();
+        if (files != null) {
+            for (File child : files) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * Helper adding parameters to message
+     *
+     * @param msg
+     * @return message
+     */
+    private String msg(String msg) {
+        return "jarCount=" + jarCount + ":threadCount=" + threadCount + ":" + msg;
+    }
+}
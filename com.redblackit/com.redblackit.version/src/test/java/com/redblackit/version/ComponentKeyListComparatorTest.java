@@ -0,0 +1,142 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import java.util.*;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Tests for CompositeVersionInfoMap.ComponentKeyListComparator, checking it
+ * orders key lists exactly as comparing their toString values would.
+ *
+ * @author djnorth
+ */
+@RunWith(Parameterized.class)
+public class ComponentKeyListComparatorTest {
+
+    /**
+     * Create test data: sets of key lists, to be compared pairwise
+     *
+     * @return test data as list
+     */
+    @Parameters
+    public static List<Object[]> testData() {
+        Object[][] data = {
+                {new String[][]{{"a"}, {"b"}, {"a", "b"}, {"ab"}, {"a", "a"}}},
+                {new String[][]{{"version"}, {"vip0", "version"}, {"vip0", "vsa0", "version"},
+                        {"vip0", "vsa1", "version"}, {"vip1", "version"}}},
+                {new String[][]{{}, {""}, {"", ""}, {" "}, {","}, {", "}, {"]"}, {"["}}},
+                {new String[][]{{"a,", "b"}, {"a", "b"}, {"a", " b"}, {"a, b"}, {"a]"}, {"a", "]"}}},
+                {new String[][]{{"a", ""}, {"a"}, {"a", "", ""}, {"a ", ""}, {"a,"}, {"a!"}, {"a~"}}},
+                {new String[][]{{"abc", "def"}, {"abc", "de"}, {"abc", "defg"}, {"ab", "cdef"}, {"abcd", "ef"}}}
+        };
+
+        return Arrays.asList(data);
+    }
+
+    /**
+     * Comparator under test
+     */
+    private final Comparator<List<String>> comparator = new CompositeVersionInfoMap.ComponentKeyListComparator();
+
+    /**
+     * Key lists
+     */
+    private final String[][] keyLists;
+
+    /**
+     * Constructor taking test parameters
+     *
+     * @param keyLists
+     */
+    public ComponentKeyListComparatorTest(String[][] keyLists) {
+        this.keyLists = keyLists;
+    }
+
+    /**
+     * Test each pair of lists compares with the same sign as their toString
+     * values, using both ArrayList and VersionKeyPath lists
+     */
+    @Test
+    public void testCompareMatchesToString() {
+        for (String[] keys0 : keyLists) {
+            for (String[] keys1 : keyLists) {
+                List<String> list0 = new ArrayList<String>(Arrays.asList(keys0));
+                List<String> list1 = new ArrayList<String>(Arrays.asList(keys1));
+                final int expected = Integer.signum(list0.toString().compareTo(list1.toString()));
+                final String msg = msg("compare " + list0 + " to " + list1);
+
+                Assert.assertEquals(msg, expected, Integer.signum(comparator.compare(list0, list1)));
+                if (keys0.length > 0 && keys1.length > 0) {
+                    Assert.assertEquals(msg + ":VersionKeyPath", expected,
+                                        Integer.signum(comparator.compare(VersionKeyPath.of(keys0),
+                                                                          VersionKeyPath.of(keys1))));
+                    Assert.assertEquals(msg + ":mixed", expected,
+                                        Integer.signum(comparator.compare(VersionKeyPath.of(keys0), list1)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Test sorting lists gives the same order as sorting by toString
+     */
+    @Test
+    public void testSortMatchesToString() {
+        List<List<String>> lists = new ArrayList<List<String>>();
+        for (int i = 0; i < 200; ++i) {
+            for (String[] keys : keyLists) {
+                String[] keys0 = keys.clone();
+                if (keys0.length > 0) {
+                    keys0[keys0.length - 1] = keys0[keys0.length - 1] + i;
+                }
+                lists.add(Arrays.asList(keys0));
+            }
+        }
+
+        Comparator<List<String>> toStringComparator = new Comparator<List<String>>() {
+            @Override
+            public int compare(List<String> keys0, List<String> keys1) {
+                return keys0.toString().compareTo(keys1.toString());
+            }
+        };
+
+        List<List<String>> expected = new ArrayList<List<String>>(lists);
+        Collections.sort(expected, toStringComparator);
+
+        List<List<String>> actual = new ArrayList<List<String>>(lists);
+        Collections.sort(actual, comparator);
+
+        Assert.assertEquals(msg("sorted order"), expected, actual);
+    }
+
+    /**
+     * Helper adding parameters to message
+     *
+     * @param msg
+     * @return message
+     */
+    private String msg(String msg) {
+        return "keyLists=" + Arrays.deepToString(keyLists) + ":" + msg;
+    }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Tests for CompositeVersionInfoMapBuilder, checking built objects match those
+ * from setVersionForKeys. Build times are compared in the benchmarks module.
+ *
+ * @author djnorth
+ */
+@RunWith(Parameterized.class)
+public class CompositeVersionInfoMapBuilderTest {
+
+    /**
+     * Create test data: separator, entry count
+     *
+     * @return test data as list
+     */
+    @Parameters
+    public static List<Object[]> testData() {
+        Object[][] data = {
+                {'.', 1},
+                {'#', 10},
+                {'.', 1000}
+        };
+
+        return Arrays.asList(data);
+    }
+
+    /**
+     * Logger
+     */
+    private Logger logger = Logger.getLogger("VersionInfo");
+
+    /**
+     * Separator
+     */
+    private final char separator;
+
+    /**
+     * Number of entries
+     */
+    private final int entryCount;
+
+    /**
+     * Entries by concatenated key, sorted
+     */
+    private final Map<String, String> versionMap = new TreeMap<String, String>();
+
+    /**
+     * Constructor taking test parameters, and creating entries at several
+     * levels
+     *
+     * @param separator
+     * @param entryCount
+     */
+    public CompositeVersionInfoMapBuilderTest(char separator, int entryCount) {
+        this.separator = separator;
+        this.entryCount = entryCount;
+        for (int i = 0; i < entryCount; ++i) {
+            String key;
+            switch (i % 4) {
+                case 0:
+                    key = "v" + i;
+                    break;
+                case 1:
+                    key = "a" + (i / 1000) + separator + "v" + i;
+                    break;
+                default:
+                    key = "a" + (i / 1000) + separator + "b" + (i / 100 % 10) + separator + "c" + (i % 3)
+                          + separator + "v" + i;
+                    break;
+            }
+            versionMap.put(key, "version" + i);
+        }
+    }
+
+    /**
+     * Test the builder gives the same result as setVersionForKeys, for sorted
+     * and shuffled input
+     */
+    @Test
+    public void testPutMatchesSetVersionForKeys() {
+        CompositeVersionInfoMap expected = new CompositeVersionInfoMap(separator);
+        for (Map.Entry<String, String> entry : versionMap.entrySet()) {
+            expected.setVersionForKeyPath(entry.getValue(), VersionKeyPath.parse(entry.getKey(), separator));
+        }
+
+        CompositeVersionInfoMap sorted = new CompositeVersionInfoMapBuilder(separator).putAll(versionMap).build();
+
+        List<Map.Entry<String, String>> entries = new ArrayList<Map.Entry<String, String>>(versionMap.entrySet());
+        Collections.shuffle(entries, new Random(entryCount));
+        CompositeVersionInfoMapBuilder builder = new CompositeVersionInfoMapBuilder(separator);
+        for (Map.Entry<String, String> entry : entries) {
+            builder.put(entry.getKey(), entry.getValue());
+        }
+        CompositeVersionInfoMap shuffled = builder.build();
+
+        Assert.assertEquals(msg("sorted"), expected, sorted);
+        Assert.assertEquals(msg("shuffled"), expected, shuffled);
+        Assert.assertEquals(msg("versionMap"), versionMap, sorted.getVersionMap());
+    }
+
+    /**
+     * Test reading lines written from getVersionMap, with comments and blank
+     * lines, gives the same versionMap back
+     */
+    @Test
+    public void testReadMatchesGetVersionMap() throws IOException {
+        StringWriter writer = new StringWriter();
+        writer.write("# versions\n\n");
+        for (Map.Entry<String, String> entry : versionMap.entrySet()) {
+            writer.write("  " + entry.getKey() + " = " + entry.getValue() + "\n");
+        }
+        writer.write("! end\n");
+
+        CompositeVersionInfoMap actual = new CompositeVersionInfoMapBuilder(separator).read(
+                new StringReader(writer.toString())).build();
+
+        Assert.assertEquals(msg("versionMap"), versionMap, actual.getVersionMap());
+        Assert.assertEquals(msg("keyConcatenationSeparator"), separator, actual.getKeyConcatenationSeparator());
+    }
+
+    /**
+     * Test a line without = is rejected, giving the line number
+     */
+    @Test
+    public void testReadBadLine() throws IOException {
+        try {
+            new CompositeVersionInfoMapBuilder(separator).read(new StringReader("a=b\n\nbad line\n"));
+            Assert.fail(msg("expected IllegalArgumentException"));
+        } catch (IllegalArgumentException iae) {
+            Assert.assertTrue(msg("message:" + iae.getMessage()), iae.getMessage().contains("line 3"));
+        }
+    }
+
+    /**
+     * Test a null key or version is rejected, as for setVersionForKeys, and
+     * nothing is added
+     */
+    @Test
+    public void testPutNull() {
+        CompositeVersionInfoMapBuilder builder = new CompositeVersionInfoMapBuilder(separator);
+        try {
+            builder.put("a" + separator + "b", null);
+            Assert.fail(msg("expected NullPointerException for null version"));
+        } catch (NullPointerException npe) {
+            logger.trace("expected exception", npe);
+        }
+
+        try {
+            builder.put(null, "v");
+            Assert.fail(msg("expected NullPointerException for null key"));
+        } catch (NullPointerException npe) {
+            logger.trace("expected exception", npe);
+        }
+
+        Assert.assertEquals(msg("nothing added"), new CompositeVersionInfoMap(separator), builder.build());
+    }
+
+    /**
+     * Test build resets the builder, and built objects pass on changes to
+     * components
+     */
+    @Test
+    public void testBuildResetsAndNotifies() {
+        CompositeVersionInfoMapBuilder builder = new CompositeVersionInfoMapBuilder(separator);
+        CompositeVersionInfoMap versionInfo = builder.putAll(versionMap).put("a0" + separator + "v1", "v1").build();
+        Assert.assertEquals(msg("reset"), new CompositeVersionInfoMap(separator), builder.build());
+
+        final AtomicInteger notifications = new AtomicInteger();
+        versionInfo.addChangeListener(new VersionInfoChangeListener() {
+            @Override
+            public void versionInfoChanged(CompositeVersionInfo changed) {
+                notifications.incrementAndGet();
+            }
+        });
+        final long structuralHash = versionInfo.getStructuralHash();
+        versionInfo.getVersionInfoForKeys("a0").setVersionForKeys("changed", "v1");
+        Assert.assertEquals(msg("notifications"), 1, notifications.get());
+        Assert.assertFalse(msg("structuralHash changed"), structuralHash == versionInfo.getStructuralHash());
+    }
+
+    /**
+     * Helper adding parameters to message
+     *
+     * @param msg
+     * @return message
+     */
+    private String msg(String msg) {
+        return "separator=" + separator + ":entryCount=" + entryCount + ":" + msg;
+    }
+}
@@ -194,6 +194,34 @@ public class CompositeVersionInfoMapTest {
                                     + "'"), actualVersionString.endsWith(versionMapToString));
     }
 
+    /**
+     * Test version string is cached until a change, including a change to a
+     * component, and writeVersionString writes the same string
+     */
+    @Test
+    public void testGetVersionStringCached() throws Exception {
+        final String versionString = compositeVersionInfoMapUnderTest.getVersionString();
+        Assert.assertSame(assertMsg("cached versionString"), versionString,
+                          compositeVersionInfoMapUnderTest.getVersionString());
+
+        StringBuilder written = new StringBuilder();
+        compositeVersionInfoMapUnderTest.writeVersionString(written);
+        Assert.assertEquals(assertMsg("written versionString"), versionString, written.toString());
+
+        CompositeVersionInfoMap component = new CompositeVersionInfoMap();
+        compositeVersionInfoMapUnderTest.setVersionInfoForKeys(component, "cachedTest");
+        component.setVersionForKeys("1.0", "cachedVersion");
+        final String changedVersionString = compositeVersionInfoMapUnderTest.getVersionString();
+        Assert.assertTrue(assertMsg("changed versionString " + changedVersionString),
+                          changedVersionString.endsWith(compositeVersionInfoMapUnderTest.getVersionMap().toString()));
+        Assert.assertTrue(assertMsg("changed versionString has component version " + changedVersionString),
+                          changedVersionString.contains("cachedVersion=1.0"));
+
+        written.setLength(0);
+        compositeVersionInfoMapUnderTest.writeVersionString(written);
+        Assert.assertEquals(assertMsg("written changed versionString"), changedVersionString, written.toString());
+    }
+
     /**
      * Test method for
      * {@link com.redblackit.version.CompositeVersionInfoMap#getVersionForKey}.
@@ -397,6 +425,68 @@ public class CompositeVersionInfoMapTest {
     }
 
 
+    /**
+     * Test getVersionForKeyPath and getVersionInfoForKeyPath give the same results as the corresponding keys methods,
+     * including for keys which aren't present.
+     */
+    @Test
+    public void testGetForKeyPath() {
+        for (List<String> key : compositeVersionInfoMapUnderTest.getVersionComponentMap().keySet()) {
+            String[] keys = key.toArray(new String[key.size()]);
+            VersionKeyPath keyPath = VersionKeyPath.of(keys);
+            Assert.assertEquals(assertMsg("version for keyPath:" + keyPath),
+                                compositeVersionInfoMapUnderTest.getVersionForKeys(keys),
+                                compositeVersionInfoMapUnderTest.getVersionForKeyPath(keyPath));
+
+            if (keys.length > 1) {
+                String[] containerKeys = Arrays.copyOf(keys, keys.length - 1);
+                Assert.assertSame(assertMsg("versionInfo for keyPath:" + keyPath),
+                                  compositeVersionInfoMapUnderTest.getVersionInfoForKeys(containerKeys),
+                                  compositeVersionInfoMapUnderTest.getVersionInfoForKeyPath(
+                                          VersionKeyPath.of(containerKeys)));
+            }
+
+            keys[0] = "non-existent";
+            Assert.assertNull(assertMsg("bad keyPath:" + Arrays.toString(keys)),
+                              compositeVersionInfoMapUnderTest.getVersionForKeyPath(VersionKeyPath.of(keys)));
+        }
+
+        Assert.assertNull(assertMsg("null keyPath"), compositeVersionInfoMapUnderTest.getVersionForKeyPath(null));
+        Assert.assertNull(assertMsg("null keyPath"), compositeVersionInfoMapUnderTest.getVersionInfoForKeyPath(null));
+    }
+
+    /**
+     * Test setVersionForKeyPath and setVersionInfoForKeyPath are equivalent to the keys methods
+     */
+    @Test
+    public void testSetForKeyPath() {
+        CompositeVersionInfoMap expected = initialCviParameters.createCompositeVersionInfoMap();
+        int ki = 0;
+        for (List<String> key : compositeVersionInfoMapUnderTest.getVersionComponentMap().keySet()) {
+            List<String> newKey = new ArrayList<String>(key);
+            newKey.add(0, "new" + (ki++ % 2));
+            String[] keys = newKey.toArray(new String[newKey.size()]);
+
+            expected.setVersionForKeys("new" + key, keys);
+            compositeVersionInfoMapUnderTest.setVersionForKeyPath("new" + key, VersionKeyPath.of(keys));
+
+            keys[keys.length - 1] = "newInfo";
+            expected.setVersionInfoForKeys(new CompositeVersionInfoMap('-'), keys);
+            compositeVersionInfoMapUnderTest.setVersionInfoForKeyPath(new CompositeVersionInfoMap('-'),
+                                                                      VersionKeyPath.of(keys));
+        }
+
+        Assert.assertEquals(assertMsg("after setting for keyPaths"), expected, compositeVersionInfoMapUnderTest);
+
+        try {
+            compositeVersionInfoMapUnderTest.setVersionInfoForKeyPath(compositeVersionInfoMapUnderTest,
+                                                                      VersionKeyPath.of("recursive"));
+            Assert.fail(assertMsg("expected IllegalArgumentException setting this"));
+        } catch (IllegalArgumentException iae) {
+            logger.trace("expected exception", iae);
+        }
+    }
+
     /**
      * Test getMaximumComponentVersionDepth against maximum actually found
      *
@@ -416,6 +506,48 @@ public class CompositeVersionInfoMapTest {
                             compositeVersionInfoMapUnderTest.getMaximumComponentVersionDepth());
     }
 
+    /**
+     * Test snapshot gives the same view as the original, is unaffected by subsequent changes to the original, and
+     * refuses changes itself.
+     *
+     * @see com.redblackit.version.CompositeVersionInfoMap#snapshot()
+     */
+    @Test
+    public void testSnapshot() {
+        final Map<String, String> expectedVersionMap = compositeVersionInfoMapUnderTest.getVersionMap();
+        final Map<List<String>, String> expectedComponentMap = compositeVersionInfoMapUnderTest.getVersionComponentMap();
+
+        ImmutableCompositeVersionInfo snapshot = compositeVersionInfoMapUnderTest.snapshot();
+        verifySnapshot("initial snapshot", compositeVersionInfoMapUnderTest, snapshot);
+        Assert.assertSame(assertMsg("snapshot of snapshot"), snapshot, snapshot.snapshot());
+        Assert.assertSame(assertMsg("versionMap is shared"), snapshot.getVersionMap(), snapshot.getVersionMap());
+        Assert.assertSame(assertMsg("versionComponentMap is shared"), snapshot.getVersionComponentMap(),
+                          snapshot.getVersionComponentMap());
+        Assert.assertEquals(assertMsg("equal snapshots"), snapshot, compositeVersionInfoMapUnderTest.snapshot());
+
+        compositeVersionInfoMapUnderTest.setVersionForKeys("changed", "non-existent", "changed");
+        Assert.assertEquals(assertMsg("snapshot versionMap after change to original"), expectedVersionMap,
+                            snapshot.getVersionMap());
+        Assert.assertEquals(assertMsg("snapshot versionComponentMap after change to original"), expectedComponentMap,
+                            snapshot.getVersionComponentMap());
+        Assert.assertNull(assertMsg("snapshot version after change to original"),
+                          snapshot.getVersionForKeys("non-existent", "changed"));
+
+        try {
+            snapshot.setVersionForKeys("changed", "non-existent");
+            Assert.fail(assertMsg("snapshot setVersionForKeys should fail"));
+        } catch (UnsupportedOperationException uoe) {
+            logger.trace("expected exception", uoe);
+        }
+
+        try {
+            snapshot.getVersionMap().put("non-existent", "changed");
+            Assert.fail(assertMsg("snapshot versionMap should be unmodifiable"));
+        } catch (UnsupportedOperationException uoe) {
+            logger.trace("expected exception", uoe);
+        }
+    }
+
     /**
      * Test Jackson Json marshalling/unmarshalling for annotations in class What
      * goes in should come out!
@@ -433,6 +565,129 @@ public class CompositeVersionInfoMapTest {
                             compositeVersionInfoMapUnderTest, unmarshalledVersionInfo);
     }
 
+    /**
+     * Test structural hash is independent of implementation, follows changes
+     * at any level, and is consistent with equals, as is hashCode.
+     */
+    @Test
+    public void testStructuralHash() {
+        CompositeVersionInfoMap other = initialCviParameters.createCompositeVersionInfoMap();
+        Assert.assertEquals(assertMsg("equal maps"), compositeVersionInfoMapUnderTest, other);
+        Assert.assertEquals(assertMsg("structural hash for equal maps"),
+                            compositeVersionInfoMapUnderTest.getStructuralHash(), other.getStructuralHash());
+
+        CompositeVersionInfo snapshot = compositeVersionInfoMapUnderTest.snapshot();
+        Assert.assertEquals(assertMsg("structural hash for snapshot"),
+                            compositeVersionInfoMapUnderTest.getStructuralHash(), snapshot.getStructuralHash());
+
+        compositeVersionInfoMapUnderTest.setVersionForKeys("v0", "hash0", "hash1", "hash2");
+        Assert.assertFalse(assertMsg("structural hash after nested change"),
+                           snapshot.getStructuralHash() == compositeVersionInfoMapUnderTest.getStructuralHash());
+        Assert.assertFalse(assertMsg("not equal after nested change"),
+                           compositeVersionInfoMapUnderTest.equals(other));
+
+        other.setVersionForKeys("v0", "hash0", "hash1", "hash2");
+        Assert.assertEquals(assertMsg("equal after same change"), compositeVersionInfoMapUnderTest, other);
+        Assert.assertEquals(assertMsg("hashCode after same change"), compositeVersionInfoMapUnderTest.hashCode(),
+                            other.hashCode());
+        Assert.assertEquals(assertMsg("structural hash after same change"),
+                            compositeVersionInfoMapUnderTest.getStructuralHash(), other.getStructuralHash());
+
+        CompositeVersionInfo component = compositeVersionInfoMapUnderTest.getVersionInfoForKeys("hash0");
+        final long rootHash = compositeVersionInfoMapUnderTest.getStructuralHash();
+        final long componentHash = component.getStructuralHash();
+        component.setVersionForKeys("v1", "hash1", "hash2");
+        Assert.assertFalse(assertMsg("component structural hash after direct change"),
+                           componentHash == component.getStructuralHash());
+        Assert.assertFalse(assertMsg("root structural hash after direct change to component"),
+                           rootHash == compositeVersionInfoMapUnderTest.getStructuralHash());
+
+        component.setVersionForKeys("v0", "hash1", "hash2");
+        Assert.assertEquals(assertMsg("component structural hash after change reverted"), componentHash,
+                            component.getStructuralHash());
+        Assert.assertEquals(assertMsg("root structural hash after change reverted"), rootHash,
+                            compositeVersionInfoMapUnderTest.getStructuralHash());
+        Assert.assertEquals(assertMsg("identical component in other map"), componentHash,
+                            other.getVersionInfoForKeys("hash0").getStructuralHash());
+    }
+
+    /**
+     * Test listeners are notified of changes made at any level, including
+     * directly to components, but not of changes to components which have
+     * been replaced, nor after removal.
+     */
+    @Test
+    public void testChangeListener() {
+        final List<CompositeVersionInfo> notified = new ArrayList<CompositeVersionInfo>();
+        VersionInfoChangeListener listener = new VersionInfoChangeListener() {
+            @Override
+            public void versionInfoChanged(CompositeVersionInfo versionInfo) {
+                notified.add(versionInfo);
+            }
+        };
+        compositeVersionInfoMapUnderTest.addChangeListener(listener);
+
+        compositeVersionInfoMapUnderTest.setVersionForKeys("v0", "listener0");
+        Assert.assertFalse(assertMsg("notified for top-level version"), notified.isEmpty());
+        Assert.assertSame(assertMsg("notified with object listened to"), compositeVersionInfoMapUnderTest,
+                          notified.get(0));
+
+        notified.clear();
+        compositeVersionInfoMapUnderTest.setVersionForKeys("v1", "listener1", "listener2", "listener3");
+        Assert.assertFalse(assertMsg("notified for nested version"), notified.isEmpty());
+
+        CompositeVersionInfo component = compositeVersionInfoMapUnderTest.getVersionInfoForKeys("listener1",
+                                                                                                "listener2");
+        notified.clear();
+        component.setVersionForKeys("v2", "listener4");
+        Assert.assertFalse(assertMsg("notified for change to component"), notified.isEmpty());
+
+        compositeVersionInfoMapUnderTest.setVersionInfoForKeys(new CompositeVersionInfoMap(), "listener1",
+                                                               "listener2");
+        notified.clear();
+        component.setVersionForKeys("v3", "listener4");
+        Assert.assertTrue(assertMsg("not notified for change to replaced component:" + notified),
+                          notified.isEmpty());
+
+        notified.clear();
+        Map<String, String> versionStringMap = new HashMap<String, String>();
+        versionStringMap.put("listener5", "v5");
+        compositeVersionInfoMapUnderTest.setVersionStringMap(versionStringMap);
+        Assert.assertFalse(assertMsg("notified for setVersionStringMap"), notified.isEmpty());
+
+        notified.clear();
+        compositeVersionInfoMapUnderTest.removeChangeListener(listener);
+        compositeVersionInfoMapUnderTest.setVersionForKeys("v6", "listener1", "listener6");
+        Assert.assertTrue(assertMsg("not notified after removal:" + notified), notified.isEmpty());
+    }
+
+    /**
+     * Test JSON written via VersionInfoObjectMapper (i.e. using
+     * CompositeVersionInfoSerializer) is the same as default bean
+     * serialization, for both the map and its snapshot, and can be read back.
+     */
+    @Test
+    public void testJsonSerializer() throws Exception {
+        ObjectMapper defaultMapper = new ObjectMapper();
+        ObjectMapper versionInfoMapper = new VersionInfoObjectMapper();
+
+        final String defaultVersion = defaultMapper.writeValueAsString(compositeVersionInfoMapUnderTest);
+        final String marshalledVersion = versionInfoMapper.writeValueAsString(compositeVersionInfoMapUnderTest);
+        logger.trace("defaultVersion=" + defaultVersion + ":marshalledVersion=" + marshalledVersion);
+        Assert.assertEquals(assertMsg("default and serializer JSON trees"), defaultMapper.readTree(defaultVersion),
+                            defaultMapper.readTree(marshalledVersion));
+
+        final String marshalledSnapshot = versionInfoMapper.writeValueAsString(
+                compositeVersionInfoMapUnderTest.snapshot());
+        Assert.assertEquals(assertMsg("default and serializer snapshot JSON trees"),
+                            defaultMapper.readTree(defaultVersion), defaultMapper.readTree(marshalledSnapshot));
+
+        CompositeVersionInfo unmarshalledVersionInfo = versionInfoMapper.readValue(
+                marshalledVersion, CompositeVersionInfoMap.class);
+        Assert.assertEquals(assertMsg("original and unmarshalled versionInfo"),
+                            compositeVersionInfoMapUnderTest, unmarshalledVersionInfo);
+    }
+
     /*
       * (non-Javadoc)
       *
@@ -716,6 +971,45 @@ public class CompositeVersionInfoMapTest {
         }
     }
 
+    /**
+     * Recursively verify snapshot against the original
+     *
+     * @param msg
+     * @param original
+     * @param snapshot
+     */
+    private void verifySnapshot(String msg, CompositeVersionInfo original, CompositeVersionInfo snapshot) {
+        Assert.assertTrue(assertMsg(msg + ":immutable"), snapshot instanceof ImmutableCompositeVersionInfo);
+        Assert.assertEquals(assertMsg(msg + ":versionMap"), original.getVersionMap(), snapshot.getVersionMap());
+        Assert.assertEquals(assertMsg(msg + ":versionComponentMap"),
+                            new ArrayList<Map.Entry<List<String>, String>>(original.getVersionComponentMap().entrySet()),
+                            new ArrayList<Map.Entry<List<String>, String>>(snapshot.getVersionComponentMap().entrySet()));
+        Assert.assertEquals(assertMsg(msg + ":versionStringMap"), original.getVersionStringMap(),
+                            snapshot.getVersionStringMap());
+        Assert.assertEquals(assertMsg(msg + ":maximumComponentVersionDepth"),
+                            original.getMaximumComponentVersionDepth(), snapshot.getMaximumComponentVersionDepth());
+
+        Map<String, CompositeVersionInfo> originalVersionInfoMap = original.getVersionInfoMap();
+        Map<String, CompositeVersionInfo> snapshotVersionInfoMap = snapshot.getVersionInfoMap();
+        if (originalVersionInfoMap == null) {
+            Assert.assertNull(assertMsg(msg + ":versionInfoMap"), snapshotVersionInfoMap);
+        } else {
+            Assert.assertEquals(assertMsg(msg + ":versionInfoMap keys"), originalVersionInfoMap.keySet(),
+                                snapshotVersionInfoMap.keySet());
+            for (String key : originalVersionInfoMap.keySet()) {
+                Assert.assertSame(assertMsg(msg + ":getVersionInfoForKeys:" + key), snapshotVersionInfoMap.get(key),
+                                  snapshot.getVersionInfoForKeys(key));
+                verifySnapshot(msg + ":" + key, originalVersionInfoMap.get(key), snapshotVersionInfoMap.get(key));
+            }
+        }
+
+        for (List<String> key : original.getVersionComponentMap().keySet()) {
+            String[] keys = key.toArray(new String[key.size()]);
+            Assert.assertEquals(assertMsg(msg + ":getVersionForKeys:" + key), original.getVersionForKeys(keys),
+                                snapshot.getVersionForKeys(keys));
+        }
+    }
+
     /**
      * Helper creating expected version map from CVIParms, recursively
      *
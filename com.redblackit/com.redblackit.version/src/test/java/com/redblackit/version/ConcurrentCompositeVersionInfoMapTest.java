@@ -0,0 +1,353 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Tests for ConcurrentCompositeVersionInfoMap, including a multi-threaded
+ * stress test of concurrent reads and updates.
+ *
+ * @author djnorth
+ */
+@RunWith(Parameterized.class)
+public class ConcurrentCompositeVersionInfoMapTest {
+
+    /**
+     * Create test data: writer threads, reader threads, updates per writer
+     *
+     * @return test data as list
+     */
+    @Parameters
+    public static List<Object[]> testData() {
+        Object[][] data = {
+                {1, 1, 500},
+                {2, 4, 500},
+                {4, 4, 250},
+                {8, 2, 100}
+        };
+
+        return Arrays.asList(data);
+    }
+
+    /**
+     * Logger
+     */
+    private Logger logger = Logger.getLogger("VersionInfo");
+
+    /**
+     * Number of writer threads
+     */
+    private final int writerCount;
+
+    /**
+     * Number of reader threads
+     */
+    private final int readerCount;
+
+    /**
+     * Updates per writer
+     */
+    private final int updateCount;
+
+    /**
+     * Constructor taking test parameters
+     *
+     * @param writerCount
+     * @param readerCount
+     * @param updateCount
+     */
+    public ConcurrentCompositeVersionInfoMapTest(int writerCount, int readerCount, int updateCount) {
+        this.writerCount = writerCount;
+        this.readerCount = readerCount;
+        this.updateCount = updateCount;
+    }
+
+    /**
+     * Test basic CompositeVersionInfo behaviour matches CompositeVersionInfoMap
+     */
+    @Test
+    public void testMatchesCompositeVersionInfoMap() {
+        CompositeVersionInfo expected = new CompositeVersionInfoMap('#');
+        CompositeVersionInfo actual = new ConcurrentCompositeVersionInfoMap('#');
+        for (int i = 0; i < writerCount; ++i) {
+            for (CompositeVersionInfo versionInfo : Arrays.asList(expected, actual)) {
+                versionInfo.setVersionForKeys("v" + i, "top" + i);
+                versionInfo.setVersionForKeys("v" + i, "writer" + i, "a", "b");
+                versionInfo.setVersionForKeyPath("w" + i, VersionKeyPath.of("writer" + i, "c"));
+            }
+        }
+
+        CompositeVersionInfo component = new CompositeVersionInfoMap();
+        component.setVersionForKeys("cv", "ck");
+        expected.setVersionInfoForKeys(component, "component");
+        actual.setVersionInfoForKeys(component, "component");
+
+        Assert.assertEquals(msg("versionMap"), expected.getVersionMap(), actual.getVersionMap());
+        Assert.assertEquals(msg("versionComponentMap"), expected.getVersionComponentMap(),
+                            actual.getVersionComponentMap());
+        Assert.assertTrue(msg("versionString ends with versionMap:" + actual.getVersionString()),
+                          actual.getVersionString().endsWith(expected.getVersionMap().toString()));
+        Assert.assertEquals(msg("maximumComponentVersionDepth"), expected.getMaximumComponentVersionDepth(),
+                            actual.getMaximumComponentVersionDepth());
+        Assert.assertEquals(msg("getVersionForKeys"), expected.getVersionForKeys("writer0", "a", "b"),
+                            actual.getVersionForKeys("writer0", "a", "b"));
+        Assert.assertEquals(msg("snapshot"), expected.snapshot(), actual.snapshot());
+
+        component.setVersionForKeys("cv2", "ck");
+        Assert.assertEquals(msg("supplied component copied"), "cv", actual.getVersionForKeys("component", "ck"));
+
+        try {
+            actual.setVersionForKeys("v", "a", null);
+            Assert.fail(msg("expected NullPointerException for null key"));
+        } catch (NullPointerException npe) {
+            logger.trace("expected exception", npe);
+        }
+
+        try {
+            actual.setVersionInfoForKeys(actual, "self");
+            Assert.fail(msg("expected IllegalArgumentException for recursive set"));
+        } catch (IllegalArgumentException iae) {
+            logger.trace("expected exception", iae);
+        }
+    }
+
+    /**
+     * Test snapshots and returned maps are unaffected by later updates
+     */
+    @Test
+    public void testSnapshotIsolation() {
+        ConcurrentCompositeVersionInfoMap versionInfo = new ConcurrentCompositeVersionInfoMap();
+        versionInfo.setVersionForKeys("v0", "a", "b");
+        CompositeVersionInfo snapshot = versionInfo.snapshot();
+        Map<String, String> versionMap = versionInfo.getVersionMap();
+        CompositeVersionInfo component = versionInfo.getVersionInfoForKeys("a");
+
+        versionInfo.setVersionForKeys("v1", "a", "b");
+        versionInfo.setVersionForKeys("v2", "a", "c");
+
+        Assert.assertEquals(msg("snapshot"), "v0", snapshot.getVersionForKeys("a", "b"));
+        Assert.assertEquals(msg("versionMap"), Collections.singletonMap("a.b", "v0"), versionMap);
+        Assert.assertEquals(msg("component"), "v0", component.getVersionForKeys("b"));
+        Assert.assertEquals(msg("current"), "v1", versionInfo.getVersionForKeys("a", "b"));
+    }
+
+    /**
+     * Test null versions are rejected by each setter, as for
+     * CompositeVersionInfoMap, leaving the structure unchanged
+     */
+    @Test
+    public void testNullVersion() {
+        ConcurrentCompositeVersionInfoMap versionInfo = new ConcurrentCompositeVersionInfoMap();
+        versionInfo.setVersionForKeys("v0", "a", "b");
+        final ImmutableCompositeVersionInfo before = versionInfo.snapshot();
+
+        try {
+            versionInfo.setVersionForKeys(null, "a", "b");
+            Assert.fail(msg("expected NullPointerException for setVersionForKeys"));
+        } catch (NullPointerException npe) {
+            logger.trace("expected exception", npe);
+        }
+
+        try {
+            versionInfo.setVersionForKeyPath(null, VersionKeyPath.of("a", "b"));
+            Assert.fail(msg("expected NullPointerException for setVersionForKeyPath"));
+        } catch (NullPointerException npe) {
+            logger.trace("expected exception", npe);
+        }
+
+        Map<VersionKeyPath, String> versions = new LinkedHashMap<VersionKeyPath, String>();
+        versions.put(VersionKeyPath.of("a", "c"), "v1");
+        versions.put(VersionKeyPath.of("a", "b"), null);
+        try {
+            versionInfo.setVersionsForKeyPaths(versions);
+            Assert.fail(msg("expected NullPointerException for setVersionsForKeyPaths"));
+        } catch (NullPointerException npe) {
+            logger.trace("expected exception", npe);
+        }
+
+        Assert.assertSame(msg("unchanged"), before, versionInfo.snapshot());
+        Assert.assertEquals(msg("version"), "v0", versionInfo.getVersionForKeys("a", "b"));
+    }
+
+    /**
+     * Test a non-default separator is kept when copying, snapshotting as a
+     * component, and setting as a component
+     */
+    @Test
+    public void testSeparatorPreserved() {
+        ConcurrentCompositeVersionInfoMap versionInfo = new ConcurrentCompositeVersionInfoMap('#');
+        versionInfo.setVersionForKeys("v0", "a", "b");
+        final Map<String, String> expectedVersionMap = Collections.singletonMap("a#b", "v0");
+
+        ImmutableCompositeVersionInfo copy = ImmutableCompositeVersionInfo.copyOf(versionInfo);
+        Assert.assertEquals(msg("copyOf separator"), '#', copy.getKeyConcatenationSeparator());
+        Assert.assertEquals(msg("copyOf versionMap"), expectedVersionMap, copy.getVersionMap());
+
+        CompositeVersionInfoMap parent = new CompositeVersionInfoMap();
+        parent.setVersionInfoForKeys(versionInfo, "component");
+        ImmutableCompositeVersionInfo component = (ImmutableCompositeVersionInfo) parent.snapshot()
+                .getVersionInfoForKeys("component");
+        Assert.assertEquals(msg("snapshot component separator"), '#', component.getKeyConcatenationSeparator());
+        Assert.assertEquals(msg("snapshot component versionMap"), expectedVersionMap, component.getVersionMap());
+
+        ConcurrentCompositeVersionInfoMap constructed = new ConcurrentCompositeVersionInfoMap(versionInfo);
+        Assert.assertEquals(msg("constructed separator"), '#', constructed.getKeyConcatenationSeparator());
+        Assert.assertEquals(msg("constructed versionMap"), expectedVersionMap, constructed.getVersionMap());
+
+        ConcurrentCompositeVersionInfoMap concurrentParent = new ConcurrentCompositeVersionInfoMap();
+        concurrentParent.setVersionInfoForKeys(versionInfo, "component");
+        component = (ImmutableCompositeVersionInfo) concurrentParent.getVersionInfoForKeys("component");
+        Assert.assertEquals(msg("set component separator"), '#', component.getKeyConcatenationSeparator());
+        Assert.assertEquals(msg("set component versionMap"), expectedVersionMap, component.getVersionMap());
+    }
+
+    /**
+     * Writers each repeatedly set a pair of versions in a single update, and a
+     * count of updates, while readers check that every structure they see has
+     * matching pairs, that counts never go backwards, and that the maps can be
+     * iterated. Finally check all updates and change notifications were made.
+     */
+    @Test
+    public void testConcurrentUpdatesAndReads() throws Exception {
+        final ConcurrentCompositeVersionInfoMap versionInfo = new ConcurrentCompositeVersionInfoMap();
+        final AtomicInteger notifications = new AtomicInteger();
+        versionInfo.addChangeListener(new VersionInfoChangeListener() {
+            @Override
+            public void versionInfoChanged(CompositeVersionInfo changed) {
+                notifications.incrementAndGet();
+            }
+        });
+
+        final CountDownLatch startLatch = new CountDownLatch(1);
+        final AtomicBoolean writersDone = new AtomicBoolean(false);
+        final List<Throwable> failures = new CopyOnWriteArrayList<Throwable>();
+        ExecutorService executor = Executors.newFixedThreadPool(writerCount + readerCount);
+        List<Future<?>> writers = new ArrayList<Future<?>>();
+        List<Future<?>> readers = new ArrayList<Future<?>>();
+
+        for (int w = 0; w < writerCount; ++w) {
+            final String writerKey = "writer" + w;
+            writers.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        for (int i = 1; i <= updateCount; ++i) {
+                            Map<VersionKeyPath, String> versions = new HashMap<VersionKeyPath, String>();
+                            versions.put(VersionKeyPath.of(writerKey, "pair", "a"), String.valueOf(i));
+                            versions.put(VersionKeyPath.of(writerKey, "pair", "b"), String.valueOf(i));
+                            versions.put(VersionKeyPath.of("counts", writerKey), String.valueOf(i));
+                            versionInfo.setVersionsForKeyPaths(versions);
+                        }
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            }));
+        }
+
+        for (int r = 0; r < readerCount; ++r) {
+            readers.add(executor.submit(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        startLatch.await();
+                        int[] lastCounts = new int[writerCount];
+                        while (!writersDone.get()) {
+                            CompositeVersionInfo snapshot = versionInfo.snapshot();
+                            for (int w = 0; w < writerCount; ++w) {
+                                final String writerKey = "writer" + w;
+                                String a = snapshot.getVersionForKeys(writerKey, "pair", "a");
+                                String b = snapshot.getVersionForKeys(writerKey, "pair", "b");
+                                String count = snapshot.getVersionForKeys("counts", writerKey);
+                                Assert.assertEquals(msg("pair for " + writerKey), a, b);
+                                Assert.assertEquals(msg("count for " + writerKey), a, count);
+                                if (count != null) {
+                                    int countValue = Integer.parseInt(count);
+                                    Assert.assertTrue(msg("count for " + writerKey + " went back from "
+                                                          + lastCounts[w] + " to " + countValue),
+                                                      countValue >= lastCounts[w]);
+                                    lastCounts[w] = countValue;
+                                }
+                            }
+
+                            Map<String, String> versionMap = versionInfo.getVersionMap();
+                            for (Map.Entry<String, String> entry : versionMap.entrySet()) {
+                                Assert.assertNotNull(msg("versionMap value for " + entry.getKey()),
+                                                     entry.getValue());
+                            }
+                            versionInfo.getVersionString();
+                            versionInfo.getVersionComponentMap();
+                        }
+                    } catch (Throwable t) {
+                        failures.add(t);
+                    }
+                }
+            }));
+        }
+
+        final long start = System.nanoTime();
+        startLatch.countDown();
+        for (Future<?> writer : writers) {
+            writer.get(60, TimeUnit.SECONDS);
+        }
+        final long elapsed = System.nanoTime() - start;
+        writersDone.set(true);
+        for (Future<?> reader : readers) {
+            reader.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        if (!failures.isEmpty()) {
+            logger.error(msg("failures=" + failures), failures.get(0));
+            Assert.fail(msg("failures=" + failures));
+        }
+
+        for (int w = 0; w < writerCount; ++w) {
+            final String writerKey = "writer" + w;
+            Assert.assertEquals(msg("final count for " + writerKey), String.valueOf(updateCount),
+                                versionInfo.getVersionForKeys("counts", writerKey));
+            Assert.assertEquals(msg("final pair for " + writerKey), String.valueOf(updateCount),
+                                versionInfo.getVersionForKeys(writerKey, "pair", "a"));
+        }
+        Assert.assertEquals(msg("notifications"), writerCount * updateCount, notifications.get());
+        logger.info(msg("updates=" + (writerCount * updateCount) + ":elapsed (ns)=" + elapsed));
+    }
+
+    /**
+     * Helper adding parameters to message
+     *
+     * @param msg
+     * @return message
+     */
+    private String msg(String msg) {
+        return "writerCount=" + writerCount + ":readerCount=" + readerCount + ":updateCount=" + updateCount + ":"
+               + msg;
+    }
+}
@@ -171,6 +171,29 @@ public class SimpleVersionInfoTest {
 				versionString.endsWith("versionMap=" + expectedVersionMap));
 	}
 
+	/**
+	 * Test version string is not cached, so reflects changes made directly
+	 * to the version properties, and writeVersionString writes the same
+	 * string
+	 */
+	@Test
+	public void getVersionStringAfterPropertiesChanged() throws Exception {
+		versionInfoUnderTest.getVersionString();
+		if (versionInfoUnderTest.getVersionProperties() == null) {
+			versionInfoUnderTest.setVersionProperties(new Properties());
+		}
+		versionInfoUnderTest.getVersionProperties().setProperty("changedKey", "changedValue");
+
+		final String versionString = versionInfoUnderTest.getVersionString();
+		Assert.assertTrue(versionInfoUnderTest.getClass() + ":version string="
+				+ versionString, versionString.contains("changedKey=changedValue"));
+
+		StringBuilder written = new StringBuilder();
+		versionInfoUnderTest.writeVersionString(written);
+		Assert.assertEquals(versionInfoUnderTest.getClass() + ":written version string",
+				versionString, written.toString());
+	}
+
 	/**
 	 * Test equals
 	 */
@@ -210,6 +233,25 @@ public class SimpleVersionInfoTest {
 
 	}
 
+	/**
+	 * Test hashCode is that of the version map, and follows changes to the
+	 * properties
+	 */
+	@Test
+	public void testHashCode() {
+		Map<String, String> versionMap = versionInfoUnderTest.getVersionMap();
+		Assert.assertEquals("hashCode", (versionMap == null ? 0 : versionMap
+				.hashCode()), versionInfoUnderTest.hashCode());
+
+		if (versionInfoUnderTest.getVersionProperties() != null) {
+			versionInfoUnderTest.getVersionProperties().put("extraKey",
+					"extraValue");
+			Assert.assertEquals("hashCode after change", versionInfoUnderTest
+					.getVersionMap().hashCode(), versionInfoUnderTest
+					.hashCode());
+		}
+	}
+
 	/**
 	 * Test Jackson Json marshalling/unmarshalling for annotations in class What
 	 * goes in should come out!
@@ -0,0 +1,233 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import java.util.*;
+
+import junit.framework.Assert;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Tests for SortedArrayVersionInfo, checking it behaves as SimpleVersionInfo
+ * for the same properties.
+ *
+ * @author djnorth
+ */
+@RunWith(Parameterized.class)
+public class SortedArrayVersionInfoTest {
+
+    /**
+     * Create test data: properties for construction, properties for setting
+     *
+     * @return test data as list
+     */
+    @Parameters
+    public static List<Object[]> testData() {
+        Properties vprops1 = new Properties();
+        vprops1.put("configurationVersion", "0.0.1");
+
+        Properties vprops2 = new Properties();
+        vprops2.put("configurationVersion", "0.1.Beta");
+        vprops2.put("versionDate", "20110107");
+        vprops2.put("author", "Dominic North");
+
+        Properties vprops3 = new Properties();
+
+        Object[][] data = {
+                {vprops1, vprops2},
+                {vprops2, vprops3},
+                {vprops3, null},
+                {null, vprops1},
+                {null, null}
+        };
+
+        return Arrays.asList(data);
+    }
+
+    /**
+     * Properties for construction
+     */
+    private final Properties constructorProperties;
+
+    /**
+     * Properties for setting
+     */
+    private final Properties setterProperties;
+
+    /**
+     * VersionInfo under test
+     */
+    private final SortedArrayVersionInfo versionInfoUnderTest;
+
+    /**
+     * Equivalent SimpleVersionInfo
+     */
+    private final SimpleVersionInfo expectedVersionInfo;
+
+    /**
+     * Constructor taking test parameters
+     *
+     * @param constructorProperties
+     * @param setterProperties
+     */
+    public SortedArrayVersionInfoTest(Properties constructorProperties, Properties setterProperties) {
+        this.constructorProperties = constructorProperties;
+        this.setterProperties = setterProperties;
+        this.versionInfoUnderTest = new SortedArrayVersionInfo(constructorProperties);
+        this.expectedVersionInfo = new SimpleVersionInfo(constructorProperties);
+    }
+
+    /**
+     * Test version map, string and properties match SimpleVersionInfo
+     */
+    @Test
+    public void testMatchesSimpleVersionInfo() {
+        Assert.assertEquals(msg("versionMap"), expectedVersionInfo.getVersionMap(),
+                            versionInfoUnderTest.getVersionMap());
+        Assert.assertEquals(msg("versionProperties"), constructorProperties,
+                            versionInfoUnderTest.getVersionProperties());
+        Assert.assertEquals(msg("hashCode"), expectedVersionInfo.hashCode(), versionInfoUnderTest.hashCode());
+        Assert.assertTrue(msg("versionString=" + versionInfoUnderTest.getVersionString()),
+                          versionInfoUnderTest.getVersionString().endsWith(
+                                  "versionMap=" + expectedVersionInfo.getVersionMap()));
+    }
+
+    /**
+     * Test the map is sorted, unmodifiable, and found by binary search
+     */
+    @Test
+    public void testVersionMap() {
+        Map<String, String> versionMap = versionInfoUnderTest.getVersionMap();
+        if (versionMap == null) {
+            return;
+        }
+
+        Assert.assertEquals(msg("keys in order"), new ArrayList<String>(new TreeSet<String>(versionMap.keySet())),
+                            new ArrayList<String>(versionMap.keySet()));
+        for (String key : constructorProperties.stringPropertyNames()) {
+            Assert.assertTrue(msg("containsKey " + key), versionMap.containsKey(key));
+            Assert.assertEquals(msg("get " + key), constructorProperties.getProperty(key), versionMap.get(key));
+        }
+        Assert.assertFalse(msg("containsKey missing"), versionMap.containsKey("missing"));
+        Assert.assertNull(msg("get non-string"), versionMap.get(Integer.valueOf(1)));
+        Assert.assertSame(msg("same map"), versionMap, versionInfoUnderTest.getVersionMap());
+
+        try {
+            versionMap.put("extraKey", "extraValue");
+            Assert.fail(msg("expected UnsupportedOperationException"));
+        } catch (UnsupportedOperationException uoe) {
+            Assert.assertNull(msg("unchanged"), versionInfoUnderTest.getVersionMap().get("extraKey"));
+        }
+    }
+
+    /**
+     * Test setters replace the map, and are not affected by later changes to
+     * the supplied objects
+     */
+    @Test
+    public void testSetters() {
+        versionInfoUnderTest.setVersionProperties(setterProperties);
+        Assert.assertEquals(msg("versionProperties"), setterProperties, versionInfoUnderTest.getVersionProperties());
+        Assert.assertEquals(msg("versionMap"), new SimpleVersionInfo(setterProperties).getVersionMap(),
+                            versionInfoUnderTest.getVersionMap());
+
+        Map<String, String> versionMap = (setterProperties == null ? null : new HashMap<String, String>());
+        if (versionMap != null) {
+            for (String key : setterProperties.stringPropertyNames()) {
+                versionMap.put(key, setterProperties.getProperty(key));
+            }
+        }
+        SortedArrayVersionInfo mapVersionInfo = new SortedArrayVersionInfo();
+        mapVersionInfo.setVersionMap(versionMap);
+        Assert.assertEquals(msg("setVersionMap"), versionInfoUnderTest, mapVersionInfo);
+
+        if (versionMap != null) {
+            versionMap.put("extraKey", "extraValue");
+            Assert.assertEquals(msg("setVersionMap copied"), versionInfoUnderTest, mapVersionInfo);
+            versionInfoUnderTest.getVersionProperties().put("extraKey", "extraValue");
+            Assert.assertEquals(msg("getVersionProperties copied"), mapVersionInfo, versionInfoUnderTest);
+        }
+    }
+
+    /**
+     * Test a map with a null value is rejected, as it could not be given as
+     * properties, leaving the version map unchanged
+     */
+    @Test
+    public void testSetVersionMapNullValue() {
+        Map<String, String> versionMap = new HashMap<String, String>();
+        versionMap.put("key", null);
+        try {
+            versionInfoUnderTest.setVersionMap(versionMap);
+            Assert.fail(msg("expected NullPointerException"));
+        } catch (NullPointerException npe) {
+            Assert.assertEquals(msg("versionProperties unchanged"), constructorProperties,
+                                versionInfoUnderTest.getVersionProperties());
+        }
+    }
+
+    /**
+     * Test equals
+     */
+    @Test
+    public void testEquals() {
+        Assert.assertEquals(msg("identical objects"), versionInfoUnderTest, versionInfoUnderTest);
+        Assert.assertFalse(msg("ne null"), versionInfoUnderTest.equals(null));
+        Assert.assertFalse(msg("ne SimpleVersionInfo"), versionInfoUnderTest.equals(expectedVersionInfo));
+        Assert.assertEquals(msg("eq with null props"), constructorProperties == null,
+                            versionInfoUnderTest.equals(new SortedArrayVersionInfo((Properties) null)));
+
+        if (constructorProperties != null) {
+            Properties otherProperties = new Properties();
+            otherProperties.putAll(constructorProperties);
+            Assert.assertEquals(msg("eq with eq props"), versionInfoUnderTest,
+                                new SortedArrayVersionInfo(otherProperties));
+            otherProperties.put("extraKey", "extraValue");
+            Assert.assertFalse(msg("ne with ne props"),
+                               versionInfoUnderTest.equals(new SortedArrayVersionInfo(otherProperties)));
+        }
+    }
+
+    /**
+     * Test Jackson Json marshalling/unmarshalling. What goes in should come
+     * out!
+     */
+    @Test
+    public void testJsonMarshallUnmarshall() throws Exception {
+        ObjectMapper mapper = new ObjectMapper();
+        String marshalledVersion = mapper.writeValueAsString(versionInfoUnderTest);
+        VersionInfo unmarshalledVersionInfo = mapper.readValue(marshalledVersion, SortedArrayVersionInfo.class);
+        Assert.assertEquals(msg("original and unmarshalled versionInfo"), versionInfoUnderTest,
+                            unmarshalledVersionInfo);
+    }
+
+    /**
+     * Helper adding parameters to message
+     *
+     * @param msg
+     * @return message
+     */
+    private String msg(String msg) {
+        return "constructorProperties=" + constructorProperties + ":setterProperties=" + setterProperties + ":"
+               + msg;
+    }
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import java.util.*;
+
+import junit.framework.Assert;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Tests for VersionDiff, over trees of various width and depth, including
+ * checks that unchanged components are skipped.
+ *
+ * @author djnorth
+ */
+@RunWith(Parameterized.class)
+public class VersionDiffTest {
+
+    /**
+     * Create test data: width (versions and components per level), depth
+     *
+     * @return test data as list
+     */
+    @Parameters
+    public static List<Object[]> testData() {
+        Object[][] data = {
+                {1, 1},
+                {3, 2},
+                {4, 4}
+        };
+
+        return Arrays.asList(data);
+    }
+
+    /**
+     * Logger
+     */
+    private Logger logger = Logger.getLogger("VersionInfo");
+
+    /**
+     * Versions and components per level
+     */
+    private final int width;
+
+    /**
+     * Levels of components below the top
+     */
+    private final int depth;
+
+    /**
+     * Count of components whose version strings were read
+     */
+    private int visitCount;
+
+    /**
+     * Constructor taking test parameters
+     *
+     * @param width
+     * @param depth
+     */
+    public VersionDiffTest(int width, int depth) {
+        this.width = width;
+        this.depth = depth;
+    }
+
+    /**
+     * Test identical trees, and the same tree, give no differences without
+     * visiting any component
+     */
+    @Test
+    public void testIdentical() {
+        CompositeVersionInfo from = createTree(0);
+        CompositeVersionInfo to = createTree(0);
+
+        visitCount = 0;
+        VersionDiff diff = VersionDiff.between(from, to);
+        Assert.assertTrue(msg("identical:" + diff), diff.isEmpty());
+        Assert.assertEquals(msg("identical visitCount"), 0, visitCount);
+
+        Assert.assertTrue(msg("same"), VersionDiff.between(from, from).isEmpty());
+        Assert.assertEquals(msg("same visitCount"), 0, visitCount);
+    }
+
+    /**
+     * Test a changed version at the bottom of the tree is found, visiting
+     * only the components on its path
+     */
+    @Test
+    public void testChangedVersion() {
+        CompositeVersionInfo from = createTree(0);
+        CompositeVersionInfo to = createTree(0);
+        String[] keys = bottomKeys("v0");
+        to.setVersionForKeys("changed", keys);
+
+        visitCount = 0;
+        VersionDiff diff = VersionDiff.between(from, to);
+        assertChanges(diff, new VersionDiff.Change(VersionKeyPath.of(keys), VersionDiff.ChangeType.CHANGED,
+                                                   from.getVersionForKeys(keys), "changed"));
+        Assert.assertEquals(msg("visitCount"), 2 * (depth + 1), visitCount);
+    }
+
+    /**
+     * Test added versions are found, and are removed in the reverse
+     * direction
+     */
+    @Test
+    public void testAddedAndRemovedVersion() {
+        CompositeVersionInfo from = createTree(0);
+        CompositeVersionInfo to = createTree(0);
+        to.setVersionForKeys("top", "added");
+        String[] keys = bottomKeys("added");
+        to.setVersionForKeys("bottom", keys);
+
+        assertChanges(VersionDiff.between(from, to),
+                      new VersionDiff.Change(VersionKeyPath.of("added"), VersionDiff.ChangeType.ADDED, null, "top"),
+                      new VersionDiff.Change(VersionKeyPath.of(keys), VersionDiff.ChangeType.ADDED, null, "bottom"));
+        assertChanges(VersionDiff.between(to, from),
+                      new VersionDiff.Change(VersionKeyPath.of("added"), VersionDiff.ChangeType.REMOVED, "top", null),
+                      new VersionDiff.Change(VersionKeyPath.of(keys), VersionDiff.ChangeType.REMOVED, "bottom", null));
+    }
+
+    /**
+     * Test every version in an added component is found, and is removed in
+     * the reverse direction
+     */
+    @Test
+    public void testAddedAndRemovedComponent() {
+        CompositeVersionInfo from = createTree(0);
+        CompositeVersionInfo to = createTree(0);
+        CompositeVersionInfo component = new CompositeVersionInfoMap();
+        component.setVersionForKeys("a", "ka");
+        component.setVersionForKeys("b", "kb", "kc");
+        to.setVersionInfoForKeys(component, "component");
+
+        assertChanges(VersionDiff.between(from, to),
+                      new VersionDiff.Change(VersionKeyPath.of("component", "ka"), VersionDiff.ChangeType.ADDED,
+                                             null, "a"),
+                      new VersionDiff.Change(VersionKeyPath.of("component", "kb", "kc"),
+                                             VersionDiff.ChangeType.ADDED, null, "b"));
+        assertChanges(VersionDiff.between(to, from),
+                      new VersionDiff.Change(VersionKeyPath.of("component", "ka"), VersionDiff.ChangeType.REMOVED,
+                                             "a", null),
+                      new VersionDiff.Change(VersionKeyPath.of("component", "kb", "kc"),
+                                             VersionDiff.ChangeType.REMOVED, "b", null));
+    }
+
+    /**
+     * Test diff between snapshots of a concurrent map, and against the map
+     * itself
+     */
+    @Test
+    public void testConcurrentSnapshots() {
+        CompositeVersionInfo tree = createTree(0);
+        ConcurrentCompositeVersionInfoMap versionInfo = new ConcurrentCompositeVersionInfoMap(tree);
+        CompositeVersionInfo snapshot = versionInfo.snapshot();
+        String[] keys = bottomKeys("v0");
+        versionInfo.setVersionForKeys("changed", keys);
+
+        VersionDiff.Change expected = new VersionDiff.Change(VersionKeyPath.of(keys),
+                                                             VersionDiff.ChangeType.CHANGED,
+                                                             tree.getVersionForKeys(keys), "changed");
+        assertChanges(VersionDiff.between(snapshot, versionInfo.snapshot()), expected);
+        assertChanges(VersionDiff.between(snapshot, versionInfo), expected);
+        assertChanges(VersionDiff.between(tree, versionInfo), expected);
+    }
+
+    /**
+     * Check diff has exactly the expected changes
+     *
+     * @param diff
+     * @param expectedChanges
+     */
+    private void assertChanges(VersionDiff diff, VersionDiff.Change... expectedChanges) {
+        logger.debug(msg("diff=" + diff));
+        Assert.assertEquals(msg("changes count:" + diff), expectedChanges.length, diff.getChanges().size());
+        for (VersionDiff.Change expected : expectedChanges) {
+            Assert.assertEquals(msg("change for " + expected.getKeys()), expected,
+                                diff.getChanges().get(expected.getKeys()));
+        }
+    }
+
+    /**
+     * Keys of a version at the bottom of the tree
+     *
+     * @param versionKey
+     * @return keys
+     */
+    private String[] bottomKeys(String versionKey) {
+        String[] keys = new String[depth + 1];
+        Arrays.fill(keys, "c0");
+        keys[depth] = versionKey;
+        return keys;
+    }
+
+    /**
+     * Create tree of counting components
+     *
+     * @param level
+     * @return tree
+     */
+    private CompositeVersionInfo createTree(int level) {
+        CompositeVersionInfo versionInfo = new CountingCompositeVersionInfoMap();
+        for (int i = 0; i < width; ++i) {
+            versionInfo.setVersionForKeys(level + "." + i, "v" + i);
+            if (level < depth) {
+                versionInfo.setVersionInfoForKeys(createTree(level + 1), "c" + i);
+            }
+        }
+
+        return versionInfo;
+    }
+
+    /**
+     * Helper adding parameters to message
+     *
+     * @param msg
+     * @return message
+     */
+    private String msg(String msg) {
+        return "width=" + width + ":depth=" + depth + ":" + msg;
+    }
+
+    /**
+     * CompositeVersionInfoMap counting reads of its version strings by
+     * VersionDiff
+     */
+    private class CountingCompositeVersionInfoMap extends CompositeVersionInfoMap {
+
+        @Override
+        Map<String, String> versionStringMap() {
+            ++visitCount;
+            return super.versionStringMap();
+        }
+    }
+}
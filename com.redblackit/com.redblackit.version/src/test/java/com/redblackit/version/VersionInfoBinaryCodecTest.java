@@ -0,0 +1,193 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.Assert;
+
+import org.apache.log4j.Logger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Round-trip tests for VersionInfoBinaryCodec against CompositeVersionInfoMap,
+ * and checks that bad input is rejected.
+ *
+ * @author djnorth
+ */
+@RunWith(Parameterized.class)
+public class VersionInfoBinaryCodecTest {
+
+    /**
+     * Create test data: versionInfo to encode
+     *
+     * @return test data as list
+     */
+    @Parameters
+    public static List<Object[]> testData() {
+        CompositeVersionInfoMap flat = new CompositeVersionInfoMap();
+        flat.setVersionForKeys("1.0", "implementation");
+        flat.setVersionForKeys("\u00e9t\u00e9-\u65e5\u672c", "description");
+
+        CompositeVersionInfoMap nested = new CompositeVersionInfoMap('#');
+        Map<String, String> versionStringMap = new TreeMap<String, String>();
+        versionStringMap.put("vsa0", "v0");
+        versionStringMap.put("nullVersion", null);
+        nested.setVersionStringMap(versionStringMap);
+        CompositeVersionInfoMap component = new CompositeVersionInfoMap('-');
+        component.setVersionForKeys("v0", "vsa0");
+        component.setVersionForKeys("v1", "vib", "vsb0");
+        component.setVersionInfoForKeys(new CompositeVersionInfoMap(), "empty");
+        nested.setVersionInfoForKeys(component, "component");
+
+        CompositeVersionInfoMapBuilder builder = new CompositeVersionInfoMapBuilder();
+        for (int i = 0; i < 10000; ++i) {
+            builder.put("group" + (i % 20) + ".artifact" + (i % 500) + ".version" + (i % 7), "1." + (i % 13));
+        }
+
+        Object[][] data = {
+                {"empty", new CompositeVersionInfoMap()},
+                {"flat", flat},
+                {"nested", nested},
+                {"large", builder.build()}
+        };
+
+        return Arrays.asList(data);
+    }
+
+    /**
+     * Logger
+     */
+    private Logger logger = Logger.getLogger("VersionInfo");
+
+    /**
+     * Test case name
+     */
+    private final String name;
+
+    /**
+     * VersionInfo to encode
+     */
+    private final CompositeVersionInfoMap versionInfo;
+
+    /**
+     * Constructor taking test parameters
+     *
+     * @param name
+     * @param versionInfo
+     */
+    public VersionInfoBinaryCodecTest(String name, CompositeVersionInfoMap versionInfo) {
+        this.name = name;
+        this.versionInfo = versionInfo;
+    }
+
+    /**
+     * Test encode then decode gives an equal CompositeVersionInfoMap, and,
+     * unless it is too small to outweigh the dictionary, is smaller than the
+     * flattened version map as text
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        long start = System.nanoTime();
+        final byte[] encoded = VersionInfoBinaryCodec.encode(versionInfo);
+        final long encodeNanos = System.nanoTime() - start;
+
+        start = System.nanoTime();
+        CompositeVersionInfoMap decoded = VersionInfoBinaryCodec.decode(encoded);
+        final long decodeNanos = System.nanoTime() - start;
+
+        Assert.assertEquals(msg("decoded"), versionInfo, decoded);
+        Assert.assertEquals(msg("decoded versionMap"), versionInfo.getVersionMap(), decoded.getVersionMap());
+        Assert.assertEquals(msg("structuralHash"), versionInfo.getStructuralHash(), decoded.getStructuralHash());
+
+        final int textLength = versionInfo.getVersionMap().toString().getBytes("UTF-8").length;
+        Assert.assertTrue(msg("encoded length " + encoded.length + " < text length " + textLength),
+                          encoded.length < textLength || versionInfo.getVersionMap().size() < 100);
+        logger.info(msg("encoded bytes=" + encoded.length + ":text bytes=" + textLength + ":encode (ns)="
+                        + encodeNanos + ":decode (ns)=" + decodeNanos));
+    }
+
+    /**
+     * Test snapshot and concurrent implementations encode the same as the
+     * original, and streams work
+     */
+    @Test
+    public void testOtherImplementationsAndStreams() throws IOException {
+        final byte[] encoded = VersionInfoBinaryCodec.encode(versionInfo);
+        Assert.assertTrue(msg("snapshot"), Arrays.equals(encoded, VersionInfoBinaryCodec.encode(versionInfo
+                .snapshot())));
+        Assert.assertTrue(msg("concurrent"), Arrays.equals(encoded, VersionInfoBinaryCodec.encode(
+                new ConcurrentCompositeVersionInfoMap(versionInfo))));
+
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        VersionInfoBinaryCodec.encode(versionInfo, outputStream);
+        Assert.assertEquals(msg("decoded from stream"), versionInfo,
+                            VersionInfoBinaryCodec.decode(new ByteArrayInputStream(outputStream.toByteArray())));
+    }
+
+    /**
+     * Test bad header, truncated input and trailing bytes are rejected
+     */
+    @Test
+    public void testBadInput() {
+        final byte[] encoded = VersionInfoBinaryCodec.encode(versionInfo);
+
+        byte[] badHeader = encoded.clone();
+        badHeader[0] = '{';
+        assertRejected("bad header", badHeader);
+
+        for (int length = 0; length < encoded.length; length += Math.max(1, encoded.length / 50)) {
+            assertRejected("truncated to " + length, Arrays.copyOf(encoded, length));
+        }
+
+        assertRejected("trailing byte", Arrays.copyOf(encoded, encoded.length + 1));
+    }
+
+    /**
+     * Check decode throws IOException
+     *
+     * @param description
+     * @param bytes
+     */
+    private void assertRejected(String description, byte[] bytes) {
+        try {
+            VersionInfoBinaryCodec.decode(bytes);
+            Assert.fail(msg("expected IOException for " + description));
+        } catch (IOException ioe) {
+            logger.trace(msg("expected exception for " + description), ioe);
+        }
+    }
+
+    /**
+     * Helper adding parameters to message
+     *
+     * @param msg
+     * @return message
+     */
+    private String msg(String msg) {
+        return "name=" + name + ":" + msg;
+    }
+}
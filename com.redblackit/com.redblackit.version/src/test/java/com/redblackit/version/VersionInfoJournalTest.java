@@ -0,0 +1,349 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import junit.framework.Assert;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Tests for VersionInfoJournal, restoring runtime changes into a freshly
+ * configured version info, with journals large enough to need no compaction,
+ * and small enough to need many.
+ *
+ * @author djnorth
+ */
+@RunWith(Parameterized.class)
+public class VersionInfoJournalTest {
+
+    /**
+     * Create test data: journal capacity, change count
+     *
+     * @return test data as list
+     */
+    @Parameters
+    public static List<Object[]> testData() {
+        Object[][] data = {
+                {VersionInfoJournal.DEFAULT_CAPACITY, 10},
+                {VersionInfoJournal.DEFAULT_CAPACITY, 500},
+                {4096, 500}
+        };
+
+        return Arrays.asList(data);
+    }
+
+    /**
+     * Logger
+     */
+    private Logger logger = Logger.getLogger("VersionInfo");
+
+    /**
+     * Journal capacity
+     */
+    private final int capacity;
+
+    /**
+     * Number of changes
+     */
+    private final int changeCount;
+
+    /**
+     * Journal directory
+     */
+    private File testDirectory;
+
+    /**
+     * Constructor taking test parameters
+     *
+     * @param capacity
+     * @param changeCount
+     */
+    public VersionInfoJournalTest(int capacity, int changeCount) {
+        this.capacity = capacity;
+        this.changeCount = changeCount;
+    }
+
+    /**
+     * Create journal directory
+     *
+     * @throws Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        testDirectory = File.createTempFile("VersionInfoJournalTest", "");
+        Assert.assertTrue(msg("delete " + testDirectory), testDirectory.delete());
+    }
+
+    /**
+     * Delete journal directory
+     */
+    @After
+    public void tearDown() {
+        File[] files = testDirectory.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        testDirectory.delete();
+    }
+
+    /**
+     * Test runtime changes are restored over configured versions, without
+     * overriding configured versions not changed
+     */
+    @Test
+    public void testRestore() throws Exception {
+        ConcurrentCompositeVersionInfoMap versionInfo = createConfiguredVersionInfo();
+        VersionInfoJournal journal = createJournal(versionInfo);
+        journal.open();
+        Assert.assertEquals(msg("overrides on first open"), 0, journal.getOverrides().size());
+
+        makeChanges(versionInfo);
+        journal.flush();
+        Assert.assertEquals(msg("appendedCount"), changeCount + 2, journal.getAppendedCount());
+        journal.close();
+
+        ConcurrentCompositeVersionInfoMap restored = createConfiguredVersionInfo();
+        restored.setVersionForKeys("2.0", "app", "implementation");
+        VersionInfoJournal restoredJournal = createJournal(restored);
+        restoredJournal.open();
+        logger.info(msg("restoredJournal=" + restoredJournal));
+        Assert.assertEquals(msg("restored"), versionInfo.getVersionForKeys("runtime", "last"),
+                            restored.getVersionForKeys("runtime", "last"));
+        Assert.assertEquals(msg("restored changed configured version"), "changed",
+                            restored.getVersionForKeys("app", "description"));
+        Assert.assertEquals(msg("configured version not changed at runtime"), "2.0",
+                            restored.getVersionForKeys("app", "implementation"));
+        for (int i = 0; i < changeCount; ++i) {
+            Assert.assertEquals(msg("restored change " + i), "v" + i, restored.getVersionForKeys("runtime", "c" + i));
+        }
+        Assert.assertTrue(msg("generation " + restoredJournal.getGeneration()),
+                          restoredJournal.getGeneration() > journal.getGeneration());
+
+        restored.setVersionForKeys("again", "runtime", "last");
+        restoredJournal.close();
+
+        ConcurrentCompositeVersionInfoMap restoredAgain = createConfiguredVersionInfo();
+        VersionInfoJournal restoredAgainJournal = createJournal(restoredAgain);
+        restoredAgainJournal.open();
+        Assert.assertEquals(msg("restored again"), "again", restoredAgain.getVersionForKeys("runtime", "last"));
+        Assert.assertEquals(msg("overrides"), changeCount + 2, restoredAgainJournal.getOverrides().size());
+        restoredAgainJournal.close();
+    }
+
+    /**
+     * Test a burst of changes is committed in fewer forces than changes, and
+     * compacted when the journal passes the threshold
+     */
+    @Test
+    public void testGroupCommit() throws Exception {
+        ConcurrentCompositeVersionInfoMap versionInfo = createConfiguredVersionInfo();
+        VersionInfoJournal journal = createJournal(versionInfo);
+        journal.open();
+
+        makeChanges(versionInfo);
+        journal.flush();
+        logger.info(msg("journal=" + journal));
+        Assert.assertTrue(msg("commitCount " + journal.getCommitCount() + " < changeCount " + changeCount),
+                          journal.getCommitCount() < changeCount);
+        Assert.assertTrue(msg("journalSize " + journal.getJournalSize() + " within capacity"),
+                          journal.getJournalSize() <= capacity);
+        if (changeCount * 20 > capacity) {
+            Assert.assertTrue(msg("compactionCount " + journal.getCompactionCount()),
+                              journal.getCompactionCount() > 1);
+        } else {
+            Assert.assertEquals(msg("compactionCount"), 1, journal.getCompactionCount());
+        }
+        journal.close();
+    }
+
+    /**
+     * Test a corrupt record at the end of the journal (as if torn by a
+     * crash) is ignored, and earlier records are restored
+     */
+    @Test
+    public void testCorruptTail() throws Exception {
+        ConcurrentCompositeVersionInfoMap versionInfo = createConfiguredVersionInfo();
+        VersionInfoJournal journal = createJournal(versionInfo);
+        journal.setCompactThreshold(capacity);
+        journal.open();
+        versionInfo.setVersionForKeys("kept", "runtime", "first");
+        journal.flush();
+        final int journalSize = journal.getJournalSize();
+        journal.close();
+
+        RandomAccessFile journalFile = new RandomAccessFile(new File(testDirectory,
+                                                                     VersionInfoJournal.JOURNAL_FILE_NAME), "rw");
+        journalFile.seek(journalSize);
+        journalFile.writeInt(12);
+        journalFile.writeInt(0xbad);
+        journalFile.write(new byte[] {1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11, 12});
+        journalFile.close();
+
+        ConcurrentCompositeVersionInfoMap restored = createConfiguredVersionInfo();
+        VersionInfoJournal restoredJournal = createJournal(restored);
+        restoredJournal.open();
+        Assert.assertEquals(msg("restored"), "kept", restored.getVersionForKeys("runtime", "first"));
+        Assert.assertEquals(msg("overrides"), 1, restoredJournal.getOverrides().size());
+        restoredJournal.close();
+    }
+
+    /**
+     * Test changes to a concurrent version info are journalled without the
+     * changing thread taking snapshots, with fewer snapshots than changes,
+     * and restored
+     */
+    @Test
+    public void testSnapshotsOnCommitThread() throws Exception {
+        final Thread changingThread = Thread.currentThread();
+        final AtomicInteger changingThreadSnapshots = new AtomicInteger();
+        final AtomicInteger snapshots = new AtomicInteger();
+        ConcurrentCompositeVersionInfoMap versionInfo = new ConcurrentCompositeVersionInfoMap(
+                createConfiguredVersionInfo()) {
+            @Override
+            public ImmutableCompositeVersionInfo snapshot() {
+                snapshots.incrementAndGet();
+                if (Thread.currentThread() == changingThread) {
+                    changingThreadSnapshots.incrementAndGet();
+                }
+                return super.snapshot();
+            }
+        };
+        VersionInfoJournal journal = createJournal(versionInfo);
+        journal.open();
+        changingThreadSnapshots.set(0);
+        snapshots.set(0);
+
+        makeChanges(versionInfo);
+        journal.flush();
+        logger.info(msg("snapshots=" + snapshots + ":journal=" + journal));
+        Assert.assertEquals(msg("snapshots on changing thread"), 0, changingThreadSnapshots.get());
+        Assert.assertTrue(msg("snapshots " + snapshots + " < changes " + (changeCount + 2)),
+                          snapshots.get() < changeCount + 2);
+        Assert.assertEquals(msg("overrides"), changeCount + 2, journal.getOverrides().size());
+        journal.close();
+
+        ConcurrentCompositeVersionInfoMap restored = createConfiguredVersionInfo();
+        VersionInfoJournal restoredJournal = createJournal(restored);
+        restoredJournal.open();
+        Assert.assertEquals(msg("restored"), versionInfo.getVersionMap(), restored.getVersionMap());
+        restoredJournal.close();
+    }
+
+    /**
+     * Test changes in a commit that fails, here on a version string too long
+     * to record, are not lost, but committed with the next commit that
+     * succeeds, and that flush reports the failure meanwhile
+     */
+    @Test
+    public void testCommitFailureRetried() throws Exception {
+        ConcurrentCompositeVersionInfoMap versionInfo = createConfiguredVersionInfo();
+        VersionInfoJournal journal = createJournal(versionInfo);
+        journal.open();
+        final int journalSize = journal.getJournalSize();
+
+        char[] tooLong = new char[70000];
+        Arrays.fill(tooLong, 'x');
+        Map<VersionKeyPath, String> versions = new HashMap<VersionKeyPath, String>();
+        versions.put(VersionKeyPath.of("runtime", "first"), "kept");
+        versions.put(VersionKeyPath.of("runtime", "tooLong"), new String(tooLong));
+        versionInfo.setVersionsForKeyPaths(versions);
+        try {
+            journal.flush();
+            Assert.fail(msg("flush should fail"));
+        } catch (IOException ioe) {
+            logger.info(msg("expected:" + ioe));
+        }
+        Assert.assertEquals(msg("journalSize after failure"), journalSize, journal.getJournalSize());
+        Assert.assertEquals(msg("overrides after failure"), 0, journal.getOverrides().size());
+
+        versionInfo.setVersionForKeys("fixed", "runtime", "tooLong");
+        journal.flush();
+        Assert.assertEquals(msg("overrides"), 2, journal.getOverrides().size());
+        journal.close();
+
+        ConcurrentCompositeVersionInfoMap restored = createConfiguredVersionInfo();
+        VersionInfoJournal restoredJournal = createJournal(restored);
+        restoredJournal.open();
+        Assert.assertEquals(msg("restored first"), "kept", restored.getVersionForKeys("runtime", "first"));
+        Assert.assertEquals(msg("restored tooLong"), "fixed", restored.getVersionForKeys("runtime", "tooLong"));
+        restoredJournal.close();
+    }
+
+    /**
+     * Create version info as if from configuration
+     *
+     * @return version info
+     */
+    private ConcurrentCompositeVersionInfoMap createConfiguredVersionInfo() {
+        ConcurrentCompositeVersionInfoMap versionInfo = new ConcurrentCompositeVersionInfoMap();
+        versionInfo.setVersionForKeys("1.0", "app", "implementation");
+        versionInfo.setVersionForKeys("configured", "app", "description");
+        return versionInfo;
+    }
+
+    /**
+     * Create journal for version info
+     *
+     * @param versionInfo
+     * @return journal
+     */
+    private VersionInfoJournal createJournal(CompositeVersionInfo versionInfo) {
+        VersionInfoJournal journal = new VersionInfoJournal();
+        journal.setVersionInfo(versionInfo);
+        journal.setDirectory(testDirectory);
+        journal.setCapacity(capacity);
+        return journal;
+    }
+
+    /**
+     * Make changeCount new versions, change one configured version, and set
+     * a last version
+     *
+     * @param versionInfo
+     */
+    private void makeChanges(CompositeVersionInfo versionInfo) {
+        for (int i = 0; i < changeCount; ++i) {
+            versionInfo.setVersionForKeys("v" + i, "runtime", "c" + i);
+        }
+        versionInfo.setVersionForKeys("changed", "app", "description");
+        versionInfo.setVersionForKeys("last" + changeCount, "runtime", "last");
+    }
+
+    /**
+     * Helper adding parameters to message
+     *
+     * @param msg
+     * @return message
+     */
+    private String msg(String msg) {
+        return "capacity=" + capacity + ":changeCount=" + changeCount + ":" + msg;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import java.util.Arrays;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Tests for VersionKeyPath
+ *
+ * @author djnorth
+ */
+@RunWith(Parameterized.class)
+public class VersionKeyPathTest {
+
+    /**
+     * Create test data: concatenated key, separator, expected keys
+     *
+     * @return test data as list
+     */
+    @Parameters
+    public static List<Object[]> testData() {
+        Object[][] data = {
+                {"a", '.', new String[]{"a"}},
+                {"a.b.c", '.', new String[]{"a", "b", "c"}},
+                {"a.b.c", '-', new String[]{"a.b.c"}},
+                {"vip0.0#vsa1", '#', new String[]{"vip0.0", "vsa1"}},
+                {"a..b.", '.', new String[]{"a", "", "b", ""}},
+                {"", '.', new String[]{""}}
+        };
+
+        return Arrays.asList(data);
+    }
+
+    /**
+     * Concatenated key
+     */
+    private final String concatenatedKey;
+
+    /**
+     * Separator
+     */
+    private final char separator;
+
+    /**
+     * Expected keys
+     */
+    private final String[] expectedKeys;
+
+    /**
+     * Constructor taking test parameters
+     *
+     * @param concatenatedKey
+     * @param separator
+     * @param expectedKeys
+     */
+    public VersionKeyPathTest(String concatenatedKey, char separator, String[] expectedKeys) {
+        this.concatenatedKey = concatenatedKey;
+        this.separator = separator;
+        this.expectedKeys = expectedKeys;
+    }
+
+    /**
+     * Test parse splits as expected, and is inverse of toConcatenatedKey
+     */
+    @Test
+    public void testParse() {
+        VersionKeyPath keyPath = VersionKeyPath.parse(concatenatedKey, separator);
+        Assert.assertEquals(msg("size"), expectedKeys.length, keyPath.size());
+        Assert.assertTrue(msg("keys:" + keyPath), Arrays.equals(expectedKeys, keyPath.toArray()));
+        for (int i = 0; i < expectedKeys.length; ++i) {
+            Assert.assertEquals(msg("key " + i), expectedKeys[i], keyPath.get(i));
+        }
+        Assert.assertEquals(msg("toConcatenatedKey"), concatenatedKey, keyPath.toConcatenatedKey(separator));
+    }
+
+    /**
+     * Test equality and hashCode between paths created in different ways, and
+     * that supplied arrays are copied
+     */
+    @Test
+    public void testEqualsHashCode() {
+        String[] keys = expectedKeys.clone();
+        VersionKeyPath keyPath0 = VersionKeyPath.of(keys);
+        VersionKeyPath keyPath1 = VersionKeyPath.of(Arrays.asList(expectedKeys));
+        VersionKeyPath keyPath2 = VersionKeyPath.parse(concatenatedKey, separator);
+
+        Assert.assertEquals(msg("of(String...) and of(List)"), keyPath0, keyPath1);
+        Assert.assertEquals(msg("of(String...) and parse"), keyPath0, keyPath2);
+        Assert.assertEquals(msg("hashCode"), keyPath0.hashCode(), keyPath2.hashCode());
+
+        keys[0] = keys[0] + "!";
+        Assert.assertEquals(msg("supplied array copied"), expectedKeys[0], keyPath0.get(0));
+        Assert.assertFalse(msg("different keys"), keyPath0.equals(VersionKeyPath.of(keys)));
+
+        keyPath0.toArray()[0] = "!";
+        Assert.assertEquals(msg("returned array copied"), expectedKeys[0], keyPath0.get(0));
+    }
+
+    /**
+     * Test null keys are rejected
+     */
+    @Test
+    public void testNullKeys() {
+        String[] keys = expectedKeys.clone();
+        keys[keys.length - 1] = null;
+        try {
+            VersionKeyPath.of(keys);
+            Assert.fail(msg("expected NullPointerException for null key"));
+        } catch (NullPointerException npe) {
+            // expected
+        }
+
+        try {
+            VersionKeyPath.of(new String[0]);
+            Assert.fail(msg("expected NullPointerException for no keys"));
+        } catch (NullPointerException npe) {
+            // expected
+        }
+    }
+
+    /**
+     * Helper adding parameters to message
+     *
+     * @param msg
+     * @return message
+     */
+    private String msg(String msg) {
+        return "concatenatedKey=" + concatenatedKey + ":separator=" + separator + ":expectedKeys="
+               + Arrays.toString(expectedKeys) + ":" + msg;
+    }
+}
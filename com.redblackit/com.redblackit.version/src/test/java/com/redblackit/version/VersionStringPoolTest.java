@@ -0,0 +1,270 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.version;
+
+import java.util.*;
+
+import junit.framework.Assert;
+
+import org.apache.log4j.Logger;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * Memory footprint tests for VersionStringPool, using a synthetic tree of
+ * nodes with the same keys and mostly the same versions, each built from
+ * separate string instances as if read from separate responses.
+ *
+ * @author djnorth
+ */
+@RunWith(Parameterized.class)
+public class VersionStringPoolTest {
+
+    /**
+     * Create test data: node count, pool maxSize
+     *
+     * @return test data as list
+     */
+    @Parameters
+    public static List<Object[]> testData() {
+        Object[][] data = {
+                {1000, VersionStringPool.DEFAULT_MAX_SIZE},
+                {1000, 20}
+        };
+
+        return Arrays.asList(data);
+    }
+
+    /**
+     * Logger
+     */
+    private Logger logger = Logger.getLogger("VersionInfo");
+
+    /**
+     * Number of nodes in tree
+     */
+    private final int nodeCount;
+
+    /**
+     * Pool under test
+     */
+    private final VersionStringPool pool = new VersionStringPool();
+
+    /**
+     * Constructor taking test parameters
+     *
+     * @param nodeCount
+     * @param maxSize
+     */
+    public VersionStringPoolTest(int nodeCount, int maxSize) {
+        this.nodeCount = nodeCount;
+        pool.setMaxSize(maxSize);
+    }
+
+    /**
+     * Ensure pool is no longer shared
+     */
+    @After
+    public void tearDown() {
+        pool.setShared(false);
+    }
+
+    /**
+     * Test intern returns one instance for equal strings, and null for null
+     */
+    @Test
+    public void testIntern() {
+        final String first = new String("implementation");
+        final String second = new String("implementation");
+        Assert.assertSame(msg("first"), first, pool.intern(first));
+        Assert.assertSame(msg("second"), first, pool.intern(second));
+        Assert.assertNull(msg("null"), pool.intern(null));
+        Assert.assertEquals(msg("replacedCount"), 1, pool.getReplacedCount());
+        Assert.assertEquals(msg("estimatedBytesSaved"), VersionStringPool.estimatedSize(second),
+                            pool.getEstimatedBytesSaved());
+
+        pool.clear();
+        Assert.assertEquals(msg("size after clear"), 0, pool.getSize());
+        Assert.assertSame(msg("second after clear"), second, pool.intern(second));
+    }
+
+    /**
+     * Test estimatedBytesSaved counts each replacement of a pooled key or
+     * version while it is in use, and drops to zero once it is no longer used and has
+     * left the pool
+     */
+    @Test
+    public void testEstimatedBytesSavedLive() throws Exception {
+        pool.setShared(true);
+        CompositeVersionInfoMap versionInfo = new CompositeVersionInfoMap();
+        versionInfo.setVersionForKeys(new String("1.0-live"), new String("implementation"));
+        final int size = pool.getSize();
+        final long saved = pool.getEstimatedBytesSaved();
+        for (int i = 0; i < 10; ++i) {
+            versionInfo.setVersionForKeys(new String("1.0-live"), new String("implementation"));
+        }
+
+        Assert.assertEquals(msg("size"), size, pool.getSize());
+        final long replacedSize = VersionStringPool.estimatedSize("1.0-live")
+                                  + VersionStringPool.estimatedSize("implementation");
+        Assert.assertEquals(msg("estimatedBytesSaved"), saved + 10 * replacedSize, pool.getEstimatedBytesSaved());
+
+        versionInfo = null;
+        for (int i = 0; i < 50 && pool.getSize() > 0; ++i) {
+            System.gc();
+            Thread.sleep(20);
+        }
+        Assert.assertEquals(msg("size when unused"), 0, pool.getSize());
+        Assert.assertEquals(msg("estimatedBytesSaved when unused"), 0, pool.getEstimatedBytesSaved());
+    }
+
+    /**
+     * Test a tree built with setters through the shared pool holds fewer
+     * string instances than one built without it, and a saving is reported
+     */
+    @Test
+    public void testSettersFootprint() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        final long baseHeap = runtime.totalMemory() - runtime.freeMemory();
+        CompositeVersionInfoMap unpooled = createTree();
+        final long unpooledStrings = countStrings(unpooled, new IdentityHashMap<String, Boolean>());
+        System.gc();
+        final long unpooledHeap = runtime.totalMemory() - runtime.freeMemory() - baseHeap;
+
+        pool.setShared(true);
+        Assert.assertTrue(msg("shared"), pool.isShared());
+        CompositeVersionInfoMap pooled = createTree();
+        final long pooledStrings = countStrings(pooled, new IdentityHashMap<String, Boolean>());
+        System.gc();
+        final long pooledHeap = runtime.totalMemory() - runtime.freeMemory() - baseHeap - unpooledHeap;
+
+        Assert.assertTrue(msg("pooled strings " + pooledStrings + " < unpooled strings " + unpooledStrings),
+                          pooledStrings < unpooledStrings);
+        if (pool.getMaxSize() >= distinctStrings()) {
+            Assert.assertEquals(msg("pooled strings"), distinctStrings(), pooledStrings);
+        }
+        Assert.assertTrue(msg("estimatedBytesSaved " + pool.getEstimatedBytesSaved()),
+                          pool.getEstimatedBytesSaved() > 0);
+        Assert.assertEquals(msg("size"), Math.min(pool.getMaxSize(), distinctStrings()), pool.getSize());
+        Assert.assertEquals(msg("pooled equals unpooled"), unpooled, pooled);
+
+        logger.info(msg("unpooled strings=" + unpooledStrings + ":pooled strings=" + pooledStrings
+                        + ":unpooled heap=" + unpooledHeap + ":pooled heap=" + pooledHeap + ":pool=" + pool));
+    }
+
+    /**
+     * Test builder and binary codec use the pool, so a decoded tree shares
+     * strings with a built one
+     */
+    @Test
+    public void testBuilderAndCodec() throws Exception {
+        CompositeVersionInfoMap unpooled = createTree();
+
+        pool.setShared(true);
+        CompositeVersionInfoMapBuilder builder = new CompositeVersionInfoMapBuilder();
+        for (Map.Entry<String, String> entry : unpooled.getVersionMap().entrySet()) {
+            builder.put(new String(entry.getKey()), new String(entry.getValue()));
+        }
+        CompositeVersionInfoMap built = builder.build();
+        CompositeVersionInfoMap decoded = VersionInfoBinaryCodec.decode(VersionInfoBinaryCodec.encode(unpooled));
+        Assert.assertEquals(msg("built"), unpooled, built);
+        Assert.assertEquals(msg("decoded"), unpooled, decoded);
+
+        IdentityHashMap<String, Boolean> strings = new IdentityHashMap<String, Boolean>();
+        final long builtStrings = countStrings(built, strings);
+        final long bothStrings = countStrings(decoded, strings);
+        if (pool.getMaxSize() >= distinctStrings()) {
+            Assert.assertEquals(msg("built strings"), distinctStrings(), builtStrings);
+            Assert.assertEquals(msg("built and decoded strings"), distinctStrings(), bothStrings);
+        }
+
+        final long replacedBeforeUnshared = pool.getReplacedCount();
+        pool.setShared(false);
+        createTree();
+        Assert.assertEquals(msg("unshared pool unused"), replacedBeforeUnshared, pool.getReplacedCount());
+    }
+
+    /**
+     * Create tree with nodeCount nodes, each with a web and db component,
+     * with new string instances for every key and value
+     *
+     * @return tree
+     */
+    private CompositeVersionInfoMap createTree() {
+        CompositeVersionInfoMap tree = new CompositeVersionInfoMap();
+        for (int i = 0; i < nodeCount; ++i) {
+            final String node = "node" + (i % 10);
+            CompositeVersionInfoMap nodeVersionInfo = new CompositeVersionInfoMap();
+            Map<String, String> versionStringMap = new TreeMap<String, String>();
+            versionStringMap.put(new String("implementation"), "1." + (i % 3));
+            versionStringMap.put(new String("description"), new String("application node"));
+            nodeVersionInfo.setVersionStringMap(versionStringMap);
+            nodeVersionInfo.setVersionForKeys("2." + (i % 2), new String("web"), new String("implementation"));
+            nodeVersionInfo.setVersionForKeys(new String("db-5.1"), new String("db"), new String("implementation"));
+            tree.setVersionInfoForKeys(nodeVersionInfo, new String(node), "" + i);
+        }
+
+        return tree;
+    }
+
+    /**
+     * @return number of distinct strings in tree from createTree, given
+     *         nodeCount is at least 10
+     */
+    private int distinctStrings() {
+        return 10 + nodeCount + 3 + 1 + 2 + 1 + 1 + 1 + 1 + 1;
+    }
+
+    /**
+     * Add string instances held in tree to strings
+     *
+     * @param versionInfo
+     * @param strings
+     * @return number of distinct instances in strings
+     */
+    private long countStrings(CompositeVersionInfo versionInfo, IdentityHashMap<String, Boolean> strings) {
+        if (versionInfo.getVersionStringMap() != null) {
+            for (Map.Entry<String, String> entry : versionInfo.getVersionStringMap().entrySet()) {
+                strings.put(entry.getKey(), Boolean.TRUE);
+                strings.put(entry.getValue(), Boolean.TRUE);
+            }
+        }
+
+        if (versionInfo.getVersionInfoMap() != null) {
+            for (Map.Entry<String, CompositeVersionInfo> entry : versionInfo.getVersionInfoMap().entrySet()) {
+                strings.put(entry.getKey(), Boolean.TRUE);
+                countStrings(entry.getValue(), strings);
+            }
+        }
+
+        return strings.size();
+    }
+
+    /**
+     * Helper adding parameters to message
+     *
+     * @param msg
+     * @return message
+     */
+    private String msg(String msg) {
+        return "nodeCount=" + nodeCount + ":maxSize=" + pool.getMaxSize() + ":" + msg;
+    }
+}
@@ -54,7 +54,7 @@ public class AdminRestControllerClientTestBase {
 
     /**
      * Test method for
-     * {@link com.redblackit.web.controller.AdminRestController#getVersionSummary()}
+     * {@link com.redblackit.web.controller.AdminRestController#getVersionSummary(String, javax.servlet.http.HttpServletResponse)}
      * with https.
      */
     @Test
@@ -73,7 +73,7 @@ public class AdminRestControllerClientTestBase {
 
     /**
      * Test method for
-     * {@link com.redblackit.web.controller.AdminRestController#getVersion()}
+     * {@link com.redblackit.web.controller.AdminRestController#getVersion(String, javax.servlet.http.HttpServletResponse)}
      * with https.
      */
     @Test
@@ -83,12 +83,12 @@ public class AdminRestControllerClientTestBase {
                                                                      CompositeVersionInfoMap.class);
         logger.debug("versionInfo=" + versionInfo);
         Assert.assertEquals("versionInfo",
-                            expectedVersionInfo, versionInfo);
+                            expectedVersionInfo.getVersionComponentMap(), versionInfo.getVersionComponentMap());
     }
 
     /**
      * Test method for
-     * {@link com.redblackit.web.controller.AdminRestController#getVersionHead()}
+     * {@link com.redblackit.web.controller.AdminRestController#getVersionHead(String, javax.servlet.http.HttpServletResponse)}
      * with https.
      */
     @Test
@@ -96,5 +96,7 @@ public class AdminRestControllerClientTestBase {
         final String url = baseHttpsUrl + "rest/version";
         HttpHeaders headers = restTemplate.headForHeaders(url);
         logger.debug("headers=" + headers);
+        Assert.assertNotNull("ETag", headers.getETag());
+        Assert.assertTrue("Content-Length:" + headers.getContentLength(), headers.getContentLength() > 0);
     }
 }
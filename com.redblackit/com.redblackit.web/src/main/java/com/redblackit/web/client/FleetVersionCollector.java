@@ -0,0 +1,472 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.web.client;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.params.CoreConnectionPNames;
+import org.apache.http.util.EntityUtils;
+import org.apache.log4j.Logger;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+
+import com.redblackit.version.CompositeVersionInfo;
+import com.redblackit.version.CompositeVersionInfoMap;
+import com.redblackit.version.VersionInfoBinaryCodec;
+import com.redblackit.version.VersionInfoObjectMapper;
+
+/**
+ * Collector fetching the version from each of a list of nodes concurrently,
+ * using a shared HttpClient (typically the pooled client from
+ * X509HttpClientFactoryBean), and merging them into one
+ * CompositeVersionInfoMap with a component for each node, keyed by its base
+ * URL. Base URLs contain '.', so the merged map uses
+ * NODE_KEY_CONCATENATION_SEPARATOR ('|', which cannot appear in a URL) to
+ * join node keys to the keys below them, and concatenated keys (e.g. those of
+ * getVersionMap) split unambiguously at the node. Components keep their own
+ * separator.
+ *
+ * At most maxParallelism requests are in progress at once. Each request has
+ * connect and read timeouts of timeoutMilliseconds, and is aborted if not
+ * complete timeoutMilliseconds after it started, so a slow response cannot
+ * hold a thread for longer. The collection as a whole waits no longer than
+ * collectTimeoutMilliseconds, after which requests still in progress or
+ * waiting for a thread are cancelled. Nodes which fail or time out are left
+ * out of the components, and instead have a version string keyed by their
+ * base URL describing the failure, so the results for the other nodes are
+ * still returned.
+ *
+ * Versions are requested in the binary format of VersionInfoBinaryCodec,
+ * accepting JSON from nodes which do not support it.
+ *
+ * N.B. the HttpClient connection manager must allow maxParallelism
+ * connections (see X509HttpClientFactoryBean.setMaxTotalConnections).
+ *
+ * @author djnorth
+ */
+public class FleetVersionCollector implements InitializingBean, DisposableBean {
+
+	/**
+	 * Default path of version relative to node base URL
+	 */
+	public static final String DEFAULT_VERSION_PATH = "rest/version";
+
+	/**
+	 * Default timeout for each node
+	 */
+	public static final int DEFAULT_TIMEOUT_MILLISECONDS = (10 * 1000);
+
+	/**
+	 * Default timeout for the collection as a whole
+	 */
+	public static final int DEFAULT_COLLECT_TIMEOUT_MILLISECONDS = (30 * 1000);
+
+	/**
+	 * Default number of requests in progress at once
+	 */
+	public static final int DEFAULT_MAX_PARALLELISM = 8;
+
+	/**
+	 * Key concatenation separator of the collected version, joining node base
+	 * URLs to the keys below them
+	 */
+	public static final char NODE_KEY_CONCATENATION_SEPARATOR = '|';
+
+	/**
+	 * Accept header, preferring binary
+	 */
+	private static final String ACCEPT = VersionInfoBinaryCodec.MEDIA_TYPE + ", application/json;q=0.5";
+
+	/**
+	 * Logger
+	 */
+	private Logger logger = Logger.getLogger("web.client");
+
+	/**
+	 * HttpClient
+	 */
+	private HttpClient httpClient;
+
+	/**
+	 * Node base URLs
+	 */
+	private List<String> nodeUrls = Collections.emptyList();
+
+	/**
+	 * Version path
+	 */
+	private String versionPath = DEFAULT_VERSION_PATH;
+
+	/**
+	 * Timeout for each node
+	 */
+	private int timeoutMilliseconds = DEFAULT_TIMEOUT_MILLISECONDS;
+
+	/**
+	 * Timeout for the collection as a whole
+	 */
+	private int collectTimeoutMilliseconds = DEFAULT_COLLECT_TIMEOUT_MILLISECONDS;
+
+	/**
+	 * Maximum parallel requests
+	 */
+	private int maxParallelism = DEFAULT_MAX_PARALLELISM;
+
+	/**
+	 * Mapper for JSON responses
+	 */
+	private final ObjectMapper objectMapper = new VersionInfoObjectMapper();
+
+	/**
+	 * Executor for requests
+	 */
+	private ExecutorService executorService;
+
+	/**
+	 * Scheduler aborting requests which exceed the timeout
+	 */
+	private ScheduledExecutorService timeoutScheduler;
+
+	/**
+	 * Set the HttpClient, which must be thread-safe
+	 *
+	 * @param httpClient
+	 *            the httpClient to set
+	 */
+	public void setHttpClient(HttpClient httpClient) {
+		this.httpClient = httpClient;
+	}
+
+	/**
+	 * @return the httpClient
+	 */
+	public HttpClient getHttpClient() {
+		return httpClient;
+	}
+
+	/**
+	 * Set the node base URLs e.g. https://host1:8443/app/
+	 *
+	 * @param nodeUrls
+	 *            the nodeUrls to set, empty for none
+	 * @throws IllegalArgumentException
+	 *             if nodeUrls is null, or any of them is null or not a valid
+	 *             URI (so may contain NODE_KEY_CONCATENATION_SEPARATOR)
+	 */
+	public void setNodeUrls(List<String> nodeUrls) {
+		if (nodeUrls == null) {
+			throw new IllegalArgumentException("nodeUrls must not be null (use an empty list for no nodes):" + this);
+		}
+
+		for (String nodeUrl : nodeUrls) {
+			if (nodeUrl == null) {
+				throw new IllegalArgumentException("null in nodeUrls (=" + nodeUrls + "):" + this);
+			}
+
+			try {
+				new URI(nodeUrl);
+			} catch (URISyntaxException use) {
+				throw new IllegalArgumentException("invalid node URL (=" + nodeUrl + "):" + this, use);
+			}
+		}
+
+		this.nodeUrls = new ArrayList<String>(nodeUrls);
+	}
+
+	/**
+	 * @return the nodeUrls
+	 */
+	public List<String> getNodeUrls() {
+		return Collections.unmodifiableList(nodeUrls);
+	}
+
+	/**
+	 * Set path of version relative to node base URLs (default
+	 * DEFAULT_VERSION_PATH)
+	 *
+	 * @param versionPath
+	 *            the versionPath to set
+	 */
+	public void setVersionPath(String versionPath) {
+		this.versionPath = versionPath;
+	}
+
+	/**
+	 * @return the versionPath
+	 */
+	public String getVersionPath() {
+		return versionPath;
+	}
+
+	/**
+	 * Set timeout for each node (default DEFAULT_TIMEOUT_MILLISECONDS)
+	 *
+	 * @param timeoutMilliseconds
+	 *            the timeoutMilliseconds to set
+	 */
+	public void setTimeoutMilliseconds(int timeoutMilliseconds) {
+		this.timeoutMilliseconds = timeoutMilliseconds;
+	}
+
+	/**
+	 * @return the timeoutMilliseconds
+	 */
+	public int getTimeoutMilliseconds() {
+		return timeoutMilliseconds;
+	}
+
+	/**
+	 * Set timeout for the collection as a whole (default
+	 * DEFAULT_COLLECT_TIMEOUT_MILLISECONDS)
+	 *
+	 * @param collectTimeoutMilliseconds
+	 *            the collectTimeoutMilliseconds to set
+	 */
+	public void setCollectTimeoutMilliseconds(int collectTimeoutMilliseconds) {
+		this.collectTimeoutMilliseconds = collectTimeoutMilliseconds;
+	}
+
+	/**
+	 * @return the collectTimeoutMilliseconds
+	 */
+	public int getCollectTimeoutMilliseconds() {
+		return collectTimeoutMilliseconds;
+	}
+
+	/**
+	 * Set maximum number of requests in progress at once (default
+	 * DEFAULT_MAX_PARALLELISM)
+	 *
+	 * @param maxParallelism
+	 *            the maxParallelism to set
+	 */
+	public void setMaxParallelism(int maxParallelism) {
+		this.maxParallelism = maxParallelism;
+	}
+
+	/**
+	 * @return the maxParallelism
+	 */
+	public int getMaxParallelism() {
+		return maxParallelism;
+	}
+
+	/**
+	 * Check properties and create executor and timeout scheduler
+	 *
+	 * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+	 */
+	@Override
+	public void afterPropertiesSet() {
+		if (httpClient == null || timeoutMilliseconds <= 0 || collectTimeoutMilliseconds <= 0
+				|| maxParallelism <= 0) {
+			throw new IllegalArgumentException("Missing or invalid properties:" + this);
+		}
+
+		executorService = Executors.newFixedThreadPool(maxParallelism, createThreadFactory("FleetVersionCollector-"));
+		timeoutScheduler = Executors
+				.newSingleThreadScheduledExecutor(createThreadFactory("FleetVersionCollector-timeout-"));
+	}
+
+	/**
+	 * Stop executor and timeout scheduler
+	 *
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	@Override
+	public void destroy() {
+		if (executorService != null) {
+			executorService.shutdownNow();
+		}
+		if (timeoutScheduler != null) {
+			timeoutScheduler.shutdownNow();
+		}
+	}
+
+	/**
+	 * Fetch versions from all nodes, waiting no longer than
+	 * collectTimeoutMilliseconds in all.
+	 *
+	 * @return versionInfo with a component for each node which responded, and
+	 *         a version string for each which did not
+	 */
+	public CompositeVersionInfoMap collect() {
+		if (executorService == null) {
+			throw new IllegalStateException("afterPropertiesSet not called:" + this);
+		}
+
+		final long start = System.nanoTime();
+		final long deadline = start + TimeUnit.MILLISECONDS.toNanos(collectTimeoutMilliseconds);
+
+		List<NodeRequest> requests = new ArrayList<NodeRequest>(nodeUrls.size());
+		for (String nodeUrl : nodeUrls) {
+			NodeRequest request = new NodeRequest(nodeUrl);
+			request.future = executorService.submit(request);
+			requests.add(request);
+		}
+
+		CompositeVersionInfoMap fleetVersionInfo = new CompositeVersionInfoMap(NODE_KEY_CONCATENATION_SEPARATOR);
+		Map<String, String> failures = new TreeMap<String, String>();
+		for (NodeRequest request : requests) {
+			try {
+				CompositeVersionInfo nodeVersionInfo = request.future.get(Math.max(0L, deadline - System.nanoTime()),
+						TimeUnit.NANOSECONDS);
+				fleetVersionInfo.setVersionInfoForKeys(nodeVersionInfo, request.nodeUrl);
+			} catch (TimeoutException te) {
+				request.cancel();
+				failures.put(request.nodeUrl, (request.started ? "timed out" : "not started before collect timed out"));
+			} catch (ExecutionException ee) {
+				failures.put(request.nodeUrl,
+						(request.timedOut || ee.getCause() instanceof InterruptedIOException ? "timed out" : "failed:"
+								+ ee.getCause()));
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				request.cancel();
+				failures.put(request.nodeUrl, "interrupted");
+			}
+		}
+
+		if (!failures.isEmpty()) {
+			fleetVersionInfo.setVersionStringMap(failures);
+			logger.warn("collect:failures=" + failures);
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("collect:nodes=" + nodeUrls.size() + ":failures=" + failures.size() + ":elapsed (ms)="
+					+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+		}
+
+		return fleetVersionInfo;
+	}
+
+	/**
+	 * toString
+	 */
+	public String toString() {
+		StringBuffer tos = new StringBuffer(super.toString());
+		tos.append(":httpClient=").append(httpClient);
+		tos.append(":nodeUrls=").append(nodeUrls);
+		tos.append(":versionPath=").append(versionPath);
+		tos.append(":timeoutMilliseconds=").append(timeoutMilliseconds);
+		tos.append(":collectTimeoutMilliseconds=").append(collectTimeoutMilliseconds);
+		tos.append(":maxParallelism=").append(maxParallelism);
+
+		return tos.toString();
+	}
+
+	/**
+	 * @param namePrefix
+	 * @return factory for daemon threads, named with prefix and a count
+	 */
+	private static ThreadFactory createThreadFactory(final String namePrefix) {
+		final AtomicInteger threadCount = new AtomicInteger();
+		return new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, namePrefix + threadCount.incrementAndGet());
+				thread.setDaemon(true);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Request for one node, which may be aborted from another thread, and is
+	 * aborted by timeoutScheduler timeoutMilliseconds after it starts
+	 */
+	private final class NodeRequest implements Callable<CompositeVersionInfo> {
+
+		private final String nodeUrl;
+		private final HttpGet httpGet;
+		private Future<CompositeVersionInfo> future;
+		private volatile boolean started;
+		private volatile boolean timedOut;
+
+		NodeRequest(String nodeUrl) {
+			this.nodeUrl = nodeUrl;
+			this.httpGet = new HttpGet(nodeUrl.endsWith("/") || versionPath.startsWith("/") ? nodeUrl + versionPath
+					: nodeUrl + '/' + versionPath);
+			httpGet.setHeader("Accept", ACCEPT);
+			httpGet.getParams().setIntParameter(CoreConnectionPNames.CONNECTION_TIMEOUT, timeoutMilliseconds);
+			httpGet.getParams().setIntParameter(CoreConnectionPNames.SO_TIMEOUT, timeoutMilliseconds);
+		}
+
+		@Override
+		public CompositeVersionInfo call() throws IOException {
+			started = true;
+			ScheduledFuture<?> timeout = timeoutScheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					timedOut = true;
+					httpGet.abort();
+				}
+			}, timeoutMilliseconds, TimeUnit.MILLISECONDS);
+
+			try {
+				return fetch();
+			} finally {
+				timeout.cancel(false);
+			}
+		}
+
+		/**
+		 * @return version from the node
+		 * @throws IOException
+		 *             if the request fails or is aborted
+		 */
+		private CompositeVersionInfo fetch() throws IOException {
+			HttpResponse response = httpClient.execute(httpGet);
+			HttpEntity entity = response.getEntity();
+			final int status = response.getStatusLine().getStatusCode();
+			if (status != 200 || entity == null) {
+				EntityUtils.consume(entity);
+				throw new IOException(httpGet.getURI() + ":status=" + status);
+			}
+
+			final Header contentType = entity.getContentType();
+			InputStream content = entity.getContent();
+			try {
+				if (contentType != null && contentType.getValue().startsWith(VersionInfoBinaryCodec.MEDIA_TYPE)) {
+					return VersionInfoBinaryCodec.decode(content);
+				}
+
+				return objectMapper.readValue(content, CompositeVersionInfoMap.class);
+			} finally {
+				content.close();
+			}
+		}
+
+		void cancel() {
+			httpGet.abort();
+			future.cancel(true);
+		}
+	}
+
+}
@@ -48,6 +48,18 @@ public class X509HttpClientFactoryBean implements FactoryBean<HttpClient>,
 	 */
 	private static final int DEFAULT_READ_TIMEOUT_MILLISECONDS = (60 * 1000);
 
+	/**
+	 * Default maximum pooled connections in total, as for
+	 * ThreadSafeClientConnManager
+	 */
+	public static final int DEFAULT_MAX_TOTAL_CONNECTIONS = 20;
+
+	/**
+	 * Default maximum pooled connections for each route, as for
+	 * ThreadSafeClientConnManager
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 2;
+
 	/**
 	 * Logger
 	 */
@@ -90,6 +102,16 @@ public class X509HttpClientFactoryBean implements FactoryBean<HttpClient>,
 	 */
 	private int httpsPort = 8443;
 
+	/**
+	 * Maximum pooled connections in total
+	 */
+	private int maxTotalConnections = DEFAULT_MAX_TOTAL_CONNECTIONS;
+
+	/**
+	 * Maximum pooled connections for each route (host and port)
+	 */
+	private int maxConnectionsPerRoute = DEFAULT_MAX_CONNECTIONS_PER_ROUTE;
+
 	/**
 	 * Optional HttpParams
 	 */
@@ -223,6 +245,41 @@ public class X509HttpClientFactoryBean implements FactoryBean<HttpClient>,
 		return httpsPort;
 	}
 
+	/**
+	 * Set the maximum pooled connections in total (default 20). This limits
+	 * the number of requests in progress at once over all hosts.
+	 * 
+	 * @param maxTotalConnections
+	 *            the maxTotalConnections to set
+	 */
+	public void setMaxTotalConnections(int maxTotalConnections) {
+		this.maxTotalConnections = maxTotalConnections;
+	}
+
+	/**
+	 * @return the maxTotalConnections
+	 */
+	public int getMaxTotalConnections() {
+		return maxTotalConnections;
+	}
+
+	/**
+	 * Set the maximum pooled connections for each route (default 2)
+	 * 
+	 * @param maxConnectionsPerRoute
+	 *            the maxConnectionsPerRoute to set
+	 */
+	public void setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+		this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+	}
+
+	/**
+	 * @return the maxConnectionsPerRoute
+	 */
+	public int getMaxConnectionsPerRoute() {
+		return maxConnectionsPerRoute;
+	}
+
 	/**
 	 * Set HttpParams to use. Default is a BasicHttpParams instance with a read
 	 * timeout value set to DEFAULT_READ_TIMEOUT_MILLISECONDS.
@@ -287,8 +344,11 @@ public class X509HttpClientFactoryBean implements FactoryBean<HttpClient>,
 						DEFAULT_READ_TIMEOUT_MILLISECONDS);
 			}
 
-			httpClient = new DefaultHttpClient(new ThreadSafeClientConnManager(
-					schemeRegistry), httpParams);
+			final ThreadSafeClientConnManager connManager = new ThreadSafeClientConnManager(
+					schemeRegistry);
+			connManager.setMaxTotal(getMaxTotalConnections());
+			connManager.setDefaultMaxPerRoute(getMaxConnectionsPerRoute());
+			httpClient = new DefaultHttpClient(connManager, httpParams);
 
 			if (logger.isDebugEnabled()) {
 				logger.debug("afterPropertiesSet:R:this=" + this);
@@ -343,6 +403,8 @@ public class X509HttpClientFactoryBean implements FactoryBean<HttpClient>,
 		tos.append(":trustStoreType=").append(trustStoreType);
 		tos.append(":trustStorePassword=").append(trustStorePassword);
 		tos.append(":httpsPort=").append(httpsPort);
+		tos.append(":maxTotalConnections=").append(maxTotalConnections);
+		tos.append(":maxConnectionsPerRoute=").append(maxConnectionsPerRoute);
 		tos.append(":httpClient=").append(httpClient);
 		tos.append(":httpParams=").append(httpParams);
 
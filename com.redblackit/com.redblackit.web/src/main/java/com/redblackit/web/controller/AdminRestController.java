@@ -16,73 +16,857 @@
 
 package com.redblackit.web.controller;
 
-import com.redblackit.version.CompositeVersionInfo;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.codehaus.jackson.map.ObjectMapper;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Controller;
+import org.springframework.util.AntPathMatcher;
+import org.springframework.util.DigestUtils;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
 import org.springframework.web.bind.annotation.RequestMethod;
-import org.springframework.web.bind.annotation.ResponseBody;
-import org.springframework.web.bind.annotation.ResponseStatus;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.servlet.HandlerMapping;
 
-import com.redblackit.version.VersionInfo;
+import com.redblackit.version.CompositeVersionInfo;
+import com.redblackit.version.ImmutableCompositeVersionInfo;
+import com.redblackit.version.VersionDiff;
+import com.redblackit.version.VersionInfoBinaryCodec;
+import com.redblackit.version.VersionInfoChangeListener;
+import com.redblackit.version.VersionInfoObjectMapper;
+import com.redblackit.version.VersionKeyPath;
 
 /**
  * @author djnorth
  *
- * MVC controller for admin and status REST requests
+ * MVC controller for admin and status REST requests.
+ *
+ * The encoded version JSON and summary text are cached, with a strong ETag
+ * from an MD5 hash of the content, until the version info is next changed.
+ * Requests with a matching If-None-Match header get 304 (Not Modified).
+ *
+ * The version may also be requested in the compact binary format of
+ * VersionInfoBinaryCodec, by accepting its media type. Since the
+ * representation depends on the Accept header, every version response has
+ * Vary: Accept, so caches keep them apart.
+ *
+ * Snapshots of the version info for the most recent version ETags, JSON or
+ * binary, are kept, so clients can ask for just the differences since the
+ * version they have.
+ * They may also wait for the next change (long-poll), without holding a
+ * request thread while waiting.
+ *
+ * Clients needing only part of the version may ask for one component or
+ * version string by path, or page through the flattened version map.
  */
 @Controller
 @RequestMapping("/rest")
 public class AdminRestController {
 
+	/**
+	 * Content type for version
+	 */
+	public static final String VERSION_CONTENT_TYPE = "application/json;charset=UTF-8";
+
+	/**
+	 * Content type for version summary
+	 */
+	public static final String VERSION_SUMMARY_CONTENT_TYPE = "text/plain;charset=UTF-8";
+
+	/**
+	 * Content type for binary version
+	 */
+	public static final String VERSION_BINARY_CONTENT_TYPE = VersionInfoBinaryCodec.MEDIA_TYPE;
+
+	/**
+	 * Content type for a single version string
+	 */
+	public static final String VERSION_STRING_CONTENT_TYPE = "text/plain;charset=UTF-8";
+
+	/**
+	 * Default number of entries in each page of the flattened version
+	 */
+	public static final int DEFAULT_FLAT_LIMIT = 100;
+
+	/**
+	 * Maximum number of entries in each page of the flattened version
+	 */
+	public static final int MAX_FLAT_LIMIT = 1000;
+
+	/**
+	 * Number of version snapshots kept for diff requests
+	 */
+	public static final int MAX_VERSION_SNAPSHOTS = 16;
+
+	/**
+	 * Default time to wait for changes
+	 */
+	public static final long DEFAULT_CHANGES_TIMEOUT_MILLISECONDS = 30 * 1000L;
+
+	/**
+	 * Maximum time to wait for changes
+	 */
+	public static final long MAX_CHANGES_TIMEOUT_MILLISECONDS = 5 * 60 * 1000L;
+
 	/**
 	 * Version object
 	 */
 	private CompositeVersionInfo versionInfo;
-	
+
+	/**
+	 * Mapper for version JSON
+	 */
+	private final ObjectMapper objectMapper = new VersionInfoObjectMapper();
+
+	/**
+	 * Count of changes to versionInfo, identifying the current content
+	 */
+	private final AtomicLong changeCount = new AtomicLong();
+
+	/**
+	 * Cached version JSON
+	 */
+	private volatile CachedResponse cachedVersion;
+
+	/**
+	 * Cached binary version
+	 */
+	private volatile CachedResponse cachedVersionBinary;
+
+	/**
+	 * Cached version summary
+	 */
+	private volatile CachedResponse cachedVersionSummary;
+
+	/**
+	 * Cached diff JSON by ETag of the version it is against
+	 */
+	private final ConcurrentMap<String, CachedChanges> cachedChanges = new ConcurrentHashMap<String, CachedChanges>();
+
+	/**
+	 * Requests waiting for changes
+	 */
+	private final Set<ChangesRequest> changesRequests = Collections
+			.newSetFromMap(new ConcurrentHashMap<ChangesRequest, Boolean>());
+
+	/**
+	 * Version snapshots by ETag of their JSON or binary encoding, least
+	 * recently used first, with room for both ETags of each version
+	 */
+	private final Map<String, CompositeVersionInfo> versionSnapshots = new LinkedHashMap<String, CompositeVersionInfo>(
+			2 * MAX_VERSION_SNAPSHOTS, 0.75f, true) {
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, CompositeVersionInfo> eldest) {
+			return size() > 2 * MAX_VERSION_SNAPSHOTS;
+		}
+	};
+
 	/**
 	 * Constructor taking version info
-	 * 
+	 *
 	 * @param versionInfo
 	 */
 	@Autowired
 	public AdminRestController(CompositeVersionInfo versionInfo) {
 		this.versionInfo = versionInfo;
+		versionInfo.addChangeListener(new VersionInfoChangeListener() {
+			@Override
+			public void versionInfoChanged(CompositeVersionInfo versionInfo) {
+				changeCount.incrementAndGet();
+				notifyChangesRequests();
+			}
+		});
 	}
-	
+
 	/**
 	 * Handle about request (designed for robots)
-	 * 
-	 * @return version string
+	 *
+	 * @param ifNoneMatch header value, or null
+	 * @param response
+	 * @throws IOException
 	 */
 	@RequestMapping(value="/version/summary", method=RequestMethod.GET)
-	public @ResponseBody String getVersionSummary()
+	public void getVersionSummary(@RequestHeader(value="If-None-Match", required=false) String ifNoneMatch,
+			HttpServletResponse response) throws IOException
 	{
-		return versionInfo.getVersionString();
+		writeResponse(getCachedVersionSummary(), ifNoneMatch, response, true);
 	}
-	
+
 	/**
 	 * Handle about request (designed for robots)
-	 * 
-	 * @return object
+	 *
+	 * @param ifNoneMatch header value, or null
+	 * @param response
+	 * @throws IOException
 	 */
 	@RequestMapping(value="/version", method=RequestMethod.GET)
-	public @ResponseBody CompositeVersionInfo getVersion()
+	public void getVersion(@RequestHeader(value="If-None-Match", required=false) String ifNoneMatch,
+			HttpServletResponse response) throws IOException
+	{
+		writeVersionResponse(getCachedVersion(), ifNoneMatch, response, true);
+	}
+
+	/**
+	 * Handle about request accepting the binary version format
+	 *
+	 * @param ifNoneMatch header value, or null
+	 * @param response
+	 * @throws IOException
+	 */
+	@RequestMapping(value="/version", method=RequestMethod.GET, produces=VERSION_BINARY_CONTENT_TYPE)
+	public void getVersionBinary(@RequestHeader(value="If-None-Match", required=false) String ifNoneMatch,
+			HttpServletResponse response) throws IOException
 	{
-		return versionInfo;
+		writeVersionResponse(getCachedVersionBinary(), ifNoneMatch, response, true);
 	}
-	
+
 	/**
-	 * Handle about head request (designed for robots)
-	 * 
-	 * @return object
+	 * Handle about head request (designed for robots), giving the headers,
+	 * including Content-Length and ETag, which GET would return
+	 *
+	 * @param ifNoneMatch header value, or null
+	 * @param response
+	 * @throws IOException
 	 */
 	@RequestMapping(value="/version", method=RequestMethod.HEAD)
-	@ResponseStatus(HttpStatus.NO_CONTENT)
-	public void getVersionHead()
+	public void getVersionHead(@RequestHeader(value="If-None-Match", required=false) String ifNoneMatch,
+			HttpServletResponse response) throws IOException
+	{
+		writeVersionResponse(getCachedVersion(), ifNoneMatch, response, false);
+	}
+
+	/**
+	 * Handle about head request accepting the binary version format, giving
+	 * the headers which GET would return
+	 *
+	 * @param ifNoneMatch header value, or null
+	 * @param response
+	 * @throws IOException
+	 */
+	@RequestMapping(value="/version", method=RequestMethod.HEAD, produces=VERSION_BINARY_CONTENT_TYPE)
+	public void getVersionBinaryHead(@RequestHeader(value="If-None-Match", required=false) String ifNoneMatch,
+			HttpServletResponse response) throws IOException
+	{
+		writeVersionResponse(getCachedVersionBinary(), ifNoneMatch, response, false);
+	}
+
+	/**
+	 * Handle diff request, giving the version strings added, removed or
+	 * changed since the version with the supplied ETag, and the current ETag,
+	 * as JSON <code>{"against":eTag,"current":eTag,"changes":{key:{"old":version,"new":version},...}}</code>.
+	 * The keys are those of the flattened version map, and old or new is null
+	 * for a version string added or removed. If we no longer have that
+	 * version, respond 404 (Not Found), so the client should get the whole
+	 * version instead.
+	 *
+	 * @param against ETag of version, quoted or not
+	 * @param response
+	 * @throws IOException
+	 */
+	@RequestMapping(value="/version/diff", method=RequestMethod.GET)
+	public void getVersionDiff(@RequestParam("against") String against, HttpServletResponse response)
+			throws IOException
+	{
+		final CachedChanges changes = getCachedChanges(quoteETag(against));
+		if (changes == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "No version with ETag " + quoteETag(against));
+			return;
+		}
+
+		writeContent(changes.getResponse(), response);
+	}
+
+	/**
+	 * Handle long-poll request for changes since the version with the
+	 * supplied ETag, in the same form as a diff request. If there are
+	 * changes already, or we no longer have that version (404), respond at
+	 * once. Otherwise, wait for the next change to a version string, or until
+	 * the timeout, when we respond 304 (Not Modified), so the client should
+	 * ask again.
+	 *
+	 * Waiting requests are put in asynchronous mode, and answered from a
+	 * container thread when the version info changes, so idle clients do not
+	 * hold request threads.
+	 *
+	 * @param since ETag of version, quoted or not
+	 * @param timeout in milliseconds, or null for DEFAULT_CHANGES_TIMEOUT_MILLISECONDS
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	@RequestMapping(value="/version/changes", method=RequestMethod.GET)
+	public void getVersionChanges(@RequestParam("since") String since,
+			@RequestParam(value="timeout", required=false) Long timeout, HttpServletRequest request,
+			HttpServletResponse response) throws IOException
+	{
+		final long timeoutMilliseconds = (timeout == null ? DEFAULT_CHANGES_TIMEOUT_MILLISECONDS : timeout);
+		if (timeoutMilliseconds <= 0 || timeoutMilliseconds > MAX_CHANGES_TIMEOUT_MILLISECONDS) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "timeout must be from 1 to "
+					+ MAX_CHANGES_TIMEOUT_MILLISECONDS);
+			return;
+		}
+
+		final String sinceETag = quoteETag(since);
+		final CachedChanges changes = getCachedChanges(sinceETag);
+		if (changes == null || !changes.isEmpty()) {
+			getVersionDiff(sinceETag, response);
+			return;
+		}
+
+		AsyncContext asyncContext = request.startAsync(request, response);
+		asyncContext.setTimeout(timeoutMilliseconds);
+		ChangesRequest changesRequest = new ChangesRequest(sinceETag, asyncContext);
+		asyncContext.addListener(changesRequest);
+		waitForChanges(changesRequest);
+	}
+
+	/**
+	 * Handle request for one component or version string, with the keys as
+	 * the path after /version/ e.g. /version/component/implementation. A
+	 * component is given as JSON, in the same form as the whole version, and
+	 * a version string as plain text. If there is neither, respond 404 (Not
+	 * Found). N.B. paths handled by other methods (e.g. summary) take
+	 * precedence.
+	 *
+	 * @param ifNoneMatch header value, or null
+	 * @param request
+	 * @param response
+	 * @throws IOException
+	 */
+	@RequestMapping(value="/version/**", method=RequestMethod.GET)
+	public void getVersionForPath(@RequestHeader(value="If-None-Match", required=false) String ifNoneMatch,
+			HttpServletRequest request, HttpServletResponse response) throws IOException
+	{
+		final String path = new AntPathMatcher().extractPathWithinPattern(
+				(String) request.getAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE),
+				(String) request.getAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE));
+		final String[] keys = path.split("/");
+		final CachedResponse current = getCachedVersion();
+
+		final CompositeVersionInfo component = current.getSnapshot().getVersionInfoForKeys(keys);
+		if (component != null) {
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			objectMapper.writeValue(content, component);
+			writeResponse(new CachedResponse(current.getChangeCount(), VERSION_CONTENT_TYPE, content.toByteArray(),
+					null), ifNoneMatch, response, true);
+			return;
+		}
+
+		final String version = current.getSnapshot().getVersionForKeys(keys);
+		if (version != null) {
+			writeResponse(new CachedResponse(current.getChangeCount(), VERSION_STRING_CONTENT_TYPE, version
+					.getBytes("UTF-8"), null), ifNoneMatch, response, true);
+			return;
+		}
+
+		response.sendError(HttpServletResponse.SC_NOT_FOUND, "No version or component for " + Arrays.toString(keys));
+	}
+
+	/**
+	 * Handle request for a page of the flattened version map, in key order,
+	 * as JSON <code>{"entries":{key:version,...},"next":key}</code>. Only
+	 * keys starting with prefix, if given, and after the key after, if given,
+	 * are included, up to limit entries. If there are more, next is the key
+	 * to pass as after for the next page, otherwise it is null.
+	 *
+	 * This uses a range view of the snapshot's sorted map, so only the
+	 * entries returned are visited.
+	 *
+	 * @param prefix or null for all
+	 * @param limit or null for DEFAULT_FLAT_LIMIT, at most MAX_FLAT_LIMIT
+	 * @param after or null to start at the first matching key
+	 * @param response
+	 * @throws IOException
+	 */
+	@RequestMapping(value="/version/flat", method=RequestMethod.GET)
+	public void getVersionFlat(@RequestParam(value="prefix", required=false) String prefix,
+			@RequestParam(value="limit", required=false) Integer limit,
+			@RequestParam(value="after", required=false) String after, HttpServletResponse response)
+			throws IOException
 	{
-		// That's it folks
+		final int pageLimit = (limit == null ? DEFAULT_FLAT_LIMIT : limit);
+		if (pageLimit <= 0 || pageLimit > MAX_FLAT_LIMIT) {
+			response.sendError(HttpServletResponse.SC_BAD_REQUEST, "limit must be from 1 to " + MAX_FLAT_LIMIT);
+			return;
+		}
+
+		final String keyPrefix = (prefix == null ? "" : prefix);
+		String from = keyPrefix;
+		if (after != null && after.compareTo(keyPrefix) >= 0) {
+			from = after + '\0';
+		}
+
+		final SortedMap<String, String> versionMap = ImmutableCompositeVersionInfo.copyOf(
+				getCachedVersion().getSnapshot()).getSortedVersionMap();
+		Map<String, String> entries = new LinkedHashMap<String, String>();
+		String lastKey = null;
+		String next = null;
+		for (Map.Entry<String, String> entry : versionMap.tailMap(from).entrySet()) {
+			if (!entry.getKey().startsWith(keyPrefix)) {
+				break;
+			}
+
+			if (entries.size() == pageLimit) {
+				next = lastKey;
+				break;
+			}
+
+			entries.put(entry.getKey(), entry.getValue());
+			lastKey = entry.getKey();
+		}
+
+		Map<String, Object> page = new LinkedHashMap<String, Object>();
+		page.put("entries", entries);
+		page.put("next", next);
+
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		objectMapper.writeValue(content, page);
+		response.setContentType(VERSION_CONTENT_TYPE);
+		response.setContentLength(content.size());
+		response.getOutputStream().write(content.toByteArray());
+	}
+
+	/**
+	 * Get cached version JSON, encoding a snapshot if there have been changes
+	 * since it was cached, and keeping the snapshot for diff requests.
+	 *
+	 * @return cached response
+	 * @throws IOException
+	 */
+	private CachedResponse getCachedVersion() throws IOException {
+		final long currentChangeCount = changeCount.get();
+		CachedResponse cached = cachedVersion;
+		if (cached == null || cached.getChangeCount() != currentChangeCount) {
+			CompositeVersionInfo snapshot = versionInfo.snapshot();
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			objectMapper.writeValue(content, snapshot);
+			cached = new CachedResponse(currentChangeCount, VERSION_CONTENT_TYPE, content.toByteArray(), snapshot);
+			synchronized (versionSnapshots) {
+				versionSnapshots.put(cached.getETag(), snapshot);
+			}
+			cachedVersion = cached;
+		}
+
+		return cached;
+	}
+
+	/**
+	 * Get cached diff JSON against the version with the supplied ETag,
+	 * encoding it if there have been changes since it was cached, so
+	 * clients waiting on the same version share one diff.
+	 *
+	 * @param againstETag quoted ETag
+	 * @return cached changes, or null if we no longer have that version
+	 * @throws IOException
+	 */
+	private CachedChanges getCachedChanges(String againstETag) throws IOException {
+		final CachedResponse current = getCachedVersion();
+		CachedChanges cached = cachedChanges.get(againstETag);
+		if (cached == null || cached.getResponse().getChangeCount() != current.getChangeCount()) {
+			final CompositeVersionInfo previous;
+			synchronized (versionSnapshots) {
+				previous = versionSnapshots.get(againstETag);
+			}
+
+			if (previous == null) {
+				return null;
+			}
+
+			final ImmutableCompositeVersionInfo snapshot = ImmutableCompositeVersionInfo.copyOf(current.getSnapshot());
+			Map<String, Map<String, String>> changes = new LinkedHashMap<String, Map<String, String>>();
+			for (VersionDiff.Change change : VersionDiff.between(previous, snapshot).getChanges().values()) {
+				Map<String, String> versions = new LinkedHashMap<String, String>();
+				versions.put("old", change.getOldVersion());
+				versions.put("new", change.getNewVersion());
+				changes.put(VersionKeyPath.of(change.getKeys()).toConcatenatedKey(
+						snapshot.getKeyConcatenationSeparator()), versions);
+			}
+
+			Map<String, Object> diff = new LinkedHashMap<String, Object>();
+			diff.put("against", againstETag);
+			diff.put("current", current.getETag());
+			diff.put("changes", changes);
+
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			objectMapper.writeValue(content, diff);
+			cached = new CachedChanges(new CachedResponse(current.getChangeCount(), VERSION_CONTENT_TYPE, content
+					.toByteArray(), null), changes.isEmpty());
+			if (cachedChanges.size() >= MAX_VERSION_SNAPSHOTS) {
+				cachedChanges.clear();
+			}
+			cachedChanges.put(againstETag, cached);
+		}
+
+		return cached;
+	}
+
+	/**
+	 * Wait for changes since the request's version, unless there have been
+	 * some already, when the request is answered at once. Changes to the
+	 * structure alone (e.g. adding an empty component) are not answered.
+	 *
+	 * @param changesRequest
+	 * @throws IOException
+	 */
+	private void waitForChanges(ChangesRequest changesRequest) throws IOException {
+		final CachedChanges changes = getCachedChanges(changesRequest.getSinceETag());
+		if (changes == null || !changes.isEmpty()) {
+			changesRequest.respond(changes == null ? null : changes.getResponse());
+			return;
+		}
+
+		changesRequests.add(changesRequest);
+
+		// Notification may have come before we were added
+		if (changeCount.get() != changes.getResponse().getChangeCount() && changesRequests.remove(changesRequest)) {
+			changesRequest.getAsyncContext().start(changesRequest);
+		}
+	}
+
+	/**
+	 * Answer requests waiting for changes, each from a container thread.
+	 */
+	private void notifyChangesRequests() {
+		for (Iterator<ChangesRequest> i = changesRequests.iterator(); i.hasNext();) {
+			ChangesRequest changesRequest = i.next();
+			if (changesRequests.remove(changesRequest)) {
+				changesRequest.getAsyncContext().start(changesRequest);
+			}
+		}
+	}
+
+	/**
+	 * Get cached binary version, encoding the same snapshot as the version
+	 * JSON, so both reflect the same changes, and keeping the snapshot for
+	 * diff requests against the binary ETag.
+	 *
+	 * @return cached response
+	 * @throws IOException
+	 */
+	private CachedResponse getCachedVersionBinary() throws IOException {
+		final CachedResponse json = getCachedVersion();
+		CachedResponse cached = cachedVersionBinary;
+		if (cached == null || cached.getChangeCount() != json.getChangeCount()) {
+			cached = new CachedResponse(json.getChangeCount(), VERSION_BINARY_CONTENT_TYPE, VersionInfoBinaryCodec
+					.encode(json.getSnapshot()), json.getSnapshot());
+			synchronized (versionSnapshots) {
+				versionSnapshots.put(cached.getETag(), cached.getSnapshot());
+			}
+			cachedVersionBinary = cached;
+		}
+
+		return cached;
+	}
+
+	/**
+	 * Get cached version summary, encoding it if there have been changes
+	 * since it was cached. The version string is written straight to the
+	 * encoder, rather than building it first.
+	 *
+	 * @return cached response
+	 * @throws IOException
+	 */
+	private CachedResponse getCachedVersionSummary() throws IOException {
+		final long currentChangeCount = changeCount.get();
+		CachedResponse cached = cachedVersionSummary;
+		if (cached == null || cached.getChangeCount() != currentChangeCount) {
+			ByteArrayOutputStream content = new ByteArrayOutputStream();
+			Writer writer = new OutputStreamWriter(content, "UTF-8");
+			versionInfo.writeVersionString(writer);
+			writer.flush();
+			cached = new CachedResponse(currentChangeCount, VERSION_SUMMARY_CONTENT_TYPE, content.toByteArray(), null);
+			cachedVersionSummary = cached;
+		}
+
+		return cached;
+	}
+
+	/**
+	 * Write cached response, or just 304 (Not Modified) if the ETag matches
+	 * ifNoneMatch.
+	 *
+	 * @param cached
+	 * @param ifNoneMatch
+	 * @param response
+	 * @param includeContent false for HEAD
+	 * @throws IOException
+	 */
+	private void writeResponse(CachedResponse cached, String ifNoneMatch, HttpServletResponse response,
+			boolean includeContent) throws IOException {
+		response.setHeader("ETag", cached.getETag());
+		if (ifNoneMatch != null && matchesETag(ifNoneMatch, cached.getETag())) {
+			response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+			return;
+		}
+
+		response.setContentType(cached.getContentType());
+		response.setContentLength(cached.getContent().length);
+		if (includeContent) {
+			response.getOutputStream().write(cached.getContent());
+		}
+	}
+
+	/**
+	 * Write cached version response, as for writeResponse, with Vary: Accept,
+	 * as the version is negotiated between JSON and binary
+	 *
+	 * @param cached
+	 * @param ifNoneMatch
+	 * @param response
+	 * @param includeContent false for HEAD
+	 * @throws IOException
+	 */
+	private void writeVersionResponse(CachedResponse cached, String ifNoneMatch, HttpServletResponse response,
+			boolean includeContent) throws IOException {
+		response.setHeader("Vary", "Accept");
+		writeResponse(cached, ifNoneMatch, response, includeContent);
+	}
+
+	/**
+	 * Write cached content, without checking or setting ETag
+	 *
+	 * @param cached
+	 * @param response
+	 * @throws IOException
+	 */
+	private void writeContent(CachedResponse cached, HttpServletResponse response) throws IOException {
+		response.setContentType(cached.getContentType());
+		response.setContentLength(cached.getContent().length);
+		response.getOutputStream().write(cached.getContent());
+	}
+
+	/**
+	 * Quote ETag if not already quoted
+	 *
+	 * @param eTag
+	 * @return quoted ETag
+	 */
+	private String quoteETag(String eTag) {
+		return (eTag.startsWith("\"") ? eTag : "\"" + eTag + "\"");
+	}
+
+	/**
+	 * Check for our ETag in If-None-Match header value, which may be "*" or
+	 * a list of ETags, any of which may be weak (W/ prefix)
+	 *
+	 * @param ifNoneMatch
+	 * @param eTag
+	 * @return true if matched
+	 */
+	private boolean matchesETag(String ifNoneMatch, String eTag) {
+		for (String candidate : ifNoneMatch.split(",")) {
+			candidate = candidate.trim();
+			if (candidate.startsWith("W/")) {
+				candidate = candidate.substring(2);
+			}
+
+			if (candidate.equals("*") || candidate.equals(eTag)) {
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+	/**
+	 * Encoded content with the change count when it was created, its ETag,
+	 * and the snapshot it was encoded from, if any
+	 */
+	private static final class CachedResponse {
+
+		private final long changeCount;
+		private final String contentType;
+		private final byte[] content;
+		private final String eTag;
+		private final CompositeVersionInfo snapshot;
+
+		/**
+		 * Constructor computing ETag
+		 *
+		 * @param changeCount
+		 * @param contentType
+		 * @param content
+		 * @param snapshot or null
+		 */
+		CachedResponse(long changeCount, String contentType, byte[] content, CompositeVersionInfo snapshot) {
+			this.changeCount = changeCount;
+			this.contentType = contentType;
+			this.content = content;
+			this.eTag = "\"" + DigestUtils.md5DigestAsHex(content) + "\"";
+			this.snapshot = snapshot;
+		}
+
+		long getChangeCount() {
+			return changeCount;
+		}
+
+		String getContentType() {
+			return contentType;
+		}
+
+		byte[] getContent() {
+			return content;
+		}
+
+		String getETag() {
+			return eTag;
+		}
+
+		CompositeVersionInfo getSnapshot() {
+			return snapshot;
+		}
+	}
+
+	/**
+	 * Cached diff response, noting if there were no changes
+	 */
+	private static final class CachedChanges {
+
+		private final CachedResponse response;
+		private final boolean empty;
+
+		/**
+		 * Constructor
+		 *
+		 * @param response
+		 * @param empty
+		 */
+		CachedChanges(CachedResponse response, boolean empty) {
+			this.response = response;
+			this.empty = empty;
+		}
+
+		CachedResponse getResponse() {
+			return response;
+		}
+
+		boolean isEmpty() {
+			return empty;
+		}
+	}
+
+	/**
+	 * Asynchronous request waiting for changes since a version. It is
+	 * answered once only, with the changes, or with 304 (Not Modified) on
+	 * timeout.
+	 */
+	private final class ChangesRequest implements AsyncListener, Runnable {
+
+		private final String sinceETag;
+		private final AsyncContext asyncContext;
+		private final AtomicBoolean completed = new AtomicBoolean();
+
+		/**
+		 * Constructor
+		 *
+		 * @param sinceETag
+		 * @param asyncContext
+		 */
+		ChangesRequest(String sinceETag, AsyncContext asyncContext) {
+			this.sinceETag = sinceETag;
+			this.asyncContext = asyncContext;
+		}
+
+		String getSinceETag() {
+			return sinceETag;
+		}
+
+		AsyncContext getAsyncContext() {
+			return asyncContext;
+		}
+
+		/**
+		 * Respond with changes, or 404 (Not Found) if null, and complete,
+		 * unless already completed
+		 *
+		 * @param changes
+		 * @throws IOException
+		 */
+		void respond(CachedResponse changes) throws IOException {
+			if (completed.compareAndSet(false, true)) {
+				try {
+					HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+					if (changes == null) {
+						response.sendError(HttpServletResponse.SC_NOT_FOUND, "No version with ETag " + sinceETag);
+					} else {
+						writeContent(changes, response);
+					}
+				} finally {
+					asyncContext.complete();
+				}
+			}
+		}
+
+		/**
+		 * Answer from a container thread after notification, or wait again
+		 * if the version is unchanged
+		 */
+		@Override
+		public void run() {
+			try {
+				waitForChanges(this);
+			} catch (IOException ioe) {
+				asyncContext.complete();
+			}
+		}
+
+		/**
+		 * Respond 304 (Not Modified) if not already answered
+		 *
+		 * @see AsyncListener#onTimeout(AsyncEvent)
+		 */
+		@Override
+		public void onTimeout(AsyncEvent event) throws IOException {
+			changesRequests.remove(this);
+			if (completed.compareAndSet(false, true)) {
+				HttpServletResponse response = (HttpServletResponse) asyncContext.getResponse();
+				response.setHeader("ETag", sinceETag);
+				response.setStatus(HttpServletResponse.SC_NOT_MODIFIED);
+				asyncContext.complete();
+			}
+		}
+
+		/**
+		 * @see AsyncListener#onError(AsyncEvent)
+		 */
+		@Override
+		public void onError(AsyncEvent event) {
+			changesRequests.remove(this);
+			completed.set(true);
+		}
+
+		/**
+		 * @see AsyncListener#onComplete(AsyncEvent)
+		 */
+		@Override
+		public void onComplete(AsyncEvent event) {
+			changesRequests.remove(this);
+			completed.set(true);
+		}
+
+		/**
+		 * @see AsyncListener#onStartAsync(AsyncEvent)
+		 */
+		@Override
+		public void onStartAsync(AsyncEvent event) {
+		}
 	}
 
 }
@@ -0,0 +1,88 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.web.controller;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+import javax.servlet.http.HttpServletResponse;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Controller;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestMethod;
+
+import com.redblackit.version.CompositeVersionInfo;
+import com.redblackit.version.VersionInfoObjectMapper;
+import com.redblackit.web.client.FleetVersionCollector;
+
+/**
+ * @author djnorth
+ *
+ * MVC controller giving the versions of all nodes in the fleet, as collected
+ * by a FleetVersionCollector. If no collector is configured, the request gets
+ * 404 (Not Found).
+ */
+@Controller
+@RequestMapping("/rest")
+public class FleetVersionController {
+
+	/**
+	 * Collector, if configured
+	 */
+	private FleetVersionCollector fleetVersionCollector;
+
+	/**
+	 * Mapper for version JSON
+	 */
+	private final ObjectMapper objectMapper = new VersionInfoObjectMapper();
+
+	/**
+	 * Set collector, which is optional
+	 *
+	 * @param fleetVersionCollector
+	 */
+	@Autowired(required=false)
+	public void setFleetVersionCollector(FleetVersionCollector fleetVersionCollector) {
+		this.fleetVersionCollector = fleetVersionCollector;
+	}
+
+	/**
+	 * Handle fleet version request, giving a component for each node keyed by
+	 * its URL, and a version string for each node which could not be reached.
+	 *
+	 * @param response
+	 * @throws IOException
+	 */
+	@RequestMapping(value="/fleet/version", method=RequestMethod.GET)
+	public void getFleetVersion(HttpServletResponse response) throws IOException
+	{
+		if (fleetVersionCollector == null) {
+			response.sendError(HttpServletResponse.SC_NOT_FOUND, "No fleet configured");
+			return;
+		}
+
+		CompositeVersionInfo fleetVersionInfo = fleetVersionCollector.collect();
+		ByteArrayOutputStream content = new ByteArrayOutputStream();
+		objectMapper.writeValue(content, fleetVersionInfo);
+		response.setContentType(AdminRestController.VERSION_CONTENT_TYPE);
+		response.setContentLength(content.size());
+		response.getOutputStream().write(content.toByteArray());
+	}
+
+}
@@ -18,14 +18,22 @@ package com.redblackit.web.server;
 
 import org.apache.log4j.Logger;
 import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Handler;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.handler.StatisticsHandler;
 import org.eclipse.jetty.server.nio.SelectChannelConnector;
 import org.eclipse.jetty.server.ssl.SslConnector;
 import org.eclipse.jetty.server.ssl.SslSelectChannelConnector;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.component.LifeCycle;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
 import org.springframework.util.Assert;
 import org.springframework.util.ResourceUtils;
 
 import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author djnorth
@@ -35,41 +43,130 @@ import java.io.IOException;
  * 
  *         This is only intended to be a very light-weight wrapper, and it is
  *         entirely legitimate to do all the configuration outside, by supplying
- *         both port values <= 0.
+ *         both port values < 0 (NO_PORT).
+ * 
+ *         A port of 0 (EPHEMERAL_PORT) binds the connector to a free port
+ *         chosen by the operating system when the server starts, with no race
+ *         with other servers, and getHttpPort and getHttpsPort then report the
+ *         port bound.
+ * 
+ *         Thread pool and connector settings may be tuned using the
+ *         constructor taking an EmbeddedJettyServerConfig.
+ * 
+ *         With a drain timeout, stopping is graceful: we stop accepting
+ *         requests and wait for active requests to complete, tracking them
+ *         with a StatisticsHandler installed around the server's handler when
+ *         it is started.
  */
-public class DefaultEmbeddedJettyServer implements EmbeddedJettyServer {
+public class DefaultEmbeddedJettyServer implements EmbeddedJettyServer,
+		DefaultEmbeddedJettyServerMBean {
 
 	private static Logger logger = Logger.getLogger("web.server");
 
+	/**
+	 * Interval at which we check for active requests when draining
+	 */
+	private static final long DRAIN_POLL_MILLISECONDS = 10;
+
 	/**
 	 * Our server
 	 */
 	private Server server;
 
+	/**
+	 * Time start was issued
+	 */
+	private volatile long startIssuedNanos;
+
+	/**
+	 * Startup phase timings since start was issued, or -1 until known
+	 */
+	private volatile long contextInitMilliseconds = -1;
+	private volatile long connectorOpenMilliseconds = -1;
+	private volatile long readyMilliseconds = -1;
+
+	/**
+	 * Time taken to stop, or -1 until known
+	 */
+	private volatile long stopMilliseconds = -1;
+
+	/**
+	 * Time to wait for active requests to complete when stopping
+	 */
+	private volatile int drainTimeoutMilliseconds;
+
+	/**
+	 * Requests completed and aborted in the last drain, or -1 until known
+	 */
+	private volatile int drainedRequests = -1;
+	private volatile int abortedRequests = -1;
+
+	/**
+	 * Listener recording startup phase timings. Jetty starts the handler
+	 * (initializing contexts) before opening the connectors, and the server is
+	 * ready for its first request once both are done.
+	 */
+	private final LifeCycle.Listener timingListener = new AbstractLifeCycle.AbstractLifeCycleListener() {
+		@Override
+		public void lifeCycleStarted(LifeCycle event) {
+			final long millis = elapsedMillis(startIssuedNanos);
+			if (event == getServer()) {
+				readyMilliseconds = millis;
+				logger.info("Server ready for requests:" + getStartupTimings() + ":server=" + getServer());
+			} else if (event instanceof Connector) {
+				connectorOpenMilliseconds = Math.max(connectorOpenMilliseconds, millis);
+				logger.info("Connector open after " + millis + " ms:" + event);
+			} else {
+				contextInitMilliseconds = millis;
+				logger.info("Context initialized after " + millis + " ms:" + event);
+			}
+		}
+	};
+
 	/**
 	 * Constructor taking key- and trust-store info
 	 * 
-	 * We've suppressed deprecation warnings given that setPort etc have been
-	 * deprecated without corresponding update to Javadoc.
-	 * 
 	 * @param keyStore
 	 * @param keyStorePassword
 	 * @param trustStore
 	 * @param trustStorePassword
 	 *            for private key (defaults to keyStorePassword)
 	 */
-	@SuppressWarnings("deprecation")
 	public DefaultEmbeddedJettyServer(final int httpPort, final int httpsPort,
 			final String keyStore, final String keyStorePassword,
 			final String trustStore, final String trustStorePassword) {
+
+		this(new EmbeddedJettyServerConfig(httpPort, httpsPort, keyStore,
+				keyStorePassword, trustStore, trustStorePassword));
+	}
+
+	/**
+	 * Constructor taking configuration, including thread pool and connector
+	 * settings
+	 * 
+	 * We've suppressed deprecation warnings given that setPort etc have been
+	 * deprecated without corresponding update to Javadoc.
+	 * 
+	 * @param config
+	 */
+	@SuppressWarnings("deprecation")
+	public DefaultEmbeddedJettyServer(final EmbeddedJettyServerConfig config) {
+
+		Assert.notNull(config, "config");
+		final int httpPort = config.getHttpPort();
+		final int httpsPort = config.getHttpsPort();
+		final String keyStore = config.getKeyStore();
+		final String keyStorePassword = config.getKeyStorePassword();
+		final String trustStore = config.getTrustStore();
+		final String trustStorePassword = config.getTrustStorePassword();
 		
 		final String pmsg = ":httpPort=" + httpPort + ":httpsPort=" + httpsPort + ":keyStore=" + keyStore + ":keyStorePassword=" 
 						+ trustStorePassword + ":trustStore=" + trustStore + ":trustStorePassword=" + trustStorePassword;
 		
-		Assert.state(httpPort > 0 || httpsPort > 0, "one of httpPort, httpsPort must be gt 0" + pmsg);
+		Assert.state(httpPort >= 0 || httpsPort >= 0, "one of httpPort, httpsPort must be ge 0" + pmsg);
 
-		if (httpsPort > 0) {
-			Assert.state(httpPort != httpsPort, "httpPort equals httpsPort=" + httpsPort + pmsg);
+		if (httpsPort >= 0) {
+			Assert.state(httpsPort == EPHEMERAL_PORT || httpPort != httpsPort, "httpPort equals httpsPort=" + httpsPort + pmsg);
 			Assert.notNull(keyStore, "keyStore" + pmsg);
 			Assert.notNull(keyStorePassword, "keyStorePassword" + pmsg);
 			Assert.notNull(trustStore, "trustStore" + pmsg);
@@ -84,20 +181,29 @@ public class DefaultEmbeddedJettyServer implements EmbeddedJettyServer {
 		{
 			if (keyStore != null || keyStorePassword != null || trustStore != null || trustStorePassword != null)
 			{
-				logger.warn("httpsPort=" + httpsPort + " <= 0, but keyInfo supplied" + pmsg);
+				logger.warn("httpsPort=" + httpsPort + " lt 0, but keyInfo supplied" + pmsg);
 			}
 		}
 
+		Assert.state(config.getMaxThreads() <= 0 || config.getMinThreads() <= config.getMaxThreads(),
+				"minThreads gt maxThreads:config=" + config);
+		final int connectorCount = (httpPort >= 0 ? 1 : 0) + (httpsPort >= 0 ? 1 : 0);
+		Assert.state(config.getMaxThreads() <= 0 || config.getAcceptors() * connectorCount < config.getMaxThreads(),
+				"acceptors for all connectors must be lt maxThreads:config=" + config);
+
 		setServer(new Server());
+		getServer().setThreadPool(createThreadPool(config));
+		setDrainTimeoutMilliseconds(config.getDrainTimeoutMilliseconds());
 
-		if (httpPort > 0) {
-			Connector connector = new SelectChannelConnector();
+		if (httpPort >= 0) {
+			SelectChannelConnector connector = new SelectChannelConnector();
 			connector.setPort(httpPort);
+			configureConnector(connector, config);
 			getServer().addConnector(connector);
 		}
 
-		if (httpsPort > 0) {
-			SslConnector sslConnector = new SslSelectChannelConnector();
+		if (httpsPort >= 0) {
+			SslSelectChannelConnector sslConnector = new SslSelectChannelConnector();
 			sslConnector.setPort(httpsPort);
 			sslConnector.setKeystore(keyStore);
 			sslConnector.setPassword(keyStorePassword);
@@ -105,8 +211,13 @@ public class DefaultEmbeddedJettyServer implements EmbeddedJettyServer {
 			sslConnector.setTruststore(trustStore);
 			sslConnector.setTrustPassword(trustStorePassword);
 			sslConnector.setWantClientAuth(true);
+			configureConnector(sslConnector, config);
 			getServer().addConnector(sslConnector);
 		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("constructed:config=" + config + ":this=" + this);
+		}
 	}
 
 	/**
@@ -166,6 +277,30 @@ public class DefaultEmbeddedJettyServer implements EmbeddedJettyServer {
 		return null;
 	}
 
+	/**
+	 * Get the port the (first) httpConnector is bound to once started, or
+	 * its configured port before then (0 if ephemeral)
+	 * 
+	 * @return port, or NO_PORT if there's no httpConnector
+	 * @see com.redblackit.web.server.EmbeddedJettyServer#getHttpPort()
+	 */
+	@Override
+	public int getHttpPort() {
+		return getPort(getHttpConnector());
+	}
+
+	/**
+	 * Get the port the (first) httpsConnector is bound to once started, or
+	 * its configured port before then (0 if ephemeral)
+	 * 
+	 * @return port, or NO_PORT if there's no httpsConnector
+	 * @see com.redblackit.web.server.EmbeddedJettyServer#getHttpsPort()
+	 */
+	@Override
+	public int getHttpsPort() {
+		return getPort(getHttpsConnector());
+	}
+
 	/**
 	 * Start server and wait timeout in seconds for it to be started. If there's
 	 * an exception, this will be wrapped as a RuntimeException and re-throw.
@@ -181,27 +316,65 @@ public class DefaultEmbeddedJettyServer implements EmbeddedJettyServer {
 		if (timeoutSecs <= 0) {
 			timeoutSecs = DEFAULT_SERVER_TIMEOUT_SECS;
 		}
-		int waitSecs = 0;
 
+		return startWait(timeoutSecs, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Start server and wait timeout for it to be started. The server is
+	 * started on a separate thread, and we are woken by its lifecycle events,
+	 * so we return as soon as it has started or failed. If there's an
+	 * exception, this will be wrapped as a RuntimeException and re-throw.
+	 * 
+	 * @param timeout
+	 * @param unit
+	 * @return true if started
+	 * @see com.redblackit.web.server.EmbeddedJettyServer#startWait(long,
+	 *      TimeUnit)
+	 */
+	@Override
+	public boolean startWait(long timeout, TimeUnit unit) {
+
+		final long startNanos = System.nanoTime();
+		final LifeCycleLatch latch = new LifeCycleLatch(true);
+		getServer().addLifeCycleListener(latch);
 		try {
-			getServer().start();
-			logger.info("Starting server:" + this);
-			while (waitSecs <= timeoutSecs && !getServer().isStarted()) {
-				Thread.sleep(1000);
-				++waitSecs;
+			if (getServer().isStarted()) {
+				latch.done();
+			} else {
+				prepareStart();
+				logger.info("Starting server:" + this);
+				runLifeCycleThread("start", latch, new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						getServer().start();
+						return null;
+					}
+				});
 			}
 
+			latch.await(timeout, unit);
+
 		} catch (Throwable t) {
 			final String msg = "server start failed:" + this;
 			logger.error(msg, t);
 			throw new RuntimeException(msg, t);
+		} finally {
+			getServer().removeLifeCycleListener(latch);
+		}
+
+		final long waitMillis = elapsedMillis(startNanos);
+		if (latch.getFailure() != null) {
+			final String msg = "server start failed after " + waitMillis + " ms:" + this;
+			logger.error(msg, latch.getFailure());
+			throw new RuntimeException(msg, latch.getFailure());
 		}
 
 		final boolean isStarted = getServer().isStarted();
 		if (isStarted) {
-			logger.info("Server started after " + waitSecs + " s:" + this);
+			logger.info("Server started after " + waitMillis + " ms:" + this);
 		} else {
-			logger.warn("Server start timed out after " + waitSecs + " s:"
+			logger.warn("Server start timed out after " + waitMillis + " ms:"
 					+ this);
 		}
 		return isStarted;
@@ -219,13 +392,14 @@ public class DefaultEmbeddedJettyServer implements EmbeddedJettyServer {
 	}
 
 	/**
-	 * Start server, returning immediately
+	 * Start server, returning once Jetty's start returns
 	 * 
 	 * @see com.redblackit.web.server.EmbeddedJettyServer#start()
 	 */
 	@Override
 	public void start() {
 		try {
+			prepareStart();
 			getServer().start();
 			logger.info("Starting server:" + this);
 		} catch (Throwable t) {
@@ -260,6 +434,7 @@ public class DefaultEmbeddedJettyServer implements EmbeddedJettyServer {
 	 * Stop server and wait timeout seconds for it to be stopped
 	 * 
 	 * @param timeoutSecs
+	 *            if <=0, then use the default.
 	 * @return true if stopped
 	 * @see com.redblackit.web.server.EmbeddedJettyServer#stopWait(int)
 	 */
@@ -269,27 +444,66 @@ public class DefaultEmbeddedJettyServer implements EmbeddedJettyServer {
 		if (timeoutSecs <= 0) {
 			timeoutSecs = DEFAULT_SERVER_TIMEOUT_SECS;
 		}
-		int waitSecs = 0;
 
+		return stopWait(timeoutSecs, TimeUnit.SECONDS);
+	}
+
+	/**
+	 * Stop server and wait timeout for it to be stopped, woken by its
+	 * lifecycle events as for startWait. If there's a drain timeout, active
+	 * requests are drained first, which may take up to the drain timeout
+	 * before the stop timeout applies.
+	 * 
+	 * @param timeout
+	 * @param unit
+	 * @return true if stopped
+	 * @see com.redblackit.web.server.EmbeddedJettyServer#stopWait(long,
+	 *      TimeUnit)
+	 */
+	@Override
+	public boolean stopWait(long timeout, TimeUnit unit) {
+
+		final long startNanos = System.nanoTime();
+		final LifeCycleLatch latch = new LifeCycleLatch(false);
+		getServer().addLifeCycleListener(latch);
 		try {
-			getServer().stop();
-			logger.info("Stopping server:" + this);
-			while (waitSecs <= timeoutSecs && !getServer().isStopped()) {
-				Thread.sleep(1000);
-				++waitSecs;
+			if (getServer().isStopped()) {
+				latch.done();
+			} else {
+				drain();
+				logger.info("Stopping server:" + this);
+				runLifeCycleThread("stop", latch, new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						getServer().stop();
+						return null;
+					}
+				});
 			}
 
+			latch.await(timeout, unit);
+
 		} catch (Throwable t) {
 			final String msg = "server stop failed:" + this;
 			logger.error(msg, t);
 			throw new RuntimeException(msg, t);
+		} finally {
+			getServer().removeLifeCycleListener(latch);
+		}
+
+		final long waitMillis = elapsedMillis(startNanos);
+		if (latch.getFailure() != null) {
+			final String msg = "server stop failed after " + waitMillis + " ms:" + this;
+			logger.error(msg, latch.getFailure());
+			throw new RuntimeException(msg, latch.getFailure());
 		}
 
 		final boolean isStopped = getServer().isStopped();
 		if (isStopped) {
-			logger.info("Server stopped after " + waitSecs + " s:" + this);
+			stopMilliseconds = waitMillis;
+			logger.info("Server stopped after " + waitMillis + " ms:" + this);
 		} else {
-			logger.warn("Server stop timed out after " + waitSecs + " s:"
+			logger.warn("Server stop timed out after " + waitMillis + " ms:"
 					+ this);
 		}
 		return isStopped;
@@ -307,14 +521,16 @@ public class DefaultEmbeddedJettyServer implements EmbeddedJettyServer {
 	}
 
 	/**
-	 * Stop server, and return immediately
+	 * Stop server, and return once Jetty's stop returns, after draining active
+	 * requests if there's a drain timeout
 	 * 
 	 * @see com.redblackit.web.server.EmbeddedJettyServer#stop()
 	 */
 	@Override
 	public void stop() {
-		logger.info("Stopping server:" + this);
 		try {
+			drain();
+			logger.info("Stopping server:" + this);
 			getServer().stop();
 			logger.info("finished:" + this);
 		} catch (Throwable t) {
@@ -335,6 +551,265 @@ public class DefaultEmbeddedJettyServer implements EmbeddedJettyServer {
 		joinServer();
 	}
 
+	/**
+	 * Set the time to wait for active requests to complete, after we stop
+	 * accepting requests, when stopping the server. If <= 0 (the default),
+	 * the server is stopped straight away.
+	 * 
+	 * Set before starting the server, so that a StatisticsHandler is installed
+	 * to track active requests.
+	 * 
+	 * @see com.redblackit.web.server.EmbeddedJettyServer#setDrainTimeoutMilliseconds(int)
+	 */
+	@Override
+	public void setDrainTimeoutMilliseconds(int drainTimeoutMilliseconds) {
+		this.drainTimeoutMilliseconds = drainTimeoutMilliseconds;
+	}
+
+	/**
+	 * @see com.redblackit.web.server.EmbeddedJettyServer#getDrainTimeoutMilliseconds()
+	 */
+	@Override
+	public int getDrainTimeoutMilliseconds() {
+		return drainTimeoutMilliseconds;
+	}
+
+	/**
+	 * @see DefaultEmbeddedJettyServerMBean#getActiveRequests()
+	 */
+	@Override
+	public int getActiveRequests() {
+		final StatisticsHandler statisticsHandler = getStatisticsHandler();
+		return (statisticsHandler == null ? -1 : statisticsHandler.getRequestsActive());
+	}
+
+	/**
+	 * @see DefaultEmbeddedJettyServerMBean#getDrainedRequests()
+	 */
+	@Override
+	public int getDrainedRequests() {
+		return drainedRequests;
+	}
+
+	/**
+	 * @see DefaultEmbeddedJettyServerMBean#getAbortedRequests()
+	 */
+	@Override
+	public int getAbortedRequests() {
+		return abortedRequests;
+	}
+
+	/**
+	 * @see DefaultEmbeddedJettyServerMBean#isStarted()
+	 */
+	@Override
+	public boolean isStarted() {
+		return getServer().isStarted();
+	}
+
+	/**
+	 * @see DefaultEmbeddedJettyServerMBean#getContextInitMilliseconds()
+	 */
+	@Override
+	public long getContextInitMilliseconds() {
+		return contextInitMilliseconds;
+	}
+
+	/**
+	 * @see DefaultEmbeddedJettyServerMBean#getConnectorOpenMilliseconds()
+	 */
+	@Override
+	public long getConnectorOpenMilliseconds() {
+		return connectorOpenMilliseconds;
+	}
+
+	/**
+	 * @see DefaultEmbeddedJettyServerMBean#getReadyMilliseconds()
+	 */
+	@Override
+	public long getReadyMilliseconds() {
+		return readyMilliseconds;
+	}
+
+	/**
+	 * @see DefaultEmbeddedJettyServerMBean#getStopMilliseconds()
+	 */
+	@Override
+	public long getStopMilliseconds() {
+		return stopMilliseconds;
+	}
+
+	/**
+	 * @see DefaultEmbeddedJettyServerMBean#getStartupTimings()
+	 */
+	@Override
+	public String getStartupTimings() {
+		return "contextInit=" + contextInitMilliseconds + "ms:connectorOpen="
+				+ connectorOpenMilliseconds + "ms:ready=" + readyMilliseconds + "ms";
+	}
+
+	/**
+	 * Reset startup timings, and listen for the handler and connectors
+	 * starting, before the server is started
+	 */
+	private void prepareStart() {
+		contextInitMilliseconds = -1;
+		connectorOpenMilliseconds = -1;
+		readyMilliseconds = -1;
+		startIssuedNanos = System.nanoTime();
+
+		if (drainTimeoutMilliseconds > 0 && getStatisticsHandler() == null) {
+			StatisticsHandler statisticsHandler = new StatisticsHandler();
+			statisticsHandler.setHandler(getServer().getHandler());
+			getServer().setHandler(statisticsHandler);
+		}
+		setGracefulShutdown(false);
+
+		addTimingListener(getServer());
+		if (getServer().getHandler() != null) {
+			addTimingListener(getServer().getHandler());
+		}
+		if (getServer().getConnectors() != null) {
+			for (Connector connector : getServer().getConnectors()) {
+				addTimingListener(connector);
+			}
+		}
+	}
+
+	/**
+	 * @return the StatisticsHandler in the server's handlers, or null
+	 */
+	private StatisticsHandler getStatisticsHandler() {
+		return (StatisticsHandler) getServer().getChildHandlerByClass(StatisticsHandler.class);
+	}
+
+	/**
+	 * If there's a drain timeout and the server is started, stop accepting
+	 * connections, refuse requests on open connections, and wait up to the
+	 * drain timeout for active requests to complete. Requests still active
+	 * (including suspended async requests) are aborted when the server stops.
+	 * 
+	 * The StatisticsHandler gives no notice of requests completing, so we poll
+	 * it, at short intervals.
+	 * 
+	 * @throws Exception
+	 */
+	private void drain() throws Exception {
+		if (drainTimeoutMilliseconds <= 0 || !getServer().isStarted()) {
+			return;
+		}
+
+		final StatisticsHandler statisticsHandler = getStatisticsHandler();
+		if (statisticsHandler == null) {
+			logger.warn("No StatisticsHandler, so cannot drain requests (set drainTimeoutMilliseconds before start):" + this);
+			return;
+		}
+
+		final long startNanos = System.nanoTime();
+		logger.info("Draining server:drainTimeoutMilliseconds=" + drainTimeoutMilliseconds + ":" + this);
+		for (Connector connector : getServer().getConnectors()) {
+			connector.close();
+		}
+
+		setGracefulShutdown(true);
+
+		final int activeRequests = statisticsHandler.getRequestsActive();
+		while (statisticsHandler.getRequestsActive() > 0
+				&& elapsedMillis(startNanos) < drainTimeoutMilliseconds) {
+			Thread.sleep(DRAIN_POLL_MILLISECONDS);
+		}
+
+		abortedRequests = statisticsHandler.getRequestsActive();
+		drainedRequests = Math.max(0, activeRequests - abortedRequests);
+		final String msg = "Drained " + drainedRequests + " requests, aborting " + abortedRequests + " after "
+				+ elapsedMillis(startNanos) + " ms:" + this;
+		if (abortedRequests > 0) {
+			logger.warn(msg);
+		} else {
+			logger.info(msg);
+		}
+	}
+
+	/**
+	 * Set or clear shutdown on handlers supporting it (e.g. contexts), which
+	 * then refuse new requests with 503 Service Unavailable. Shutdown is
+	 * cleared before a restart.
+	 * 
+	 * @param shutdown
+	 */
+	private void setGracefulShutdown(boolean shutdown) {
+		Handler[] gracefulHandlers = getServer().getChildHandlersByClass(Server.Graceful.class);
+		if (gracefulHandlers != null) {
+			for (Handler handler : gracefulHandlers) {
+				((Server.Graceful) handler).setShutdown(shutdown);
+			}
+		}
+	}
+
+	/**
+	 * Add our timing listener, once only
+	 * 
+	 * @param lifeCycle
+	 */
+	private void addTimingListener(LifeCycle lifeCycle) {
+		lifeCycle.removeLifeCycleListener(timingListener);
+		lifeCycle.addLifeCycleListener(timingListener);
+	}
+
+	/**
+	 * Run a lifecycle action on its own thread, so we may stop waiting for it
+	 * after a timeout. Any failure is passed to the latch, in case it is not
+	 * reported as a lifecycle failure.
+	 * 
+	 * @param action
+	 * @param latch
+	 * @param callable
+	 */
+	private void runLifeCycleThread(String action, final LifeCycleLatch latch,
+			final Callable<Void> callable) {
+		Thread thread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					callable.call();
+				} catch (Throwable t) {
+					latch.failed(t);
+				}
+			}
+		}, "EmbeddedJettyServer-" + action);
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * Get the local port if the connector is open, otherwise its configured
+	 * port
+	 * 
+	 * We've suppressed deprecation warnings given that getPort etc have been
+	 * deprecated without corresponding update to Javadoc.
+	 * 
+	 * @param connector
+	 *            may be null
+	 * @return port, or NO_PORT for null connector
+	 */
+	@SuppressWarnings("deprecation")
+	private static int getPort(Connector connector) {
+		if (connector == null) {
+			return NO_PORT;
+		}
+
+		final int localPort = connector.getLocalPort();
+		return (localPort > 0 ? localPort : connector.getPort());
+	}
+
+	/**
+	 * @param startNanos
+	 * @return milliseconds since startNanos
+	 */
+	private static long elapsedMillis(long startNanos) {
+		return TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+	}
+
 	/**
 	 * toString
 	 */
@@ -342,10 +817,71 @@ public class DefaultEmbeddedJettyServer implements EmbeddedJettyServer {
 		StringBuffer tos = new StringBuffer(super.toString());
 
 		tos.append(":server=" + server);
+		if (server != null && server.getConnectors() != null) {
+			tos.append(":httpPort=" + getHttpPort());
+			tos.append(":httpsPort=" + getHttpsPort());
+		}
+		tos.append(":startupTimings=" + getStartupTimings());
 
 		return tos.toString();
 	}
 
+	/**
+	 * Create the thread pool, applying the configured settings over the Jetty
+	 * defaults
+	 * 
+	 * @param config
+	 * @return thread pool
+	 */
+	protected QueuedThreadPool createThreadPool(EmbeddedJettyServerConfig config) {
+		QueuedThreadPool threadPool = new QueuedThreadPool();
+		if (config.getMaxThreads() > 0) {
+			threadPool.setMaxThreads(config.getMaxThreads());
+		}
+		if (config.getMinThreads() > 0) {
+			threadPool.setMinThreads(config.getMinThreads());
+		}
+		if (config.getThreadMaxIdleTimeMilliseconds() > 0) {
+			threadPool.setMaxIdleTimeMs(config.getThreadMaxIdleTimeMilliseconds());
+		}
+		threadPool.setMaxQueued(config.getMaxQueued());
+		return threadPool;
+	}
+
+	/**
+	 * Apply the configured connector settings over the Jetty defaults
+	 * 
+	 * @param connector
+	 * @param config
+	 */
+	protected void configureConnector(SelectChannelConnector connector,
+			EmbeddedJettyServerConfig config) {
+		if (config.getAcceptors() > 0) {
+			connector.setAcceptors(config.getAcceptors());
+		}
+		if (config.getAcceptQueueSize() > 0) {
+			connector.setAcceptQueueSize(config.getAcceptQueueSize());
+		}
+		if (config.getMaxIdleTimeMilliseconds() > 0) {
+			connector.setMaxIdleTime(config.getMaxIdleTimeMilliseconds());
+		}
+		if (config.getLowResourcesMaxIdleTimeMilliseconds() > 0) {
+			connector.setLowResourcesMaxIdleTime(config.getLowResourcesMaxIdleTimeMilliseconds());
+		}
+		if (config.getRequestHeaderSize() > 0) {
+			connector.setRequestHeaderSize(config.getRequestHeaderSize());
+		}
+		if (config.getRequestBufferSize() > 0) {
+			connector.setRequestBufferSize(config.getRequestBufferSize());
+		}
+		if (config.getResponseHeaderSize() > 0) {
+			connector.setResponseHeaderSize(config.getResponseHeaderSize());
+		}
+		if (config.getResponseBufferSize() > 0) {
+			connector.setResponseBufferSize(config.getResponseBufferSize());
+		}
+	}
+
 	/**
 	 * @param server
 	 *            the server to set
@@ -354,4 +890,62 @@ public class DefaultEmbeddedJettyServer implements EmbeddedJettyServer {
 		this.server = server;
 	}
 
+	/**
+	 * Listener counting down when the server reaches the started or stopped
+	 * state, or fails
+	 */
+	private static class LifeCycleLatch extends AbstractLifeCycle.AbstractLifeCycleListener {
+
+		/**
+		 * True to wait for started, false for stopped
+		 */
+		private final boolean waitForStarted;
+
+		private final CountDownLatch latch = new CountDownLatch(1);
+
+		private volatile Throwable failure;
+
+		LifeCycleLatch(boolean waitForStarted) {
+			this.waitForStarted = waitForStarted;
+		}
+
+		@Override
+		public void lifeCycleStarted(LifeCycle event) {
+			if (waitForStarted) {
+				done();
+			}
+		}
+
+		@Override
+		public void lifeCycleStopped(LifeCycle event) {
+			if (!waitForStarted) {
+				done();
+			}
+		}
+
+		@Override
+		public void lifeCycleFailure(LifeCycle event, Throwable cause) {
+			failed(cause);
+		}
+
+		void failed(Throwable cause) {
+			if (failure == null) {
+				failure = cause;
+			}
+			done();
+		}
+
+		void done() {
+			latch.countDown();
+		}
+
+		boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+			return latch.await(timeout, unit);
+		}
+
+		Throwable getFailure() {
+			return failure;
+		}
+	}
+
 }
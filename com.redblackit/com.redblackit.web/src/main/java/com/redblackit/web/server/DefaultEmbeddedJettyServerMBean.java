@@ -0,0 +1,97 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.web.server;
+
+/**
+ * @author djnorth
+ * 
+ *         JMX management interface for DefaultEmbeddedJettyServer, reporting
+ *         the time taken by each phase of the last start, measured from when
+ *         the start was issued, and by the last stop. Timings are -1 until
+ *         known.
+ */
+public interface DefaultEmbeddedJettyServerMBean {
+
+	/**
+	 * @return true if the server is started
+	 */
+	boolean isStarted();
+
+	/**
+	 * @return http port bound, or configured if not started, or -1 if none
+	 */
+	int getHttpPort();
+
+	/**
+	 * @return https port bound, or configured if not started, or -1 if none
+	 */
+	int getHttpsPort();
+
+	/**
+	 * @return milliseconds until the handler (and so the contexts) started
+	 */
+	long getContextInitMilliseconds();
+
+	/**
+	 * @return milliseconds until the last connector was open
+	 */
+	long getConnectorOpenMilliseconds();
+
+	/**
+	 * @return milliseconds until the server was ready for its first request
+	 */
+	long getReadyMilliseconds();
+
+	/**
+	 * @return milliseconds taken by the last stopWait
+	 */
+	long getStopMilliseconds();
+
+	/**
+	 * @return startup phase timings as one string, as logged
+	 */
+	String getStartupTimings();
+
+	/**
+	 * @return time to wait for active requests to complete when stopping
+	 */
+	int getDrainTimeoutMilliseconds();
+
+	/**
+	 * @param drainTimeoutMilliseconds
+	 *            time to wait for active requests to complete when stopping,
+	 *            or <= 0 to stop straight away
+	 */
+	void setDrainTimeoutMilliseconds(int drainTimeoutMilliseconds);
+
+	/**
+	 * @return requests active now, or -1 if not tracked
+	 */
+	int getActiveRequests();
+
+	/**
+	 * @return requests completed while draining in the last stop, or -1
+	 */
+	int getDrainedRequests();
+
+	/**
+	 * @return requests still active when the last drain timed out, and so
+	 *         aborted, or -1
+	 */
+	int getAbortedRequests();
+
+}
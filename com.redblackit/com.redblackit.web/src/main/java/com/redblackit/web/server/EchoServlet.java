@@ -17,15 +17,25 @@
 package com.redblackit.web.server;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.Enumeration;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 
 import org.apache.log4j.Logger;
-import org.springframework.util.FileCopyUtils;
 
 /**
  * @author djnorth
@@ -33,9 +43,54 @@ import org.springframework.util.FileCopyUtils;
  *         Simple servlet that echos the request back to the client, with
  *         requested URL in the Location header, and status code 200. This can
  *         serve as a test servlet, or a keep-alive/ping for the client to use.
+ * 
+ *         The body is streamed back byte for byte, so binary content is safe,
+ *         through a buffer taken from a small shared pool, with Content-Length
+ *         set before any content is written (or chunked, if the request was).
+ *         As the response is written while the request is read, a client
+ *         sending a body larger than the socket buffers must read the response
+ *         as it sends.
+ * 
+ *         Optionally (init parameter or property asyncThreshold), bodies
+ *         larger than a threshold are echoed asynchronously, by a bounded pool
+ *         of copying threads, freeing the container's request thread. This
+ *         requires the servlet to be registered with async support. Servlet
+ *         3.0 has no non-blocking I/O, so a copying thread is still blocked by
+ *         a slow client; if all are busy, the request thread does the copy.
  */
 public class EchoServlet extends HttpServlet {
 
+	/**
+	 * Size of each buffer
+	 */
+	public static final int BUFFER_SIZE = 16 * 1024;
+
+	/**
+	 * Maximum buffers kept in the pool
+	 */
+	public static final int MAX_POOLED_BUFFERS = 64;
+
+	/**
+	 * Default maximum threads copying asynchronously
+	 */
+	public static final int DEFAULT_ASYNC_THREADS = 4;
+
+	/**
+	 * Async timeout, allowing for multi-megabyte bodies over slow links
+	 */
+	public static final long ASYNC_TIMEOUT_MILLISECONDS = 5 * 60 * 1000;
+
+	/**
+	 * Value of asyncThreshold disabling async echo
+	 */
+	public static final long ASYNC_DISABLED = -1;
+
+	/**
+	 * Pool of buffers, shared by all echo servlets
+	 */
+	private static final BlockingQueue<byte[]> bufferPool = new ArrayBlockingQueue<byte[]>(
+			MAX_POOLED_BUFFERS);
+
 	private Logger logger = Logger.getLogger("web.server");
 
 	/**
@@ -43,6 +98,96 @@ public class EchoServlet extends HttpServlet {
 	 */
 	private static final long serialVersionUID = 1L;
 
+	/**
+	 * Content length above which we echo asynchronously, or ASYNC_DISABLED
+	 */
+	private long asyncThreshold = ASYNC_DISABLED;
+
+	/**
+	 * Maximum threads copying asynchronously
+	 */
+	private int asyncThreads = DEFAULT_ASYNC_THREADS;
+
+	/**
+	 * Executor for async copying, created on first use
+	 */
+	private transient ThreadPoolExecutor asyncExecutor;
+
+	/**
+	 * Set the content length above which the body is echoed asynchronously,
+	 * with chunked bodies treated as larger than any threshold (default
+	 * ASYNC_DISABLED)
+	 * 
+	 * @param asyncThreshold
+	 *            the asyncThreshold to set
+	 */
+	public void setAsyncThreshold(long asyncThreshold) {
+		this.asyncThreshold = asyncThreshold;
+	}
+
+	/**
+	 * @return the asyncThreshold
+	 */
+	public long getAsyncThreshold() {
+		return asyncThreshold;
+	}
+
+	/**
+	 * Set the maximum threads copying asynchronously (default
+	 * DEFAULT_ASYNC_THREADS)
+	 * 
+	 * @param asyncThreads
+	 *            the asyncThreads to set
+	 */
+	public void setAsyncThreads(int asyncThreads) {
+		this.asyncThreads = asyncThreads;
+	}
+
+	/**
+	 * @return the asyncThreads
+	 */
+	public int getAsyncThreads() {
+		return asyncThreads;
+	}
+
+	/**
+	 * Take asyncThreshold and asyncThreads from init parameters, if present
+	 * 
+	 * @see javax.servlet.GenericServlet#init()
+	 */
+	@Override
+	public void init() throws ServletException {
+		final String asyncThresholdParameter = getInitParameter("asyncThreshold");
+		final String asyncThreadsParameter = getInitParameter("asyncThreads");
+		try {
+			if (asyncThresholdParameter != null) {
+				setAsyncThreshold(Long.parseLong(asyncThresholdParameter.trim()));
+			}
+			if (asyncThreadsParameter != null) {
+				setAsyncThreads(Integer.parseInt(asyncThreadsParameter.trim()));
+			}
+		} catch (NumberFormatException nfe) {
+			throw new ServletException("invalid init parameter:asyncThreshold=" + asyncThresholdParameter
+					+ ":asyncThreads=" + asyncThreadsParameter, nfe);
+		}
+	}
+
+	/**
+	 * Stop any async copying threads
+	 * 
+	 * @see javax.servlet.GenericServlet#destroy()
+	 */
+	@Override
+	public void destroy() {
+		synchronized (this) {
+			if (asyncExecutor != null) {
+				asyncExecutor.shutdown();
+				asyncExecutor = null;
+			}
+		}
+		super.destroy();
+	}
+
 	/**
 	 * Use our common echo
 	 * 
@@ -119,10 +264,10 @@ public class EchoServlet extends HttpServlet {
 	 * doEcho
 	 * 
 	 * <ul>
-	 * <li>Log method, URL, headers, body</li>
+	 * <li>Log method, URL, headers, body length</li>
 	 * <li>Replicate request headers, except for setting location to received
-	 * URL</li>
-	 * <li>Replicate request body in response</li>
+	 * URL, and the body framing headers, which we set</li>
+	 * <li>Stream request body to response, with the same length</li>
 	 * </ul>
 	 * 
 	 * @param req
@@ -135,6 +280,7 @@ public class EchoServlet extends HttpServlet {
 		String reqURI = req.getRequestURI();
 		logger.debug(this.getClass().getName() + ":" + method + " - " + reqURI);
 
+		boolean isChunked = false;
 		for (Enumeration hdrse = req.getHeaderNames(); hdrse.hasMoreElements();) {
 			String headerName = (String) hdrse.nextElement();
 			int hnct = 0;
@@ -143,7 +289,9 @@ public class EchoServlet extends HttpServlet {
 				String headerValue = (String) hdre.nextElement();
 				logger.debug(this.getClass().getName() + ":  header["
 						+ headerName + "," + hnct + "]=" + headerValue);
-				if (!headerName.equals("Location")) {
+				if (headerName.equalsIgnoreCase("Transfer-Encoding")) {
+					isChunked = isChunked || headerValue.toLowerCase().contains("chunked");
+				} else if (!(headerName.equals("Location") || headerName.equalsIgnoreCase("Content-Length"))) {
 					resp.addHeader(headerName, headerValue);
 				}
 				hnct++;
@@ -160,13 +308,20 @@ public class EchoServlet extends HttpServlet {
 		resp.setHeader("Location", reqURI);
 		resp.setStatus(HttpServletResponse.SC_OK);
 
-		if (req.getContentLength() > 0 && !(method.equals("HEAD") || method.equals("DELETE"))) {
-			String body = FileCopyUtils.copyToString(req.getReader());
-			logger.debug(this.getClass().getName() + ":  body>>\n" + body
-					+ "\nbody<<");
-			FileCopyUtils.copy(body, resp.getWriter());
-			resp.flushBuffer();
-			resp.setContentLength(req.getContentLength());
+		final int contentLength = req.getContentLength();
+		if ((contentLength > 0 || (contentLength < 0 && isChunked))
+				&& !(method.equals("HEAD") || method.equals("DELETE"))) {
+			if (contentLength >= 0) {
+				resp.setContentLength(contentLength);
+			}
+
+			if (asyncThreshold != ASYNC_DISABLED
+					&& (contentLength < 0 || contentLength > asyncThreshold)
+					&& req.isAsyncSupported()) {
+				echoAsync(req, contentLength);
+			} else {
+				echoBody(req, resp, contentLength);
+			}
 		}
 		else
 		{
@@ -175,4 +330,111 @@ public class EchoServlet extends HttpServlet {
 		}
 
 	}
+
+	/**
+	 * Start async processing, and hand the copy to a copying thread, or do it
+	 * on this thread if they are all busy
+	 * 
+	 * @param req
+	 * @param contentLength
+	 */
+	private void echoAsync(HttpServletRequest req, final int contentLength) {
+		final AsyncContext asyncContext = req.startAsync();
+		asyncContext.setTimeout(ASYNC_TIMEOUT_MILLISECONDS);
+		Runnable copy = new Runnable() {
+			@Override
+			public void run() {
+				try {
+					echoBody((HttpServletRequest) asyncContext.getRequest(),
+							(HttpServletResponse) asyncContext.getResponse(),
+							contentLength);
+				} catch (IOException ioe) {
+					logger.warn(EchoServlet.this.getClass().getName()
+							+ ":  async echo failed:contentLength=" + contentLength, ioe);
+				} finally {
+					asyncContext.complete();
+				}
+			}
+		};
+
+		try {
+			getAsyncExecutor().execute(copy);
+		} catch (RejectedExecutionException ree) {
+			logger.debug(this.getClass().getName() + ":  async threads busy, copying on request thread");
+			copy.run();
+		}
+	}
+
+	/**
+	 * Stream body from request to response through a pooled buffer
+	 * 
+	 * @param req
+	 * @param resp
+	 * @param contentLength
+	 *            or -1 if chunked
+	 * @throws IOException
+	 */
+	private void echoBody(HttpServletRequest req, HttpServletResponse resp,
+			int contentLength) throws IOException {
+		final InputStream in = req.getInputStream();
+		final OutputStream out = resp.getOutputStream();
+		final byte[] buffer = takeBuffer();
+		long copied = 0;
+		try {
+			int read;
+			while ((read = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, read);
+				copied += read;
+			}
+		} finally {
+			returnBuffer(buffer);
+		}
+		resp.flushBuffer();
+
+		logger.debug(this.getClass().getName() + ":  body echoed:contentLength="
+				+ contentLength + ":copied=" + copied);
+		if (contentLength >= 0 && copied != contentLength) {
+			logger.warn(this.getClass().getName() + ":  body length mismatch:contentLength="
+					+ contentLength + ":copied=" + copied);
+		}
+	}
+
+	/**
+	 * @return executor for async copying, created if need be
+	 */
+	private synchronized ThreadPoolExecutor getAsyncExecutor() {
+		if (asyncExecutor == null) {
+			final AtomicInteger threadCount = new AtomicInteger();
+			asyncExecutor = new ThreadPoolExecutor(0, Math.max(1, asyncThreads),
+					60, TimeUnit.SECONDS, new SynchronousQueue<Runnable>(),
+					new ThreadFactory() {
+						@Override
+						public Thread newThread(Runnable runnable) {
+							Thread thread = new Thread(runnable, "EchoServlet-async-"
+									+ threadCount.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					});
+		}
+
+		return asyncExecutor;
+	}
+
+	/**
+	 * @return buffer from the pool, or a new one if it's empty
+	 */
+	private static byte[] takeBuffer() {
+		final byte[] buffer = bufferPool.poll();
+		return (buffer == null ? new byte[BUFFER_SIZE] : buffer);
+	}
+
+	/**
+	 * Return buffer to the pool, unless it's full
+	 * 
+	 * @param buffer
+	 */
+	private static void returnBuffer(byte[] buffer) {
+		bufferPool.offer(buffer);
+	}
 }
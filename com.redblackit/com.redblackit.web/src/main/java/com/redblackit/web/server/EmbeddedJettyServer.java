@@ -16,6 +16,8 @@
 
 package com.redblackit.web.server;
 
+import java.util.concurrent.TimeUnit;
+
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Server;
 import org.eclipse.jetty.server.ssl.SslConnector;
@@ -32,6 +34,17 @@ public interface EmbeddedJettyServer {
 	 */
 	public static final int DEFAULT_SERVER_TIMEOUT_SECS = 120 ;
 
+	/**
+	 * Port value for no connector
+	 */
+	public static final int NO_PORT = -1;
+
+	/**
+	 * Port value to bind a connector to a free port chosen when the server
+	 * starts
+	 */
+	public static final int EPHEMERAL_PORT = 0;
+
 	/**
 	 * @return the server
 	 */
@@ -50,6 +63,22 @@ public interface EmbeddedJettyServer {
 	 * @return SSL connector
 	 */
 	SslConnector getHttpsConnector();
+
+	/**
+	 * Get the port the (first) httpConnector is bound to. This is only known
+	 * for an EPHEMERAL_PORT once the server is started.
+	 * 
+	 * @return port, or NO_PORT if there's no httpConnector
+	 */
+	int getHttpPort();
+
+	/**
+	 * Get the port the (first) httpsConnector is bound to. This is only known
+	 * for an EPHEMERAL_PORT once the server is started.
+	 * 
+	 * @return port, or NO_PORT if there's no httpsConnector
+	 */
+	int getHttpsPort();
 	
 	/**
 	 * Start server and wait timeout seconds for it to be started
@@ -59,6 +88,16 @@ public interface EmbeddedJettyServer {
 	 */
 	boolean startWait(int timeoutSecs);
 	
+	/**
+	 * Start server and wait timeout for it to be started, returning as soon
+	 * as it has started
+	 * 
+	 * @param timeout
+	 * @param unit
+	 * @return true if started
+	 */
+	boolean startWait(long timeout, TimeUnit unit);
+	
 	/**
 	 * Start server and wait default timeout (2 mins) for it to be started.
 	 * 
@@ -84,6 +123,16 @@ public interface EmbeddedJettyServer {
 	 */
 	boolean stopWait(int timeoutSecs);
 	
+	/**
+	 * Stop server and wait timeout for it to be stopped, returning as soon as
+	 * it has stopped
+	 * 
+	 * @param timeout
+	 * @param unit
+	 * @return true if stopped
+	 */
+	boolean stopWait(long timeout, TimeUnit unit);
+	
 	/**
 	 * Stop server and wait default timeout (2 mins) for it to be stopped.
 	 * 
@@ -91,6 +140,20 @@ public interface EmbeddedJettyServer {
 	 */
 	boolean stopWait();
 	
+	/**
+	 * Set the time to wait for active requests to complete, after new
+	 * requests are refused, when stopping the server
+	 * 
+	 * @param drainTimeoutMilliseconds
+	 *            or <= 0 to stop straight away
+	 */
+	void setDrainTimeoutMilliseconds(int drainTimeoutMilliseconds);
+
+	/**
+	 * @return time to wait for active requests to complete when stopping
+	 */
+	int getDrainTimeoutMilliseconds();
+	
 	/**
 	 * Stop server, and return immediately
 	 */
@@ -0,0 +1,521 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.web.server;
+
+/**
+ * @author djnorth
+ * 
+ *         Configuration for DefaultEmbeddedJettyServer, holding the ports and
+ *         key/trust-store information taken by its constructors, and the
+ *         thread pool and connector settings needed to tune the server for a
+ *         deployment. Each tuning setting left at its default leaves the Jetty
+ *         default in place.
+ * 
+ *         Note that in Jetty 8, a SelectChannelConnector runs one selector
+ *         thread for each acceptor, so acceptors also sets the number of
+ *         selectors, and each acceptor takes a thread from the pool.
+ */
+public class EmbeddedJettyServerConfig {
+
+	/**
+	 * Value for tuning settings meaning use the Jetty default
+	 */
+	public static final int JETTY_DEFAULT = 0;
+
+	/**
+	 * Value for maxQueued meaning the thread pool job queue is unbounded
+	 */
+	public static final int UNBOUNDED_QUEUE = -1;
+
+	/**
+	 * Http port, 0 for ephemeral, or < 0 for none
+	 */
+	private int httpPort = EmbeddedJettyServer.NO_PORT;
+
+	/**
+	 * Https port, 0 for ephemeral, or < 0 for none
+	 */
+	private int httpsPort = EmbeddedJettyServer.NO_PORT;
+
+	/**
+	 * KeyStore
+	 */
+	private String keyStore;
+
+	/**
+	 * KeyStore password
+	 */
+	private String keyStorePassword;
+
+	/**
+	 * TrustStore
+	 */
+	private String trustStore;
+
+	/**
+	 * TrustStore password
+	 */
+	private String trustStorePassword;
+
+	/**
+	 * Minimum threads in pool
+	 */
+	private int minThreads = JETTY_DEFAULT;
+
+	/**
+	 * Maximum threads in pool
+	 */
+	private int maxThreads = JETTY_DEFAULT;
+
+	/**
+	 * Maximum jobs queued waiting for a thread
+	 */
+	private int maxQueued = UNBOUNDED_QUEUE;
+
+	/**
+	 * Idle time before surplus pool threads exit
+	 */
+	private int threadMaxIdleTimeMilliseconds = JETTY_DEFAULT;
+
+	/**
+	 * Acceptors (and so selectors) for each connector
+	 */
+	private int acceptors = JETTY_DEFAULT;
+
+	/**
+	 * Accept queue size (listen backlog) for each connector
+	 */
+	private int acceptQueueSize = JETTY_DEFAULT;
+
+	/**
+	 * Connection idle time
+	 */
+	private int maxIdleTimeMilliseconds = JETTY_DEFAULT;
+
+	/**
+	 * Connection idle time when low on threads
+	 */
+	private int lowResourcesMaxIdleTimeMilliseconds = JETTY_DEFAULT;
+
+	/**
+	 * Request header buffer size
+	 */
+	private int requestHeaderSize = JETTY_DEFAULT;
+
+	/**
+	 * Request body buffer size
+	 */
+	private int requestBufferSize = JETTY_DEFAULT;
+
+	/**
+	 * Response header buffer size
+	 */
+	private int responseHeaderSize = JETTY_DEFAULT;
+
+	/**
+	 * Response body buffer size
+	 */
+	private int responseBufferSize = JETTY_DEFAULT;
+
+	/**
+	 * Time to wait for active requests to complete when stopping
+	 */
+	private int drainTimeoutMilliseconds = 0;
+
+	/**
+	 * Default constructor, for use as a bean
+	 */
+	public EmbeddedJettyServerConfig() {
+	}
+
+	/**
+	 * Constructor taking the ports and key- and trust-store info, as for
+	 * DefaultEmbeddedJettyServer
+	 * 
+	 * @param httpPort
+	 * @param httpsPort
+	 * @param keyStore
+	 * @param keyStorePassword
+	 * @param trustStore
+	 * @param trustStorePassword
+	 */
+	public EmbeddedJettyServerConfig(int httpPort, int httpsPort,
+			String keyStore, String keyStorePassword, String trustStore,
+			String trustStorePassword) {
+		this.httpPort = httpPort;
+		this.httpsPort = httpsPort;
+		this.keyStore = keyStore;
+		this.keyStorePassword = keyStorePassword;
+		this.trustStore = trustStore;
+		this.trustStorePassword = trustStorePassword;
+	}
+
+	/**
+	 * @param httpPort
+	 *            the httpPort to set, EmbeddedJettyServer.EPHEMERAL_PORT for
+	 *            a free port chosen on start, or EmbeddedJettyServer.NO_PORT
+	 *            (default) for no http connector
+	 */
+	public void setHttpPort(int httpPort) {
+		this.httpPort = httpPort;
+	}
+
+	/**
+	 * @return the httpPort
+	 */
+	public int getHttpPort() {
+		return httpPort;
+	}
+
+	/**
+	 * @param httpsPort
+	 *            the httpsPort to set, EmbeddedJettyServer.EPHEMERAL_PORT for
+	 *            a free port chosen on start, or EmbeddedJettyServer.NO_PORT
+	 *            (default) for no https connector
+	 */
+	public void setHttpsPort(int httpsPort) {
+		this.httpsPort = httpsPort;
+	}
+
+	/**
+	 * @return the httpsPort
+	 */
+	public int getHttpsPort() {
+		return httpsPort;
+	}
+
+	/**
+	 * @param keyStore
+	 *            the keyStore to set
+	 */
+	public void setKeyStore(String keyStore) {
+		this.keyStore = keyStore;
+	}
+
+	/**
+	 * @return the keyStore
+	 */
+	public String getKeyStore() {
+		return keyStore;
+	}
+
+	/**
+	 * @param keyStorePassword
+	 *            the keyStorePassword to set
+	 */
+	public void setKeyStorePassword(String keyStorePassword) {
+		this.keyStorePassword = keyStorePassword;
+	}
+
+	/**
+	 * @return the keyStorePassword
+	 */
+	public String getKeyStorePassword() {
+		return keyStorePassword;
+	}
+
+	/**
+	 * @param trustStore
+	 *            the trustStore to set
+	 */
+	public void setTrustStore(String trustStore) {
+		this.trustStore = trustStore;
+	}
+
+	/**
+	 * @return the trustStore
+	 */
+	public String getTrustStore() {
+		return trustStore;
+	}
+
+	/**
+	 * @param trustStorePassword
+	 *            the trustStorePassword to set
+	 */
+	public void setTrustStorePassword(String trustStorePassword) {
+		this.trustStorePassword = trustStorePassword;
+	}
+
+	/**
+	 * @return the trustStorePassword
+	 */
+	public String getTrustStorePassword() {
+		return trustStorePassword;
+	}
+
+	/**
+	 * Set the minimum threads kept in the pool (Jetty default 8)
+	 * 
+	 * @param minThreads
+	 *            the minThreads to set
+	 */
+	public void setMinThreads(int minThreads) {
+		this.minThreads = minThreads;
+	}
+
+	/**
+	 * @return the minThreads
+	 */
+	public int getMinThreads() {
+		return minThreads;
+	}
+
+	/**
+	 * Set the maximum threads in the pool (Jetty default 254). This limits
+	 * the number of requests handled at once, less the acceptor threads.
+	 * 
+	 * @param maxThreads
+	 *            the maxThreads to set
+	 */
+	public void setMaxThreads(int maxThreads) {
+		this.maxThreads = maxThreads;
+	}
+
+	/**
+	 * @return the maxThreads
+	 */
+	public int getMaxThreads() {
+		return maxThreads;
+	}
+
+	/**
+	 * Set the maximum jobs queued waiting for a pool thread, beyond which
+	 * Jetty rejects new connections (default UNBOUNDED_QUEUE)
+	 * 
+	 * @param maxQueued
+	 *            the maxQueued to set
+	 */
+	public void setMaxQueued(int maxQueued) {
+		this.maxQueued = maxQueued;
+	}
+
+	/**
+	 * @return the maxQueued
+	 */
+	public int getMaxQueued() {
+		return maxQueued;
+	}
+
+	/**
+	 * Set the time for which threads above minThreads may be idle before
+	 * exiting (Jetty default 60s)
+	 * 
+	 * @param threadMaxIdleTimeMilliseconds
+	 *            the threadMaxIdleTimeMilliseconds to set
+	 */
+	public void setThreadMaxIdleTimeMilliseconds(
+			int threadMaxIdleTimeMilliseconds) {
+		this.threadMaxIdleTimeMilliseconds = threadMaxIdleTimeMilliseconds;
+	}
+
+	/**
+	 * @return the threadMaxIdleTimeMilliseconds
+	 */
+	public int getThreadMaxIdleTimeMilliseconds() {
+		return threadMaxIdleTimeMilliseconds;
+	}
+
+	/**
+	 * Set the acceptors for each connector, each of which also runs a
+	 * selector (Jetty default is a quarter of the available processors,
+	 * rounded up)
+	 * 
+	 * @param acceptors
+	 *            the acceptors to set
+	 */
+	public void setAcceptors(int acceptors) {
+		this.acceptors = acceptors;
+	}
+
+	/**
+	 * @return the acceptors
+	 */
+	public int getAcceptors() {
+		return acceptors;
+	}
+
+	/**
+	 * Set the accept queue size, or listen backlog, for each connector (Jetty
+	 * default is the operating system's default)
+	 * 
+	 * @param acceptQueueSize
+	 *            the acceptQueueSize to set
+	 */
+	public void setAcceptQueueSize(int acceptQueueSize) {
+		this.acceptQueueSize = acceptQueueSize;
+	}
+
+	/**
+	 * @return the acceptQueueSize
+	 */
+	public int getAcceptQueueSize() {
+		return acceptQueueSize;
+	}
+
+	/**
+	 * Set the time for which a connection may be idle before it is closed
+	 * (Jetty default 200s)
+	 * 
+	 * @param maxIdleTimeMilliseconds
+	 *            the maxIdleTimeMilliseconds to set
+	 */
+	public void setMaxIdleTimeMilliseconds(int maxIdleTimeMilliseconds) {
+		this.maxIdleTimeMilliseconds = maxIdleTimeMilliseconds;
+	}
+
+	/**
+	 * @return the maxIdleTimeMilliseconds
+	 */
+	public int getMaxIdleTimeMilliseconds() {
+		return maxIdleTimeMilliseconds;
+	}
+
+	/**
+	 * Set the time for which a connection may be idle before it is closed,
+	 * when the pool is low on threads (Jetty default maxIdleTime)
+	 * 
+	 * @param lowResourcesMaxIdleTimeMilliseconds
+	 *            the lowResourcesMaxIdleTimeMilliseconds to set
+	 */
+	public void setLowResourcesMaxIdleTimeMilliseconds(
+			int lowResourcesMaxIdleTimeMilliseconds) {
+		this.lowResourcesMaxIdleTimeMilliseconds = lowResourcesMaxIdleTimeMilliseconds;
+	}
+
+	/**
+	 * @return the lowResourcesMaxIdleTimeMilliseconds
+	 */
+	public int getLowResourcesMaxIdleTimeMilliseconds() {
+		return lowResourcesMaxIdleTimeMilliseconds;
+	}
+
+	/**
+	 * Set the request header buffer size, limiting the size of the request
+	 * line and headers (Jetty default 6KB)
+	 * 
+	 * @param requestHeaderSize
+	 *            the requestHeaderSize to set
+	 */
+	public void setRequestHeaderSize(int requestHeaderSize) {
+		this.requestHeaderSize = requestHeaderSize;
+	}
+
+	/**
+	 * @return the requestHeaderSize
+	 */
+	public int getRequestHeaderSize() {
+		return requestHeaderSize;
+	}
+
+	/**
+	 * Set the request body buffer size (Jetty default 16KB)
+	 * 
+	 * @param requestBufferSize
+	 *            the requestBufferSize to set
+	 */
+	public void setRequestBufferSize(int requestBufferSize) {
+		this.requestBufferSize = requestBufferSize;
+	}
+
+	/**
+	 * @return the requestBufferSize
+	 */
+	public int getRequestBufferSize() {
+		return requestBufferSize;
+	}
+
+	/**
+	 * Set the response header buffer size (Jetty default 6KB)
+	 * 
+	 * @param responseHeaderSize
+	 *            the responseHeaderSize to set
+	 */
+	public void setResponseHeaderSize(int responseHeaderSize) {
+		this.responseHeaderSize = responseHeaderSize;
+	}
+
+	/**
+	 * @return the responseHeaderSize
+	 */
+	public int getResponseHeaderSize() {
+		return responseHeaderSize;
+	}
+
+	/**
+	 * Set the response body buffer size, beyond which a response is committed
+	 * (Jetty default 32KB)
+	 * 
+	 * @param responseBufferSize
+	 *            the responseBufferSize to set
+	 */
+	public void setResponseBufferSize(int responseBufferSize) {
+		this.responseBufferSize = responseBufferSize;
+	}
+
+	/**
+	 * @return the responseBufferSize
+	 */
+	public int getResponseBufferSize() {
+		return responseBufferSize;
+	}
+
+	/**
+	 * Set the time to wait for active requests to complete, after new
+	 * requests are refused, when stopping the server (default 0, stopping
+	 * straight away)
+	 * 
+	 * @param drainTimeoutMilliseconds
+	 *            the drainTimeoutMilliseconds to set
+	 */
+	public void setDrainTimeoutMilliseconds(int drainTimeoutMilliseconds) {
+		this.drainTimeoutMilliseconds = drainTimeoutMilliseconds;
+	}
+
+	/**
+	 * @return the drainTimeoutMilliseconds
+	 */
+	public int getDrainTimeoutMilliseconds() {
+		return drainTimeoutMilliseconds;
+	}
+
+	/**
+	 * toString
+	 */
+	public String toString() {
+		StringBuffer tos = new StringBuffer(super.toString());
+		tos.append(":httpPort=").append(httpPort);
+		tos.append(":httpsPort=").append(httpsPort);
+		tos.append(":keyStore=").append(keyStore);
+		tos.append(":trustStore=").append(trustStore);
+		tos.append(":minThreads=").append(minThreads);
+		tos.append(":maxThreads=").append(maxThreads);
+		tos.append(":maxQueued=").append(maxQueued);
+		tos.append(":threadMaxIdleTimeMilliseconds=").append(threadMaxIdleTimeMilliseconds);
+		tos.append(":acceptors=").append(acceptors);
+		tos.append(":acceptQueueSize=").append(acceptQueueSize);
+		tos.append(":maxIdleTimeMilliseconds=").append(maxIdleTimeMilliseconds);
+		tos.append(":lowResourcesMaxIdleTimeMilliseconds=").append(lowResourcesMaxIdleTimeMilliseconds);
+		tos.append(":requestHeaderSize=").append(requestHeaderSize);
+		tos.append(":requestBufferSize=").append(requestBufferSize);
+		tos.append(":responseHeaderSize=").append(responseHeaderSize);
+		tos.append(":responseBufferSize=").append(responseBufferSize);
+		tos.append(":drainTimeoutMilliseconds=").append(drainTimeoutMilliseconds);
+		return tos.toString();
+	}
+
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.web.server;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.apache.log4j.Logger;
+import org.eclipse.jetty.server.Handler;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.beans.factory.InitializingBean;
+
+/**
+ * Factory creating an EmbeddedJettyServer from configured ports, key and
+ * trust store information, and thread pool and connector settings, so that
+ * the embedded server may be tuned for each deployment in Spring
+ * configuration.
+ * 
+ * Optionally, the factory sets the server's handler, starts the server once
+ * created, and stops it when the factory is destroyed. It may also register
+ * the server with the platform MBean server, so that its startup timings are
+ * available by JMX.
+ * 
+ * @author djnorth
+ */
+public class EmbeddedJettyServerFactoryBean extends EmbeddedJettyServerConfig
+		implements FactoryBean<EmbeddedJettyServer>, InitializingBean,
+		DisposableBean {
+
+	/**
+	 * Logger
+	 */
+	private Logger logger = Logger.getLogger("web.server");
+
+	/**
+	 * Handler for server, or null
+	 */
+	private Handler handler;
+
+	/**
+	 * Start server once created
+	 */
+	private boolean autoStart = false;
+
+	/**
+	 * JMX object name, or null
+	 */
+	private String objectName;
+
+	/**
+	 * Server we create
+	 */
+	private EmbeddedJettyServer embeddedJettyServer;
+
+	/**
+	 * Set the handler for the server (default none, leaving it to be set on
+	 * the server before it is started)
+	 * 
+	 * @param handler
+	 *            the handler to set
+	 */
+	public void setHandler(Handler handler) {
+		this.handler = handler;
+	}
+
+	/**
+	 * @return the handler
+	 */
+	public Handler getHandler() {
+		return handler;
+	}
+
+	/**
+	 * Set whether to start the server once created, waiting the default
+	 * timeout for it to start, and stop it when we are destroyed (default
+	 * false)
+	 * 
+	 * @param autoStart
+	 *            the autoStart to set
+	 */
+	public void setAutoStart(boolean autoStart) {
+		this.autoStart = autoStart;
+	}
+
+	/**
+	 * @return the autoStart
+	 */
+	public boolean isAutoStart() {
+		return autoStart;
+	}
+
+	/**
+	 * Set the JMX object name with which to register the server with the
+	 * platform MBean server (default none, so not registered)
+	 * 
+	 * @param objectName
+	 *            the objectName to set
+	 */
+	public void setObjectName(String objectName) {
+		this.objectName = objectName;
+	}
+
+	/**
+	 * @return the objectName
+	 */
+	public String getObjectName() {
+		return objectName;
+	}
+
+	/**
+	 * Create the server, register it and start it if required
+	 * 
+	 * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+	 */
+	@Override
+	public void afterPropertiesSet() throws Exception {
+		if (logger.isDebugEnabled()) {
+			logger.debug("afterPropertiesSet:E:this=" + this);
+		}
+
+		embeddedJettyServer = new DefaultEmbeddedJettyServer(this);
+		if (handler != null) {
+			embeddedJettyServer.getServer().setHandler(handler);
+		}
+
+		if (objectName != null) {
+			ManagementFactory.getPlatformMBeanServer().registerMBean(
+					embeddedJettyServer, new ObjectName(objectName));
+		}
+
+		if (autoStart && !embeddedJettyServer.startWait()) {
+			throw new IllegalStateException("server not started:" + this);
+		}
+
+		if (logger.isDebugEnabled()) {
+			logger.debug("afterPropertiesSet:R:this=" + this);
+		}
+	}
+
+	/**
+	 * Stop the server, if we started it, and unregister it
+	 * 
+	 * @see org.springframework.beans.factory.DisposableBean#destroy()
+	 */
+	@Override
+	public void destroy() throws Exception {
+		if (autoStart && embeddedJettyServer != null) {
+			embeddedJettyServer.stopWait();
+		}
+
+		if (objectName != null) {
+			MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+			ObjectName name = new ObjectName(objectName);
+			if (mbeanServer.isRegistered(name)) {
+				mbeanServer.unregisterMBean(name);
+			}
+		}
+	}
+
+	/**
+	 * Return the server created from the properties set
+	 * 
+	 * @see org.springframework.beans.factory.FactoryBean#getObject()
+	 */
+	@Override
+	public EmbeddedJettyServer getObject() {
+		return embeddedJettyServer;
+	}
+
+	/**
+	 * Return the interface type. This should be sufficient information to
+	 * support @Autowire
+	 * 
+	 * @see org.springframework.beans.factory.FactoryBean#getObjectType()
+	 */
+	@Override
+	public Class<?> getObjectType() {
+		return EmbeddedJettyServer.class;
+	}
+
+	/**
+	 * We do cache our server
+	 * 
+	 * @see org.springframework.beans.factory.FactoryBean#isSingleton()
+	 */
+	@Override
+	public boolean isSingleton() {
+		return true;
+	}
+
+	/**
+	 * toString
+	 */
+	public String toString() {
+		StringBuffer tos = new StringBuffer(super.toString());
+		tos.append(":handler=").append(handler);
+		tos.append(":autoStart=").append(autoStart);
+		tos.append(":objectName=").append(objectName);
+		tos.append(":embeddedJettyServer=").append(embeddedJettyServer);
+		return tos.toString();
+	}
+
+}
@@ -32,6 +32,10 @@ import org.springframework.util.Assert;
  * 
  * Based on the Spring test class of the same name, but allowing supplied ports
  * to be checked 9and so used) first
+ * 
+ * Note that a port found free may be taken before it is bound. For an
+ * embedded server, prefer EmbeddedJettyServer.EPHEMERAL_PORT, reading the
+ * port bound once the server is started.
  */
 public abstract class HostNetUtils {
 
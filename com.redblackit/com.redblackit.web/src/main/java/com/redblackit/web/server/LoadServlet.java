@@ -0,0 +1,381 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.web.server;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+
+/**
+ * @author djnorth
+ * 
+ *         Servlet generating synthetic load, for benchmarking connectors, TLS
+ *         and load balancers with only the embedded server. A GET (or POST,
+ *         whose body is ignored) returns a body of the requested size, after
+ *         the requested latency:
+ * 
+ *         <ul>
+ *         <li>size: response body bytes (default 0, at most maxSize)</li>
+ *         <li>latency: milliseconds before responding (default 0, at most
+ *         maxLatencyMilliseconds)</li>
+ *         </ul>
+ * 
+ *         The body is streamed from a shared pre-filled buffer, with
+ *         Content-Length set up front. Latency is added by the servlet's
+ *         timer, created in init and stopped in destroy, holding no request
+ *         thread while waiting, when the servlet is registered with async
+ *         support; otherwise the request thread sleeps. The maximums may be
+ *         set as init parameters maxSize and maxLatencyMilliseconds.
+ * 
+ *         The actual delay (showing the timer's precision) is reported in
+ *         milliseconds in a Server-Timing header. The time to write the body
+ *         can't be, since headers are sent first.
+ */
+public class LoadServlet extends HttpServlet {
+
+	/**
+	 * Default maximum size
+	 */
+	public static final long DEFAULT_MAX_SIZE = 1024L * 1024 * 1024;
+
+	/**
+	 * Default maximum latency
+	 */
+	public static final long DEFAULT_MAX_LATENCY_MILLISECONDS = 5 * 60 * 1000;
+
+	/**
+	 * Shared buffer size
+	 */
+	private static final int FILL_SIZE = 64 * 1024;
+
+	/**
+	 * Shared buffer, filled with printable characters, only ever read
+	 */
+	private static final byte[] fill = createFill();
+
+	private Logger logger = Logger.getLogger("web.server");
+
+	/**
+	 * Serialization stuff
+	 */
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Maximum size
+	 */
+	private long maxSize = DEFAULT_MAX_SIZE;
+
+	/**
+	 * Maximum latency
+	 */
+	private long maxLatencyMilliseconds = DEFAULT_MAX_LATENCY_MILLISECONDS;
+
+	/**
+	 * Timer for latency, from init until destroy
+	 */
+	private volatile ScheduledExecutorService timer;
+
+	/**
+	 * Set the maximum size which may be requested (default
+	 * DEFAULT_MAX_SIZE)
+	 * 
+	 * @param maxSize
+	 *            the maxSize to set
+	 */
+	public void setMaxSize(long maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * @return the maxSize
+	 */
+	public long getMaxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Set the maximum latency which may be requested (default
+	 * DEFAULT_MAX_LATENCY_MILLISECONDS)
+	 * 
+	 * @param maxLatencyMilliseconds
+	 *            the maxLatencyMilliseconds to set
+	 */
+	public void setMaxLatencyMilliseconds(long maxLatencyMilliseconds) {
+		this.maxLatencyMilliseconds = maxLatencyMilliseconds;
+	}
+
+	/**
+	 * @return the maxLatencyMilliseconds
+	 */
+	public long getMaxLatencyMilliseconds() {
+		return maxLatencyMilliseconds;
+	}
+
+	/**
+	 * Take maxSize and maxLatencyMilliseconds from init parameters, if
+	 * present, and create timer
+	 * 
+	 * @see javax.servlet.GenericServlet#init()
+	 */
+	@Override
+	public void init() throws ServletException {
+		final String maxSizeParameter = getInitParameter("maxSize");
+		final String maxLatencyParameter = getInitParameter("maxLatencyMilliseconds");
+		try {
+			if (maxSizeParameter != null) {
+				setMaxSize(Long.parseLong(maxSizeParameter.trim()));
+			}
+			if (maxLatencyParameter != null) {
+				setMaxLatencyMilliseconds(Long.parseLong(maxLatencyParameter.trim()));
+			}
+		} catch (NumberFormatException nfe) {
+			throw new ServletException("invalid init parameter:maxSize=" + maxSizeParameter
+					+ ":maxLatencyMilliseconds=" + maxLatencyParameter, nfe);
+		}
+
+		timer = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "LoadServlet-timer");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+
+	/**
+	 * Stop timer, after responding to requests already waiting
+	 * 
+	 * @see javax.servlet.GenericServlet#destroy()
+	 */
+	@Override
+	public void destroy() {
+		synchronized (this) {
+			if (timer != null) {
+				timer.shutdown();
+				timer = null;
+			}
+		}
+		super.destroy();
+	}
+
+	/**
+	 * Generate load
+	 * 
+	 * @param req
+	 * @param resp
+	 * @see javax.servlet.http.HttpServlet#doGet(javax.servlet.http.HttpServletRequest,
+	 *      javax.servlet.http.HttpServletResponse)
+	 */
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+		doLoad(req, resp);
+	}
+
+	/**
+	 * Generate load, ignoring request body
+	 * 
+	 * @param req
+	 * @param resp
+	 * @see javax.servlet.http.HttpServlet#doPost(javax.servlet.http.HttpServletRequest,
+	 *      javax.servlet.http.HttpServletResponse)
+	 */
+	@Override
+	protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+		doLoad(req, resp);
+	}
+
+	/**
+	 * Validate parameters, and respond now or after the latency
+	 * 
+	 * @param req
+	 * @param resp
+	 */
+	private void doLoad(HttpServletRequest req, final HttpServletResponse resp)
+			throws ServletException, IOException {
+		final long receivedNanos = System.nanoTime();
+		final long size;
+		final long latencyMilliseconds;
+		try {
+			size = getParameter(req, "size", maxSize);
+			latencyMilliseconds = getParameter(req, "latency", maxLatencyMilliseconds);
+		} catch (IllegalArgumentException iae) {
+			logger.debug(this.getClass().getName() + ":  bad request:" + iae.getMessage());
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, iae.getMessage());
+			return;
+		}
+
+		logger.debug(this.getClass().getName() + ":" + req.getMethod() + " - "
+				+ req.getRequestURI() + ":size=" + size + ":latency=" + latencyMilliseconds);
+
+		if (latencyMilliseconds <= 0) {
+			writeLoad(resp, size, receivedNanos);
+		} else if (req.isAsyncSupported()) {
+			final ScheduledExecutorService scheduler = timer;
+			if (scheduler == null) {
+				throw new ServletException("not initialised, or destroyed:" + this);
+			}
+
+			final AsyncContext asyncContext = req.startAsync();
+			// No container timeout: the timer task always completes
+			asyncContext.setTimeout(0);
+			try {
+				schedule(scheduler, asyncContext, size, latencyMilliseconds, receivedNanos);
+			} catch (RejectedExecutionException ree) {
+				logger.debug(this.getClass().getName() + ":  destroyed while waiting:" + ree);
+				resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				asyncContext.complete();
+			}
+		} else {
+			try {
+				Thread.sleep(latencyMilliseconds);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				resp.sendError(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+				return;
+			}
+			writeLoad(resp, size, receivedNanos);
+		}
+	}
+
+	/**
+	 * Schedule writing load after latency, on a container thread, completing
+	 * the async request
+	 * 
+	 * @param scheduler
+	 * @param asyncContext
+	 * @param size
+	 * @param latencyMilliseconds
+	 * @param receivedNanos
+	 */
+	private void schedule(ScheduledExecutorService scheduler,
+			final AsyncContext asyncContext, final long size,
+			long latencyMilliseconds, final long receivedNanos) {
+		scheduler.schedule(new Runnable() {
+			@Override
+			public void run() {
+				asyncContext.start(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							writeLoad((HttpServletResponse) asyncContext.getResponse(), size, receivedNanos);
+						} catch (IOException ioe) {
+							logger.debug(LoadServlet.this.getClass().getName() + ":  write failed", ioe);
+						} finally {
+							asyncContext.complete();
+						}
+					}
+				});
+			}
+		}, latencyMilliseconds, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Write timing header, and size bytes from the shared buffer
+	 * 
+	 * @param resp
+	 * @param size
+	 * @param receivedNanos
+	 * @throws IOException
+	 */
+	private void writeLoad(HttpServletResponse resp, long size,
+			long receivedNanos) throws IOException {
+		final double delayMilliseconds = (System.nanoTime() - receivedNanos) / 1000000.0;
+		resp.setStatus(HttpServletResponse.SC_OK);
+		resp.setContentType("application/octet-stream");
+		if (size <= Integer.MAX_VALUE) {
+			resp.setContentLength((int) size);
+		} else {
+			resp.setHeader("Content-Length", Long.toString(size));
+		}
+		resp.setHeader("Server-Timing", "delay;dur=" + formatMilliseconds(delayMilliseconds));
+
+		final OutputStream out = resp.getOutputStream();
+		long remaining = size;
+		while (remaining > 0) {
+			final int length = (int) Math.min(remaining, fill.length);
+			out.write(fill, 0, length);
+			remaining -= length;
+		}
+		resp.flushBuffer();
+	}
+
+	/**
+	 * Get non-negative long parameter
+	 * 
+	 * @param req
+	 * @param name
+	 * @param max
+	 * @return value, or 0 if not present
+	 * @throws IllegalArgumentException
+	 *             if invalid or gt max
+	 */
+	private static long getParameter(HttpServletRequest req, String name,
+			long max) {
+		final String parameter = req.getParameter(name);
+		if (parameter == null || parameter.trim().length() == 0) {
+			return 0;
+		}
+
+		final long value;
+		try {
+			value = Long.parseLong(parameter.trim());
+		} catch (NumberFormatException nfe) {
+			throw new IllegalArgumentException(name + "=" + parameter + " is not a number");
+		}
+
+		if (value < 0 || value > max) {
+			throw new IllegalArgumentException(name + "=" + parameter + " not in range 0 to " + max);
+		}
+
+		return value;
+	}
+
+	/**
+	 * @param milliseconds
+	 * @return milliseconds to 3 decimal places
+	 */
+	private static String formatMilliseconds(double milliseconds) {
+		return String.format(Locale.ENGLISH, "%.3f", milliseconds);
+	}
+
+	/**
+	 * @return shared buffer filled with printable characters
+	 */
+	private static byte[] createFill() {
+		final byte[] bytes = new byte[FILL_SIZE];
+		for (int i = 0; i < bytes.length; ++i) {
+			bytes[i] = (byte) ('!' + (i % 94));
+		}
+		return bytes;
+	}
+}
@@ -0,0 +1,110 @@
+package com.redblackit.web.server.mvc;
+
+import com.redblackit.version.CompositeVersionInfo;
+import com.redblackit.version.CompositeVersionInfoMap;
+import com.redblackit.version.ConcurrentCompositeVersionInfoMap;
+import com.redblackit.version.VersionInfoBinaryCodec;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.MediaType;
+import org.springframework.http.converter.AbstractHttpMessageConverter;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+import org.springframework.http.converter.HttpMessageNotWritableException;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Message converter for CompositeVersionInfo in the compact binary format of {@link VersionInfoBinaryCodec}, with media
+ * type <code>application/x-redblackit-version</code>. This may be used both for MVC responses and by a RestTemplate.
+ * <p/>
+ * Reading gives a CompositeVersionInfoMap, or a snapshot or ConcurrentCompositeVersionInfoMap of it if either of
+ * those is the class requested.
+ *
+ * @author Dominic North
+ */
+public class VersionInfoBinaryHttpMessageConverter extends AbstractHttpMessageConverter<CompositeVersionInfo> {
+
+    /**
+     * Media type for binary version info
+     */
+    public static final MediaType MEDIA_TYPE = MediaType.parseMediaType(VersionInfoBinaryCodec.MEDIA_TYPE);
+
+    /**
+     * Default constructor, supporting our media type only
+     */
+    public VersionInfoBinaryHttpMessageConverter() {
+        super(MEDIA_TYPE);
+    }
+
+    /**
+     * Support CompositeVersionInfo and its implementations
+     *
+     * @param clazz
+     * @return true if supported
+     */
+    @Override
+    protected boolean supports(Class<?> clazz) {
+        return CompositeVersionInfo.class.isAssignableFrom(clazz);
+    }
+
+    /**
+     * Read whole body, then decode it, converting to the requested class if needed
+     *
+     * @param clazz
+     * @param inputMessage
+     * @return versionInfo
+     * @throws IOException                     if the body could not be read
+     * @throws HttpMessageNotReadableException if the body is not a valid encoding, or cannot be converted
+     */
+    @Override
+    protected CompositeVersionInfo readInternal(Class<? extends CompositeVersionInfo> clazz,
+                                                HttpInputMessage inputMessage) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(8192);
+        InputStream body = inputMessage.getBody();
+        byte[] buffer = new byte[8192];
+        int count;
+        while ((count = body.read(buffer)) >= 0) {
+            bytes.write(buffer, 0, count);
+        }
+
+        CompositeVersionInfoMap versionInfo;
+        try {
+            versionInfo = VersionInfoBinaryCodec.decode(bytes.toByteArray());
+        } catch (IOException ioe) {
+            throw new HttpMessageNotReadableException("invalid " + MEDIA_TYPE + " body:" + ioe.getMessage(), ioe);
+        }
+
+        if (clazz.isInstance(versionInfo)) {
+            return versionInfo;
+        }
+
+        CompositeVersionInfo snapshot = versionInfo.snapshot();
+        if (clazz.isInstance(snapshot)) {
+            return snapshot;
+        }
+
+        if (clazz.isAssignableFrom(ConcurrentCompositeVersionInfoMap.class)) {
+            return new ConcurrentCompositeVersionInfoMap(versionInfo);
+        }
+
+        throw new HttpMessageNotReadableException("cannot read " + MEDIA_TYPE + " as " + clazz.getName());
+    }
+
+    /**
+     * Encode versionInfo, setting Content-Length before writing the body
+     *
+     * @param versionInfo
+     * @param outputMessage
+     * @throws IOException
+     * @throws HttpMessageNotWritableException
+     */
+    @Override
+    protected void writeInternal(CompositeVersionInfo versionInfo, HttpOutputMessage outputMessage)
+            throws IOException, HttpMessageNotWritableException {
+        final byte[] encoded = VersionInfoBinaryCodec.encode(versionInfo);
+        outputMessage.getHeaders().setContentLength(encoded.length);
+        outputMessage.getBody().write(encoded);
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.web.client;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.log4j.Logger;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import com.redblackit.version.CompositeVersionInfo;
+import com.redblackit.version.CompositeVersionInfoMap;
+import com.redblackit.version.VersionInfoBinaryCodec;
+import com.redblackit.web.KeyAndTrustStoreInfo;
+import com.redblackit.web.server.DefaultEmbeddedJettyServer;
+import com.redblackit.web.server.EmbeddedJettyServer;
+import com.redblackit.web.server.HostNetUtils;
+
+/**
+ * Tests for FleetVersionCollector against nodes in an embedded Jetty server,
+ * some of which are slow or fail.
+ *
+ * @author djnorth
+ */
+public class FleetVersionCollectorTest {
+
+	private static final int NODE_COUNT = 12;
+	private static final int NODE_DELAY_MILLISECONDS = 200;
+
+	private static EmbeddedJettyServer jettyServer;
+	private static final String hostname = HostNetUtils.getLocalHostname();
+	private static int httpPort = HostNetUtils.getFreePort(8080);
+	private static int httpsPort = HostNetUtils.getFreePort(8443);
+
+	private final Logger logger = Logger.getLogger("web.client");
+	private final String baseUrl = "http://" + hostname + ':' + httpPort + '/';
+	private FleetVersionCollector collector;
+
+	/**
+	 * Start Jetty with a version servlet for each node, and slow and failing
+	 * nodes
+	 *
+	 * @throws Exception
+	 */
+	@BeforeClass
+	public static void startJettyServer() throws Exception {
+		jettyServer = new DefaultEmbeddedJettyServer(httpPort, httpsPort,
+				KeyAndTrustStoreInfo.getServer1Ks(),
+				KeyAndTrustStoreInfo.SERVER1_KS_PWD);
+
+		ServletContextHandler jettyContext = new ServletContextHandler(
+				ServletContextHandler.NO_SESSIONS);
+		jettyContext.setContextPath("/");
+		jettyServer.getServer().setHandler(jettyContext);
+
+		for (int i = 0; i < NODE_COUNT; ++i) {
+			jettyContext.addServlet(new ServletHolder(new NodeVersionServlet(i, NODE_DELAY_MILLISECONDS)),
+					"/node" + i + "/rest/version");
+		}
+		jettyContext.addServlet(new ServletHolder(new NodeVersionServlet(-1, 10 * 1000)), "/slow/rest/version");
+		jettyServer.startWait();
+	}
+
+	/**
+	 * Stop Jetty, and wait for it to end
+	 *
+	 * @throws Exception
+	 */
+	@AfterClass
+	public static void stopJettyServer() throws Exception {
+		if (jettyServer != null) {
+			jettyServer.stopWait();
+		}
+	}
+
+	/**
+	 * Create collector with a pooled client allowing maxParallelism
+	 * connections
+	 */
+	@Before
+	public void setUp() {
+		ThreadSafeClientConnManager connManager = new ThreadSafeClientConnManager();
+		connManager.setMaxTotal(FleetVersionCollector.DEFAULT_MAX_PARALLELISM);
+		connManager.setDefaultMaxPerRoute(FleetVersionCollector.DEFAULT_MAX_PARALLELISM);
+
+		collector = new FleetVersionCollector();
+		collector.setHttpClient(new DefaultHttpClient(connManager));
+		collector.setTimeoutMilliseconds(5 * NODE_DELAY_MILLISECONDS);
+	}
+
+	/**
+	 * Stop collector and client
+	 */
+	@After
+	public void tearDown() {
+		collector.destroy();
+		collector.getHttpClient().getConnectionManager().shutdown();
+	}
+
+	/**
+	 * Test all nodes are collected, in parallel
+	 */
+	@Test
+	public void testCollect() {
+		List<String> nodeUrls = new ArrayList<String>();
+		for (int i = 0; i < NODE_COUNT; ++i) {
+			nodeUrls.add(baseUrl + "node" + i);
+		}
+		collector.setNodeUrls(nodeUrls);
+		collector.afterPropertiesSet();
+
+		final long start = System.currentTimeMillis();
+		CompositeVersionInfo fleetVersionInfo = collector.collect();
+		final long elapsed = System.currentTimeMillis() - start;
+		logger.info("testCollect:nodes=" + NODE_COUNT + ":elapsed (ms)=" + elapsed);
+
+		Assert.assertNull("failures", fleetVersionInfo.getVersionStringMap());
+		Assert.assertEquals("nodes", NODE_COUNT, fleetVersionInfo.getVersionInfoMap().size());
+		for (int i = 0; i < NODE_COUNT; ++i) {
+			Assert.assertEquals("node" + i, "1." + i,
+					fleetVersionInfo.getVersionForKeys(nodeUrls.get(i), "implementation"));
+			Assert.assertEquals("node" + i + " concatenated key", "1." + i, fleetVersionInfo.getVersionMap().get(
+					nodeUrls.get(i) + FleetVersionCollector.NODE_KEY_CONCATENATION_SEPARATOR + "implementation"));
+		}
+		Assert.assertTrue("elapsed " + elapsed + " less than sequential",
+				elapsed < NODE_COUNT * NODE_DELAY_MILLISECONDS);
+	}
+
+	/**
+	 * Test slow, missing and unreachable nodes are reported as failures,
+	 * without losing the other results
+	 */
+	@Test
+	public void testCollectPartial() {
+		final String slowUrl = baseUrl + "slow";
+		final String missingUrl = baseUrl + "missing";
+		final String unreachableUrl = "http://" + hostname + ':' + HostNetUtils.getFreePort(9080) + '/';
+		List<String> nodeUrls = new ArrayList<String>();
+		nodeUrls.add(baseUrl + "node0");
+		nodeUrls.add(slowUrl);
+		nodeUrls.add(missingUrl);
+		nodeUrls.add(unreachableUrl);
+		collector.setNodeUrls(nodeUrls);
+		collector.afterPropertiesSet();
+
+		final long start = System.currentTimeMillis();
+		CompositeVersionInfo fleetVersionInfo = collector.collect();
+		final long elapsed = System.currentTimeMillis() - start;
+		logger.info("testCollectPartial:fleetVersionInfo=" + fleetVersionInfo + ":elapsed (ms)=" + elapsed);
+
+		Assert.assertEquals("node0", "1.0", fleetVersionInfo.getVersionForKeys(baseUrl + "node0", "implementation"));
+		Assert.assertEquals("nodes", 1, fleetVersionInfo.getVersionInfoMap().size());
+		Assert.assertEquals("slow", "timed out", fleetVersionInfo.getVersionStringMap().get(slowUrl));
+		Assert.assertTrue("missing", fleetVersionInfo.getVersionStringMap().get(missingUrl).startsWith("failed:"));
+		Assert.assertTrue("unreachable", fleetVersionInfo.getVersionStringMap().get(unreachableUrl)
+				.startsWith("failed:"));
+		Assert.assertTrue("elapsed " + elapsed + " within timeout", elapsed < 4 * collector.getTimeoutMilliseconds());
+	}
+
+	/**
+	 * Test the collection as a whole stops at collectTimeoutMilliseconds,
+	 * returning the nodes collected by then, even though no single request
+	 * timed out
+	 */
+	@Test
+	public void testCollectTimeout() {
+		List<String> nodeUrls = new ArrayList<String>();
+		for (int i = 0; i < NODE_COUNT; ++i) {
+			nodeUrls.add(baseUrl + "node" + i);
+		}
+		collector.setNodeUrls(nodeUrls);
+		collector.setMaxParallelism(1);
+		collector.setCollectTimeoutMilliseconds(3 * NODE_DELAY_MILLISECONDS);
+		collector.afterPropertiesSet();
+
+		final long start = System.currentTimeMillis();
+		CompositeVersionInfo fleetVersionInfo = collector.collect();
+		final long elapsed = System.currentTimeMillis() - start;
+		logger.info("testCollectTimeout:fleetVersionInfo=" + fleetVersionInfo + ":elapsed (ms)=" + elapsed);
+
+		Assert.assertEquals("node0", "1.0", fleetVersionInfo.getVersionForKeys(nodeUrls.get(0), "implementation"));
+		Assert.assertEquals("nodes and failures", NODE_COUNT, fleetVersionInfo.getVersionInfoMap().size()
+				+ fleetVersionInfo.getVersionStringMap().size());
+		Assert.assertEquals("last node", "not started before collect timed out",
+				fleetVersionInfo.getVersionStringMap().get(nodeUrls.get(NODE_COUNT - 1)));
+		Assert.assertTrue("elapsed " + elapsed + " within collect timeout",
+				elapsed < 2 * collector.getCollectTimeoutMilliseconds());
+	}
+
+	/**
+	 * Test null nodeUrls are rejected, rather than failing later
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testSetNodeUrlsNull() {
+		collector.setNodeUrls(null);
+	}
+
+	/**
+	 * Test node URLs which are not valid URIs, and so might contain the
+	 * separator, are rejected
+	 */
+	@Test(expected = IllegalArgumentException.class)
+	public void testSetNodeUrlsInvalid() {
+		List<String> nodeUrls = new ArrayList<String>();
+		nodeUrls.add(baseUrl + "node0");
+		nodeUrls.add(baseUrl + "node" + FleetVersionCollector.NODE_KEY_CONCATENATION_SEPARATOR + "1");
+		collector.setNodeUrls(nodeUrls);
+	}
+
+	/**
+	 * Servlet giving a binary version for a node, after a delay
+	 */
+	private static class NodeVersionServlet extends HttpServlet {
+
+		/**
+		 * For serialization
+		 */
+		private static final long serialVersionUID = 1L;
+
+		private final int node;
+		private final int delayMilliseconds;
+
+		private NodeVersionServlet(int node, int delayMilliseconds) {
+			this.node = node;
+			this.delayMilliseconds = delayMilliseconds;
+		}
+
+		@Override
+		protected void doGet(HttpServletRequest request, HttpServletResponse response) throws IOException {
+			try {
+				Thread.sleep(delayMilliseconds);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+
+			CompositeVersionInfoMap versionInfo = new CompositeVersionInfoMap();
+			versionInfo.setVersionForKeys("1." + node, "implementation");
+			final byte[] content = VersionInfoBinaryCodec.encode(versionInfo);
+			response.setContentType(VersionInfoBinaryCodec.MEDIA_TYPE);
+			response.setContentLength(content.length);
+			response.getOutputStream().write(content);
+		}
+	}
+
+}
@@ -79,8 +79,8 @@ public class X509HttpClientFactoryTest {
 	 */
 	@BeforeClass
 	public static void setUpServer() {
-		final int httpsPort = HostNetUtils.getFreePort(8443);
-		server = new DefaultEmbeddedJettyServer(0, httpsPort,
+		server = new DefaultEmbeddedJettyServer(EmbeddedJettyServer.NO_PORT,
+				EmbeddedJettyServer.EPHEMERAL_PORT,
                 KeyAndTrustStoreInfo.getServer1Ks(),
 				KeyAndTrustStoreInfo.SERVER1_KS_PWD);
 		ServletContextHandler context = new ServletContextHandler(
@@ -92,7 +92,7 @@ public class X509HttpClientFactoryTest {
 
 		String localhost = HostNetUtils.getLocalHostname();
 
-		echoUrl = "https://" + localhost + ':' + httpsPort + ECHO_PATH;
+		echoUrl = "https://" + localhost + ':' + server.getHttpsPort() + ECHO_PATH;
 		logger.info("echoUrl=" + echoUrl);
 	}
 
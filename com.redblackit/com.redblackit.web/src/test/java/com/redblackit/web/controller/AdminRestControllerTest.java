@@ -16,10 +16,35 @@
 
 package com.redblackit.web.controller;
 
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.servlet.AsyncContext;
+import javax.servlet.AsyncEvent;
+import javax.servlet.AsyncListener;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+
 import junit.framework.Assert;
 
+import org.codehaus.jackson.JsonNode;
+import org.codehaus.jackson.map.ObjectMapper;
 import org.junit.Before;
 import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletRequest;
+import org.springframework.mock.web.MockHttpServletResponse;
+import org.springframework.web.servlet.HandlerMapping;
+
+import com.redblackit.version.CompositeVersionInfo;
+import com.redblackit.version.CompositeVersionInfoMap;
+import com.redblackit.version.VersionInfoBinaryCodec;
 
 /**
  * @author djnorth
@@ -42,45 +67,598 @@ public class AdminRestControllerTest extends VersionControllerTestBase {
      * Test about
      */
     @Test
-    public void testGetVersionSummary() {
-        String versionString = adminRestController.getVersionSummary();
+    public void testGetVersionSummary() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        adminRestController.getVersionSummary(null, response);
+        Assert.assertEquals("status", HttpServletResponse.SC_OK, response.getStatus());
+        Assert.assertEquals("content type", AdminRestController.VERSION_SUMMARY_CONTENT_TYPE,
+                            response.getContentType());
+        Assert.assertEquals("versionString", getExpectedCompositeVersionInfo().getVersionString(),
+                            new String(response.getContentAsByteArray(), "UTF-8"));
+        Assert.assertNotNull("ETag", response.getHeader("ETag"));
     }
 
     /**
      * Test get version for initial level0 object
      */
     @Test
-    public void testGetVersion0() {
-        Assert.assertEquals("versionInfo", getExpectedCompositeVersionInfo(), adminRestController.getVersion());
+    public void testGetVersion0() throws Exception {
+        Assert.assertEquals("versionInfo", getExpectedCompositeVersionInfo(), getVersion());
     }
 
     /**
      * Test get version for level1 objects
      */
     @Test
-    public void testGetVersion1() {
+    public void testGetVersion1() throws Exception {
         setupActualCVI1();
         setupExpectedCVI1();
-        Assert.assertEquals("versionInfo", getExpectedCompositeVersionInfo(), adminRestController.getVersion());
+        Assert.assertEquals("versionInfo", getExpectedCompositeVersionInfo(), getVersion());
     }
 
     /**
      * Test get version for level2 objects
      */
     @Test
-    public void testGetVersion2() {
+    public void testGetVersion2() throws Exception {
         setupActualCVI1_2All();
         setupExpectedCVI1_2All();
 
-        Assert.assertEquals("versionInfo", getExpectedCompositeVersionInfo(), adminRestController.getVersion());
+        Assert.assertEquals("versionInfo", getExpectedCompositeVersionInfo(), getVersion());
+    }
+
+    /**
+     * Test cached version is replaced, with a new ETag, after a change
+     */
+    @Test
+    public void testGetVersionAfterChange() throws Exception {
+        MockHttpServletResponse response0 = new MockHttpServletResponse();
+        adminRestController.getVersion(null, response0);
+
+        setupActualCVI1_2All();
+        setupExpectedCVI1_2All();
+
+        MockHttpServletResponse response1 = new MockHttpServletResponse();
+        adminRestController.getVersion(null, response1);
+        Assert.assertFalse("ETag changed:" + response0.getHeader("ETag"),
+                           response0.getHeader("ETag").equals(response1.getHeader("ETag")));
+        Assert.assertEquals("versionInfo", getExpectedCompositeVersionInfo(),
+                            readVersion(response1.getContentAsByteArray()));
+    }
+
+    /**
+     * Test If-None-Match gives 304 and no content for current ETag, but not
+     * for others
+     */
+    @Test
+    public void testGetVersionIfNoneMatch() throws Exception {
+        MockHttpServletResponse response0 = new MockHttpServletResponse();
+        adminRestController.getVersion(null, response0);
+        final String eTag = (String) response0.getHeader("ETag");
+
+        MockHttpServletResponse response1 = new MockHttpServletResponse();
+        adminRestController.getVersion("\"other\", " + eTag, response1);
+        Assert.assertEquals("status for matching ETag", HttpServletResponse.SC_NOT_MODIFIED, response1.getStatus());
+        Assert.assertEquals("content for matching ETag", 0, response1.getContentAsByteArray().length);
+        Assert.assertEquals("ETag for matching ETag", eTag, response1.getHeader("ETag"));
+
+        MockHttpServletResponse response2 = new MockHttpServletResponse();
+        adminRestController.getVersion("\"other\"", response2);
+        Assert.assertEquals("status for other ETag", HttpServletResponse.SC_OK, response2.getStatus());
+        Assert.assertEquals("versionInfo for other ETag", getExpectedCompositeVersionInfo(),
+                            readVersion(response2.getContentAsByteArray()));
+    }
+
+    /**
+     * Test binary version decodes to the expected version, shares the JSON
+     * snapshot, and honours If-None-Match
+     */
+    @Test
+    public void testGetVersionBinary() throws Exception {
+        setupActualCVI1_2All();
+        setupExpectedCVI1_2All();
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        adminRestController.getVersionBinary(null, response);
+        Assert.assertEquals("status", HttpServletResponse.SC_OK, response.getStatus());
+        Assert.assertEquals("content type", AdminRestController.VERSION_BINARY_CONTENT_TYPE,
+                            response.getContentType());
+        Assert.assertEquals("Content-Length", response.getContentAsByteArray().length, response.getContentLength());
+        Assert.assertEquals("versionInfo", getExpectedCompositeVersionInfo(),
+                            VersionInfoBinaryCodec.decode(response.getContentAsByteArray()));
+
+        Assert.assertEquals("Vary", "Accept", response.getHeader("Vary"));
+
+        MockHttpServletResponse jsonResponse = new MockHttpServletResponse();
+        adminRestController.getVersion(null, jsonResponse);
+        Assert.assertFalse("ETag differs from JSON",
+                           response.getHeader("ETag").equals(jsonResponse.getHeader("ETag")));
+        Assert.assertEquals("JSON Vary", "Accept", jsonResponse.getHeader("Vary"));
+
+        MockHttpServletResponse matchResponse = new MockHttpServletResponse();
+        adminRestController.getVersionBinary((String) response.getHeader("ETag"), matchResponse);
+        Assert.assertEquals("status for matching ETag", HttpServletResponse.SC_NOT_MODIFIED,
+                            matchResponse.getStatus());
+        Assert.assertEquals("Vary for matching ETag", "Accept", matchResponse.getHeader("Vary"));
+    }
+
+    /**
+     * Test binary head gives the headers of the binary version, not the JSON
+     */
+    @Test
+    public void testGetVersionBinaryHead() throws Exception {
+        MockHttpServletResponse getResponse = new MockHttpServletResponse();
+        adminRestController.getVersionBinary(null, getResponse);
+
+        MockHttpServletResponse headResponse = new MockHttpServletResponse();
+        adminRestController.getVersionBinaryHead(null, headResponse);
+        Assert.assertEquals("status", HttpServletResponse.SC_OK, headResponse.getStatus());
+        Assert.assertEquals("content type", AdminRestController.VERSION_BINARY_CONTENT_TYPE,
+                            headResponse.getContentType());
+        Assert.assertEquals("Content-Length", getResponse.getContentAsByteArray().length,
+                            headResponse.getContentLength());
+        Assert.assertEquals("ETag", getResponse.getHeader("ETag"), headResponse.getHeader("ETag"));
+        Assert.assertEquals("Vary", "Accept", headResponse.getHeader("Vary"));
+        Assert.assertEquals("content", 0, headResponse.getContentAsByteArray().length);
+    }
+
+    /**
+     * Test diff against a binary ETag, so binary clients can use diffs too
+     */
+    @Test
+    public void testGetVersionDiffAgainstBinary() throws Exception {
+        MockHttpServletResponse response0 = new MockHttpServletResponse();
+        adminRestController.getVersionBinary(null, response0);
+        final String eTag0 = (String) response0.getHeader("ETag");
+
+        getActualCompositeVersionInfo().setVersionForKeys("9.9", "diffTest", "added");
+        MockHttpServletResponse diffResponse = new MockHttpServletResponse();
+        adminRestController.getVersionDiff(eTag0, diffResponse);
+        Assert.assertEquals("status", HttpServletResponse.SC_OK, diffResponse.getStatus());
+
+        JsonNode diff = new ObjectMapper().readTree(new String(diffResponse.getContentAsByteArray(), "UTF-8"));
+        Assert.assertEquals("against", eTag0, diff.get("against").getTextValue());
+        Assert.assertEquals("changes:" + diff.get("changes"), 1, diff.get("changes").size());
     }
 
     /**
      * Test about head
      */
     @Test
-    public void testGetVersionHead() {
-        adminRestController.getVersionHead();
+    public void testGetVersionHead() throws Exception {
+        MockHttpServletResponse getResponse = new MockHttpServletResponse();
+        adminRestController.getVersion(null, getResponse);
+
+        MockHttpServletResponse headResponse = new MockHttpServletResponse();
+        adminRestController.getVersionHead(null, headResponse);
+        Assert.assertEquals("status", HttpServletResponse.SC_OK, headResponse.getStatus());
+        Assert.assertEquals("Content-Length", getResponse.getContentAsByteArray().length,
+                            headResponse.getContentLength());
+        Assert.assertEquals("ETag", getResponse.getHeader("ETag"), headResponse.getHeader("ETag"));
+        Assert.assertEquals("Vary", "Accept", headResponse.getHeader("Vary"));
+        Assert.assertEquals("content", 0, headResponse.getContentAsByteArray().length);
+    }
+
+    /**
+     * Test diff against an earlier ETag gives the changes since, and the
+     * current ETag
+     */
+    @Test
+    public void testGetVersionDiff() throws Exception {
+        MockHttpServletResponse response0 = new MockHttpServletResponse();
+        adminRestController.getVersion(null, response0);
+        final String eTag0 = (String) response0.getHeader("ETag");
+
+        getActualCompositeVersionInfo().setVersionForKeys("9.9", "diffTest", "added");
+        MockHttpServletResponse response1 = new MockHttpServletResponse();
+        adminRestController.getVersion(null, response1);
+        final String eTag1 = (String) response1.getHeader("ETag");
+
+        MockHttpServletResponse diffResponse = new MockHttpServletResponse();
+        adminRestController.getVersionDiff(eTag0.replace("\"", ""), diffResponse);
+        Assert.assertEquals("status", HttpServletResponse.SC_OK, diffResponse.getStatus());
+        Assert.assertEquals("content type", AdminRestController.VERSION_CONTENT_TYPE, diffResponse.getContentType());
+
+        JsonNode diff = new ObjectMapper().readTree(new String(diffResponse.getContentAsByteArray(), "UTF-8"));
+        Assert.assertEquals("against", eTag0, diff.get("against").getTextValue());
+        Assert.assertEquals("current", eTag1, diff.get("current").getTextValue());
+        JsonNode changes = diff.get("changes");
+        Assert.assertEquals("changes:" + changes, 1, changes.size());
+        JsonNode change = changes.get("diffTest.added");
+        Assert.assertNotNull("change for diffTest.added:" + changes, change);
+        Assert.assertTrue("old:" + change, change.get("old").isNull());
+        Assert.assertEquals("new", "9.9", change.get("new").getTextValue());
+
+        MockHttpServletResponse currentResponse = new MockHttpServletResponse();
+        adminRestController.getVersionDiff(eTag1, currentResponse);
+        JsonNode current = new ObjectMapper().readTree(new String(currentResponse.getContentAsByteArray(), "UTF-8"));
+        Assert.assertEquals("changes against current", 0, current.get("changes").size());
+    }
+
+    /**
+     * Test diff against an unknown ETag gives 404 (Not Found)
+     */
+    @Test
+    public void testGetVersionDiffUnknown() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        adminRestController.getVersionDiff("\"unknown\"", response);
+        Assert.assertEquals("status", HttpServletResponse.SC_NOT_FOUND, response.getStatus());
+    }
+
+    /**
+     * Test changes since an earlier ETag are the diff, given at once
+     */
+    @Test
+    public void testGetVersionChangesAlreadyChanged() throws Exception {
+        final String eTag0 = getVersionETag();
+        getActualCompositeVersionInfo().setVersionForKeys("9.9", "changesTest", "added");
+
+        AsyncRequest request = new AsyncRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        adminRestController.getVersionChanges(eTag0, null, request, response);
+        Assert.assertFalse("async started", request.isAsyncStarted());
+        Assert.assertEquals("status", HttpServletResponse.SC_OK, response.getStatus());
+        Assert.assertEquals("content type", AdminRestController.VERSION_CONTENT_TYPE, response.getContentType());
+        assertDiffContent(eTag0, response);
+    }
+
+    /**
+     * Test request for changes since the current ETag waits, asynchronously,
+     * until the next change, and gets the diff
+     */
+    @Test
+    public void testGetVersionChangesWait() throws Exception {
+        final String eTag0 = getVersionETag();
+
+        AsyncRequest request = new AsyncRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        adminRestController.getVersionChanges(eTag0, 1000L, request, response);
+        Assert.assertTrue("async started", request.isAsyncStarted());
+        Assert.assertEquals("timeout", 1000L, request.getAsyncContext().getTimeout());
+        Assert.assertFalse("completed before change", request.asyncContext.isCompleted());
+        Assert.assertEquals("content before change", 0, response.getContentAsByteArray().length);
+
+        getActualCompositeVersionInfo().setVersionForKeys("9.9", "changesTest", "added");
+        Assert.assertTrue("completed after change", request.asyncContext.isCompleted());
+        Assert.assertEquals("status", HttpServletResponse.SC_OK, response.getStatus());
+        Assert.assertEquals("content type", AdminRestController.VERSION_CONTENT_TYPE, response.getContentType());
+        assertDiffContent(eTag0, response);
+    }
+
+    /**
+     * Test request for changes since the current ETag gets 304 (Not Modified)
+     * on timeout, and is not answered again by a later change
+     */
+    @Test
+    public void testGetVersionChangesTimeout() throws Exception {
+        final String eTag0 = getVersionETag();
+
+        AsyncRequest request = new AsyncRequest();
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        adminRestController.getVersionChanges(eTag0, null, request, response);
+        Assert.assertEquals("timeout", AdminRestController.DEFAULT_CHANGES_TIMEOUT_MILLISECONDS,
+                            request.getAsyncContext().getTimeout());
+
+        request.asyncContext.timeOut();
+        Assert.assertTrue("completed after timeout", request.asyncContext.isCompleted());
+        Assert.assertEquals("status", HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+        Assert.assertEquals("ETag", eTag0, response.getHeader("ETag"));
+
+        getActualCompositeVersionInfo().setVersionForKeys("9.9", "changesTest", "added");
+        Assert.assertEquals("status after change", HttpServletResponse.SC_NOT_MODIFIED, response.getStatus());
+        Assert.assertEquals("content after change", 0, response.getContentAsByteArray().length);
+    }
+
+    /**
+     * Test changes since an unknown ETag give 404 (Not Found), and a bad
+     * timeout 400 (Bad Request)
+     */
+    @Test
+    public void testGetVersionChangesUnknownAndBadTimeout() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        adminRestController.getVersionChanges("unknown", null, new AsyncRequest(), response);
+        Assert.assertEquals("status for unknown", HttpServletResponse.SC_NOT_FOUND, response.getStatus());
+
+        MockHttpServletResponse badResponse = new MockHttpServletResponse();
+        adminRestController.getVersionChanges(getVersionETag(), AdminRestController.MAX_CHANGES_TIMEOUT_MILLISECONDS + 1,
+                                              new AsyncRequest(), badResponse);
+        Assert.assertEquals("status for bad timeout", HttpServletResponse.SC_BAD_REQUEST, badResponse.getStatus());
+    }
+
+    /**
+     * Test get by path gives a component as JSON, a version string as text,
+     * or 404 (Not Found), and honours If-None-Match
+     */
+    @Test
+    public void testGetVersionForPath() throws Exception {
+        setupActualCVI1_2All();
+        setupExpectedCVI1_2All();
+
+        MockHttpServletResponse componentResponse = getVersionForPath(LEVEL0_INFO1_KEY + "/" + LEVEL1_INFO20_KEY,
+                                                                      null);
+        Assert.assertEquals("component status", HttpServletResponse.SC_OK, componentResponse.getStatus());
+        Assert.assertEquals("component content type", AdminRestController.VERSION_CONTENT_TYPE,
+                            componentResponse.getContentType());
+        Assert.assertEquals("component", getExpectedCompositeVersionInfo().getVersionInfoForKeys(LEVEL0_INFO1_KEY,
+                                                                                                 LEVEL1_INFO20_KEY),
+                            readVersion(componentResponse.getContentAsByteArray()));
+
+        MockHttpServletResponse versionResponse = getVersionForPath(LEVEL0_INFO1_KEY + "/"
+                                                                    + IMPLEMENTATION_VERSION1_KEY, null);
+        Assert.assertEquals("version status", HttpServletResponse.SC_OK, versionResponse.getStatus());
+        Assert.assertEquals("version content type", AdminRestController.VERSION_STRING_CONTENT_TYPE,
+                            versionResponse.getContentType());
+        Assert.assertEquals("version", IMPLEMENTATION_VERSION1, versionResponse.getContentAsString());
+
+        MockHttpServletResponse matchResponse = getVersionForPath(LEVEL0_INFO1_KEY + "/"
+                                                                  + IMPLEMENTATION_VERSION1_KEY,
+                                                                  (String) versionResponse.getHeader("ETag"));
+        Assert.assertEquals("status for matching ETag", HttpServletResponse.SC_NOT_MODIFIED,
+                            matchResponse.getStatus());
+
+        MockHttpServletResponse missingResponse = getVersionForPath(LEVEL0_INFO1_KEY + "/missing", null);
+        Assert.assertEquals("missing status", HttpServletResponse.SC_NOT_FOUND, missingResponse.getStatus());
+    }
+
+    /**
+     * Test paging through the flattened version gives every entry once, in
+     * order, and prefix restricts the entries
+     */
+    @Test
+    public void testGetVersionFlat() throws Exception {
+        setupActualCVI1_2All();
+        final Map<String, String> versionMap = getActualCompositeVersionInfo().getVersionMap();
+
+        Map<String, String> paged = new TreeMap<String, String>();
+        String after = null;
+        int pages = 0;
+        do {
+            MockHttpServletResponse response = new MockHttpServletResponse();
+            adminRestController.getVersionFlat(null, 2, after, response);
+            Assert.assertEquals("status", HttpServletResponse.SC_OK, response.getStatus());
+            JsonNode page = new ObjectMapper().readTree(response.getContentAsString());
+            Assert.assertTrue("page size " + page, page.get("entries").size() <= 2);
+            Map<String, String> entries = readEntries(page);
+            paged.putAll(entries);
+            after = (page.get("next").isNull() ? null : page.get("next").getTextValue());
+            ++pages;
+        } while (after != null);
+
+        Assert.assertEquals("paged versionMap", versionMap, paged);
+        Assert.assertEquals("pages", (versionMap.size() + 1) / 2, pages);
+
+        final String prefix = LEVEL0_INFO1_KEY + '.' + LEVEL1_INFO21_KEY;
+        MockHttpServletResponse prefixResponse = new MockHttpServletResponse();
+        adminRestController.getVersionFlat(prefix, null, null, prefixResponse);
+        JsonNode prefixPage = new ObjectMapper().readTree(prefixResponse.getContentAsString());
+        Map<String, String> prefixEntries = readEntries(prefixPage);
+        Assert.assertEquals("prefix entries", new TreeMap<String, String>(versionMap).subMap(prefix,
+                                                                                            prefix + '\uffff'),
+                            prefixEntries);
+        Assert.assertTrue("prefix next", prefixPage.get("next").isNull());
+
+        MockHttpServletResponse badResponse = new MockHttpServletResponse();
+        adminRestController.getVersionFlat(null, 0, null, badResponse);
+        Assert.assertEquals("status for bad limit", HttpServletResponse.SC_BAD_REQUEST, badResponse.getStatus());
+    }
+
+    /**
+     * Read entries from flat version page
+     *
+     * @param page
+     * @return entries
+     */
+    private Map<String, String> readEntries(JsonNode page) {
+        Map<String, String> entries = new TreeMap<String, String>();
+        for (Iterator<String> names = page.get("entries").getFieldNames(); names.hasNext();) {
+            final String name = names.next();
+            entries.put(name, page.get("entries").get(name).getTextValue());
+        }
+
+        return entries;
+    }
+
+    /**
+     * Get version for path via controller, setting request attributes as
+     * the handler mapping would
+     *
+     * @param path
+     * @param ifNoneMatch
+     * @return response
+     * @throws Exception
+     */
+    private MockHttpServletResponse getVersionForPath(String path, String ifNoneMatch) throws Exception {
+        MockHttpServletRequest request = new MockHttpServletRequest("GET", "/rest/version/" + path);
+        request.setAttribute(HandlerMapping.BEST_MATCHING_PATTERN_ATTRIBUTE, "/rest/version/**");
+        request.setAttribute(HandlerMapping.PATH_WITHIN_HANDLER_MAPPING_ATTRIBUTE, "/rest/version/" + path);
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        adminRestController.getVersionForPath(ifNoneMatch, request, response);
+        return response;
+    }
+
+    /**
+     * Get version via controller and unmarshall it
+     *
+     * @return versionInfo
+     * @throws Exception
+     */
+    private CompositeVersionInfo getVersion() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        adminRestController.getVersion(null, response);
+        Assert.assertEquals("status", HttpServletResponse.SC_OK, response.getStatus());
+        Assert.assertEquals("content type", AdminRestController.VERSION_CONTENT_TYPE, response.getContentType());
+        Assert.assertEquals("Content-Length", response.getContentAsByteArray().length, response.getContentLength());
+        return readVersion(response.getContentAsByteArray());
+    }
+
+    /**
+     * Get current version ETag via controller
+     *
+     * @return ETag
+     * @throws Exception
+     */
+    private String getVersionETag() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        adminRestController.getVersion(null, response);
+        return (String) response.getHeader("ETag");
+    }
+
+    /**
+     * Assert response content is the diff against the supplied ETag
+     *
+     * @param against
+     * @param response
+     * @throws Exception
+     */
+    private void assertDiffContent(String against, MockHttpServletResponse response) throws Exception {
+        MockHttpServletResponse diffResponse = new MockHttpServletResponse();
+        adminRestController.getVersionDiff(against, diffResponse);
+        Assert.assertEquals("diff content", new String(diffResponse.getContentAsByteArray(), "UTF-8"),
+                            new String(response.getContentAsByteArray(), "UTF-8"));
+    }
+
+    /**
+     * Unmarshall version JSON
+     *
+     * @param content
+     * @return versionInfo
+     * @throws Exception
+     */
+    private CompositeVersionInfo readVersion(byte[] content) throws Exception {
+        return new ObjectMapper().readValue(content, CompositeVersionInfoMap.class);
+    }
+
+    /**
+     * Request supporting asynchronous mode, as the mock request does not
+     */
+    private static class AsyncRequest extends HttpServletRequestWrapper {
+
+        private TestAsyncContext asyncContext;
+
+        AsyncRequest() {
+            super(new MockHttpServletRequest("GET", "/rest/version/changes"));
+        }
+
+        @Override
+        public AsyncContext startAsync(ServletRequest request, ServletResponse response) {
+            asyncContext = new TestAsyncContext(request, response);
+            return asyncContext;
+        }
+
+        @Override
+        public boolean isAsyncStarted() {
+            return asyncContext != null;
+        }
+
+        @Override
+        public AsyncContext getAsyncContext() {
+            return asyncContext;
+        }
+    }
+
+    /**
+     * Asynchronous context running started tasks at once, and timing out on
+     * request
+     */
+    private static class TestAsyncContext implements AsyncContext {
+
+        private final ServletRequest request;
+        private final ServletResponse response;
+        private final List<AsyncListener> listeners = new ArrayList<AsyncListener>();
+        private long timeout;
+        private boolean completed;
+
+        TestAsyncContext(ServletRequest request, ServletResponse response) {
+            this.request = request;
+            this.response = response;
+        }
+
+        boolean isCompleted() {
+            return completed;
+        }
+
+        void timeOut() throws Exception {
+            for (AsyncListener listener : listeners) {
+                listener.onTimeout(new AsyncEvent(this));
+            }
+        }
+
+        @Override
+        public ServletRequest getRequest() {
+            return request;
+        }
+
+        @Override
+        public ServletResponse getResponse() {
+            return response;
+        }
+
+        @Override
+        public boolean hasOriginalRequestAndResponse() {
+            return true;
+        }
+
+        @Override
+        public void dispatch() {
+            throw new UnsupportedOperationException("dispatch");
+        }
+
+        @Override
+        public void dispatch(String path) {
+            throw new UnsupportedOperationException("dispatch");
+        }
+
+        @Override
+        public void dispatch(ServletContext context, String path) {
+            throw new UnsupportedOperationException("dispatch");
+        }
+
+        @Override
+        public void complete() {
+            Assert.assertFalse("completed twice", completed);
+            completed = true;
+            try {
+                for (AsyncListener listener : listeners) {
+                    listener.onComplete(new AsyncEvent(this));
+                }
+            } catch (Exception e) {
+                throw new IllegalStateException(e);
+            }
+        }
+
+        @Override
+        public void start(Runnable run) {
+            run.run();
+        }
+
+        @Override
+        public void addListener(AsyncListener listener) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public void addListener(AsyncListener listener, ServletRequest request, ServletResponse response) {
+            listeners.add(listener);
+        }
+
+        @Override
+        public <T extends AsyncListener> T createListener(Class<T> listenerClass) throws ServletException {
+            try {
+                return listenerClass.newInstance();
+            } catch (Exception e) {
+                throw new ServletException(e);
+            }
+        }
+
+        @Override
+        public void setTimeout(long timeout) {
+            this.timeout = timeout;
+        }
+
+        @Override
+        public long getTimeout() {
+            return timeout;
+        }
     }
 
 }
@@ -0,0 +1,55 @@
+package com.redblackit.web.controller;
+
+import javax.servlet.http.HttpServletResponse;
+
+import junit.framework.Assert;
+
+import org.codehaus.jackson.map.ObjectMapper;
+import org.junit.Test;
+import org.springframework.mock.web.MockHttpServletResponse;
+
+import com.redblackit.version.CompositeVersionInfoMap;
+import com.redblackit.web.client.FleetVersionCollector;
+
+/**
+ * @author djnorth
+ */
+public class FleetVersionControllerTest {
+
+    /**
+     * Test fleet version is the JSON for the collected version
+     */
+    @Test
+    public void testGetFleetVersion() throws Exception {
+        final CompositeVersionInfoMap fleetVersionInfo = new CompositeVersionInfoMap(
+                FleetVersionCollector.NODE_KEY_CONCATENATION_SEPARATOR);
+        fleetVersionInfo.setVersionForKeys("1.0", "https://node0:8443/", "implementation");
+        fleetVersionInfo.setVersionForKeys("timed out", "https://node1:8443/");
+
+        FleetVersionController fleetVersionController = new FleetVersionController();
+        fleetVersionController.setFleetVersionCollector(new FleetVersionCollector() {
+            @Override
+            public CompositeVersionInfoMap collect() {
+                return fleetVersionInfo;
+            }
+        });
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        fleetVersionController.getFleetVersion(response);
+        Assert.assertEquals("status", HttpServletResponse.SC_OK, response.getStatus());
+        Assert.assertEquals("content type", AdminRestController.VERSION_CONTENT_TYPE, response.getContentType());
+        Assert.assertEquals("versionInfo", fleetVersionInfo,
+                            new ObjectMapper().readValue(response.getContentAsByteArray(), CompositeVersionInfoMap.class));
+    }
+
+    /**
+     * Test 404 (Not Found) without a collector
+     */
+    @Test
+    public void testGetFleetVersionNotConfigured() throws Exception {
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        new FleetVersionController().getFleetVersion(response);
+        Assert.assertEquals("status", HttpServletResponse.SC_NOT_FOUND, response.getStatus());
+    }
+
+}
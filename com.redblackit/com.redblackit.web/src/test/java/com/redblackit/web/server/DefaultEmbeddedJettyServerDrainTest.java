@@ -0,0 +1,245 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.web.server;
+
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * @author djnorth
+ * 
+ *         Tests for graceful draining shutdown of DefaultEmbeddedJettyServer,
+ *         with requests in progress that complete within the drain timeout,
+ *         and requests that outlast it and so are aborted.
+ */
+@RunWith(Parameterized.class)
+public class DefaultEmbeddedJettyServerDrainTest {
+
+	/**
+	 * Requests in progress when stopping
+	 */
+	private static final int REQUEST_COUNT = 4;
+
+	/**
+	 * Create test data: drain timeout, request time, expect requests aborted
+	 * 
+	 * @return parameters
+	 */
+	@Parameters
+	public static List<Object[]> getParameters() {
+		Object[][] parameters = { { 5000, 500, false }, { 100, 5000, true } };
+
+		return Arrays.asList(parameters);
+	}
+
+	private static Logger logger = Logger.getLogger("web.server");
+
+	/**
+	 * Supplied parms
+	 */
+	private int suppliedDrainTimeoutMilliseconds;
+	private long suppliedRequestMilliseconds;
+	private boolean expectAborted;
+
+	/**
+	 * Server under test
+	 */
+	private DefaultEmbeddedJettyServer server;
+
+	/**
+	 * Counted down as each request arrives
+	 */
+	private final CountDownLatch requestsArrived = new CountDownLatch(
+			REQUEST_COUNT);
+
+	/**
+	 * Constructor to build tests from parameters
+	 * 
+	 * @param suppliedDrainTimeoutMilliseconds
+	 * @param suppliedRequestMilliseconds
+	 * @param expectAborted
+	 */
+	public DefaultEmbeddedJettyServerDrainTest(
+			int suppliedDrainTimeoutMilliseconds,
+			long suppliedRequestMilliseconds, boolean expectAborted) {
+		this.suppliedDrainTimeoutMilliseconds = suppliedDrainTimeoutMilliseconds;
+		this.suppliedRequestMilliseconds = suppliedRequestMilliseconds;
+		this.expectAborted = expectAborted;
+	}
+
+	/**
+	 * Create and start server, with drain timeout
+	 */
+	@Before
+	public void setUp() {
+		EmbeddedJettyServerConfig config = new EmbeddedJettyServerConfig();
+		config.setHttpPort(EmbeddedJettyServer.EPHEMERAL_PORT);
+		config.setDrainTimeoutMilliseconds(suppliedDrainTimeoutMilliseconds);
+		server = new DefaultEmbeddedJettyServer(config);
+
+		ServletContextHandler context = new ServletContextHandler();
+		context.setContextPath("/");
+		context.addServlet(new ServletHolder(new SlowServlet()), "/slow");
+		server.getServer().setHandler(context);
+		Assert.assertTrue(msg("Server not started"),
+				server.startWait(10, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Ensure server stopped
+	 */
+	@After
+	public void tearDown() {
+		server.setDrainTimeoutMilliseconds(0);
+		server.stopAndJoin();
+	}
+
+	/**
+	 * Test stopWait drains requests in progress, or aborts them after the
+	 * drain timeout, reporting how many, and refuses new connections while
+	 * draining
+	 */
+	@Test
+	public void testStopWaitDrains() throws Exception {
+		final URL url = new URL("http", "localhost", server.getHttpPort(),
+				"/slow");
+		ExecutorService clients = Executors.newFixedThreadPool(REQUEST_COUNT);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		try {
+			for (int i = 0; i < REQUEST_COUNT; ++i) {
+				results.add(clients.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						HttpURLConnection connection = (HttpURLConnection) url
+								.openConnection();
+						try {
+							return connection.getResponseCode();
+						} finally {
+							connection.disconnect();
+						}
+					}
+				}));
+			}
+
+			Assert.assertTrue(msg("requests arrived"),
+					requestsArrived.await(10, TimeUnit.SECONDS));
+			Assert.assertEquals(msg("activeRequests"), REQUEST_COUNT,
+					server.getActiveRequests());
+
+			final long startNanos = System.nanoTime();
+			Assert.assertTrue(msg("Server not stopped"),
+					server.stopWait(30, TimeUnit.SECONDS));
+			final long stopMillis = TimeUnit.NANOSECONDS.toMillis(System
+					.nanoTime() - startNanos);
+			logger.info(msg("stopped after " + stopMillis + " ms:drained="
+					+ server.getDrainedRequests() + ":aborted="
+					+ server.getAbortedRequests()));
+
+			if (expectAborted) {
+				Assert.assertEquals(msg("abortedRequests"), REQUEST_COUNT,
+						server.getAbortedRequests());
+				Assert.assertEquals(msg("drainedRequests"), 0,
+						server.getDrainedRequests());
+			} else {
+				Assert.assertEquals(msg("abortedRequests"), 0,
+						server.getAbortedRequests());
+				Assert.assertEquals(msg("drainedRequests"), REQUEST_COUNT,
+						server.getDrainedRequests());
+				for (Future<Integer> result : results) {
+					Assert.assertEquals(msg("drained request status"),
+							HttpURLConnection.HTTP_OK, result.get()
+									.intValue());
+				}
+				Assert.assertTrue(msg("stopped before drain timeout:"
+						+ stopMillis), stopMillis < suppliedDrainTimeoutMilliseconds);
+			}
+
+			try {
+				url.openConnection().getInputStream();
+				Assert.fail(msg("expected connection refused after stop"));
+			} catch (IOException ioe) {
+				logger.debug(msg("expected exception after stop"), ioe);
+			}
+		} finally {
+			clients.shutdownNow();
+		}
+	}
+
+	/**
+	 * Helper adding parameters to message
+	 * 
+	 * @param msg
+	 * @return message
+	 */
+	private String msg(String msg) {
+		return "drainTimeoutMilliseconds=" + suppliedDrainTimeoutMilliseconds
+				+ ":requestMilliseconds=" + suppliedRequestMilliseconds
+				+ ":expectAborted=" + expectAborted + ":" + msg;
+	}
+
+	/**
+	 * Servlet taking suppliedRequestMilliseconds to respond
+	 */
+	private class SlowServlet extends HttpServlet {
+
+		/**
+		 * Serialization stuff
+		 */
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+				throws ServletException, IOException {
+			requestsArrived.countDown();
+			try {
+				Thread.sleep(suppliedRequestMilliseconds);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			resp.setContentType("text/plain");
+			resp.getWriter().print("ok");
+		}
+	}
+
+}
@@ -0,0 +1,353 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.web.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.apache.log4j.Logger;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * @author djnorth
+ * 
+ *         Load test for DefaultEmbeddedJettyServer created by
+ *         EmbeddedJettyServerFactoryBean, showing throughput at different
+ *         thread pool sizes, for requests which each hold a thread for a fixed
+ *         time (as if waiting on a back-end).
+ * 
+ *         Throughput is logged, and where a baseline pool size is given, a
+ *         server with that pool is run too, and its throughput logged as well.
+ *         Only if the system property ASSERT_SCALING_PROPERTY is true (e.g.
+ *         mvn test -Dcom.redblackit.web.server.assertLoadScaling=true, on a
+ *         quiet machine) must the larger pool give at least twice the
+ *         throughput, as timings on a shared build machine are too variable
+ *         to fail the build on.
+ */
+@RunWith(Parameterized.class)
+public class DefaultEmbeddedJettyServerLoadTest {
+
+	/**
+	 * Time each request holds a thread
+	 */
+	private static final long REQUEST_MILLISECONDS = 10;
+
+	/**
+	 * Concurrent clients
+	 */
+	private static final int CLIENT_COUNT = 64;
+
+	/**
+	 * Requests made by each client
+	 */
+	private static final int REQUESTS_PER_CLIENT = 20;
+
+	/**
+	 * Minimum ratio of throughput to baseline throughput
+	 */
+	private static final double MIN_SCALING = 2.0;
+
+	/**
+	 * System property which, if true, makes testThroughput assert MIN_SCALING
+	 */
+	public static final String ASSERT_SCALING_PROPERTY = "com.redblackit.web.server.assertLoadScaling";
+
+	/**
+	 * No baseline
+	 */
+	private static final int NO_BASELINE = 0;
+
+	/**
+	 * Create test data: maxThreads, acceptors, baseline maxThreads
+	 * 
+	 * @return parameters
+	 */
+	@Parameters
+	public static List<Object[]> getParameters() {
+		Object[][] parameters = { { 8, 1, NO_BASELINE }, { 32, 1, 8 },
+				{ 128, 2, NO_BASELINE } };
+
+		return Arrays.asList(parameters);
+	}
+
+	private static Logger logger = Logger.getLogger("web.server");
+
+	/**
+	 * Supplied parms
+	 */
+	private int suppliedMaxThreads;
+	private int suppliedAcceptors;
+	private int suppliedBaselineMaxThreads;
+
+	/**
+	 * Http port bound
+	 */
+	private int httpPort;
+
+	/**
+	 * Factory creating server under test
+	 */
+	private EmbeddedJettyServerFactoryBean factoryBean;
+
+	/**
+	 * Constructor to build tests from parameters
+	 * 
+	 * @param suppliedMaxThreads
+	 * @param suppliedAcceptors
+	 * @param suppliedBaselineMaxThreads
+	 */
+	public DefaultEmbeddedJettyServerLoadTest(int suppliedMaxThreads,
+			int suppliedAcceptors, int suppliedBaselineMaxThreads) {
+		this.suppliedMaxThreads = suppliedMaxThreads;
+		this.suppliedAcceptors = suppliedAcceptors;
+		this.suppliedBaselineMaxThreads = suppliedBaselineMaxThreads;
+	}
+
+	/**
+	 * Create and start server
+	 */
+	@Before
+	public void setUp() throws Exception {
+		factoryBean = createFactoryBean(suppliedMaxThreads, suppliedAcceptors);
+		httpPort = factoryBean.getObject().getHttpPort();
+	}
+
+	/**
+	 * Stop server
+	 */
+	@After
+	public void tearDown() throws Exception {
+		factoryBean.destroy();
+	}
+
+	/**
+	 * Test configuration is applied to the server
+	 */
+	@Test
+	public void testConfiguration() {
+		EmbeddedJettyServer embeddedJettyServer = factoryBean.getObject();
+		QueuedThreadPool threadPool = (QueuedThreadPool) embeddedJettyServer
+				.getServer().getThreadPool();
+		Assert.assertEquals(msg("maxThreads"), suppliedMaxThreads,
+				threadPool.getMaxThreads());
+		Assert.assertEquals(msg("minThreads"), suppliedMaxThreads,
+				threadPool.getMinThreads());
+		Assert.assertEquals(msg("httpPort"), httpPort, embeddedJettyServer
+				.getHttpConnector().getPort());
+		Assert.assertEquals(msg("maxIdleTime"), 30000, embeddedJettyServer
+				.getHttpConnector().getMaxIdleTime());
+		Assert.assertNull(msg("httpsConnector"),
+				embeddedJettyServer.getHttpsConnector());
+	}
+
+	/**
+	 * Test all requests succeed, and, given a baseline and
+	 * ASSERT_SCALING_PROPERTY, that throughput is at least MIN_SCALING times
+	 * that with the baseline pool size
+	 */
+	@Test
+	public void testThroughput() throws Exception {
+		final double throughput = measureThroughput(httpPort);
+		logger.info(msg("throughput=" + Math.round(throughput)
+				+ " requests/s:limit="
+				+ Math.round(limit(suppliedMaxThreads)) + " requests/s"));
+
+		if (suppliedBaselineMaxThreads != NO_BASELINE) {
+			EmbeddedJettyServerFactoryBean baselineFactoryBean = createFactoryBean(
+					suppliedBaselineMaxThreads, suppliedAcceptors);
+			final double baselineThroughput;
+			try {
+				baselineThroughput = measureThroughput(baselineFactoryBean
+						.getObject().getHttpPort());
+			} finally {
+				baselineFactoryBean.destroy();
+			}
+			logger.info(msg("baseline throughput="
+					+ Math.round(baselineThroughput) + " requests/s:limit="
+					+ Math.round(limit(suppliedBaselineMaxThreads))
+					+ " requests/s:scaling=" + (throughput / baselineThroughput)));
+
+			if (Boolean.getBoolean(ASSERT_SCALING_PROPERTY)) {
+				Assert.assertTrue(msg("throughput " + throughput + " lt "
+						+ MIN_SCALING + " * baseline throughput "
+						+ baselineThroughput), throughput >= MIN_SCALING
+						* baselineThroughput);
+			}
+		}
+	}
+
+	/**
+	 * Create and start server with maxThreads and acceptors
+	 * 
+	 * @param maxThreads
+	 * @param acceptors
+	 * @return factory bean
+	 * @throws Exception
+	 */
+	private EmbeddedJettyServerFactoryBean createFactoryBean(int maxThreads,
+			int acceptors) throws Exception {
+		ServletContextHandler context = new ServletContextHandler();
+		context.setContextPath("/");
+		context.addServlet(new ServletHolder(new SleepServlet()), "/sleep");
+
+		EmbeddedJettyServerFactoryBean newFactoryBean = new EmbeddedJettyServerFactoryBean();
+		newFactoryBean.setHttpPort(EmbeddedJettyServer.EPHEMERAL_PORT);
+		newFactoryBean.setMinThreads(maxThreads);
+		newFactoryBean.setMaxThreads(maxThreads);
+		newFactoryBean.setAcceptors(acceptors);
+		newFactoryBean.setAcceptQueueSize(CLIENT_COUNT);
+		newFactoryBean.setMaxIdleTimeMilliseconds(30000);
+		newFactoryBean.setHandler(context);
+		newFactoryBean.setAutoStart(true);
+		newFactoryBean.afterPropertiesSet();
+		return newFactoryBean;
+	}
+
+	/**
+	 * Run CLIENT_COUNT clients each making REQUESTS_PER_CLIENT requests,
+	 * checking all succeed
+	 * 
+	 * @param port
+	 * @return throughput in requests/s
+	 * @throws Exception
+	 */
+	private double measureThroughput(int port) throws Exception {
+		final URL url = new URL("http", "localhost", port, "/sleep");
+		ExecutorService clients = Executors.newFixedThreadPool(CLIENT_COUNT);
+		List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+
+		final long startNanos = System.nanoTime();
+		try {
+			for (int i = 0; i < CLIENT_COUNT; ++i) {
+				results.add(clients.submit(new Callable<Integer>() {
+					@Override
+					public Integer call() throws Exception {
+						int okCount = 0;
+						for (int r = 0; r < REQUESTS_PER_CLIENT; ++r) {
+							if (get(url) == HttpURLConnection.HTTP_OK) {
+								++okCount;
+							}
+						}
+						return okCount;
+					}
+				}));
+			}
+
+			int okCount = 0;
+			for (Future<Integer> result : results) {
+				okCount += result.get();
+			}
+			Assert.assertEquals(msg("all requests OK on port " + port),
+					CLIENT_COUNT * REQUESTS_PER_CLIENT, okCount);
+		} finally {
+			clients.shutdownNow();
+		}
+
+		final long elapsedMillis = Math.max(1,
+				(System.nanoTime() - startNanos) / 1000000);
+		return (CLIENT_COUNT * REQUESTS_PER_CLIENT * 1000.0) / elapsedMillis;
+	}
+
+	/**
+	 * @param maxThreads
+	 * @return throughput limit set by the threads left after the acceptors
+	 */
+	private double limit(int maxThreads) {
+		return ((maxThreads - suppliedAcceptors) * 1000.0)
+				/ REQUEST_MILLISECONDS;
+	}
+
+	/**
+	 * Make a GET request, reading the response
+	 * 
+	 * @param url
+	 * @return status code
+	 * @throws IOException
+	 */
+	private int get(URL url) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+		try {
+			final int responseCode = connection.getResponseCode();
+			InputStream inputStream = connection.getInputStream();
+			while (inputStream.read() >= 0) {
+			}
+			inputStream.close();
+			return responseCode;
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * Helper adding parameters to message
+	 * 
+	 * @param msg
+	 * @return message
+	 */
+	private String msg(String msg) {
+		return "maxThreads=" + suppliedMaxThreads + ":acceptors="
+				+ suppliedAcceptors + ":baselineMaxThreads="
+				+ suppliedBaselineMaxThreads + ":" + msg;
+	}
+
+	/**
+	 * Servlet holding its thread for REQUEST_MILLISECONDS
+	 */
+	private static class SleepServlet extends HttpServlet {
+
+		/**
+		 * Serialization stuff
+		 */
+		private static final long serialVersionUID = 1L;
+
+		@Override
+		protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+				throws ServletException, IOException {
+			try {
+				Thread.sleep(REQUEST_MILLISECONDS);
+			} catch (InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+			resp.setContentType("text/plain");
+			resp.getWriter().print("ok");
+		}
+	}
+
+}
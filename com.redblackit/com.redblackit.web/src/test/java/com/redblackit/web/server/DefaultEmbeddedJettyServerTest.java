@@ -24,6 +24,7 @@ import java.security.KeyStore;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.HttpsURLConnection;
 import javax.net.ssl.KeyManagerFactory;
@@ -74,8 +75,8 @@ public class DefaultEmbeddedJettyServerTest {
 		}
 
 		Object[][] parameters = {
-				{ 18280, 0, null, null, null, null, null, null, null, null },
-				{ 0, 8643, KeyAndTrustStoreInfo.getServer0Ks(),
+				{ 18280, EmbeddedJettyServer.NO_PORT, null, null, null, null, null, null, null, null },
+				{ EmbeddedJettyServer.NO_PORT, 8643, KeyAndTrustStoreInfo.getServer0Ks(),
 						KeyAndTrustStoreInfo.SERVER0_KS_PWD,
                         KeyAndTrustStoreInfo.getServer0Ts(),
 						KeyAndTrustStoreInfo.SERVER0_TS_PWD,
@@ -90,6 +91,16 @@ public class DefaultEmbeddedJettyServerTest {
                         KeyAndTrustStoreInfo.getClient1Ks(),
 						KeyAndTrustStoreInfo.CLIENT1_KS_PWD,
                         KeyAndTrustStoreInfo.getClient1Ts(),
+						KeyAndTrustStoreInfo.CLIENT1_TS_PWD },
+				{ EmbeddedJettyServer.EPHEMERAL_PORT,
+						EmbeddedJettyServer.EPHEMERAL_PORT,
+						KeyAndTrustStoreInfo.getServer1Ks(),
+						KeyAndTrustStoreInfo.SERVER1_KS_PWD,
+						KeyAndTrustStoreInfo.getServer1Ts(),
+						KeyAndTrustStoreInfo.SERVER1_TS_PWD,
+						KeyAndTrustStoreInfo.getClient1Ks(),
+						KeyAndTrustStoreInfo.CLIENT1_KS_PWD,
+						KeyAndTrustStoreInfo.getClient1Ts(),
 						KeyAndTrustStoreInfo.CLIENT1_TS_PWD } };
 
 		return Arrays.asList(parameters);
@@ -175,9 +186,9 @@ public class DefaultEmbeddedJettyServerTest {
 	public void testContructorAllArgsHttpsKeyEqTrustStorePasswordsInconsistent()
 			throws Exception {
 
-		if (suppliedHttpsPort > 0 && suppliedKeyStore != null
+		if (suppliedHttpsPort >= 0 && suppliedKeyStore != null
 				&& suppliedKeyStore.equals(suppliedTrustStore)) {
-			logger.debug("test:httpsPort > 0 and keyStore eq trustStore:" + this);
+			logger.debug("test:httpsPort >= 0 and keyStore eq trustStore:" + this);
 			try {
 				this.embeddedJettyServer = new DefaultEmbeddedJettyServer(
 						suppliedHttpPort, suppliedHttpsPort, suppliedKeyStore,
@@ -189,7 +200,7 @@ public class DefaultEmbeddedJettyServerTest {
 				logger.info("expected exception for mis-matched passwords:this=" + this, ise);
 			}
 		} else {
-			logger.debug("skipping test:httpsPort <=0 or keyStore != trustStore:" + this);
+			logger.debug("skipping test:httpsPort < 0 or keyStore != trustStore:" + this);
 		}
 
 	}
@@ -200,9 +211,9 @@ public class DefaultEmbeddedJettyServerTest {
 	@Test
 	public void testContructorAllArgsHttpsMissingKeyStore() throws Exception {
 
-		if (suppliedHttpsPort > 0) {
+		if (suppliedHttpsPort >= 0) {
 
-			logger.debug("test:httpsPort > 0 missing keyStore:" + this);
+			logger.debug("test:httpsPort >= 0 missing keyStore:" + this);
 			try {
 				this.embeddedJettyServer = new DefaultEmbeddedJettyServer(
 						suppliedHttpPort, suppliedHttpsPort, null,
@@ -215,7 +226,7 @@ public class DefaultEmbeddedJettyServerTest {
 				logger.debug("expected exception for missing keyStore:this=" + this, iae);
 			}
 		} else {
-			logger.info("skipping test for missing keyStore:httpsPort <=0");
+			logger.info("skipping test for missing keyStore:httpsPort < 0");
 		}
 
 	}
@@ -227,9 +238,9 @@ public class DefaultEmbeddedJettyServerTest {
 	public void testContructorAllArgsHttpsMissingKeyStorePassword()
 			throws Exception {
 
-		if (suppliedHttpsPort > 0) {
+		if (suppliedHttpsPort >= 0) {
 
-			logger.debug("test:httpsPort > 0 missing keyStorePassword:" + this);
+			logger.debug("test:httpsPort >= 0 missing keyStorePassword:" + this);
 			try {
 				this.embeddedJettyServer = new DefaultEmbeddedJettyServer(
 						suppliedHttpPort, suppliedHttpsPort, suppliedKeyStore,
@@ -241,7 +252,7 @@ public class DefaultEmbeddedJettyServerTest {
 				logger.info("expected exception for missing keyStorePassword:this=" + this, iae);
 			}
 		} else {
-			logger.info("skipping test for missing keyStorePassword:httpsPort <=0");
+			logger.info("skipping test for missing keyStorePassword:httpsPort < 0");
 		}
 
 	}
@@ -252,9 +263,9 @@ public class DefaultEmbeddedJettyServerTest {
 	@Test
 	public void testContructorAllArgsHttpsMissingTrustStore() throws Exception {
 
-		if (suppliedHttpsPort > 0) {
+		if (suppliedHttpsPort >= 0) {
 
-			logger.debug("test:httpsPort > 0 missing trustStore:" + this);
+			logger.debug("test:httpsPort >= 0 missing trustStore:" + this);
 			try {
 				this.embeddedJettyServer = new DefaultEmbeddedJettyServer(
 						suppliedHttpPort, suppliedHttpsPort, suppliedKeyStore,
@@ -267,7 +278,7 @@ public class DefaultEmbeddedJettyServerTest {
 				logger.info("expected exception for missing trustStore:this=" + this, iae);
 			}
 		} else {
-			logger.info("skipping test for missing trustStore:httpsPort <=0");
+			logger.info("skipping test for missing trustStore:httpsPort < 0");
 		}
 
 	}
@@ -279,9 +290,9 @@ public class DefaultEmbeddedJettyServerTest {
 	public void testContructorAllArgsHttpsMissingTrustStorePassword()
 			throws Exception {
 
-		if (suppliedHttpsPort > 0) {
+		if (suppliedHttpsPort >= 0) {
 
-			logger.debug("test:httpsPort > 0 missing trustStorePassword:" + this);
+			logger.debug("test:httpsPort >= 0 missing trustStorePassword:" + this);
 			try {
 				this.embeddedJettyServer = new DefaultEmbeddedJettyServer(
 						suppliedHttpPort, suppliedHttpsPort, suppliedKeyStore,
@@ -293,7 +304,7 @@ public class DefaultEmbeddedJettyServerTest {
 				logger.info("expected exception for missing trustStorePassword:this=" + this, iae);
 			}
 		} else {
-			logger.info("skipping test for missing trustStorePassword:httpsPort <=0");
+			logger.info("skipping test for missing trustStorePassword:httpsPort < 0");
 		}
 
 	}
@@ -313,6 +324,57 @@ public class DefaultEmbeddedJettyServerTest {
 				suppliedKeyStorePassword);
 	}
 
+	/**
+	 * Test startWait and stopWait return as soon as the server has started or
+	 * stopped, rather than on a whole second, and startup phase timings are
+	 * recorded in order
+	 */
+	@Test
+	public void testStartStopWaitTimings() throws Exception {
+		logger.debug("test:start and stop timings:" + this);
+		DefaultEmbeddedJettyServer server = new DefaultEmbeddedJettyServer(
+				suppliedHttpPort, suppliedHttpsPort, suppliedKeyStore,
+				suppliedKeyStorePassword, suppliedTrustStore,
+				suppliedTrustStorePassword);
+		this.embeddedJettyServer = server;
+		ServletContextHandler context = new ServletContextHandler(
+				ServletContextHandler.SESSIONS);
+		context.setContextPath("/");
+		context.addServlet(new ServletHolder(new EchoServlet()), "/echo");
+		context.addServlet(createLoadServletHolder(), "/load");
+		server.getServer().setHandler(context);
+
+		try {
+			Assert.assertEquals("timings before start:" + this, -1,
+					server.getReadyMilliseconds());
+			Assert.assertTrue("Server not started in 10 secs:" + this,
+					server.startWait(10, TimeUnit.SECONDS));
+			Assert.assertTrue("isStarted:" + this, server.isStarted());
+			logger.info("startupTimings=" + server.getStartupTimings() + ":" + this);
+
+			Assert.assertTrue("contextInit:" + this,
+					server.getContextInitMilliseconds() >= 0);
+			Assert.assertTrue("connectorOpen:" + this,
+					server.getConnectorOpenMilliseconds() >= 0);
+			Assert.assertTrue("ready after contextInit:" + this,
+					server.getReadyMilliseconds() >= server
+							.getContextInitMilliseconds());
+			Assert.assertTrue("ready after connectorOpen:" + this,
+					server.getReadyMilliseconds() >= server
+							.getConnectorOpenMilliseconds());
+			Assert.assertTrue("startWait on started server:" + this,
+					server.startWait(1, TimeUnit.MILLISECONDS));
+
+			Assert.assertTrue("Server not stopped in 10 secs:" + this,
+					server.stopWait(10, TimeUnit.SECONDS));
+			Assert.assertTrue("stopped well within a second:" + this,
+					server.getStopMilliseconds() < 1000);
+		} finally {
+			embeddedJettyServer.stopAndJoin();
+			embeddedJettyServer = null;
+		}
+	}
+
 	/*
 	 * (non-Javadoc)
 	 * 
@@ -375,16 +437,18 @@ public class DefaultEmbeddedJettyServerTest {
 		Assert.assertNotNull(msg, embeddedJettyServer);
 
 		Connector connector = embeddedJettyServer.getHttpConnector();
-		if (useHttpPort > 0) {
+		if (useHttpPort >= 0) {
 			Assert.assertNotNull("should have httpConnector" + msg, connector);
 			Assert.assertEquals("httpPort" + msg, useHttpPort,
 					connector.getPort());
 		} else {
 			Assert.assertNull("should not have httpConnector" + msg, connector);
 		}
+		Assert.assertEquals("getHttpPort before start" + msg, useHttpPort,
+				embeddedJettyServer.getHttpPort());
 
 		SslConnector sslConnector = embeddedJettyServer.getHttpsConnector();
-		if (useHttpsPort > 0) {
+		if (useHttpsPort >= 0) {
 			Assert.assertNotNull("should have httpsConnector" + msg,
 					sslConnector);
 			Assert.assertEquals("httpsPort" + msg, useHttpsPort,
@@ -395,13 +459,16 @@ public class DefaultEmbeddedJettyServerTest {
 			Assert.assertNull("should not have httpsConnector" + msg,
 					sslConnector);
 		}
+		Assert.assertEquals("getHttpsPort before start" + msg, useHttpsPort,
+				embeddedJettyServer.getHttpsPort());
 
-		if (useHttpPort > 0 || useHttpsPort > 0) {
+		if (useHttpPort >= 0 || useHttpsPort >= 0) {
 			ServletContextHandler context = new ServletContextHandler(
 					ServletContextHandler.SESSIONS);
 			context.setContextPath("/");
 			embeddedJettyServer.getServer().setHandler(context);
 			context.addServlet(new ServletHolder(new EchoServlet()), "/echo");
+			context.addServlet(createLoadServletHolder(), "/load");
 
 			try {
 
@@ -409,18 +476,39 @@ public class DefaultEmbeddedJettyServerTest {
 						+ embeddedJettyServer,
 						embeddedJettyServer.startWait(120));
 
-				if (useHttpPort > 0) {
+				final int boundHttpPort = embeddedJettyServer.getHttpPort();
+				final int boundHttpsPort = embeddedJettyServer.getHttpsPort();
+				verifyBoundPort("httpPort" + msg, useHttpPort, boundHttpPort);
+				verifyBoundPort("httpsPort" + msg, useHttpsPort, boundHttpsPort);
+
+				if (useHttpPort >= 0) {
 
 					final String body = "testHttp";
 
-					URL url = new URL("http", HOSTNAME, useHttpPort, "/echo");
+					URL url = new URL("http", HOSTNAME, boundHttpPort, "/echo");
 					HttpURLConnection connection = (HttpURLConnection) url
 							.openConnection();
 
-					verifyRequestResponse(useHttpPort, body, connection);
+					verifyRequestResponse(boundHttpPort, body, connection);
+
+					URL loadUrl = new URL("http", HOSTNAME, boundHttpPort,
+							"/load?size=1000&latency=10");
+					HttpURLConnection loadConnection = (HttpURLConnection) loadUrl
+							.openConnection();
+					try {
+						Assert.assertEquals("load status" + msg,
+								HttpURLConnection.HTTP_OK,
+								loadConnection.getResponseCode());
+						Assert.assertEquals("load Content-Length" + msg, 1000,
+								loadConnection.getContentLength());
+						Assert.assertNotNull("load Server-Timing" + msg,
+								loadConnection.getHeaderField("Server-Timing"));
+					} finally {
+						loadConnection.disconnect();
+					}
 				}
 
-				if (useHttpsPort > 0) {
+				if (useHttpsPort >= 0) {
 					final String body = "testHttps";
 					SSLSocketFactory factory = null;
 					SSLContext ctx;
@@ -445,12 +533,12 @@ public class DefaultEmbeddedJettyServerTest {
 					ctx.init(kmf.getKeyManagers(), tmf.getTrustManagers(), null);
 
 					factory = ctx.getSocketFactory();
-					URL url = new URL("https", HOSTNAME, useHttpsPort, "/echo");
+					URL url = new URL("https", HOSTNAME, boundHttpsPort, "/echo");
 					HttpsURLConnection sslConnection = (HttpsURLConnection) url
 							.openConnection();
 					sslConnection.disconnect();
 					sslConnection.setSSLSocketFactory(factory);
-					verifyRequestResponse(useHttpsPort, body, sslConnection);
+					verifyRequestResponse(boundHttpsPort, body, sslConnection);
 				}
 
 			} finally {
@@ -464,6 +552,36 @@ public class DefaultEmbeddedJettyServerTest {
 		}
 	}
 
+	/**
+	 * Helper checking the port bound once started: the supplied port, any
+	 * port for EPHEMERAL_PORT, or NO_PORT for no connector
+	 * 
+	 * @param portName
+	 * @param suppliedPort
+	 * @param boundPort
+	 */
+	private void verifyBoundPort(String portName, int suppliedPort,
+			int boundPort) {
+		if (suppliedPort == EmbeddedJettyServer.EPHEMERAL_PORT) {
+			Assert.assertTrue(portName + " bound to ephemeral port:"
+					+ boundPort, boundPort > 0);
+		} else {
+			Assert.assertEquals(portName, suppliedPort, boundPort);
+		}
+	}
+
+	/**
+	 * Helper creating async supported load servlet holder, registered
+	 * alongside the echo servlet
+	 * 
+	 * @return holder
+	 */
+	private ServletHolder createLoadServletHolder() {
+		ServletHolder holder = new ServletHolder(new LoadServlet());
+		holder.setAsyncSupported(true);
+		return holder;
+	}
+
     /**
      * Helper comparing store files, allowing for path expansion
      * 
@@ -0,0 +1,277 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.web.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * @author djnorth
+ * 
+ *         Tests for EchoServlet streaming large binary bodies through an
+ *         embedded server, with fixed length and chunked requests, echoed
+ *         synchronously and asynchronously.
+ */
+@RunWith(Parameterized.class)
+public class EchoServletStreamingTest {
+
+	/**
+	 * Create test data: asyncThreshold, body size, chunked
+	 * 
+	 * @return parameters
+	 */
+	@Parameters
+	public static List<Object[]> getParameters() {
+		Object[][] parameters = {
+				{ EchoServlet.ASYNC_DISABLED, 5 * 1024 * 1024, false },
+				{ EchoServlet.ASYNC_DISABLED, 5 * 1024 * 1024, true },
+				{ 1024L * 1024, 5 * 1024 * 1024, false },
+				{ 1024L * 1024, 5 * 1024 * 1024, true },
+				{ 1024L * 1024, 1000, false } };
+
+		return Arrays.asList(parameters);
+	}
+
+	private static Logger logger = Logger.getLogger("web.server");
+
+	/**
+	 * Supplied parms
+	 */
+	private long suppliedAsyncThreshold;
+	private int suppliedSize;
+	private boolean suppliedChunked;
+
+	/**
+	 * Server
+	 */
+	private EmbeddedJettyServer server;
+
+	/**
+	 * Constructor to build tests from parameters
+	 * 
+	 * @param suppliedAsyncThreshold
+	 * @param suppliedSize
+	 * @param suppliedChunked
+	 */
+	public EchoServletStreamingTest(long suppliedAsyncThreshold,
+			int suppliedSize, boolean suppliedChunked) {
+		this.suppliedAsyncThreshold = suppliedAsyncThreshold;
+		this.suppliedSize = suppliedSize;
+		this.suppliedChunked = suppliedChunked;
+	}
+
+	/**
+	 * Start server with async-supported echo servlet
+	 */
+	@Before
+	public void setUp() {
+		server = new DefaultEmbeddedJettyServer(
+				EmbeddedJettyServer.EPHEMERAL_PORT, EmbeddedJettyServer.NO_PORT,
+				null, null);
+		ServletContextHandler context = new ServletContextHandler();
+		context.setContextPath("/");
+		EchoServlet echoServlet = new EchoServlet();
+		echoServlet.setAsyncThreshold(suppliedAsyncThreshold);
+		ServletHolder holder = new ServletHolder(echoServlet);
+		holder.setAsyncSupported(true);
+		context.addServlet(holder, "/echo");
+		server.getServer().setHandler(context);
+		Assert.assertTrue(msg("Server not started"),
+				server.startWait(10, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Stop server
+	 */
+	@After
+	public void tearDown() {
+		server.stopAndJoin();
+	}
+
+	/**
+	 * Test body is echoed unchanged, with Content-Length for a fixed length
+	 * request. The body is sent by another thread while we read the
+	 * response, as a client must for bodies larger than the socket buffers.
+	 */
+	@Test
+	public void testEchoStreaming() throws Exception {
+		final byte[] body = new byte[suppliedSize];
+		for (int i = 0; i < body.length; ++i) {
+			body[i] = (byte) (i * 31);
+		}
+
+		final long startNanos = System.nanoTime();
+		final Socket socket = new Socket("localhost", server.getHttpPort());
+		try {
+			final OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+			StringBuilder requestHeader = new StringBuilder();
+			requestHeader.append("POST /echo HTTP/1.1\r\n");
+			requestHeader.append("Host: localhost\r\n");
+			requestHeader.append("Content-Type: application/octet-stream\r\n");
+			requestHeader.append("Connection: close\r\n");
+			if (suppliedChunked) {
+				requestHeader.append("Transfer-Encoding: chunked\r\n\r\n");
+			} else {
+				requestHeader.append("Content-Length: ").append(body.length).append("\r\n\r\n");
+			}
+			out.write(requestHeader.toString().getBytes("ISO-8859-1"));
+
+			ExecutorService writer = Executors.newSingleThreadExecutor();
+			Future<Void> written = writer.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					if (suppliedChunked) {
+						for (int offset = 0; offset < body.length; offset += EchoServlet.BUFFER_SIZE) {
+							final int length = Math.min(EchoServlet.BUFFER_SIZE, body.length - offset);
+							out.write((Integer.toHexString(length) + "\r\n").getBytes("ISO-8859-1"));
+							out.write(body, offset, length);
+							out.write("\r\n".getBytes("ISO-8859-1"));
+						}
+						out.write("0\r\n\r\n".getBytes("ISO-8859-1"));
+					} else {
+						out.write(body);
+					}
+					out.flush();
+					return null;
+				}
+			});
+
+			try {
+				InputStream in = new BufferedInputStream(socket.getInputStream());
+				final String statusLine = readLine(in);
+				Assert.assertTrue(msg("status:" + statusLine), statusLine.contains(" 200 "));
+
+				int contentLength = -1;
+				boolean isChunked = false;
+				for (String header = readLine(in); header.length() > 0; header = readLine(in)) {
+					final String lowerHeader = header.toLowerCase();
+					if (lowerHeader.startsWith("content-length:")) {
+						contentLength = Integer.parseInt(header.substring(15).trim());
+					} else if (lowerHeader.startsWith("transfer-encoding:")) {
+						isChunked = lowerHeader.contains("chunked");
+					}
+				}
+
+				if (!suppliedChunked) {
+					Assert.assertEquals(msg("Content-Length"), body.length, contentLength);
+				}
+
+				final byte[] echoed = (isChunked ? readChunked(in) : readFully(in, contentLength));
+				written.get();
+				logger.info(msg("echoed " + echoed.length + " bytes in "
+						+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)
+						+ " ms"));
+
+				Assert.assertTrue(msg("body unchanged"), Arrays.equals(body, echoed));
+			} finally {
+				writer.shutdownNow();
+			}
+		} finally {
+			socket.close();
+		}
+	}
+
+	/**
+	 * Read a CRLF terminated line
+	 * 
+	 * @param in
+	 * @return line without CRLF
+	 * @throws IOException
+	 */
+	private String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder();
+		int c;
+		while ((c = in.read()) >= 0 && c != '\n') {
+			if (c != '\r') {
+				line.append((char) c);
+			}
+		}
+		return line.toString();
+	}
+
+	/**
+	 * Read length bytes, or to end of stream if length < 0
+	 * 
+	 * @param in
+	 * @param length
+	 * @return bytes
+	 * @throws IOException
+	 */
+	private byte[] readFully(InputStream in, int length) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((length < 0 || bytes.size() < length)
+				&& (read = in.read(buffer, 0, (length < 0 ? buffer.length
+						: Math.min(buffer.length, length - bytes.size())))) >= 0) {
+			bytes.write(buffer, 0, read);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Read chunked body
+	 * 
+	 * @param in
+	 * @return bytes
+	 * @throws IOException
+	 */
+	private byte[] readChunked(InputStream in) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		for (int chunkLength = Integer.parseInt(readLine(in).trim(), 16); chunkLength > 0; chunkLength = Integer
+				.parseInt(readLine(in).trim(), 16)) {
+			bytes.write(readFully(in, chunkLength));
+			readLine(in);
+		}
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Helper adding parameters to message
+	 * 
+	 * @param msg
+	 * @return message
+	 */
+	private String msg(String msg) {
+		return "asyncThreshold=" + suppliedAsyncThreshold + ":size="
+				+ suppliedSize + ":chunked=" + suppliedChunked + ":" + msg;
+	}
+
+}
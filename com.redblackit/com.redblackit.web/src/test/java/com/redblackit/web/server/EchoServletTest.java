@@ -174,6 +174,33 @@ public class EchoServletTest {
         doTest("HEAD", false);
     }
 
+    /**
+     * test POST of a binary body larger than the servlet's buffer, with every
+     * byte value, which must be echoed unchanged
+     */
+    @Test
+    public void testEchoPostBinary() throws Exception {
+        final byte[] binaryBody = new byte[EchoServlet.BUFFER_SIZE * 2 + 17];
+        for (int i = 0; i < binaryBody.length; ++i) {
+            binaryBody[i] = (byte) (i * 31);
+        }
+
+        MockHttpServletRequest request = new MockHttpServletRequest();
+        request.setMethod("POST");
+        request.setRequestURI(this.requestURI);
+        request.addHeader("Content-Type", "application/octet-stream");
+        request.setContent(binaryBody);
+
+        MockHttpServletResponse response = new MockHttpServletResponse();
+        echoServlet.service(request, response);
+
+        Assert.assertEquals("response code:" + response, HttpServletResponse.SC_OK,
+                            response.getStatus());
+        Assert.assertEquals("contentLength", binaryBody.length, response.getContentLength());
+        Assert.assertTrue("binary body unchanged",
+                          Arrays.equals(binaryBody, response.getContentAsByteArray()));
+    }
+
     /**
      * toString
      */
@@ -0,0 +1,223 @@
+/*
+ * Copyright 2002-2011 the original author or authors, or Red-Black IT Ltd, as appropriate.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.redblackit.web.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+import org.junit.After;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+/**
+ * @author djnorth
+ * 
+ *         Tests for LoadServlet through an embedded server, with and without
+ *         latency, async supported and not.
+ */
+@RunWith(Parameterized.class)
+public class LoadServletTest {
+
+	/**
+	 * Create test data: size, latency, async supported
+	 * 
+	 * @return parameters
+	 */
+	@Parameters
+	public static List<Object[]> getParameters() {
+		Object[][] parameters = { { 0L, 0L, true }, { 1000L, 0L, true },
+				{ 5L * 1024 * 1024, 0L, true }, { 1000L, 200L, true },
+				{ 5L * 1024 * 1024, 200L, true }, { 1000L, 200L, false } };
+
+		return Arrays.asList(parameters);
+	}
+
+	private static Logger logger = Logger.getLogger("web.server");
+
+	/**
+	 * Supplied parms
+	 */
+	private long suppliedSize;
+	private long suppliedLatency;
+	private boolean suppliedAsyncSupported;
+
+	/**
+	 * Server
+	 */
+	private EmbeddedJettyServer server;
+
+	/**
+	 * Constructor to build tests from parameters
+	 * 
+	 * @param suppliedSize
+	 * @param suppliedLatency
+	 * @param suppliedAsyncSupported
+	 */
+	public LoadServletTest(long suppliedSize, long suppliedLatency,
+			boolean suppliedAsyncSupported) {
+		this.suppliedSize = suppliedSize;
+		this.suppliedLatency = suppliedLatency;
+		this.suppliedAsyncSupported = suppliedAsyncSupported;
+	}
+
+	/**
+	 * Start server with load servlet
+	 */
+	@Before
+	public void setUp() {
+		server = new DefaultEmbeddedJettyServer(
+				EmbeddedJettyServer.EPHEMERAL_PORT, EmbeddedJettyServer.NO_PORT,
+				null, null);
+		ServletContextHandler context = new ServletContextHandler();
+		context.setContextPath("/");
+		LoadServlet loadServlet = new LoadServlet();
+		loadServlet.setMaxSize(10L * 1024 * 1024);
+		loadServlet.setMaxLatencyMilliseconds(1000);
+		ServletHolder holder = new ServletHolder(loadServlet);
+		holder.setAsyncSupported(suppliedAsyncSupported);
+		context.addServlet(holder, "/load");
+		server.getServer().setHandler(context);
+		Assert.assertTrue(msg("Server not started"),
+				server.startWait(10, TimeUnit.SECONDS));
+	}
+
+	/**
+	 * Stop server
+	 */
+	@After
+	public void tearDown() {
+		server.stopAndJoin();
+	}
+
+	/**
+	 * Test body is of requested size from the fill pattern, sent no earlier
+	 * than the requested latency, with Content-Length and Server-Timing
+	 * headers
+	 */
+	@Test
+	public void testLoad() throws Exception {
+		final long startNanos = System.nanoTime();
+		HttpURLConnection connection = openConnection("size=" + suppliedSize
+				+ "&latency=" + suppliedLatency);
+		try {
+			Assert.assertEquals(msg("status"), HttpURLConnection.HTTP_OK,
+					connection.getResponseCode());
+			final long headersMilliseconds = TimeUnit.NANOSECONDS
+					.toMillis(System.nanoTime() - startNanos);
+			Assert.assertEquals(msg("Content-Length"), suppliedSize,
+					Long.parseLong(connection.getHeaderField("Content-Length")));
+			Assert.assertTrue(msg("latency " + headersMilliseconds + " ms"),
+					headersMilliseconds >= suppliedLatency);
+
+			final String serverTiming = connection.getHeaderField("Server-Timing");
+			Assert.assertNotNull(msg("Server-Timing"), serverTiming);
+			Assert.assertTrue(msg("Server-Timing:" + serverTiming),
+					serverTiming.matches("delay;dur=[0-9.]+"));
+			final double delay = Double.parseDouble(serverTiming
+					.substring(serverTiming.indexOf('=') + 1));
+			Assert.assertTrue(msg("Server-Timing delay " + delay),
+					delay >= suppliedLatency);
+
+			final byte[] body = readFully(connection.getInputStream());
+			logger.info(msg("received " + body.length + " bytes in "
+					+ TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos)
+					+ " ms:Server-Timing:" + serverTiming));
+			Assert.assertEquals(msg("body length"), suppliedSize, body.length);
+			for (int i = 0; i < body.length; ++i) {
+				if (body[i] != (byte) ('!' + (i % 94))) {
+					Assert.fail(msg("body[" + i + "]=" + body[i]));
+				}
+			}
+		} finally {
+			connection.disconnect();
+		}
+	}
+
+	/**
+	 * Test out of range and invalid parameters are rejected
+	 */
+	@Test
+	public void testBadRequest() throws Exception {
+		final String[] queries = { "size=-1", "size=" + (10L * 1024 * 1024 + 1),
+				"size=big", "latency=1001", "latency=soon" };
+		for (String query : queries) {
+			HttpURLConnection connection = openConnection(query);
+			try {
+				Assert.assertEquals(msg("status for " + query),
+						HttpURLConnection.HTTP_BAD_REQUEST,
+						connection.getResponseCode());
+			} finally {
+				connection.disconnect();
+			}
+		}
+	}
+
+	/**
+	 * Open GET connection to load servlet
+	 * 
+	 * @param query
+	 * @return connection
+	 * @throws Exception
+	 */
+	private HttpURLConnection openConnection(String query) throws Exception {
+		URL url = new URL("http", "localhost", server.getHttpPort(), "/load?"
+				+ query);
+		return (HttpURLConnection) url.openConnection();
+	}
+
+	/**
+	 * Read to end of stream
+	 * 
+	 * @param in
+	 * @return bytes
+	 * @throws Exception
+	 */
+	private byte[] readFully(InputStream in) throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		byte[] buffer = new byte[8192];
+		int read;
+		while ((read = in.read(buffer)) >= 0) {
+			bytes.write(buffer, 0, read);
+		}
+		in.close();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Helper adding parameters to message
+	 * 
+	 * @param msg
+	 * @return message
+	 */
+	private String msg(String msg) {
+		return "size=" + suppliedSize + ":latency=" + suppliedLatency
+				+ ":asyncSupported=" + suppliedAsyncSupported + ":" + msg;
+	}
+
+}
@@ -0,0 +1,120 @@
+package com.redblackit.web.server.mvc;
+
+import com.redblackit.version.CompositeVersionInfo;
+import com.redblackit.version.CompositeVersionInfoMap;
+import com.redblackit.version.ConcurrentCompositeVersionInfoMap;
+import com.redblackit.version.VersionInfoBinaryCodec;
+import org.junit.Assert;
+import org.junit.Test;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpInputMessage;
+import org.springframework.http.HttpOutputMessage;
+import org.springframework.http.converter.HttpMessageNotReadableException;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Round-trip tests for VersionInfoBinaryHttpMessageConverter
+ *
+ * @author Dominic North
+ */
+public class VersionInfoBinaryHttpMessageConverterTest {
+
+    private final VersionInfoBinaryHttpMessageConverter converter = new VersionInfoBinaryHttpMessageConverter();
+
+    /**
+     * Test supported classes and media type
+     */
+    @Test
+    public void testCanReadAndWrite() {
+        Assert.assertTrue("read CompositeVersionInfo",
+                          converter.canRead(CompositeVersionInfo.class, VersionInfoBinaryHttpMessageConverter.MEDIA_TYPE));
+        Assert.assertTrue("write CompositeVersionInfoMap",
+                          converter.canWrite(CompositeVersionInfoMap.class,
+                                             VersionInfoBinaryHttpMessageConverter.MEDIA_TYPE));
+        Assert.assertFalse("read String", converter.canRead(String.class,
+                                                            VersionInfoBinaryHttpMessageConverter.MEDIA_TYPE));
+    }
+
+    /**
+     * Test write sets headers and then reads back as each implementation
+     *
+     * @throws IOException
+     */
+    @Test
+    public void testWriteAndRead() throws IOException {
+        CompositeVersionInfoMap versionInfo = new CompositeVersionInfoMap();
+        versionInfo.setVersionForKeys("1.0", "implementation");
+        versionInfo.setVersionForKeys("2.1", "component", "implementation");
+
+        TestOutputMessage outputMessage = new TestOutputMessage();
+        converter.write(versionInfo, VersionInfoBinaryHttpMessageConverter.MEDIA_TYPE, outputMessage);
+        final byte[] content = outputMessage.body.toByteArray();
+        Assert.assertEquals("Content-Type", VersionInfoBinaryHttpMessageConverter.MEDIA_TYPE,
+                            outputMessage.getHeaders().getContentType());
+        Assert.assertEquals("Content-Length", content.length, outputMessage.getHeaders().getContentLength());
+        Assert.assertArrayEquals("content", VersionInfoBinaryCodec.encode(versionInfo), content);
+
+        Class<?>[] classes = {CompositeVersionInfo.class, CompositeVersionInfoMap.class,
+                ConcurrentCompositeVersionInfoMap.class, versionInfo.snapshot().getClass()};
+        for (Class<?> clazz : classes) {
+            CompositeVersionInfo read = converter.read(clazz.asSubclass(CompositeVersionInfo.class),
+                                                       new TestInputMessage(content));
+            Assert.assertTrue("instance of " + clazz + ":" + read.getClass(), clazz.isInstance(read));
+            Assert.assertEquals("read as " + clazz, versionInfo.getVersionMap(), read.getVersionMap());
+        }
+    }
+
+    /**
+     * Test invalid content is not readable
+     *
+     * @throws IOException
+     */
+    @Test(expected = HttpMessageNotReadableException.class)
+    public void testReadInvalid() throws IOException {
+        converter.read(CompositeVersionInfo.class, new TestInputMessage("{}".getBytes("UTF-8")));
+    }
+
+    /**
+     * Input message with given body
+     */
+    private static class TestInputMessage implements HttpInputMessage {
+
+        private final HttpHeaders headers = new HttpHeaders();
+        private final byte[] body;
+
+        TestInputMessage(byte[] body) {
+            this.body = body;
+            headers.setContentType(VersionInfoBinaryHttpMessageConverter.MEDIA_TYPE);
+        }
+
+        public InputStream getBody() throws IOException {
+            return new ByteArrayInputStream(body);
+        }
+
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+    }
+
+    /**
+     * Output message collecting body
+     */
+    private static class TestOutputMessage implements HttpOutputMessage {
+
+        private final HttpHeaders headers = new HttpHeaders();
+        private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+
+        public OutputStream getBody() throws IOException {
+            return body;
+        }
+
+        public HttpHeaders getHeaders() {
+            return headers;
+        }
+    }
+}